@@ -1,5 +1,13 @@
+import javafx.animation.Animation;
+import javafx.animation.AnimationTimer;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
 import javafx.application.Application;
-import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.collections.ObservableListBase;
+import javafx.collections.transformation.FilteredList;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.layout.HBox;
@@ -11,13 +19,21 @@ import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 import javafx.stage.WindowEvent;
+import javafx.util.Duration;
 import network.TftpClient;
-import network.TftpClientStatus;
+import network.TransferProgress;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Function;
 
 /**
  * client for TFTP
@@ -26,22 +42,74 @@ public class TftpClientApp extends Application {
     /**
      * app window width
      */
-    private static final double WINDOW_WIDTH = 400;
+    private static final double WINDOW_WIDTH = 640;
 
     /**
      * app window height
      */
-    private static final double WINDOW_HEIGHT = 600;
+    private static final double WINDOW_HEIGHT = 760;
 
     /**
-     * the max count of the log textarea count
+     * the max count of the log lines kept, the oldest is dropped first.
      */
-    public static final int MAX_LOG_TEXTAREA_WORD_COUNT = 50000;
+    public static final int MAX_LOG_LINES = 10000;
+
+    /**
+     * the interval to show the new log lines, in millisecond.
+     */
+    private static final long LOG_REFRESH_INTERVAL = 200;
+
+    /**
+     * the max count of the transfer names to choose in the filter.
+     */
+    private static final int MAX_FILTER_TRANSFERS = 50;
+
+    /**
+     * the text of the filter choosing all the transfers.
+     */
+    private static final String ALL_TRANSFERS = "All transfers";
+
+    /**
+     * the min interval to refresh the progress of the transfers, in nanosecond.
+     * checked every frame, so the table is refreshed at most once a frame.
+     */
+    private static final long PROGRESS_REFRESH_INTERVAL = 100_000_000L;
 
     /**
      * use to log.
      */
-    private TextArea logTextArea;
+    private ListView<LogLine> logListView;
+
+    /**
+     * the transfers queued, running and ended.
+     */
+    private TableView<TransferProgress> transferTable;
+
+    /**
+     * the ids of the transfers in the table.
+     */
+    private final Set<Long> transferIds = new HashSet<>();
+
+    /**
+     * the transfers changed state, told by the transfer threads and taken by the ui once a frame.
+     */
+    private final Queue<TransferProgress> transferEvents = new ConcurrentLinkedQueue<>();
+
+    private AnimationTimer transferTimer;
+
+    /**
+     * the log lines shown, the ring of the last MAX_LOG_LINES.
+     */
+    private final LogRing logRing = new LogRing(MAX_LOG_LINES);
+
+    /**
+     * the log lines by the level and transfer filter.
+     */
+    private FilteredList<LogLine> filteredLog;
+
+    private ChoiceBox<LogLevel> logLevelChoiceBox;
+
+    private ComboBox<String> logTransferComboBox;
 
     /**
      * server ip text field.
@@ -57,8 +125,16 @@ public class TftpClientApp extends Application {
 
     private Button downloadBtn;
 
+    private Button syncUpBtn;
+
+    private Button syncDownBtn;
+
     private Button chooseFolderBtn;
 
+    private Button cancelTransferBtn;
+
+    private Button clearTransfersBtn;
+
     private Stage stage;
 
     /**
@@ -66,17 +142,20 @@ public class TftpClientApp extends Application {
      */
     private TftpClient tftpClient;
 
-    private StringBuilder logBuffer = new StringBuilder();
-
-    private volatile Timer logTimer;
+    /**
+     * the log lines not shown yet, bounded as the ring, the oldest is dropped first.
+     */
+    private final ArrayDeque<LogLine> pendingLog = new ArrayDeque<>();
 
-    private volatile String logText = "";
+    private Timeline logTimeline;
 
     @Override
     public void start(Stage stage) throws Exception {
 
 
-        tftpClient = new TftpClient(this::printlnLogMsg, this::listenToClientStatus);
+        //the transfers run at the same time, every one is shown in the table not by the status.
+        tftpClient = new TftpClient(this::printlnLogMsg, status -> {});
+        tftpClient.setTransferListener(transferEvents::add);
         //when the window close, release the resources.
         stage.setOnCloseRequest(this::dispose);
 
@@ -84,7 +163,7 @@ public class TftpClientApp extends Application {
         VBox root = new VBox();
         root.setSpacing(5);
         //add all children panes.
-        root.getChildren().addAll(buildServerConfigPane(), buildBaseFileConfigPane(), buildControlBtnPane(), buildLogPane());
+        root.getChildren().addAll(buildServerConfigPane(), buildBaseFileConfigPane(), buildControlBtnPane(), buildTransferPane(), buildLogPane());
 
         stage.setTitle("XXX's TFTP Client");
         stage.setScene(new Scene(root, WINDOW_WIDTH, WINDOW_HEIGHT));
@@ -93,29 +172,12 @@ public class TftpClientApp extends Application {
         stage.show();
     }
 
-    /**
-     * listen to the status change
-     * @param status
-     */
-    private void listenToClientStatus(TftpClientStatus status){
-        switch (status){
-            case DEALING:
-                uploadBtn.setDisable(true);
-                downloadBtn.setDisable(true);
-                chooseFolderBtn.setDisable(true);
-                break;
-            case READY:
-                uploadBtn.setDisable(false);
-                downloadBtn.setDisable(false);
-                chooseFolderBtn.setDisable(false);
-                break;
-        }
-    }
-
     /**
      * release the resources.
      */
     private void dispose(WindowEvent event){
+        logTimeline.stop();
+        transferTimer.stop();
         try{
             tftpClient.dispose();
         }catch (Exception e){
@@ -125,41 +187,81 @@ public class TftpClientApp extends Application {
 
     /**
      * prinltn the log msg to ui.
+     * the line is only queued here, the ui takes the queued lines in batch every LOG_REFRESH_INTERVAL,
+     * so many msg at a short time do not slow down the application.
      * @param logMsg
      */
     private void printlnLogMsg(String logMsg){
-        addLog(logMsg);
-        //if many msg need to log at a short time, the application with be every slow,
-        //so use the timer to after 0.2s update the log.
-        if(logTimer == null){
-            logTimer = new Timer("logTimer", true);
-            logTimer.schedule(new TimerTask() {
-                @Override
-                public void run() {
-                    logText += getLogBufferStr();
-                    if(logText.length() > MAX_LOG_TEXTAREA_WORD_COUNT){
-                        logText = logText.substring(logText.length() - MAX_LOG_TEXTAREA_WORD_COUNT);
-                    }
-
-                    Platform.runLater(() ->{
-                        logTextArea.setText(logText);
-                        logTextArea.setScrollTop(Double.MAX_VALUE);
-                    });
-                    logTimer = null;
-                }
-            }, 200);
+        LogLine line = new LogLine(LogLevel.of(logMsg), TftpClient.getTransferName(), logMsg);
+        synchronized (pendingLog){
+            if(pendingLog.size() >= MAX_LOG_LINES){
+                pendingLog.pollFirst();
+            }
+            pendingLog.addLast(line);
         }
     }
 
-    private synchronized void addLog(String logMsg){
-        logBuffer.append(logMsg);
-        logBuffer.append("\n");
+    /**
+     * show the queued log lines, on the ui thread.
+     */
+    private void showPendingLog(){
+        List<LogLine> lines;
+        synchronized (pendingLog){
+            if(pendingLog.isEmpty()){
+                return;
+            }
+            lines = new ArrayList<>(pendingLog);
+            pendingLog.clear();
+        }
+
+        Set<String> transfers = new LinkedHashSet<>();
+        for (LogLine line : lines) {
+            if(line.transfer != null){
+                transfers.add(line.transfer);
+            }
+        }
+        transfers.forEach(this::addFilterTransfer);
+        //follow the end only when the last line is seen, so the user can read the older lines.
+        boolean follow = isLogAtEnd();
+        logRing.append(lines);
+        if(follow && !filteredLog.isEmpty()){
+            logListView.scrollTo(filteredLog.size() - 1);
+        }
     }
 
-    private synchronized String getLogBufferStr(){
-        String result = logBuffer.toString();
-        logBuffer.setLength(0);
-        return result;
+    /**
+     * check the last line of the log is visible.
+     */
+    private boolean isLogAtEnd(){
+        ScrollBar scrollBar = (ScrollBar) logListView.lookup(".scroll-bar:vertical");
+        return scrollBar == null || !scrollBar.isVisible() || scrollBar.getValue() >= scrollBar.getMax();
+    }
+
+    /**
+     * add the transfer to the choices of the filter, the oldest is removed over MAX_FILTER_TRANSFERS.
+     */
+    private void addFilterTransfer(String transfer){
+        ObservableList<String> items = logTransferComboBox.getItems();
+        if(items.contains(transfer)){
+            return;
+        }
+
+        //the choice of all the transfers at the head is not a transfer, keep it.
+        if(items.size() - 1 >= MAX_FILTER_TRANSFERS){
+            items.remove(1);
+        }
+        items.add(transfer);
+    }
+
+    /**
+     * filter the log by the level and transfer chosen.
+     */
+    private void updateLogFilter(){
+        LogLevel level = logLevelChoiceBox.getValue();
+        String transfer = logTransferComboBox.getValue();
+        boolean allTransfers = isStringEmpty(transfer) || ALL_TRANSFERS.equals(transfer);
+        filteredLog.setPredicate(line -> line.level.ordinal() >= level.ordinal()
+                && (allTransfers || (line.transfer != null && line.transfer.contains(transfer))));
     }
 
     /**
@@ -178,14 +280,23 @@ public class TftpClientApp extends Application {
                 return;
             }
 
-            //choose the file to upload.
+            //choose the files to upload.
             FileChooser fileChooser = getFileChooserWithBaseDir();
-            File file = fileChooser.showOpenDialog(stage);
-            if(file == null){
+            List<File> files = fileChooser.showOpenMultipleDialog(stage);
+            if(files == null || files.isEmpty()){
                 showMsg("Please choose file!");
                 return;
             }
 
+            //the files upload at the same time, every one with its own name.
+            if(files.size() > 1){
+                for (File file : files) {
+                    tftpClient.upLoadFileAsyn(serverIp, file, file.getName());
+                }
+                return;
+            }
+
+            File file = files.get(0);
             //get the remote file name.
             String fileName = getInputFileName();
             if(isStringEmpty(fileName)){
@@ -235,10 +346,58 @@ public class TftpClientApp extends Application {
             tftpClient.downloadFileAsyn(serverIp, file, fileName);
         });
 
+        syncUpBtn = new Button("Sync Up");
+        syncUpBtn.setOnAction(event -> {
+            String serverIp = checkAndGetIpInput();
+            if(serverIp == null){
+                return;
+            }
+
+            //choose the folder to upload.
+            File folder = getDirectoryChooserWithBaseDir().showDialog(stage);
+            if(folder == null){
+                showMsg("Please choose folder!");
+                return;
+            }
+
+            String remoteFolder = getInputRemoteFolder();
+            if(remoteFolder == null){
+                return;
+            }
+            tftpClient.syncUpAsyn(serverIp, folder, remoteFolder);
+        });
+
+        syncDownBtn = new Button("Sync Down");
+        syncDownBtn.setOnAction(event -> {
+            String serverIp = checkAndGetIpInput();
+            if(serverIp == null){
+                return;
+            }
+
+            String remoteFolder = getInputRemoteFolder();
+            if(remoteFolder == null){
+                return;
+            }
+
+            //choose the folder to download into.
+            File folder = getDirectoryChooserWithBaseDir().showDialog(stage);
+            if(folder == null){
+                showMsg("Please choose folder!");
+                return;
+            }
+            tftpClient.syncDownAsyn(serverIp, folder, remoteFolder);
+        });
+
+
 
 
+        cancelTransferBtn = new Button("Cancel");
+        cancelTransferBtn.setOnAction(event -> cancelSelectedTransfer());
 
-        pane.getChildren().addAll(uploadBtn, downloadBtn);
+        clearTransfersBtn = new Button("Clear Finished");
+        clearTransfersBtn.setOnAction(event -> clearEndedTransfers());
+
+        pane.getChildren().addAll(uploadBtn, downloadBtn, syncUpBtn, syncDownBtn, cancelTransferBtn, clearTransfersBtn);
         return pane;
     }
 
@@ -262,6 +421,33 @@ public class TftpClientApp extends Application {
         return textInputDialog.showAndWait().orElse("");
     }
 
+    /**
+     * get the use input folder of server, "" is the root.
+     * @return null if cancelled.
+     */
+    private String getInputRemoteFolder() {
+        TextInputDialog textInputDialog = new TextInputDialog("");
+        textInputDialog.setTitle("Remote folder?");
+        textInputDialog.setHeaderText("Remote folder? Empty for the root, '/' for the sub folder.");
+        textInputDialog.setContentText("Enter remote folder: ");
+        return textInputDialog.showAndWait().orElse(null);
+    }
+
+    /**
+     * init the directoryChooser with init dir.
+     */
+    private DirectoryChooser getDirectoryChooserWithBaseDir(){
+        DirectoryChooser directoryChooser = new DirectoryChooser();
+
+        String baseFileDir = baseFolderTextField.getText();
+        if(baseFileDir.length() == 0){
+            return directoryChooser;
+        }
+
+        directoryChooser.setInitialDirectory(new File(baseFileDir));
+        return directoryChooser;
+    }
+
     /**
      * init the fileChooser with init dir.
      */
@@ -364,8 +550,179 @@ public class TftpClientApp extends Application {
         return pane;
     }
 
+    /**
+     * build the pane of the transfers, every transfer a row.
+     * the transfer threads only queue the state changes, the table is refreshed once a frame at most,
+     * so many fast transfers do not flood the ui thread.
+     *
+     * @return transfer pane.
+     */
+    private Pane buildTransferPane() {
+        VBox pane = new VBox();
+        pane.setSpacing(5);
+
+        Label title = new Label("Transfers:");
+
+        transferTable = new TableView<>();
+        transferTable.setPrefWidth(WINDOW_WIDTH);
+        transferTable.setPrefHeight(WINDOW_HEIGHT / 3);
+        transferTable.setPlaceholder(new Label("No transfer"));
+        transferTable.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY);
+
+        TableColumn<TransferProgress, Double> progressColumn = new TableColumn<>("Progress");
+        progressColumn.setCellValueFactory(data -> new ReadOnlyObjectWrapper<>(getProgressValue(data.getValue())));
+        progressColumn.setCellFactory(column -> new TableCell<TransferProgress, Double>(){
+            private final ProgressBar progressBar = new ProgressBar();
+
+            @Override
+            protected void updateItem(Double fraction, boolean empty) {
+                super.updateItem(fraction, empty);
+                if(empty || fraction == null){
+                    setGraphic(null);
+                    return;
+                }
+
+                progressBar.setProgress(fraction);
+                setGraphic(progressBar);
+            }
+        });
+        progressColumn.setPrefWidth(110);
+
+        transferTable.getColumns().add(buildTransferColumn("Name", 150, TransferProgress::getName));
+        transferTable.getColumns().add(buildTransferColumn("Server", 90, TransferProgress::getServerIp));
+        transferTable.getColumns().add(progressColumn);
+        transferTable.getColumns().add(buildTransferColumn("Rate", 80, progress -> formatBytes(progress.getRate()) + "/s"));
+        transferTable.getColumns().add(buildTransferColumn("ETA", 50, progress -> formatTime(progress.getRemainingTime())));
+        transferTable.getColumns().add(buildTransferColumn("Retrans", 50, progress -> String.valueOf(progress.getRetransmits())));
+        transferTable.getColumns().add(buildTransferColumn("State", 70, progress -> progress.getState() == TransferProgress.State.FAILED
+                ? "FAILED:" + progress.getError() : progress.getState().toString()));
+
+        //the frame pulse of the ui thread.
+        transferTimer = new AnimationTimer() {
+            private long lastRefresh;
+
+            @Override
+            public void handle(long now) {
+                boolean changed = takeTransferEvents();
+                if(!changed && (now - lastRefresh < PROGRESS_REFRESH_INTERVAL || !hasRunningTransfer())){
+                    return;
+                }
+
+                lastRefresh = now;
+                transferTable.refresh();
+            }
+        };
+        transferTimer.start();
+
+        pane.getChildren().addAll(title, transferTable);
+        return pane;
+    }
+
+    /**
+     * build a column of text of the transfer table.
+     */
+    private TableColumn<TransferProgress, String> buildTransferColumn(String name, double width, Function<TransferProgress, String> value) {
+        TableColumn<TransferProgress, String> column = new TableColumn<>(name);
+        column.setCellValueFactory(data -> new ReadOnlyObjectWrapper<>(value.apply(data.getValue())));
+        column.setPrefWidth(width);
+        column.setSortable(false);
+        return column;
+    }
+
+    /**
+     * add the transfers queued since the last frame to the table.
+     * @return true if any transfer changed.
+     */
+    private boolean takeTransferEvents() {
+        boolean changed = false;
+        TransferProgress progress;
+        while((progress = transferEvents.poll()) != null){
+            changed = true;
+            if(transferIds.add(progress.getId())){
+                transferTable.getItems().add(progress);
+            }
+        }
+        return changed;
+    }
+
+    private boolean hasRunningTransfer() {
+        for (TransferProgress progress : transferTable.getItems()) {
+            if(progress.getState() == TransferProgress.State.RUNNING){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * cancel the transfer selected in the table, the server is told to stop.
+     */
+    private void cancelSelectedTransfer() {
+        TransferProgress progress = transferTable.getSelectionModel().getSelectedItem();
+        if(progress == null){
+            showMsg("Please choose transfer!");
+            return;
+        }
+
+        TransferProgress.State state = progress.getState();
+        if(state == TransferProgress.State.QUEUED || state == TransferProgress.State.RUNNING){
+            tftpClient.cancelTransfer(progress);
+        }
+    }
+
+    /**
+     * remove the finished and failed transfers from the table.
+     */
+    private void clearEndedTransfers() {
+        transferTable.getItems().removeIf(progress -> {
+            TransferProgress.State state = progress.getState();
+            boolean ended = state == TransferProgress.State.FINISHED || state == TransferProgress.State.FAILED;
+            if(ended){
+                transferIds.remove(progress.getId());
+            }
+            return ended;
+        });
+    }
+
+    /**
+     * get the value of the progress bar, indeterminate when running with the size unknown.
+     */
+    private static double getProgressValue(TransferProgress progress) {
+        double fraction = progress.getFraction();
+        if(fraction >= 0){
+            return fraction;
+        }
+        return progress.getState() == TransferProgress.State.RUNNING ? ProgressBar.INDETERMINATE_PROGRESS : 0;
+    }
+
+    /**
+     * format the byte count as "1.5 MB".
+     */
+    private static String formatBytes(double bytes) {
+        String[] units = {"B", "KB", "MB", "GB"};
+        int unit = 0;
+        while(bytes >= 1024 && unit < units.length - 1){
+            bytes /= 1024;
+            ++unit;
+        }
+        return String.format("%.1f %s", bytes, units[unit]);
+    }
+
+    /**
+     * format the time as "1:05", "-" if unknown.
+     * @param millis in millisecond.
+     */
+    private static String formatTime(long millis) {
+        if(millis < 0){
+            return "-";
+        }
+        long seconds = (millis + 999) / 1000;
+        return String.format("%d:%02d", seconds / 60, seconds % 60);
+    }
+
     /**
      * build the log pane.
+     * the list view only lays out the visible lines, so adding lines costs the same however long the log is.
      *
      * @return log pane.
      */
@@ -373,20 +730,172 @@ public class TftpClientApp extends Application {
         VBox pane = new VBox();
         pane.setSpacing(5);
 
-        //the log tile.
+        //the log tile and the filter.
+        HBox titlePane = new HBox();
+        titlePane.setSpacing(5);
         Label title = new Label("Log:");
 
-        logTextArea = new TextArea();
+        logLevelChoiceBox = new ChoiceBox<>(FXCollections.observableArrayList(LogLevel.values()));
+        logLevelChoiceBox.setValue(LogLevel.INFO);
+        logLevelChoiceBox.valueProperty().addListener(e -> updateLogFilter());
+
+        logTransferComboBox = new ComboBox<>(FXCollections.observableArrayList(ALL_TRANSFERS));
+        //also accept the part of a name typed in.
+        logTransferComboBox.setEditable(true);
+        logTransferComboBox.setValue(ALL_TRANSFERS);
+        logTransferComboBox.setPrefWidth(WINDOW_WIDTH - 150);
+        logTransferComboBox.valueProperty().addListener(e -> updateLogFilter());
+        titlePane.getChildren().addAll(title, logLevelChoiceBox, logTransferComboBox);
+
+        filteredLog = new FilteredList<>(logRing);
+        logListView = new ListView<>(filteredLog);
         //fill the remain blank.
-        logTextArea.setPrefWidth(WINDOW_WIDTH);
-        logTextArea.setPrefHeight(WINDOW_HEIGHT);
-        //if the line becomes too long to fit, the line is wrapped on a word boundary.
-        logTextArea.setWrapText(true);
+        logListView.setPrefWidth(WINDOW_WIDTH);
+        logListView.setPrefHeight(WINDOW_HEIGHT / 2);
+        logListView.setCellFactory(view -> new ListCell<LogLine>(){
+            @Override
+            protected void updateItem(LogLine line, boolean empty) {
+                super.updateItem(line, empty);
+                if(empty || line == null){
+                    setText(null);
+                    setStyle(null);
+                    return;
+                }
+
+                setText(line.text);
+                setStyle(line.level.style);
+            }
+        });
+
+        //show the new lines in batch, on the ui thread.
+        logTimeline = new Timeline(new KeyFrame(Duration.millis(LOG_REFRESH_INTERVAL), e -> showPendingLog()));
+        logTimeline.setCycleCount(Animation.INDEFINITE);
+        logTimeline.play();
 
-        pane.getChildren().addAll(title, logTextArea);
+        pane.getChildren().addAll(titlePane, logListView);
         return pane;
     }
 
+    /**
+     * the level of a log line.
+     */
+    private enum LogLevel {
+        INFO(null),
+        WARN("-fx-text-fill: darkorange;"),
+        ERROR("-fx-text-fill: red;");
+
+        /**
+         * the style of the line in the list.
+         */
+        private final String style;
+
+        LogLevel(String style) {
+            this.style = style;
+        }
+
+        /**
+         * get the level of the log msg by its text, the client logs the text only.
+         */
+        private static LogLevel of(String logMsg) {
+            //the transfer failed.
+            if(logMsg.contains(":err:")){
+                return ERROR;
+            }
+            if(logMsg.contains("err") || logMsg.contains("time out") || logMsg.contains("refused") || logMsg.contains("stalled")){
+                return WARN;
+            }
+            return INFO;
+        }
+    }
+
+    /**
+     * a line of the log.
+     */
+    private static class LogLine {
+
+        private final LogLevel level;
+
+        /**
+         * the transfer logging the line, null if not in a transfer.
+         */
+        private final String transfer;
+
+        private final String text;
+
+        private LogLine(LogLevel level, String transfer, String text) {
+            this.level = level;
+            this.transfer = transfer;
+            this.text = text;
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+    /**
+     * the last log lines in a ring, the oldest is overwritten when full.
+     * the change is told to the list view as the lines added at the end and removed from the head.
+     */
+    private static class LogRing extends ObservableListBase<LogLine> {
+
+        private final LogLine[] lines;
+
+        /**
+         * the index of the oldest line in the array.
+         */
+        private int head;
+
+        private int size;
+
+        private LogRing(int capacity) {
+            lines = new LogLine[capacity];
+        }
+
+        @Override
+        public LogLine get(int index) {
+            if(index < 0 || index >= size){
+                throw new IndexOutOfBoundsException("index:" + index + ", size:" + size);
+            }
+            return lines[(head + index) % lines.length];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        /**
+         * add the lines at the end, the oldest are removed over the capacity.
+         */
+        private void append(List<LogLine> added) {
+            //only the last ones fit.
+            int from = Math.max(0, added.size() - lines.length);
+            int count = added.size() - from;
+            int removeCount = Math.max(0, size + count - lines.length);
+
+            beginChange();
+            if(removeCount > 0){
+                List<LogLine> removed = new ArrayList<>(removeCount);
+                for (int i = 0; i < removeCount; i++) {
+                    removed.add(lines[(head + i) % lines.length]);
+                    lines[(head + i) % lines.length] = null;
+                }
+                head = (head + removeCount) % lines.length;
+                size -= removeCount;
+                nextRemove(0, removed);
+            }
+
+            for (int i = from; i < added.size(); i++) {
+                lines[(head + size) % lines.length] = added.get(i);
+                ++size;
+            }
+            nextAdd(size - count, size);
+            endChange();
+        }
+    }
+
     public static void main(String[] args) {
         //start the app.
         launch(args);
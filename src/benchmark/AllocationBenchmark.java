@@ -0,0 +1,176 @@
+package benchmark;
+
+import network.TftpClient;
+import network.TransferProgress;
+import network.local.LocalTftpResponder;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * the bytes the client allocates for every MB transferred, in the steady state of a large upload and download
+ * over the loopback. counted by the allocation counters of the client threads, the responder is not counted.
+ * the process exits with 1 if the allocation is over the budget, so a regression fails the build instead of
+ * showing up as the GC pauses.
+ *
+ * run: java benchmark.AllocationBenchmark [fileSizeMB] [rounds]
+ */
+public class AllocationBenchmark {
+
+    private static final int DEFAULT_FILE_SIZE_MB = 64;
+
+    private static final int DEFAULT_ROUNDS = 3;
+
+    /**
+     * the budgets of the allocation, in byte per MB transferred.
+     */
+    private static final long UPLOAD_BUDGET = 64 * 1024;
+
+    private static final long DOWNLOAD_BUDGET = 64 * 1024;
+
+    private static final int WINDOW_SIZE = 16;
+
+    /**
+     * the block size fits the ethernet MTU.
+     */
+    private static final int BLOCK_SIZE = 1428;
+
+    /**
+     * the name of the timer thread of the client.
+     */
+    private static final String TIMER_THREAD_NAME = "tftpTimer";
+
+    private static final long TRANSFER_TIMEOUT = 120;
+
+    public static void main(String[] args) throws Exception {
+        int fileSizeMb = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_FILE_SIZE_MB;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ROUNDS;
+        if(!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)){
+            System.out.println("the allocation counters are not supported by the JVM");
+            return;
+        }
+
+        File root = Files.createTempDirectory("tftpAlloc").toFile();
+        File serverDir = new File(root, "server");
+        File localDir = new File(root, "local");
+        serverDir.mkdirs();
+        localDir.mkdirs();
+        byte[] data = new byte[fileSizeMb * 1024 * 1024];
+        new Random(1).nextBytes(data);
+        Files.write(new File(serverDir, "big.bin").toPath(), data);
+        File uploadFile = new File(localDir, "big.bin");
+        Files.write(uploadFile.toPath(), data);
+        data = null;
+
+        LocalTftpResponder responder = new LocalTftpResponder(serverDir, InetAddress.getLoopbackAddress(), 0);
+        responder.start();
+        AtomicReference<CountDownLatch> ended = new AtomicReference<>();
+        AtomicReference<String> error = new AtomicReference<>();
+        TftpClient client = new TftpClient(line -> {}, status -> {});
+        client.getConfig().setServerPort(responder.getPort());
+        client.getConfig().setWindowSize(WINDOW_SIZE);
+        client.getConfig().setBlockSize(BLOCK_SIZE);
+        client.setTransferListener(progress -> {
+            if(progress.getState() == TransferProgress.State.FAILED){
+                error.set(String.valueOf(progress.getError()));
+            }
+            if(progress.getState() == TransferProgress.State.FINISHED || progress.getState() == TransferProgress.State.FAILED){
+                ended.get().countDown();
+            }
+        });
+
+        System.out.println(String.format("fileSize:%sMB, rounds:%s, windowSize:%s, blockSize:%s", fileSizeMb, rounds, WINDOW_SIZE, BLOCK_SIZE));
+        String serverIp = "127.0.0.1";
+        File downloadFile = new File(localDir, "down.bin");
+        long uploadBest = Long.MAX_VALUE;
+        long downloadBest = Long.MAX_VALUE;
+        boolean ok = true;
+        try{
+            //the first round warms up the JIT and the threads of the pool.
+            for (int round = 0; round <= rounds; round++) {
+                long upload = measure(ended, error, () -> client.upLoadFileAsyn(serverIp, uploadFile, "up.bin")) / fileSizeMb;
+                long download = measure(ended, error, () -> client.downloadFileAsyn(serverIp, downloadFile, "big.bin")) / fileSizeMb;
+                if(downloadFile.length() != uploadFile.length()){
+                    throw new IllegalStateException("Download size " + downloadFile.length() + ", expect " + uploadFile.length());
+                }
+                System.out.println(String.format("%s upload:%8s B/MB, download:%8s B/MB", round == 0 ? "warm up" : "round " + round, upload, download));
+                if(round > 0){
+                    uploadBest = Math.min(uploadBest, upload);
+                    downloadBest = Math.min(downloadBest, download);
+                }
+            }
+
+            ok &= check("upload", uploadBest, UPLOAD_BUDGET);
+            ok &= check("download", downloadBest, DOWNLOAD_BUDGET);
+        }finally {
+            client.dispose();
+            responder.close();
+            for (File file : new File[]{uploadFile, downloadFile, new File(serverDir, "big.bin"), new File(serverDir, "up.bin"), serverDir, localDir, root}) {
+                file.delete();
+            }
+        }
+        if(!ok){
+            System.exit(1);
+        }
+    }
+
+    /**
+     * the best round is checked, a GC or a time out in one round does not fail the budget.
+     */
+    private static boolean check(String name, long bytesPerMb, long budget) {
+        boolean ok = bytesPerMb <= budget;
+        System.out.println(String.format("%s %s B/MB, budget %s B/MB: %s", name, bytesPerMb, budget, ok ? "PASS" : "FAIL"));
+        return ok;
+    }
+
+    /**
+     * run one transfer and wait for it to end.
+     * @return the bytes allocated by the client threads.
+     */
+    private static long measure(AtomicReference<CountDownLatch> ended, AtomicReference<String> error, Runnable transfer) throws InterruptedException {
+        ended.set(new CountDownLatch(1));
+        Map<Long, Long> before = allocatedBytes();
+        transfer.run();
+        if(!ended.get().await(TRANSFER_TIMEOUT, TimeUnit.SECONDS)){
+            throw new IllegalStateException("Transfer not ended in " + TRANSFER_TIMEOUT + "s");
+        }
+        if(error.get() != null){
+            throw new IllegalStateException("Transfer failed:" + error.get());
+        }
+        Map<Long, Long> after = allocatedBytes();
+
+        long total = 0;
+        for (Map.Entry<Long, Long> entry : after.entrySet()) {
+            total += entry.getValue() - before.getOrDefault(entry.getKey(), 0L);
+        }
+        return total;
+    }
+
+    /**
+     * get the bytes allocated by every client thread so far, key is the thread id.
+     * a thread ended between two calls is not counted, the pool keeps the idle threads for a minute.
+     */
+    private static Map<Long, Long> allocatedBytes() {
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Map<Long, Long> bytes = new HashMap<>();
+        for (ThreadInfo info : threadBean.getThreadInfo(threadBean.getAllThreadIds())) {
+            if(info == null || !(info.getThreadName().startsWith(TftpClient.THREAD_NAME_PREFIX) || info.getThreadName().equals(TIMER_THREAD_NAME))){
+                continue;
+            }
+            long allocated = threadBean.getThreadAllocatedBytes(info.getThreadId());
+            if(allocated >= 0){
+                bytes.put(info.getThreadId(), allocated);
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,112 @@
+package benchmark;
+
+/**
+ * compare the retransmission and windowing strategies of the protocol machines on the simulated network.
+ * every strategy runs the same transfers (the same seeds) at every loss rate, deterministic from run to run.
+ * the time is the simulated time the receiver takes to get all the data.
+ *
+ * run: java benchmark.ProtocolSimulationBenchmark [transfers] [fileSize]
+ */
+public class ProtocolSimulationBenchmark {
+
+    /**
+     * the transfers of every strategy at every loss rate, 100k by default.
+     */
+    private static final int DEFAULT_TRANSFERS = 100000;
+
+    private static final int DEFAULT_FILE_SIZE = 32 * 1024;
+
+    /**
+     * the block size fits the ethernet MTU.
+     */
+    private static final int BLOCK_SIZE = 1428;
+
+    /**
+     * the one way delay, in microsecond.
+     */
+    private static final long LATENCY = 10000;
+
+    private static final long JITTER = 2000;
+
+    /**
+     * the chance a packet passes the packets before it.
+     */
+    private static final double REORDER = 0.001;
+
+    /**
+     * 100 Mbit/s.
+     */
+    private static final long BANDWIDTH = 12500000;
+
+    /**
+     * the time out learned of the RTT, in millisecond.
+     */
+    private static final int TIMEOUT = 200;
+
+    /**
+     * the time outs in a row before fails, the same total wait as the client.
+     */
+    private static final int MAX_RETRIES = 4 * 5000 / TIMEOUT;
+
+    private static final long DALLY_TIME = 3000000;
+
+    private static final double[] LOSS_RATES = {0.001, 0.01, 0.05};
+
+    /**
+     * window size, fast retransmit, dally.
+     */
+    private static final Object[][] STRATEGIES = {
+            {1, false, true},
+            {8, false, true},
+            {8, true, true},
+            {16, true, true},
+            {8, true, false},
+    };
+
+    public static void main(String[] args) throws Exception {
+        int transfers = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_TRANSFERS;
+        long fileSize = args.length > 1 ? Long.parseLong(args[1]) : DEFAULT_FILE_SIZE;
+        System.out.println(String.format("transfers:%s, fileSize:%s, blockSize:%s, latency:%sms, jitter:%sms, reorder:%.1f%%, bandwidth:%sMbit/s, timeout:%sms",
+                transfers, fileSize, BLOCK_SIZE, LATENCY / 1000, JITTER / 1000, REORDER * 100, BANDWIDTH * 8 / 1000000, TIMEOUT));
+
+        long totalTransfers = 0;
+        long totalEvents = 0;
+        long start = System.nanoTime();
+        for (double loss : LOSS_RATES) {
+            System.out.println(String.format("loss:%.1f%%", loss * 100));
+            for (Object[] strategy : STRATEGIES) {
+                int windowSize = (Integer) strategy[0];
+                boolean fastRetransmit = (Boolean) strategy[1];
+                boolean dally = (Boolean) strategy[2];
+                SimulatedTransfer.Result result = run(transfers, fileSize, loss, windowSize, fastRetransmit, dally);
+                report(String.format("window:%s%s%s", windowSize, fastRetransmit ? " fast" : "", dally ? "" : " no dally"), result);
+                totalTransfers += result.getTransfers();
+                totalEvents += result.getEvents();
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        System.out.println(String.format("simulated %s transfers, %s events in %sms, %.0f transfers/s",
+                totalTransfers, totalEvents, nanos / 1000000, totalTransfers * 1e9 / nanos));
+    }
+
+    private static SimulatedTransfer.Result run(int transfers, long fileSize, double loss, int windowSize,
+                                                boolean fastRetransmit, boolean dally) throws Exception {
+        SimulatedTransfer.Result result = new SimulatedTransfer.Result();
+        for (int i = 0; i < transfers; i++) {
+            SimulatedTransfer transfer = new SimulatedTransfer(new SimulatedTransfer.Link(LATENCY, JITTER, loss, REORDER, BANDWIDTH),
+                    new SimulatedTransfer.Link(LATENCY, JITTER, loss, REORDER, BANDWIDTH), windowSize, BLOCK_SIZE, fastRetransmit,
+                    TIMEOUT * 1000L, MAX_RETRIES, dally ? DALLY_TIME : 0, i, result);
+            transfer.run(fileSize);
+        }
+        return result;
+    }
+
+    private static void report(String name, SimulatedTransfer.Result result) {
+        long transfers = result.getTransfers();
+        System.out.println(String.format("  %-22s failed:%s, mean:%7.1fms, p99:%7.1fms, data/transfer:%6.1f, retransmit:%5.2f%%, fast:%s, time outs:%s, server retries after end:%s, dally reacks:%s, server failures:%s",
+                name, result.getFailures(), result.getMeanCompletionTime() / 1000, result.getCompletionTime(0.99) / 1000.0,
+                (double) result.getDataPackets() / transfers, result.getDataRetransmits() * 100.0 / result.getDataPackets(),
+                result.getFastRetransmits(), result.getTimeouts(), result.getRetriesAfterEnd(), result.getDallyReacks(),
+                result.getSenderFailures()));
+    }
+}
@@ -0,0 +1,688 @@
+package benchmark;
+
+import network.protocol.ReceiverMachine;
+import network.protocol.SendWindow;
+import network.protocol.SenderMachine;
+import utils.DataUtils;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * the transfer between the sender machine and the receiver machine on a simulated network, in simulated time.
+ * the events (packet arrival, timer expiry) run in the time order by a discrete event loop, no socket, no sleep,
+ * so a transfer of seconds runs in microseconds. the same seed runs the same transfer.
+ *
+ * the flow is the download of RFC 7440: the sender (server) sends the OACK, the receiver (client) acknowledges it
+ * with block 0, then the blocks go. the link of each direction has the latency, the jitter, the loss and the
+ * bandwidth. the link keeps the order of the packets unless the reorder chance is set.
+ */
+public class SimulatedTransfer {
+
+    /**
+     * the IP and UDP header of every packet.
+     */
+    private static final int HEADER_LENGTH = 28;
+
+    /**
+     * the opcode and the block number.
+     */
+    private static final int TFTP_HEADER_LENGTH = 4;
+
+    private static final int OACK_LENGTH = 32;
+
+    private static final int EVENT_DATA = 0;
+
+    private static final int EVENT_ACK = 1;
+
+    private static final int EVENT_OACK = 2;
+
+    private static final int EVENT_SENDER_TIMER = 3;
+
+    private static final int EVENT_RECEIVER_TIMER = 4;
+
+    /**
+     * one direction of the network.
+     */
+    public static class Link {
+
+        private final long latency;
+
+        private final long jitter;
+
+        private final double loss;
+
+        /**
+         * byte per second.
+         */
+        private final long bandwidth;
+
+        /**
+         * the chance a packet may pass the packets before it, 0 ~ 1.
+         */
+        private final double reorder;
+
+        /**
+         * the time the link finishes sending the packets queued, in microsecond.
+         */
+        private long busyUntil;
+
+        /**
+         * the arrival time of the last packet, in microsecond.
+         */
+        private long lastArrival;
+
+        /**
+         * @param latency the one way delay, in microsecond.
+         * @param jitter the max extra delay, in microsecond.
+         * @param loss the chance a packet is lost, 0 ~ 1.
+         * @param reorder the chance a packet may pass the packets before it, 0 ~ 1.
+         * @param bandwidth byte per second.
+         */
+        public Link(long latency, long jitter, double loss, double reorder, long bandwidth) {
+            if(bandwidth <= 0){
+                throw new IllegalArgumentException("bandwidth must be positive:" + bandwidth);
+            }
+            this.latency = latency;
+            this.jitter = jitter;
+            this.loss = loss;
+            this.reorder = reorder;
+            this.bandwidth = bandwidth;
+        }
+
+        private void reset() {
+            busyUntil = 0;
+            lastArrival = 0;
+        }
+
+        /**
+         * get the arrival time of the packet sent now, -1 if lost.
+         */
+        private long send(long now, int length, SplittableRandom random) {
+            busyUntil = Math.max(now, busyUntil) + (length + HEADER_LENGTH) * 1000000L / bandwidth;
+            if(loss > 0 && random.nextDouble() < loss){
+                return -1;
+            }
+            long arrival = busyUntil + latency + (jitter > 0 ? random.nextLong(jitter + 1) : 0);
+            if(reorder > 0 && random.nextDouble() < reorder){
+                return arrival;
+            }
+            lastArrival = Math.max(lastArrival, arrival);
+            return lastArrival;
+        }
+    }
+
+    /**
+     * the counters of the transfers run.
+     */
+    public static class Result {
+
+        private long transfers;
+
+        private long failures;
+
+        /**
+         * the sender gives up after the receiver has all the data, the final ACK is lost and not sent again.
+         */
+        private long senderFailures;
+
+        private long[] completionTimes = new long[1024];
+
+        private long dataPackets;
+
+        private long dataRetransmits;
+
+        private long ackPackets;
+
+        private long timeouts;
+
+        private long fastRetransmits;
+
+        /**
+         * the final DATA sent again after the receiver has all the data.
+         */
+        private long retriesAfterEnd;
+
+        private long dallyReacks;
+
+        private long events;
+
+        public long getTransfers() {
+            return transfers;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        public long getSenderFailures() {
+            return senderFailures;
+        }
+
+        public long getDataPackets() {
+            return dataPackets;
+        }
+
+        public long getDataRetransmits() {
+            return dataRetransmits;
+        }
+
+        public long getAckPackets() {
+            return ackPackets;
+        }
+
+        public long getTimeouts() {
+            return timeouts;
+        }
+
+        public long getFastRetransmits() {
+            return fastRetransmits;
+        }
+
+        public long getRetriesAfterEnd() {
+            return retriesAfterEnd;
+        }
+
+        public long getDallyReacks() {
+            return dallyReacks;
+        }
+
+        public long getEvents() {
+            return events;
+        }
+
+        /**
+         * get the mean time the receiver takes to get all the data, in microsecond.
+         */
+        public double getMeanCompletionTime() {
+            long completed = transfers - failures;
+            if(completed == 0){
+                return 0;
+            }
+            long sum = 0;
+            for (int i = 0; i < completed; i++) {
+                sum += completionTimes[i];
+            }
+            return (double) sum / completed;
+        }
+
+        /**
+         * get the percentile of the time the receiver takes to get all the data, in microsecond.
+         * @param percentile 0 ~ 1.
+         */
+        public long getCompletionTime(double percentile) {
+            int completed = (int) (transfers - failures);
+            if(completed == 0){
+                return 0;
+            }
+            long[] sorted = Arrays.copyOf(completionTimes, completed);
+            Arrays.sort(sorted);
+            return sorted[Math.min(completed - 1, (int) (percentile * completed))];
+        }
+
+        private void addCompletionTime(long time) {
+            int index = (int) (transfers - failures - 1);
+            if(index >= completionTimes.length){
+                completionTimes = Arrays.copyOf(completionTimes, completionTimes.length * 2);
+            }
+            completionTimes[index] = time;
+        }
+    }
+
+    private final Link toReceiver;
+
+    private final Link toSender;
+
+    private final int windowSize;
+
+    private final int blockSize;
+
+    private final boolean fastRetransmit;
+
+    /**
+     * the time out of both sides, in microsecond.
+     */
+    private final long timeout;
+
+    private final int maxRetries;
+
+    /**
+     * the time the receiver answers the final DATA after the end, in microsecond. 0 is not to dally.
+     */
+    private final long dallyTime;
+
+    private final SplittableRandom random;
+
+    private final EventQueue queue = new EventQueue();
+
+    private final Result result;
+
+    private long now;
+
+    private SenderMachine sender;
+
+    private ReceiverMachine receiver;
+
+    private SimulatedWindow window;
+
+    /**
+     * the sender got the ACK of the options and runs the machine.
+     */
+    private boolean senderStarted;
+
+    /**
+     * the OACK sent in a row without the ACK.
+     */
+    private int oackRetries;
+
+    private boolean senderFailed;
+
+    private boolean receiverOpened;
+
+    private long receiverEndTime;
+
+    private int senderTimerId;
+
+    private int receiverTimerId;
+
+    /**
+     * @param toReceiver the link of the DATA.
+     * @param toSender the link of the ACK.
+     * @param windowSize the blocks of a window.
+     * @param blockSize the byte count of data in a full block.
+     * @param fastRetransmit the sender sends again at once when the ACKs show a block is lost.
+     * @param timeout the time out of both sides, in microsecond.
+     * @param maxRetries the time outs in a row before a side fails.
+     * @param dallyTime the time the receiver answers the final DATA after the end, in microsecond. 0 is not to dally.
+     * @param seed the seed of the loss and the jitter.
+     * @param result add the counters to it.
+     */
+    public SimulatedTransfer(Link toReceiver, Link toSender, int windowSize, int blockSize, boolean fastRetransmit,
+                             long timeout, int maxRetries, long dallyTime, long seed, Result result) {
+        this.toReceiver = toReceiver;
+        this.toSender = toSender;
+        this.windowSize = windowSize;
+        this.blockSize = blockSize;
+        this.fastRetransmit = fastRetransmit;
+        this.timeout = timeout;
+        this.maxRetries = maxRetries;
+        this.dallyTime = dallyTime;
+        this.random = new SplittableRandom(seed);
+        this.result = result;
+    }
+
+    /**
+     * run the transfer of the file until both sides end.
+     * @param fileSize the byte count of the file.
+     */
+    public void run(long fileSize) throws IOException {
+        now = 0;
+        queue.clear();
+        toReceiver.reset();
+        toSender.reset();
+        window = new SimulatedWindow(windowSize, blockSize, fileSize);
+        sender = new SenderMachine(window, new SenderActions(), fastRetransmit, maxRetries);
+        receiver = new ReceiverMachine(new ReceiverActions(), blockSize, maxRetries);
+        senderStarted = false;
+        senderFailed = false;
+        receiverOpened = false;
+        receiverEndTime = -1;
+        oackRetries = 0;
+
+        sendOack();
+        while(queue.size() > 0){
+            queue.poll();
+            now = queue.time;
+            ++result.events;
+            dispatch(queue.kind, queue.arg);
+        }
+
+        ++result.transfers;
+        if(receiver.isFinished()){
+            result.addCompletionTime(receiverEndTime);
+        }else{
+            ++result.failures;
+        }
+        if(senderFailed && receiver.isFinished()){
+            ++result.senderFailures;
+        }
+    }
+
+    private void dispatch(int kind, int arg) throws IOException {
+        switch (kind) {
+            case EVENT_OACK:
+                if(!receiverOpened){
+                    receiverOpened = true;
+                    receiver.acceptOptions(windowSize, blockSize);
+                }else{
+                    receiver.onOack();
+                }
+                armReceiverTimer();
+                break;
+            case EVENT_DATA:
+                if(receiver.isFinished()){
+                    //the final ACK is lost, the sender sends the final DATA again.
+                    ++result.retriesAfterEnd;
+                    if(dallyTime > 0 && now - receiverEndTime <= dallyTime && (short) arg == (short) receiver.getBlockNum()){
+                        ++result.dallyReacks;
+                        sendAck(receiver.getBlockNum());
+                    }
+                    return;
+                }
+                long blockNo = receiver.getBlockNum() + DataUtils.blockDelta((short) receiver.getBlockNum(), (short) arg);
+                receiver.onData((short) arg, window.getDataLength(blockNo));
+                armReceiverTimer();
+                break;
+            case EVENT_ACK:
+                if(!senderStarted){
+                    if((short) arg == 0){
+                        senderStarted = true;
+                        sender.start();
+                    }
+                    return;
+                }
+                sender.onAck((short) arg);
+                break;
+            case EVENT_SENDER_TIMER:
+                if(arg != senderTimerId || senderFailed){
+                    return;
+                }
+                if(!senderStarted){
+                    if(++oackRetries > maxRetries){
+                        senderFailed = true;
+                        return;
+                    }
+                    sendOack();
+                    return;
+                }
+                if(!sender.isDone()){
+                    ++result.timeouts;
+                    sender.onTimeout();
+                    senderFailed = sender.isFailed();
+                }
+                break;
+            case EVENT_RECEIVER_TIMER:
+                if(arg != receiverTimerId || receiver.isDone()){
+                    return;
+                }
+                ++result.timeouts;
+                receiver.onTimeout();
+                if(!receiver.isDone()){
+                    armReceiverTimer();
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unknown event:" + kind);
+        }
+    }
+
+    private void sendOack() {
+        long arrival = toReceiver.send(now, OACK_LENGTH, random);
+        if(arrival >= 0){
+            queue.add(arrival, EVENT_OACK, 0);
+        }
+        queue.add(now + timeout, EVENT_SENDER_TIMER, ++senderTimerId);
+    }
+
+    private void sendAck(long blockNo) {
+        ++result.ackPackets;
+        long arrival = toSender.send(now, TFTP_HEADER_LENGTH, random);
+        if(arrival >= 0){
+            queue.add(arrival, EVENT_ACK, (int) (blockNo & 0xffff));
+        }
+    }
+
+    /**
+     * the receiver waits one time out from every packet.
+     */
+    private void armReceiverTimer() {
+        queue.add(now + timeout, EVENT_RECEIVER_TIMER, ++receiverTimerId);
+    }
+
+    /**
+     * the blocks of the file, only counted.
+     */
+    private static class SimulatedWindow implements SendWindow {
+
+        private final int windowSize;
+
+        private final int blockSize;
+
+        private final long fileSize;
+
+        /**
+         * less than a full block (maybe 0 byte) is the last block.
+         */
+        private final long lastBlock;
+
+        private long firstUnacked = 1;
+
+        private long lastRead;
+
+        private SimulatedWindow(int windowSize, int blockSize, long fileSize) {
+            this.windowSize = windowSize;
+            this.blockSize = blockSize;
+            this.fileSize = fileSize;
+            lastBlock = fileSize / blockSize + 1;
+        }
+
+        private int getDataLength(long blockNo) {
+            return blockNo == lastBlock ? (int) (fileSize - (lastBlock - 1) * blockSize) : blockSize;
+        }
+
+        @Override
+        public void fill() {
+            lastRead = Math.min(lastBlock, firstUnacked + windowSize - 1);
+        }
+
+        @Override
+        public long getFirstUnacked() {
+            return firstUnacked;
+        }
+
+        @Override
+        public long getLastRead() {
+            return lastRead;
+        }
+
+        @Override
+        public int getWindowSize() {
+            return windowSize;
+        }
+
+        @Override
+        public long toAbsolute(short wireBlockNo) {
+            long lastAcked = firstUnacked - 1;
+            return lastAcked + DataUtils.blockDelta((short) lastAcked, wireBlockNo);
+        }
+
+        @Override
+        public void ack(long blockNo) {
+            firstUnacked = blockNo + 1;
+        }
+
+        @Override
+        public boolean isFinished() {
+            return firstUnacked > lastBlock;
+        }
+    }
+
+    private class SenderActions implements SenderMachine.Actions {
+
+        @Override
+        public void sendData(long blockNo, boolean retransmit) {
+            ++result.dataPackets;
+            if(retransmit){
+                ++result.dataRetransmits;
+            }
+            long arrival = toReceiver.send(now, TFTP_HEADER_LENGTH + window.getDataLength(blockNo), random);
+            if(arrival >= 0){
+                queue.add(arrival, EVENT_DATA, (int) (blockNo & 0xffff));
+            }
+        }
+
+        @Override
+        public void startTimer() {
+            queue.add(now + timeout, EVENT_SENDER_TIMER, ++senderTimerId);
+        }
+
+        @Override
+        public void acked(long blockNo, boolean rttSample) {
+        }
+
+        @Override
+        public void duplicateAck(long blockNo) {
+        }
+
+        @Override
+        public void fastRetransmit(long fromBlock) {
+            ++result.fastRetransmits;
+        }
+
+        @Override
+        public void timeout(int retryCount) {
+        }
+    }
+
+    private class ReceiverActions implements ReceiverMachine.Actions {
+
+        @Override
+        public void sendAck(long blockNo, boolean retransmit) {
+            SimulatedTransfer.this.sendAck(blockNo);
+        }
+
+        @Override
+        public void deliver(long blockNo, boolean rttSample) {
+        }
+
+        @Override
+        public void finish(long lastBlock) {
+            receiverEndTime = now;
+        }
+
+        @Override
+        public void duplicateData(long blockNo) {
+        }
+
+        @Override
+        public void outOfOrderData(long blockNo) {
+        }
+
+        @Override
+        public void timeout(int retryCount) {
+        }
+    }
+
+    /**
+     * the min heap of the events by the time, the events of the same time in the order added.
+     * kept in the arrays, so millions of events allocate nothing.
+     */
+    private static class EventQueue {
+
+        private long[] times = new long[64];
+
+        private long[] orders = new long[64];
+
+        private int[] kinds = new int[64];
+
+        private int[] args = new int[64];
+
+        private int size;
+
+        private long nextOrder;
+
+        /**
+         * the event polled.
+         */
+        private long time;
+
+        private int kind;
+
+        private int arg;
+
+        private int size() {
+            return size;
+        }
+
+        private void clear() {
+            size = 0;
+            nextOrder = 0;
+        }
+
+        private void add(long time, int kind, int arg) {
+            if(size == times.length){
+                int length = size * 2;
+                times = Arrays.copyOf(times, length);
+                orders = Arrays.copyOf(orders, length);
+                kinds = Arrays.copyOf(kinds, length);
+                args = Arrays.copyOf(args, length);
+            }
+
+            int index = size++;
+            long order = nextOrder++;
+            while(index > 0){
+                int parent = (index - 1) >>> 1;
+                if(!before(time, order, parent)){
+                    break;
+                }
+                move(parent, index);
+                index = parent;
+            }
+            set(index, time, order, kind, arg);
+        }
+
+        /**
+         * take the first event into time, kind and arg.
+         */
+        private void poll() {
+            time = times[0];
+            kind = kinds[0];
+            arg = args[0];
+
+            int last = --size;
+            if(last == 0){
+                return;
+            }
+            long lastTime = times[last];
+            long lastOrder = orders[last];
+            int lastKind = kinds[last];
+            int lastArg = args[last];
+            int index = 0;
+            while(true){
+                int child = 2 * index + 1;
+                if(child >= last){
+                    break;
+                }
+                if(child + 1 < last && before(times[child + 1], orders[child + 1], child)){
+                    ++child;
+                }
+                if(!before(times[child], orders[child], lastTime, lastOrder)){
+                    break;
+                }
+                move(child, index);
+                index = child;
+            }
+            set(index, lastTime, lastOrder, lastKind, lastArg);
+        }
+
+        private boolean before(long time, long order, int index) {
+            return before(time, order, times[index], orders[index]);
+        }
+
+        private static boolean before(long time, long order, long otherTime, long otherOrder) {
+            return time < otherTime || (time == otherTime && order < otherOrder);
+        }
+
+        private void move(int from, int to) {
+            set(to, times[from], orders[from], kinds[from], args[from]);
+        }
+
+        private void set(int index, long time, long order, int kind, int arg) {
+            times[index] = time;
+            orders[index] = order;
+            kinds[index] = kind;
+            args[index] = arg;
+        }
+    }
+}
@@ -0,0 +1,416 @@
+package benchmark;
+
+import network.DigestAlgorithm;
+import network.TftpClient;
+import network.TransferDigest;
+import network.TransferProgress;
+import network.local.LocalTftpResponder;
+
+import java.io.*;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * the soak test of the client against the local responder on the loopback.
+ * uploads and downloads run for the duration with the errors injected: the packets lost, the files not found,
+ * the digests not matched (the downloaded file is deleted) and the transfers cancelled while queued or running.
+ * the thread count, the open files, the heap and the direct memory are sampled every interval, and the
+ * transfers per second are reported to show the throughput stays stable.
+ * the process exits with 1 if a bound is broken, so it can run in the build.
+ *
+ * run: java benchmark.SoakBenchmark [seconds] [lossRate] [maxThreads]
+ */
+public class SoakBenchmark {
+
+    private static final int DEFAULT_SECONDS = 120;
+
+    private static final double DEFAULT_LOSS_RATE = 0.005;
+
+    /**
+     * the max thread count of the process while loaded, the responder runs in the process too.
+     */
+    private static final int DEFAULT_MAX_THREADS = 512;
+
+    /**
+     * the time between the samples, in millisecond.
+     */
+    private static final int SAMPLE_INTERVAL = 5000;
+
+    /**
+     * the transfers queued and not ended, every one has its own local file and remote name.
+     */
+    private static final int MAX_IN_FLIGHT = 64;
+
+    private static final int SERVER_FILE_COUNT = 32;
+
+    private static final int MAX_FILE_SIZE = 16 * 1024;
+
+    /**
+     * the open files and the threads left after the client is idle, more than before it started.
+     */
+    private static final int FD_SLACK = 16;
+
+    private static final int THREAD_SLACK = 4;
+
+    /**
+     * the heap and direct memory grown from the end of the warm up to the end of the load, in byte.
+     */
+    private static final long HEAP_GROWTH_LIMIT = 32L * 1024 * 1024;
+
+    private static final long DIRECT_GROWTH_LIMIT = 4L * 1024 * 1024;
+
+    /**
+     * the throughput of the last third of the run, at least this part of the first third.
+     */
+    private static final double MIN_THROUGHPUT_RATIO = 0.5;
+
+    /**
+     * the part of the transfers allowed to fail by the loss alone, the responder gives up after a few time outs.
+     */
+    private static final double MAX_LOSS_FAILURE_RATE = 0.001;
+
+    /**
+     * the time to wait for the transfers to end after the load stops, in millisecond.
+     */
+    private static final long DRAIN_TIMEOUT = 60000;
+
+    /**
+     * one transfer of the load.
+     */
+    private static class Job {
+
+        private final int slot;
+
+        /**
+         * the transfer fails by the injected error.
+         */
+        private volatile boolean expectFail;
+
+        Job(int slot, boolean expectFail) {
+            this.slot = slot;
+            this.expectFail = expectFail;
+        }
+    }
+
+    private static final List<String> failures = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_SECONDS;
+        double lossRate = args.length > 1 ? Double.parseDouble(args[1]) : DEFAULT_LOSS_RATE;
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_MAX_THREADS;
+
+        File root = Files.createTempDirectory("tftpSoak").toFile();
+        File serverDir = new File(root, "server");
+        File localDir = new File(root, "local");
+        serverDir.mkdirs();
+        localDir.mkdirs();
+        Random random = new Random(1);
+        String[] digests = new String[SERVER_FILE_COUNT];
+        for (int i = 0; i < SERVER_FILE_COUNT; i++) {
+            //the sizes of a whole block count are the corner of the final empty DATA.
+            int size = i % 4 == 0 ? 512 * random.nextInt(MAX_FILE_SIZE / 512) : random.nextInt(MAX_FILE_SIZE);
+            byte[] data = new byte[size];
+            random.nextBytes(data);
+            Files.write(new File(serverDir, "f" + i + ".bin").toPath(), data);
+            Files.write(new File(localDir, "u" + i + ".bin").toPath(), data);
+            digests[i] = TransferDigest.ofFile(DigestAlgorithm.SHA_256, new File(serverDir, "f" + i + ".bin")).getHex();
+        }
+
+        //the stack traces of the injected errors are expected.
+        PrintStream err = System.err;
+        System.setErr(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+
+        Sample baseline = Sample.take(true);
+        System.out.println(String.format("seconds:%s, lossRate:%.2f%%, maxThreads:%s, inFlight:%s, baseline %s",
+                seconds, lossRate * 100, maxThreads, MAX_IN_FLIGHT, baseline));
+
+        LocalTftpResponder responder = new LocalTftpResponder(serverDir, java.net.InetAddress.getLoopbackAddress(), 0);
+        responder.setLossRate(lossRate);
+        responder.start();
+        TftpClient client = new TftpClient(line -> {}, status -> {});
+        client.getConfig().setServerPort(responder.getPort());
+        client.getConfig().setWindowSize(8);
+
+        BlockingQueue<Integer> freeSlots = new ArrayBlockingQueue<>(MAX_IN_FLIGHT);
+        for (int i = 0; i < MAX_IN_FLIGHT; i++) {
+            freeSlots.add(i);
+        }
+        Map<TransferProgress, Job> jobs = new ConcurrentHashMap<>();
+        Queue<TransferProgress> running = new ConcurrentLinkedQueue<>();
+        AtomicLong finished = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        AtomicLong unexpected = new AtomicLong();
+        Thread mainThread = Thread.currentThread();
+        Job[] nextJob = new Job[1];
+        client.setTransferListener(progress -> {
+            switch (progress.getState()) {
+                case QUEUED:
+                    //queued on the thread asking for it, before the ask returns.
+                    if(Thread.currentThread() == mainThread){
+                        jobs.put(progress, nextJob[0]);
+                    }
+                    break;
+                case RUNNING:
+                    running.add(progress);
+                    break;
+                default:
+                    Job job = jobs.remove(progress);
+                    if(job == null){
+                        break;
+                    }
+                    running.remove(progress);
+                    if(progress.getState() == TransferProgress.State.FINISHED){
+                        finished.incrementAndGet();
+                    }else{
+                        failed.incrementAndGet();
+                        if(!job.expectFail && unexpected.incrementAndGet() <= 10){
+                            System.out.println(String.format("unexpected failure %s:%s", progress.getName(), progress.getError()));
+                        }
+                    }
+                    freeSlots.add(job.slot);
+            }
+        });
+
+        String serverIp = "127.0.0.1";
+        List<Double> rates = new ArrayList<>();
+        Sample warm = null;
+        int peakThreads = 0;
+        long peakFds = 0;
+        long submitted = 0;
+        long start = System.currentTimeMillis();
+        long deadline = start + seconds * 1000L;
+        long nextSample = start + SAMPLE_INTERVAL;
+        long lastEnded = 0;
+        while(System.currentTimeMillis() < deadline){
+            long now = System.currentTimeMillis();
+            if(now >= nextSample){
+                long ended = finished.get() + failed.get();
+                double rate = (ended - lastEnded) * 1000.0 / SAMPLE_INTERVAL;
+                lastEnded = ended;
+                //the first interval warms up, the heap after it is the base of the growth.
+                Sample sample = Sample.take(warm == null);
+                if(warm == null){
+                    warm = sample;
+                }else{
+                    rates.add(rate);
+                }
+                peakThreads = Math.max(peakThreads, sample.threads);
+                peakFds = Math.max(peakFds, sample.fds);
+                System.out.println(String.format("%4ss transfers:%s, %6.1f/s, failed:%s, %s", (now - start) / 1000, ended, rate, failed.get(), sample));
+                nextSample += SAMPLE_INTERVAL;
+            }
+
+            Integer slot = freeSlots.poll(100, TimeUnit.MILLISECONDS);
+            if(slot == null){
+                continue;
+            }
+            submitted++;
+            int file = random.nextInt(SERVER_FILE_COUNT);
+            File localFile = new File(localDir, "d" + slot + ".bin");
+            int kind = random.nextInt(100);
+            nextJob[0] = new Job(slot, kind >= 70 && kind < 90);
+            if(kind < 40){
+                client.downloadFileAsyn(serverIp, localFile, "f" + file + ".bin");
+            }else if(kind < 55){
+                client.downloadFileAsyn(serverIp, localFile, "f" + file + ".bin", digests[file]);
+            }else if(kind < 70){
+                client.upLoadFileAsyn(serverIp, new File(localDir, "u" + file + ".bin"), "up" + slot + ".bin");
+            }else if(kind < 80){
+                //the digest not matched, the file is deleted.
+                client.downloadFileAsyn(serverIp, localFile, "f" + file + ".bin", digests[(file + 1) % SERVER_FILE_COUNT]);
+            }else if(kind < 90){
+                client.downloadFileAsyn(serverIp, localFile, "missing" + file + ".bin");
+            }else{
+                client.downloadFileAsyn(serverIp, localFile, "f" + file + ".bin");
+                cancelRunning(client, running, jobs, random);
+            }
+        }
+
+        //wait for the load to end, and the dallies after it.
+        long drainDeadline = System.currentTimeMillis() + DRAIN_TIMEOUT;
+        while(!jobs.isEmpty() && System.currentTimeMillis() < drainDeadline){
+            Thread.sleep(100);
+        }
+        if(!jobs.isEmpty()){
+            failures.add(String.format("%s transfers not ended in %sms", jobs.size(), DRAIN_TIMEOUT));
+        }
+        Thread.sleep(client.getConfig().getDallyTime() + 2000L);
+        Sample idle = Sample.take(true);
+        long ended = finished.get() + failed.get();
+        System.out.println(String.format("idle transfers:%s/%s, finished:%s, failed:%s, unexpected:%s, %s",
+                ended, submitted, finished.get(), failed.get(), unexpected.get(), idle));
+        System.out.println(String.format("peak threads:%s, peak fds:%s, %s", peakThreads, peakFds, client.getMetrics()));
+
+        client.dispose();
+        responder.close();
+        Sample closed = waitThreads(baseline.threads + THREAD_SLACK);
+        System.out.println("closed " + closed);
+        System.setErr(err);
+
+        if(peakThreads > maxThreads){
+            failures.add(String.format("peak threads %s > %s", peakThreads, maxThreads));
+        }
+        if(unexpected.get() > (lossRate > 0 ? ended * MAX_LOSS_FAILURE_RATE : 0)){
+            failures.add(String.format("%s transfers failed without an injected error", unexpected.get()));
+        }
+        if(warm != null){
+            check("open fds after idle", idle.fds, warm.fds + FD_SLACK);
+            check("heap after idle", idle.heap, warm.heap + HEAP_GROWTH_LIMIT);
+            check("direct memory after idle", idle.direct, warm.direct + DIRECT_GROWTH_LIMIT);
+        }
+        check("threads after close", closed.threads, baseline.threads + THREAD_SLACK);
+        check("open fds after close", closed.fds, baseline.fds + FD_SLACK);
+        checkThroughput(rates);
+        deleteAll(root);
+
+        if(failures.isEmpty()){
+            System.out.println("PASS");
+            return;
+        }
+        for (String failure : failures) {
+            System.out.println("FAIL " + failure);
+        }
+        System.exit(1);
+    }
+
+    /**
+     * cancel a transfer still running, its session is aborted.
+     */
+    private static void cancelRunning(TftpClient client, Queue<TransferProgress> running, Map<TransferProgress, Job> jobs, Random random) {
+        for (TransferProgress progress : running) {
+            Job job = jobs.get(progress);
+            if(job != null && progress.getState() == TransferProgress.State.RUNNING && random.nextBoolean()){
+                job.expectFail = true;
+                client.cancelTransfer(progress);
+                return;
+            }
+        }
+    }
+
+    private static void check(String name, long value, long limit) {
+        if(value >= 0 && value > limit){
+            failures.add(String.format("%s %s > %s", name, value, limit));
+        }
+    }
+
+    /**
+     * the mean of the last third of the intervals against the first third, a leak shows as the slowing down.
+     */
+    private static void checkThroughput(List<Double> rates) {
+        if(rates.size() < 3){
+            System.out.println("too short to check the throughput");
+            return;
+        }
+        int third = rates.size() / 3;
+        double first = mean(rates.subList(0, third));
+        double last = mean(rates.subList(rates.size() - third, rates.size()));
+        List<Double> sorted = new ArrayList<>(rates);
+        Collections.sort(sorted);
+        double mean = mean(rates);
+        double variance = 0;
+        for (double rate : rates) {
+            variance += (rate - mean) * (rate - mean);
+        }
+        double cv = mean > 0 ? Math.sqrt(variance / rates.size()) / mean : 0;
+        System.out.println(String.format("throughput min:%.1f/s, median:%.1f/s, max:%.1f/s, cv:%.1f%%, first third:%.1f/s, last third:%.1f/s",
+                sorted.get(0), sorted.get(sorted.size() / 2), sorted.get(sorted.size() - 1), cv * 100, first, last));
+        if(last < first * MIN_THROUGHPUT_RATIO){
+            failures.add(String.format("throughput dropped from %.1f/s to %.1f/s", first, last));
+        }
+    }
+
+    private static double mean(List<Double> values) {
+        double sum = 0;
+        for (double value : values) {
+            sum += value;
+        }
+        return sum / values.size();
+    }
+
+    /**
+     * wait for the threads of the disposed pools to end.
+     */
+    private static Sample waitThreads(int limit) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        Sample sample = Sample.take(true);
+        while(sample.threads > limit && System.currentTimeMillis() < deadline){
+            Thread.sleep(200);
+            sample = Sample.take(true);
+        }
+        return sample;
+    }
+
+    private static void deleteAll(File file) {
+        File[] children = file.listFiles();
+        if(children != null){
+            for (File child : children) {
+                deleteAll(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * the resources of the process at a time.
+     */
+    private static class Sample {
+
+        private final int threads;
+
+        /**
+         * -1 if the platform does not tell.
+         */
+        private final long fds;
+
+        private final long heap;
+
+        private final long direct;
+
+        private Sample(int threads, long fds, long heap, long direct) {
+            this.threads = threads;
+            this.fds = fds;
+            this.heap = heap;
+            this.direct = direct;
+        }
+
+        /**
+         * @param gc collect the garbage first, so the heap is the live data.
+         */
+        static Sample take(boolean gc) {
+            if(gc){
+                System.gc();
+            }
+            OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+            long fds = -1;
+            if(os instanceof com.sun.management.UnixOperatingSystemMXBean){
+                fds = ((com.sun.management.UnixOperatingSystemMXBean) os).getOpenFileDescriptorCount();
+            }
+            long direct = 0;
+            for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+                if("direct".equals(pool.getName())){
+                    direct = pool.getMemoryUsed();
+                }
+            }
+            return new Sample(ManagementFactory.getThreadMXBean().getThreadCount(), fds,
+                    ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed(), direct);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("threads:%s, fds:%s, heap:%sKB, direct:%sKB", threads, fds, heap / 1024, direct / 1024);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package benchmark;
+
+import network.timer.HashedTimerWheel;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * the micro benchmark of the timer wheel, against PriorityQueue and ScheduledThreadPoolExecutor.
+ * the retransmit timer is scheduled for every window and almost always cancelled by the ACK,
+ * so measure schedule + cancel, and the expiry lateness of the timers that do fire.
+ *
+ * run: java benchmark.TimerWheelBenchmark [timerCount]
+ */
+public class TimerWheelBenchmark {
+
+    /**
+     * the count of timers, 100k by default.
+     */
+    private static final int DEFAULT_TIMER_COUNT = 100000;
+
+    /**
+     * the max delay of the timer, in millisecond.
+     */
+    private static final int MAX_DELAY = 1000;
+
+    private static final int WARMUP_ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_TIMER_COUNT;
+        long[] delays = new long[count];
+        int[] cancelOrder = new int[count];
+        Random random = new Random(1);
+        for (int i = 0; i < count; i++) {
+            delays[i] = 1 + random.nextInt(MAX_DELAY);
+            cancelOrder[i] = i;
+        }
+        //cancel in random order, the ACKs do not come back in the schedule order.
+        for (int i = count - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = cancelOrder[i];
+            cancelOrder[i] = cancelOrder[j];
+            cancelOrder[j] = tmp;
+        }
+
+        System.out.println(String.format("timers:%s, max delay:%sms", count, MAX_DELAY));
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            scheduleCancelWheel(delays, cancelOrder);
+            scheduleCancelExecutor(delays, cancelOrder);
+        }
+        report("schedule+cancel HashedTimerWheel", count, scheduleCancelWheel(delays, cancelOrder));
+        report("schedule+cancel ScheduledThreadPoolExecutor", count, scheduleCancelExecutor(delays, cancelOrder));
+        report("schedule+cancel PriorityQueue", count, scheduleCancelQueue(delays, cancelOrder));
+
+        expireWheel(delays);
+        expireExecutor(delays);
+    }
+
+    private static void report(String name, int count, long nanos) {
+        System.out.println(String.format("%-45s total:%6sms, %6.1fns/timer", name, nanos / 1000000, (double) nanos / count));
+    }
+
+    private static long scheduleCancelWheel(long[] delays, int[] cancelOrder) {
+        HashedTimerWheel wheel = new HashedTimerWheel("benchTimer");
+        HashedTimerWheel.Timeout[] timeouts = new HashedTimerWheel.Timeout[delays.length];
+        Runnable task = () -> {};
+        long start = System.nanoTime();
+        for (int i = 0; i < delays.length; i++) {
+            timeouts[i] = wheel.schedule(task, delays[i], TimeUnit.MILLISECONDS);
+        }
+        for (int index : cancelOrder) {
+            timeouts[index].cancel();
+        }
+        long nanos = System.nanoTime() - start;
+        wheel.stop();
+        return nanos;
+    }
+
+    private static long scheduleCancelExecutor(long[] delays, int[] cancelOrder) {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        //without this the cancelled task stays in the queue until its deadline.
+        executor.setRemoveOnCancelPolicy(true);
+        ScheduledFuture<?>[] futures = new ScheduledFuture<?>[delays.length];
+        Runnable task = () -> {};
+        long start = System.nanoTime();
+        for (int i = 0; i < delays.length; i++) {
+            futures[i] = executor.schedule(task, delays[i], TimeUnit.MILLISECONDS);
+        }
+        for (int index : cancelOrder) {
+            futures[index].cancel(false);
+        }
+        long nanos = System.nanoTime() - start;
+        executor.shutdownNow();
+        return nanos;
+    }
+
+    private static long scheduleCancelQueue(long[] delays, int[] cancelOrder) {
+        PriorityQueue<long[]> queue = new PriorityQueue<>(delays.length, (a, b) -> Long.compare(a[0], b[0]));
+        long[][] entries = new long[delays.length][];
+        long start = System.nanoTime();
+        long now = System.nanoTime();
+        for (int i = 0; i < delays.length; i++) {
+            entries[i] = new long[]{now + TimeUnit.MILLISECONDS.toNanos(delays[i])};
+            queue.add(entries[i]);
+        }
+        //the cancel of PriorityQueue searches the whole queue.
+        for (int index : cancelOrder) {
+            queue.remove(entries[index]);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void expireWheel(long[] delays) throws InterruptedException {
+        HashedTimerWheel wheel = new HashedTimerWheel("benchTimer");
+        CountDownLatch latch = new CountDownLatch(delays.length);
+        AtomicLong lateNanos = new AtomicLong();
+        long start = System.nanoTime();
+        for (long delay : delays) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+            wheel.schedule(() -> {
+                lateNanos.addAndGet(System.nanoTime() - deadline);
+                latch.countDown();
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+        latch.await();
+        reportExpire("expire HashedTimerWheel", delays.length, start, lateNanos.get());
+        wheel.stop();
+    }
+
+    private static void expireExecutor(long[] delays) throws InterruptedException {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        CountDownLatch latch = new CountDownLatch(delays.length);
+        AtomicLong lateNanos = new AtomicLong();
+        long start = System.nanoTime();
+        for (long delay : delays) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+            executor.schedule(() -> {
+                lateNanos.addAndGet(System.nanoTime() - deadline);
+                latch.countDown();
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+        latch.await();
+        reportExpire("expire ScheduledThreadPoolExecutor", delays.length, start, lateNanos.get());
+        executor.shutdownNow();
+    }
+
+    private static void reportExpire(String name, int count, long start, long lateNanos) {
+        System.out.println(String.format("%-45s total:%6sms, mean lateness:%.3fms", name,
+                (System.nanoTime() - start) / 1000000, (double) lateNanos / count / 1000000));
+    }
+}
@@ -0,0 +1,16 @@
+package network;
+
+/**
+ * the way to choose the local address of a new session, when several are configured.
+ */
+public enum BindPolicy {
+    /**
+     * the addresses in turn.
+     */
+    ROUND_ROBIN,
+    /**
+     * the address with the fewest bytes in flight, the window of its running sessions.
+     * the fewest running sessions first on a tie.
+     */
+    LEAST_BYTES_IN_FLIGHT
+}
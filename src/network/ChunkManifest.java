@@ -0,0 +1,176 @@
+package network;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * the manifest of a file uploaded in chunks.
+ * the file "name" is stored as the parts "name.part0000"... and the manifest "name.manifest",
+ * the manifest is a text file:
+ * <pre>
+ * tftp-chunked 1
+ * size 3145728
+ * part 0 1048576 9a0364b9 name.part0000
+ * ...
+ * </pre>
+ * every part line is the offset, the length, the CRC32 in hex and the name (maybe with space).
+ */
+public class ChunkManifest {
+
+    private static final String HEADER = "tftp-chunked 1";
+
+    private static final String MANIFEST_SUFFIX = ".manifest";
+
+    /**
+     * the max count of parts, the part number has 4 digits.
+     */
+    public static final int MAX_PARTS = 10000;
+
+    private final long size;
+
+    private final List<Part> parts;
+
+    private ChunkManifest(long size, List<Part> parts) {
+        this.size = size;
+        this.parts = parts;
+    }
+
+    /**
+     * get the name of the manifest of the file.
+     */
+    public static String getManifestName(String fileName) {
+        return fileName + MANIFEST_SUFFIX;
+    }
+
+    /**
+     * split the file into parts, the checksums are set when the parts are read.
+     * @param fileName the file name of server.
+     * @param size the size of the file.
+     * @param chunkSize the max size of a part.
+     */
+    public static ChunkManifest split(String fileName, long size, long chunkSize) {
+        long count = Math.max(1, (size + chunkSize - 1) / chunkSize);
+        if(count > MAX_PARTS){
+            throw new IllegalArgumentException(String.format("Too many parts:%s, use a larger chunk size", count));
+        }
+
+        List<Part> parts = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            long offset = i * chunkSize;
+            parts.add(new Part(String.format("%s.part%04d", fileName, i), offset, Math.min(chunkSize, size - offset)));
+        }
+        return new ChunkManifest(size, parts);
+    }
+
+    /**
+     * parse the manifest.
+     * @param data the content of the manifest.
+     */
+    public static ChunkManifest parse(byte[] data) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(data), StandardCharsets.UTF_8));
+        if(!HEADER.equals(reader.readLine())){
+            throw new IOException("Bad manifest header");
+        }
+
+        long size = -1;
+        List<Part> parts = new ArrayList<>();
+        long nextOffset = 0;
+        String line;
+        while((line = reader.readLine()) != null){
+            String[] fields = line.split(" ", 5);
+            try{
+                if(fields[0].equals("size") && fields.length == 2){
+                    size = Long.parseLong(fields[1]);
+                }else if(fields[0].equals("part") && fields.length == 5){
+                    Part part = new Part(fields[4], Long.parseLong(fields[1]), Long.parseLong(fields[2]));
+                    part.setChecksum(Long.parseLong(fields[3], 16));
+                    //the parts must cover the file in order.
+                    if(part.getOffset() != nextOffset || part.getLength() < 0){
+                        throw new IOException("Bad manifest part:" + line);
+                    }
+                    nextOffset += part.getLength();
+                    parts.add(part);
+                }else if(!line.trim().isEmpty()){
+                    throw new IOException("Bad manifest line:" + line);
+                }
+            }catch (NumberFormatException e){
+                throw new IOException("Bad manifest line:" + line);
+            }
+        }
+
+        if(size < 0 || parts.isEmpty() || nextOffset != size){
+            throw new IOException("Bad manifest, the parts do not match the size");
+        }
+        return new ChunkManifest(size, parts);
+    }
+
+    /**
+     * get the content of the manifest.
+     */
+    public byte[] toBytes() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(HEADER).append('\n');
+        builder.append("size ").append(size).append('\n');
+        for (Part part : parts) {
+            builder.append(String.format("part %s %s %08x %s\n", part.getOffset(), part.getLength(), part.getChecksum(), part.getName()));
+        }
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public List<Part> getParts() {
+        return Collections.unmodifiableList(parts);
+    }
+
+    /**
+     * a part of the file.
+     */
+    public static class Part {
+
+        private final String name;
+
+        private final long offset;
+
+        private final long length;
+
+        /**
+         * the CRC32 of the part.
+         */
+        private volatile long checksum;
+
+        private Part(String name, long offset, long length) {
+            this.name = name;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public long getChecksum() {
+            return checksum;
+        }
+
+        public void setChecksum(long checksum) {
+            this.checksum = checksum;
+        }
+    }
+}
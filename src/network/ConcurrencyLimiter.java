@@ -0,0 +1,166 @@
+package network;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * limit the count of sessions running against a server, the limit adapts to the server.
+ * the limit grows while the RTT stays near the long term RTT of the server, shrinks with
+ * the ratio when the RTT climbs (gradient), and is cut when the time out rate climbs (AIMD).
+ * the steady loss of the path is learned as the long term time out rate, so it does not hold the limit down.
+ */
+public class ConcurrencyLimiter {
+
+    /**
+     * the limit is cut to this ratio when a transfer times out.
+     */
+    private static final double TIMEOUT_BACKOFF = 0.75;
+
+    /**
+     * the time out rate always tolerated.
+     */
+    private static final double MIN_TIMEOUT_RATE = 0.01;
+
+    /**
+     * the time out rate can be this times of the long term rate before the limit is cut.
+     */
+    private static final double TIMEOUT_RATE_TOLERANCE = 2;
+
+    /**
+     * the RTT can be this times of the long term RTT before the limit shrinks.
+     */
+    private static final double RTT_TOLERANCE = 1.5;
+
+    /**
+     * the weight of a sample in the long term RTT.
+     */
+    private static final double LONG_RTT_WEIGHT = 0.05;
+
+    /**
+     * the weight of the new limit, so the limit does not jump with one sample.
+     */
+    private static final double LIMIT_SMOOTHING = 0.2;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * signal when a session ends or the limit grows.
+     */
+    private final Condition available = lock.newCondition();
+
+    private double limit;
+
+    /**
+     * the long term RTT, in millisecond. -1 before the first sample.
+     */
+    private double longRtt = -1;
+
+    /**
+     * the long term time outs per round trip.
+     */
+    private double longTimeoutRate;
+
+    private int inFlight;
+
+    /**
+     * @param initialLimit the limit before any sample.
+     * @param minLimit the min limit.
+     * @param maxLimit the max limit.
+     */
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        if(minLimit <= 0 || maxLimit < minLimit){
+            throw new IllegalArgumentException(String.format("Bad limit range:%s ~ %s", minLimit, maxLimit));
+        }
+
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    /**
+     * wait until the session can start.
+     */
+    public void acquire() throws InterruptedIOException {
+        lock.lock();
+        try{
+            while(inFlight >= (int) limit){
+                available.await();
+            }
+            ++inFlight;
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Wait for the server interrupted");
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * the session ends.
+     * @param rtt the mean RTT of the session, in millisecond. -1 if not measured.
+     * @param timeoutRate the time outs per round trip of the session.
+     */
+    public void release(double rtt, double timeoutRate) {
+        lock.lock();
+        try{
+            --inFlight;
+            boolean congested = timeoutRate > Math.max(MIN_TIMEOUT_RATE, TIMEOUT_RATE_TOLERANCE * longTimeoutRate);
+            longTimeoutRate = (1 - LONG_RTT_WEIGHT) * longTimeoutRate + LONG_RTT_WEIGHT * timeoutRate;
+            if(congested){
+                limit = Math.max(minLimit, limit * TIMEOUT_BACKOFF);
+            }else if(rtt >= 0){
+                update(rtt);
+            }
+            available.signalAll();
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * adapt the limit to the RTT, must hold the lock.
+     */
+    private void update(double rtt) {
+        if(longRtt < 0){
+            longRtt = rtt;
+        }else{
+            longRtt = (1 - LONG_RTT_WEIGHT) * longRtt + LONG_RTT_WEIGHT * rtt;
+        }
+
+        //1 while the RTT is in the tolerance, down to 0.5 when the RTT climbs.
+        double gradient = Math.max(0.5, Math.min(1.0, RTT_TOLERANCE * longRtt / Math.max(rtt, 0.001)));
+        //the queue allowance lets the limit grow while the gradient is 1.
+        double newLimit = limit * gradient + Math.sqrt(limit);
+        limit = (1 - LIMIT_SMOOTHING) * limit + LIMIT_SMOOTHING * newLimit;
+        limit = Math.max(minLimit, Math.min(maxLimit, limit));
+    }
+
+    /**
+     * get the current limit.
+     */
+    public int getLimit() {
+        lock.lock();
+        try{
+            return (int) limit;
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * get the count of sessions running.
+     */
+    public int getInFlight() {
+        lock.lock();
+        try{
+            return inFlight;
+        }finally {
+            lock.unlock();
+        }
+    }
+}
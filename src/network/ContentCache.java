@@ -0,0 +1,420 @@
+package network;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * the files downloaded, kept on the disk so the next download of the same file does not use the network.
+ * the entry is keyed by the server and the file name, and bounded by the total size, the least recently used
+ * is evicted first. the concurrent loads of the same key share one download.
+ *
+ * every entry is two files in the folder, "hash.data" and "hash.meta", the hash is the SHA-256 of the key.
+ * the entries are found again by the meta files when the cache is opened.
+ */
+public class ContentCache {
+
+    private static final String DATA_SUFFIX = ".data";
+
+    private static final String META_SUFFIX = ".meta";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * download the file of the key.
+     */
+    public interface Loader {
+        /**
+         * @param file write the content into it.
+         */
+        void load(File file) throws IOException;
+    }
+
+    private final File dir;
+
+    /**
+     * the max total size of the entries, in byte.
+     */
+    private final long maxBytes;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * the loads running, the later request of the same key waits for it.
+     */
+    private final Map<String, CompletableFuture<Entry>> loading = new ConcurrentHashMap<>();
+
+    private final AtomicLong totalBytes = new AtomicLong();
+
+    /**
+     * the copy out of the entries holds the read lock, the eviction holds the write lock.
+     */
+    private final ReentrantReadWriteLock evictLock = new ReentrantReadWriteLock();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * the count of temp files, so the concurrent loads do not share one.
+     */
+    private final AtomicLong tempCount = new AtomicLong();
+
+    /**
+     * open the cache in the folder, the entries there are kept.
+     * @param dir the folder of the cache, created if not exists.
+     * @param maxBytes the max total size of the entries, in byte.
+     */
+    public ContentCache(File dir, long maxBytes) throws IOException {
+        if(maxBytes <= 0){
+            throw new IllegalArgumentException("maxBytes must be positive:" + maxBytes);
+        }
+        if(!dir.isDirectory() && !dir.mkdirs()){
+            throw new IOException("Can not create cache folder:" + dir);
+        }
+
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        loadEntries();
+        evict();
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * get the entry of the key, null if not cached.
+     */
+    public Entry get(String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * get the entry of the key, download it if not cached.
+     * only one download runs for a key, the others wait for it and count as the hits.
+     * @param key
+     * @param loader download the file.
+     * @return the entry.
+     */
+    public Entry load(String key, Loader loader) throws IOException {
+        Entry entry = entries.get(key);
+        if(entry != null){
+            hits.increment();
+            return entry;
+        }
+
+        CompletableFuture<Entry> future = new CompletableFuture<>();
+        CompletableFuture<Entry> running = loading.putIfAbsent(key, future);
+        if(running != null){
+            entry = await(running);
+            hits.increment();
+            return entry;
+        }
+
+        try{
+            entry = entries.get(key);
+            if(entry == null){
+                misses.increment();
+                entry = download(key, loader);
+            }else{
+                hits.increment();
+            }
+            future.complete(entry);
+            return entry;
+        }catch (IOException | RuntimeException e){
+            future.completeExceptionally(e);
+            throw e;
+        }finally {
+            loading.remove(key);
+        }
+    }
+
+    /**
+     * copy the file of the entry to the target, or link it. the target is replaced.
+     * the hard link shares the content with the cache, the target must not be modified then.
+     * @param entry
+     * @param target
+     * @param hardLink link the target to the cached file, copy if the link fails.
+     * @return false if the entry is evicted, or removed as the cached file is changed outside.
+     */
+    public boolean copyTo(Entry entry, File target, boolean hardLink) throws IOException {
+        evictLock.readLock().lock();
+        try{
+            if(entries.get(entry.key) != entry){
+                return false;
+            }
+            if(entry.dataFile.length() != entry.size){
+                //the cached file is written outside, as through a hard link.
+                remove(entry);
+                return false;
+            }
+
+            Files.deleteIfExists(target.toPath());
+            boolean linked = false;
+            if(hardLink){
+                try{
+                    Files.createLink(target.toPath(), entry.dataFile.toPath());
+                    linked = true;
+                }catch (IOException | UnsupportedOperationException e){
+                    //another file system, copy instead.
+                }
+            }
+            if(!linked){
+                Files.copy(entry.dataFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }catch (NoSuchFileException e){
+            //the cached file is removed outside.
+            remove(entry);
+            return false;
+        }finally {
+            evictLock.readLock().unlock();
+        }
+
+        touch(entry);
+        return true;
+    }
+
+    /**
+     * mark the entry as checked against the server just now.
+     */
+    public void refresh(Entry entry) throws IOException {
+        entry.cachedTime = System.currentTimeMillis();
+        writeMeta(entry, entry.metaFile);
+    }
+
+    /**
+     * remove the entry, as when the file of the server is changed.
+     */
+    public void remove(Entry entry) {
+        if(entries.remove(entry.key, entry)){
+            totalBytes.addAndGet(-entry.size);
+            entry.dataFile.delete();
+            entry.metaFile.delete();
+        }
+    }
+
+    public long getTotalBytes() {
+        return totalBytes.get();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    private Entry await(CompletableFuture<Entry> future) throws IOException {
+        try{
+            return future.get();
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the cache load");
+        }catch (ExecutionException e){
+            Throwable cause = e.getCause();
+            if(cause instanceof IOException){
+                throw (IOException) cause;
+            }
+            throw new IOException("Cache load failed:" + cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * download into a temp file, then rename it into the cache, so the cache never holds a half file.
+     */
+    private Entry download(String key, Loader loader) throws IOException {
+        String hash = hash(key);
+        File tempFile = new File(dir, hash + "." + tempCount.incrementAndGet() + TEMP_SUFFIX);
+        File tempMeta = new File(dir, hash + "." + tempCount.incrementAndGet() + TEMP_SUFFIX);
+        try{
+            loader.load(tempFile);
+            Entry entry = new Entry(key, new File(dir, hash + DATA_SUFFIX), new File(dir, hash + META_SUFFIX), tempFile.length(), System.currentTimeMillis());
+            writeMeta(entry, tempMeta);
+            Files.move(tempFile.toPath(), entry.dataFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tempMeta.toPath(), entry.metaFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+            Entry old = entries.put(key, entry);
+            if(old != null){
+                totalBytes.addAndGet(-old.size);
+            }
+            totalBytes.addAndGet(entry.size);
+            evict();
+            return entry;
+        }finally {
+            tempFile.delete();
+            tempMeta.delete();
+        }
+    }
+
+    /**
+     * evict the least recently used entries until the total size is in the bound.
+     * the entry just loaded is kept even if it alone is larger than the bound, until the next load.
+     */
+    private void evict() {
+        if(totalBytes.get() <= maxBytes){
+            return;
+        }
+
+        evictLock.writeLock().lock();
+        try{
+            List<Entry> snapshot = new ArrayList<>(entries.values());
+            snapshot.sort(Comparator.comparingLong(entry -> entry.lastAccess));
+            //keep the most recently used one.
+            for (int i = 0; i < snapshot.size() - 1 && totalBytes.get() > maxBytes; i++) {
+                remove(snapshot.get(i));
+            }
+        }finally {
+            evictLock.writeLock().unlock();
+        }
+    }
+
+    private void touch(Entry entry) {
+        entry.lastAccess = System.currentTimeMillis();
+        //keep the order of use when the cache is opened again.
+        entry.dataFile.setLastModified(entry.lastAccess);
+    }
+
+    /**
+     * find the entries of the folder, the broken ones and the temp files are deleted.
+     */
+    private void loadEntries() {
+        File[] files = dir.listFiles();
+        if(files == null){
+            return;
+        }
+
+        for (File file : files) {
+            String name = file.getName();
+            if(name.endsWith(TEMP_SUFFIX)){
+                file.delete();
+                continue;
+            }
+            if(!name.endsWith(META_SUFFIX)){
+                continue;
+            }
+
+            String hash = name.substring(0, name.length() - META_SUFFIX.length());
+            File dataFile = new File(dir, hash + DATA_SUFFIX);
+            try(BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))){
+                String key = reader.readLine();
+                long size = Long.parseLong(reader.readLine());
+                long cachedTime = Long.parseLong(reader.readLine());
+                if(key == null || !hash.equals(hash(key)) || dataFile.length() != size){
+                    throw new IOException("Broken cache entry:" + hash);
+                }
+
+                Entry entry = new Entry(key, dataFile, file, size, cachedTime);
+                entry.lastAccess = dataFile.lastModified();
+                entries.put(key, entry);
+                totalBytes.addAndGet(size);
+            }catch (IOException | RuntimeException e){
+                file.delete();
+                dataFile.delete();
+            }
+        }
+    }
+
+    private static void writeMeta(Entry entry, File file) throws IOException {
+        try(Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))){
+            writer.write(entry.key);
+            writer.write('\n');
+            writer.write(String.valueOf(entry.size));
+            writer.write('\n');
+            writer.write(String.valueOf(entry.cachedTime));
+            writer.write('\n');
+        }
+    }
+
+    private static String hash(String key) {
+        try{
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        }catch (NoSuchAlgorithmException e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * a cached file.
+     */
+    public static class Entry {
+
+        private final String key;
+
+        private final File dataFile;
+
+        private final File metaFile;
+
+        /**
+         * the size of the file, also the tsize of the server when cached.
+         */
+        private final long size;
+
+        /**
+         * the time the file is downloaded or checked against the server, in millisecond.
+         */
+        private volatile long cachedTime;
+
+        /**
+         * the time of the last use, in millisecond.
+         */
+        private volatile long lastAccess;
+
+        private Entry(String key, File dataFile, File metaFile, long size, long cachedTime) {
+            this.key = key;
+            this.dataFile = dataFile;
+            this.metaFile = metaFile;
+            this.size = size;
+            this.cachedTime = cachedTime;
+            this.lastAccess = System.currentTimeMillis();
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getCachedTime() {
+            return cachedTime;
+        }
+
+        /**
+         * the entry is checked against the server in the max age.
+         * @param maxAge in millisecond.
+         */
+        public boolean isFresh(long maxAge) {
+            return System.currentTimeMillis() - cachedTime < maxAge;
+        }
+    }
+}
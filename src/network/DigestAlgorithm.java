@@ -0,0 +1,15 @@
+package network;
+
+/**
+ * the digest computed over the data of a transfer.
+ */
+public enum DigestAlgorithm {
+    /**
+     * SHA-256, the format of sha256sum.
+     */
+    SHA_256,
+    /**
+     * CRC-32C (Castagnoli), fast, only finds the accidental damage.
+     */
+    CRC32C
+}
@@ -0,0 +1,225 @@
+package network;
+
+import network.packet.TftpPacket;
+import network.packet.TftpPacketConsts;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * send the request to the mirror servers one by one, until one of them answers.
+ * the request goes to the preferred mirror first, if no answer in the hedge delay, it also goes to the next one.
+ * the first answer wins, the late answers of the others are cancelled with an ERROR, so the servers free the slot.
+ */
+public class HedgedRequest {
+
+    /**
+     * open the session to the server.
+     */
+    public interface SessionOpener {
+        TftpSession open(String serverIp) throws IOException;
+    }
+
+    /**
+     * send the request in the session and wait for the answer.
+     */
+    public interface RequestSender {
+        /**
+         * @param session
+         * @param cancelled stop to send the request again when true.
+         * @return the answer of the server.
+         */
+        TftpPacket send(TftpSession session, BooleanSupplier cancelled) throws IOException;
+    }
+
+    private final List<String> serverIps;
+
+    /**
+     * the delay before send to the next mirror, in millisecond.
+     */
+    private final long hedgeDelay;
+
+    private final Executor executor;
+
+    private final SessionOpener sessionOpener;
+
+    private final RequestSender requestSender;
+
+    private final Consumer<String> logger;
+
+    private final TftpMetrics metrics;
+
+    /**
+     * the finished attempts, both won and failed.
+     */
+    private final BlockingQueue<Attempt> finishedAttempts = new LinkedBlockingQueue<>();
+
+    /**
+     * the attempt answered first.
+     */
+    private final AtomicReference<Attempt> winner = new AtomicReference<>();
+
+    /**
+     * @param serverIps the mirrors, the preferred first.
+     * @param hedgeDelay the delay before send to the next mirror, in millisecond.
+     * @param executor run the attempts.
+     * @param sessionOpener open the session to the server.
+     * @param requestSender send the request in the session.
+     * @param logger use to log info.
+     * @param metrics the counters.
+     */
+    public HedgedRequest(List<String> serverIps, long hedgeDelay, Executor executor, SessionOpener sessionOpener,
+                         RequestSender requestSender, Consumer<String> logger, TftpMetrics metrics) {
+        if(serverIps.isEmpty()){
+            throw new IllegalArgumentException("No server");
+        }
+
+        this.serverIps = serverIps;
+        this.hedgeDelay = hedgeDelay;
+        this.executor = executor;
+        this.sessionOpener = sessionOpener;
+        this.requestSender = requestSender;
+        this.logger = logger;
+        this.metrics = metrics;
+    }
+
+    /**
+     * send the request and wait for the first answer.
+     * @return the attempt won, the caller owns its session.
+     */
+    public Attempt await() throws IOException {
+        int started = 0;
+        int finished = 0;
+        Exception lastError = null;
+        start(started++);
+        while(true){
+            Attempt attempt;
+            try{
+                attempt = started < serverIps.size()
+                        ? finishedAttempts.poll(hedgeDelay, TimeUnit.MILLISECONDS)
+                        : finishedAttempts.take();
+            }catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                //stop the attempts, or end the one already won, nobody takes its session now.
+                if(!winner.compareAndSet(null, new Attempt(null))){
+                    cancelWinner();
+                }
+                throw new InterruptedIOException("Request interrupted");
+            }
+
+            if(attempt == null){
+                //no answer in the hedge delay, also try the next mirror.
+                metrics.addHedgedRequest();
+                logger.accept(String.format("Hedge:No answer in %sms, also send to %s", hedgeDelay, serverIps.get(started)));
+                start(started++);
+                continue;
+            }
+
+            ++finished;
+            if(attempt.error == null){
+                if(attempt.index > 0){
+                    metrics.addHedgeWin();
+                }
+                logger.accept(String.format("Hedge:Server %s answered first", attempt.serverIp));
+                return attempt;
+            }
+
+            lastError = attempt.error;
+            logger.accept(String.format("Hedge:Server %s failed:%s", attempt.serverIp, lastError.getMessage()));
+            if(started < serverIps.size()){
+                start(started++);
+            }else if(finished == started){
+                if(lastError instanceof IOException){
+                    throw (IOException) lastError;
+                }
+                throw (RuntimeException) lastError;
+            }
+        }
+    }
+
+    /**
+     * end the session of the attempt won but not taken by the caller, so its socket and its slot of the server
+     * are freed.
+     */
+    private void cancelWinner() {
+        Attempt attempt = winner.get();
+        logger.accept(String.format("Hedge:Cancel the answer of %s, request interrupted", attempt.serverIp));
+        if(attempt.session.abort(TftpPacketConsts.ERRCODE_UNDEF, "Transfer cancelled")){
+            metrics.addAbortError();
+        }
+    }
+
+    /**
+     * start the attempt to the mirror.
+     */
+    private void start(int index) {
+        Attempt attempt = new Attempt(serverIps.get(index));
+        attempt.index = index;
+        executor.execute(() -> attempt.run());
+    }
+
+    /**
+     * the request to one mirror.
+     */
+    public class Attempt {
+
+        private final String serverIp;
+
+        private int index;
+
+        private TftpSession session;
+
+        private TftpPacket response;
+
+        private Exception error;
+
+        private Attempt(String serverIp) {
+            this.serverIp = serverIp;
+        }
+
+        public String getServerIp() {
+            return serverIp;
+        }
+
+        public TftpSession getSession() {
+            return session;
+        }
+
+        public TftpPacket getResponse() {
+            return response;
+        }
+
+        private void run() {
+            try{
+                session = sessionOpener.open(serverIp);
+                response = requestSender.send(session, () -> winner.get() != null);
+            }catch (Exception e){
+                error = e;
+                if(session != null){
+                    session.close();
+                }
+                finishedAttempts.offer(this);
+                return;
+            }
+
+            if(winner.compareAndSet(null, this)){
+                finishedAttempts.offer(this);
+                return;
+            }
+
+            //another mirror answered first, tell this server to stop.
+            logger.accept(String.format("Hedge:Cancel the late answer of %s", serverIp));
+            if(session.abort(TftpPacketConsts.ERRCODE_UNDEF, "Transfer cancelled")){
+                metrics.addAbortError();
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package network;
+
+import java.util.Arrays;
+
+/**
+ * keep the recent latency samples, and get the percentile of them.
+ */
+public class LatencyTracker {
+
+    /**
+     * the samples, used as a ring.
+     */
+    private final long[] samples;
+
+    /**
+     * the count of samples recorded.
+     */
+    private long count;
+
+    /**
+     * @param capacity the max count of recent samples kept.
+     */
+    public LatencyTracker(int capacity) {
+        samples = new long[capacity];
+    }
+
+    /**
+     * record a latency.
+     * @param latency
+     */
+    public synchronized void record(long latency) {
+        samples[(int) (count % samples.length)] = latency;
+        ++count;
+    }
+
+    /**
+     * get the count of the samples kept.
+     */
+    public synchronized int getSampleCount() {
+        return (int) Math.min(count, samples.length);
+    }
+
+    /**
+     * get the percentile of the recent samples.
+     * @param percentile 0 ~ 100.
+     * @return the latency, -1 if no sample.
+     */
+    public long getPercentile(double percentile) {
+        long[] sorted;
+        synchronized (this){
+            int size = (int) Math.min(count, samples.length);
+            if(size == 0){
+                return -1;
+            }
+            sorted = Arrays.copyOf(samples, size);
+        }
+
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+}
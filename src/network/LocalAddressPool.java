@@ -0,0 +1,200 @@
+package network;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * the local addresses the sessions bind to, so the transfers are spread across the network interfaces.
+ * a session leases an address of the family of the server, and gives it back when closed.
+ */
+public class LocalAddressPool {
+
+    private final List<LocalAddress> localAddresses;
+
+    /**
+     * the next turn of round robin.
+     */
+    private final AtomicInteger nextTurn = new AtomicInteger();
+
+    /**
+     * @param addresses the local addresses, every one must be an address of this host.
+     */
+    public LocalAddressPool(List<InetAddress> addresses) {
+        List<LocalAddress> localAddresses = new ArrayList<>();
+        for (InetAddress address : addresses) {
+            localAddresses.add(new LocalAddress(address));
+        }
+        this.localAddresses = Collections.unmodifiableList(localAddresses);
+    }
+
+    /**
+     * get the addresses of the pool.
+     */
+    public List<InetAddress> getAddresses() {
+        List<InetAddress> addresses = new ArrayList<>();
+        for (LocalAddress localAddress : localAddresses) {
+            addresses.add(localAddress.address);
+        }
+        return addresses;
+    }
+
+    /**
+     * get the counters of every address.
+     */
+    public List<LocalAddress> getLocalAddresses() {
+        return localAddresses;
+    }
+
+    /**
+     * lease a local address for a session to the server.
+     * @param serverAddress the address of the server, the local address is of the same family.
+     * @param policy the way to choose the address.
+     * @return the lease, null if no address of the family, then the session binds to the wildcard address.
+     */
+    public Lease acquire(InetAddress serverAddress, BindPolicy policy) {
+        boolean ipv6 = serverAddress instanceof Inet6Address;
+        List<LocalAddress> candidates = new ArrayList<>(localAddresses.size());
+        for (LocalAddress localAddress : localAddresses) {
+            if((localAddress.address instanceof Inet6Address) == ipv6){
+                candidates.add(localAddress);
+            }
+        }
+        if(candidates.isEmpty()){
+            return null;
+        }
+
+        LocalAddress chosen;
+        if(policy == BindPolicy.LEAST_BYTES_IN_FLIGHT){
+            chosen = candidates.get(0);
+            for (LocalAddress candidate : candidates) {
+                long inFlight = candidate.inFlightBytes.get();
+                long chosenInFlight = chosen.inFlightBytes.get();
+                if(inFlight < chosenInFlight || (inFlight == chosenInFlight && candidate.activeSessions.get() < chosen.activeSessions.get())){
+                    chosen = candidate;
+                }
+            }
+        }else{
+            chosen = candidates.get(Math.floorMod(nextTurn.getAndIncrement(), candidates.size()));
+        }
+        return new Lease(chosen);
+    }
+
+    @Override
+    public String toString() {
+        return localAddresses.toString();
+    }
+
+    /**
+     * a local address and its counters.
+     */
+    public static class LocalAddress {
+
+        private final InetAddress address;
+
+        /**
+         * the count of the sessions running on the address.
+         */
+        private final AtomicInteger activeSessions = new AtomicInteger();
+
+        /**
+         * the sum of the window bytes of the running sessions.
+         */
+        private final AtomicLong inFlightBytes = new AtomicLong();
+
+        /**
+         * the count of the sessions finished on the address.
+         */
+        private final LongAdder sessions = new LongAdder();
+
+        /**
+         * the data bytes of the sessions finished on the address.
+         */
+        private final LongAdder bytes = new LongAdder();
+
+        private LocalAddress(InetAddress address) {
+            this.address = address;
+        }
+
+        public InetAddress getAddress() {
+            return address;
+        }
+
+        public int getActiveSessions() {
+            return activeSessions.get();
+        }
+
+        public long getInFlightBytes() {
+            return inFlightBytes.get();
+        }
+
+        public long getSessions() {
+            return sessions.sum();
+        }
+
+        public long getBytes() {
+            return bytes.sum();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s{active:%s, inFlight:%s, sessions:%s, bytes:%s}", address.getHostAddress(),
+                    getActiveSessions(), getInFlightBytes(), getSessions(), getBytes());
+        }
+    }
+
+    /**
+     * the local address used by a session.
+     */
+    public static class Lease {
+
+        private final LocalAddress localAddress;
+
+        /**
+         * the window bytes of the session counted into the address.
+         */
+        private long inFlightBytes;
+
+        private boolean released;
+
+        private Lease(LocalAddress localAddress) {
+            this.localAddress = localAddress;
+            localAddress.activeSessions.incrementAndGet();
+        }
+
+        public InetAddress getAddress() {
+            return localAddress.address;
+        }
+
+        /**
+         * set the bytes the session can have on the way, the window size times the block size.
+         */
+        public synchronized void setInFlightBytes(long inFlightBytes) {
+            if(released){
+                return;
+            }
+            localAddress.inFlightBytes.addAndGet(inFlightBytes - this.inFlightBytes);
+            this.inFlightBytes = inFlightBytes;
+        }
+
+        /**
+         * give back the address when the session is closed.
+         * @param bytes the data bytes of the session.
+         */
+        public synchronized void release(long bytes) {
+            if(released){
+                return;
+            }
+            released = true;
+            localAddress.inFlightBytes.addAndGet(-inFlightBytes);
+            localAddress.activeSessions.decrementAndGet();
+            localAddress.sessions.increment();
+            localAddress.bytes.add(bytes);
+        }
+    }
+}
@@ -0,0 +1,361 @@
+package network;
+
+import network.io.PositionalFileSink;
+import network.packet.*;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.*;
+import java.util.BitSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * the download in multicast mode (RFC 2090).
+ * the client joins the group of the OACK, and accepts the blocks in any order from the group or the server.
+ * only the master client elected by the server sends the ACK, and the ACK always asks for the first missing
+ * block, so the blocks missed while not master are sent again when the client becomes master.
+ */
+public class MulticastDownload {
+
+    /**
+     * the max count of packets waiting to be handled, more are dropped like lost on the network.
+     */
+    private static final int MAX_PENDING_PACKETS = 4096;
+
+    /**
+     * buffer max size.
+     */
+    private static final int BUFFER_MAX_LENGTH = 1024;
+
+    /**
+     * the time a client not master waits with all the blocks, to send the final ack if it becomes master soon.
+     * the server moves on by itself otherwise, so the client does not wait a full receive time out.
+     */
+    private static final long COMPLETE_LINGER = 200;
+
+    private final TftpSession session;
+
+    private final Executor executor;
+
+    private final Consumer<String> logger;
+
+    private final TftpMetrics metrics;
+
+    /**
+     * the time out of receive.
+     */
+    private final int receiveTimeout;
+
+    /**
+     * the retry time of time out.
+     */
+    private final int retryTime;
+
+    /**
+     * the name of the interface to join the group, null is the default.
+     */
+    private final String interfaceName;
+
+    /**
+     * the run status of client.
+     */
+    private final BooleanSupplier run;
+
+    /**
+     * the packets from the group and the server.
+     */
+    private final BlockingQueue<TftpPacket> packets = new LinkedBlockingQueue<>(MAX_PENDING_PACKETS);
+
+    /**
+     * the blocks received, index by the block number.
+     */
+    private final BitSet received = new BitSet();
+
+    /**
+     * the first block not received.
+     */
+    private long firstMissing = 1;
+
+    /**
+     * the highest block received, use to restore the block number wrapped.
+     */
+    private long highestBlock = 0;
+
+    /**
+     * the number of the last block, -1 if not received yet.
+     */
+    private long lastBlock = -1;
+
+    /**
+     * the file size, known when the last block received.
+     */
+    private long fileSize = -1;
+
+    /**
+     * the client is the master client or not.
+     */
+    private boolean master;
+
+    private ACKPacket ackPacket;
+
+    private volatile boolean running = true;
+
+    /**
+     * @param session the session of the request, the TID of server is locked.
+     * @param executor run the receivers.
+     * @param logger use to log info.
+     * @param metrics the counters.
+     * @param receiveTimeout the time out of receive.
+     * @param retryTime the retry time of time out.
+     * @param interfaceName the name of the interface to join the group, null is the default.
+     * @param run the run status of client.
+     */
+    public MulticastDownload(TftpSession session, Executor executor, Consumer<String> logger, TftpMetrics metrics,
+                             int receiveTimeout, int retryTime, String interfaceName, BooleanSupplier run) {
+        this.session = session;
+        this.executor = executor;
+        this.logger = logger;
+        this.metrics = metrics;
+        this.receiveTimeout = receiveTimeout;
+        this.retryTime = retryTime;
+        this.interfaceName = interfaceName;
+        this.run = run;
+    }
+
+    /**
+     * parse the value of multicast option, "addr,port,mc".
+     * @return {addr, port, mc}, the addr and port are empty if omitted.
+     */
+    public static String[] parseMulticastOption(String value) {
+        String[] parts = value.split(",", -1);
+        if(parts.length != 3){
+            throw new IllegalArgumentException("Bad multicast option:" + value);
+        }
+
+        for (int i = 0; i < parts.length; i++) {
+            parts[i] = parts[i].trim();
+        }
+        return parts;
+    }
+
+    /**
+     * join the group and receive the file.
+     * @param oackPacket the first OACK, with the group address and port.
+     * @param sink the output of the blocks.
+     */
+    public void run(OACKPacket oackPacket, PositionalFileSink sink) throws IOException {
+        String[] multicast = parseMulticastOption(oackPacket.getOptions().get(TftpPacketConsts.OPTION_MULTICAST));
+        if(multicast[0].isEmpty() || multicast[1].isEmpty()){
+            throw new IOException("No multicast address in OACK");
+        }
+
+        InetSocketAddress group = new InetSocketAddress(multicast[0], Integer.parseInt(multicast[1]));
+        master = "1".equals(multicast[2]);
+        long tsize = oackPacket.getLongOption(TftpPacketConsts.OPTION_TSIZE, -1);
+        if(tsize > 0){
+            sink.preallocate(tsize);
+        }
+
+        ackPacket = TftpPacketFactory.buildACKPacket(session.getPeerAddress(), (short) 0);
+        logger.accept(String.format("Download:Join multicast group %s, master:%s", group, master));
+        try(MulticastSocket groupSocket = new MulticastSocket(group.getPort())){
+            NetworkInterface networkInterface = interfaceName == null ? null : NetworkInterface.getByName(interfaceName);
+            groupSocket.joinGroup(group, networkInterface);
+            groupSocket.setSoTimeout(receiveTimeout);
+            try{
+                executor.execute(() -> receiveGroup(groupSocket));
+                executor.execute(this::receiveSession);
+                receiveBlocks(sink);
+            }finally {
+                running = false;
+                groupSocket.leaveGroup(group, networkInterface);
+            }
+        }
+
+        if(fileSize >= 0){
+            sink.truncate(fileSize);
+        }
+    }
+
+    /**
+     * handle the packets until all the blocks received.
+     */
+    private void receiveBlocks(PositionalFileSink sink) throws IOException {
+        //the master acknowledges the options, the server then sends the first block.
+        if(master){
+            sendAck();
+        }
+
+        boolean complete = false;
+        //the end of the linger after all the blocks received, in nanosecond.
+        long lingerEnd = 0;
+        int retryCount = 0;
+        while(true){
+            if(!run.getAsBoolean()){
+                throw new RuntimeException("Client disposed");
+            }
+
+            //the blocks still sent to the other clients do not extend the linger.
+            long timeout = receiveTimeout;
+            if(complete){
+                timeout = TimeUnit.NANOSECONDS.toMillis(lingerEnd - System.nanoTime());
+                if(timeout <= 0){
+                    return;
+                }
+            }
+
+            TftpPacket packet;
+            try{
+                packet = packets.poll(timeout, TimeUnit.MILLISECONDS);
+            }catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Download interrupted");
+            }
+
+            if(packet == null){
+                //have all the blocks, but the server does not ask for the final ack.
+                if(complete){
+                    return;
+                }
+
+                ++retryCount;
+                if(retryCount > retryTime){
+                    throw new RuntimeException("Download:Receive time out");
+                }
+                logger.accept(String.format("Download:Receive time out, master:%s, retry count:%s...", master, retryCount));
+                if(master){
+                    metrics.addTimeoutRetransmit();
+                    sendAck();
+                }
+                continue;
+            }
+
+            if(packet.getOpCode() == TftpPacketConsts.OP_ERROR){
+                ERRORPacket errP = (ERRORPacket) packet;
+                throw new RuntimeException(String.format("errcode:%s, errMsg:%s", errP.getErrCode(), errP.getErrMsg()));
+            }
+
+            if(packet.getOpCode() == TftpPacketConsts.OP_OACK){
+                String value = ((OACKPacket) packet).getOptions().get(TftpPacketConsts.OPTION_MULTICAST);
+                if(value == null){
+                    continue;
+                }
+
+                master = "1".equals(parseMulticastOption(value)[2]);
+                logger.accept(String.format("Download:Master client:%s, first missing blockNo:%s", master, firstMissing));
+                if(master){
+                    retryCount = 0;
+                    sendAck();
+                    if(complete){
+                        return;
+                    }
+                }
+                continue;
+            }
+
+            if(packet.getOpCode() != TftpPacketConsts.OP_DATA){
+                logger.accept("Download:opcode err:" + packet.getOpCode());
+                logger.accept("Ignore err packet...");
+                continue;
+            }
+
+            retryCount = 0;
+            DATAPacket dataPacket = (DATAPacket) packet;
+            long blockNo = highestBlock + (short) (dataPacket.getBlockNum() - (short) highestBlock);
+            if(blockNo < 1 || received.get((int) blockNo)){
+                metrics.addDuplicateData();
+                continue;
+            }
+
+            if(blockNo != firstMissing){
+                metrics.addOutOfOrderData();
+            }
+
+            sink.write((blockNo - 1) * DATAPacket.DATA_SIZE, dataPacket.getBuffer(), 4, dataPacket.getDataLength());
+            received.set((int) blockNo);
+            highestBlock = Math.max(highestBlock, blockNo);
+            if(dataPacket.isLast()){
+                lastBlock = blockNo;
+                fileSize = (blockNo - 1) * DATAPacket.DATA_SIZE + dataPacket.getDataLength();
+            }
+
+            long oldFirstMissing = firstMissing;
+            while(received.get((int) firstMissing)){
+                ++firstMissing;
+            }
+
+            if(lastBlock > 0 && firstMissing > lastBlock){
+                complete = true;
+                lingerEnd = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(COMPLETE_LINGER);
+                logger.accept(String.format("Download:All %s blocks received, master:%s", lastBlock, master));
+                if(master){
+                    sendAck();
+                    return;
+                }
+                continue;
+            }
+
+            //the master asks for the next missing block.
+            if(master && firstMissing != oldFirstMissing){
+                sendAck();
+            }
+        }
+    }
+
+    /**
+     * send the ACK of the block before the first missing one.
+     */
+    private void sendAck() throws IOException {
+        ackPacket.resetBlockNo((short) (firstMissing - 1));
+        logger.accept(String.format("Download:Send ACK, blockNo:%s", firstMissing - 1));
+        session.send(ackPacket);
+    }
+
+    /**
+     * receive the DATA from the group.
+     */
+    private void receiveGroup(MulticastSocket groupSocket) {
+        byte[] buffer = new byte[BUFFER_MAX_LENGTH];
+        DatagramPacket datagramPacket = new DatagramPacket(buffer, buffer.length);
+        InetSocketAddress server = session.getPeerAddress();
+        while(running){
+            try{
+                datagramPacket.setLength(buffer.length);
+                groupSocket.receive(datagramPacket);
+                //only the DATA of our server is accepted from the group.
+                if(datagramPacket.getPort() != server.getPort() || !server.getAddress().equals(datagramPacket.getAddress())){
+                    continue;
+                }
+
+                TftpPacket packet = TftpPacketFactory.buildTftpPacket(datagramPacket);
+                if(packet.getOpCode() == TftpPacketConsts.OP_DATA){
+                    packets.offer(packet);
+                }
+            }catch (SocketTimeoutException e){
+                //check the running status.
+            }catch (IOException e){
+                return;
+            }
+        }
+    }
+
+    /**
+     * receive the packets from the server.
+     */
+    private void receiveSession() {
+        while(running){
+            try{
+                packets.offer(session.receive());
+            }catch (SocketTimeoutException e){
+                //check the running status.
+            }catch (IOException e){
+                return;
+            }
+        }
+    }
+}
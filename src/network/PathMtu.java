@@ -0,0 +1,92 @@
+package network;
+
+import network.packet.DATAPacket;
+
+import java.net.*;
+
+/**
+ * the MTU of the path to the server, and the largest block size sent without IP fragmentation.
+ * a block larger than the path MTU is sent in fragments, and one lost fragment loses the whole block.
+ */
+public class PathMtu {
+
+    /**
+     * the MTU used when the interface does not tell, the MTU of ethernet.
+     */
+    public static final int DEFAULT_MTU = 1500;
+
+    /**
+     * the MTUs commonly met on a path, large to small:
+     * jumbo frame, FDDI, ethernet, PPPoE, tunnels, the min of IPv6, the min of IPv4.
+     */
+    private static final int[] MTU_PLATEAUS = {9000, 4352, 1500, 1492, 1400, 1280, 576};
+
+    private static final int IPV4_HEADER_LENGTH = 20;
+
+    private static final int IPV6_HEADER_LENGTH = 40;
+
+    private static final int UDP_HEADER_LENGTH = 8;
+
+    /**
+     * the opcode and the block number of DATA.
+     */
+    private static final int DATA_HEADER_LENGTH = 4;
+
+    /**
+     * any port, nothing is sent to it, the connect only chooses the route.
+     */
+    private static final int DISCARD_PORT = 9;
+
+    private PathMtu() {
+    }
+
+    /**
+     * get the MTU of the local interface routing to the server, the first hop of the path.
+     * @param serverIp server ip.
+     * @return the MTU, DEFAULT_MTU if it can not be known.
+     */
+    public static int getInterfaceMtu(String serverIp) {
+        try(DatagramSocket socket = new DatagramSocket()){
+            socket.connect(new InetSocketAddress(InetAddress.getByName(serverIp), DISCARD_PORT));
+            NetworkInterface networkInterface = NetworkInterface.getByInetAddress(socket.getLocalAddress());
+            int mtu = networkInterface == null ? -1 : networkInterface.getMTU();
+            return mtu > 0 ? mtu : DEFAULT_MTU;
+        }catch (Exception e){
+            return DEFAULT_MTU;
+        }
+    }
+
+    /**
+     * get the largest block size whose DATA fits in one IP packet of the MTU.
+     * @param mtu the MTU of the path.
+     * @param serverIp server ip, IPv6 has a larger header.
+     * @return the block size, 512 ~ 65464.
+     */
+    public static int toBlockSize(int mtu, String serverIp) {
+        int headerLength = (isIpv6(serverIp) ? IPV6_HEADER_LENGTH : IPV4_HEADER_LENGTH) + UDP_HEADER_LENGTH + DATA_HEADER_LENGTH;
+        return Math.max(DATAPacket.DATA_SIZE, Math.min(DATAPacket.MAX_BLOCK_SIZE, mtu - headerLength));
+    }
+
+    /**
+     * get the block size to try after the block size loses too much, the block size of the next smaller MTU plateau.
+     * @param blockSize the block size losing too much.
+     * @param serverIp server ip.
+     * @return the smaller block size, 512 at the least.
+     */
+    public static int nextSmallerBlockSize(int blockSize, String serverIp) {
+        for (int mtu : MTU_PLATEAUS) {
+            int smaller = toBlockSize(mtu, serverIp);
+            if(smaller < blockSize){
+                return smaller;
+            }
+        }
+        return DATAPacket.DATA_SIZE;
+    }
+
+    /**
+     * the ip is an IPv6 literal, a host name never has the colon.
+     */
+    private static boolean isIpv6(String serverIp) {
+        return serverIp.indexOf(':') >= 0;
+    }
+}
@@ -0,0 +1,93 @@
+package network;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * the token bucket shared by transfers, lock free.
+ * it keeps the theoretical arrival time of the next byte (GCRA), so a reserve is one CAS.
+ * the rate and burst can be changed at any time.
+ */
+public class RateLimiter {
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    /**
+     * the rate, byte per second. 0 is unlimited.
+     */
+    private volatile long bytesPerSecond;
+
+    /**
+     * the bytes can be sent at once after idle.
+     */
+    private volatile long burstBytes;
+
+    /**
+     * the theoretical arrival time, in nanosecond.
+     */
+    private final AtomicLong arrivalTime = new AtomicLong(System.nanoTime());
+
+    /**
+     * @param bytesPerSecond the rate, byte per second. 0 is unlimited.
+     * @param burstBytes the bytes can be sent at once after idle.
+     */
+    public RateLimiter(long bytesPerSecond, long burstBytes) {
+        setRate(bytesPerSecond);
+        setBurstBytes(burstBytes);
+    }
+
+    /**
+     * reserve the bytes.
+     * @param bytes
+     * @return the nanoseconds to wait before send them, 0 if no need to wait.
+     */
+    public long reserve(long bytes) {
+        long rate = bytesPerSecond;
+        if(rate <= 0){
+            return 0;
+        }
+
+        long cost = bytes * NANOS_PER_SECOND / rate;
+        long tolerance = burstBytes * NANOS_PER_SECOND / rate;
+        long now = System.nanoTime();
+        while(true){
+            long current = arrivalTime.get();
+            long next = Math.max(current, now - tolerance) + cost;
+            if(arrivalTime.compareAndSet(current, next)){
+                return Math.max(0, next - tolerance - now);
+            }
+        }
+    }
+
+    /**
+     * check is unlimited or not.
+     */
+    public boolean isUnlimited() {
+        return bytesPerSecond <= 0;
+    }
+
+    public long getRate() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * change the rate, take effect on the next reserve.
+     * @param bytesPerSecond byte per second, 0 is unlimited.
+     */
+    public void setRate(long bytesPerSecond) {
+        if(bytesPerSecond < 0){
+            throw new IllegalArgumentException("bytesPerSecond must not be negative:" + bytesPerSecond);
+        }
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public long getBurstBytes() {
+        return burstBytes;
+    }
+
+    public void setBurstBytes(long burstBytes) {
+        if(burstBytes < 0){
+            throw new IllegalArgumentException("burstBytes must not be negative:" + burstBytes);
+        }
+        this.burstBytes = burstBytes;
+    }
+}
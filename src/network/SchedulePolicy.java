@@ -0,0 +1,23 @@
+package network;
+
+/**
+ * the order to start the queued transfers.
+ */
+public enum SchedulePolicy {
+    /**
+     * in the order of submit.
+     */
+    FIFO,
+    /**
+     * the smallest file first, the size of download is probed by the tsize option.
+     */
+    SHORTEST_FIRST,
+    /**
+     * the highest priority first.
+     */
+    PRIORITY,
+    /**
+     * the server with the fewest running transfers first, in the order of submit for a server.
+     */
+    FAIR_SHARE
+}
@@ -0,0 +1,314 @@
+package network;
+
+import network.packet.DATAPacket;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * what is learned of a server by the transfers, use to tune the next transfer.
+ */
+public class ServerProfile {
+
+    /**
+     * the max count of window sizes remembered.
+     */
+    private static final int MAX_WINDOW_SAMPLES = 8;
+
+    /**
+     * the transfer smaller than this is not used to rate the window, the time is mostly the latency.
+     */
+    private static final long MIN_THROUGHPUT_BYTES = 64 * 1024;
+
+    /**
+     * the server not supporting the options is asked again after this time, in millisecond, it may be upgraded.
+     */
+    private static final long OPTIONS_RECHECK_INTERVAL = 60 * 60 * 1000L;
+
+    /**
+     * the block size is asked up again after this time, in millisecond, the path may be fixed.
+     */
+    private static final long BLOCK_SIZE_RECHECK_INTERVAL = 60 * 60 * 1000L;
+
+    /**
+     * the transfer of fewer blocks does not judge the block size, a single retransmit is too much of it.
+     */
+    private static final long MIN_LOSS_SPIKE_BLOCKS = 16;
+
+    /**
+     * the loss rate of a transfer above this is a spike, at the least.
+     */
+    private static final double MIN_LOSS_SPIKE = 0.02;
+
+    /**
+     * the loss rate of a transfer above this times the smoothed loss rate is a spike.
+     */
+    private static final double LOSS_SPIKE_FACTOR = 3;
+
+    private final String serverIp;
+
+    /**
+     * the smoothed round trip time, in millisecond. -1 if unknown.
+     */
+    private double smoothedRtt = -1;
+
+    /**
+     * the variation of the round trip time, in millisecond.
+     */
+    private double rttVariation;
+
+    /**
+     * the smoothed retransmits per block.
+     */
+    private double lossRate = -1;
+
+    /**
+     * the server accepts the options or not, null if unknown.
+     */
+    private Boolean optionsSupported;
+
+    /**
+     * the time the options support is known, in millisecond.
+     */
+    private long optionsCheckTime;
+
+    /**
+     * the largest block size known to pass the path without losing too much, -1 if unknown.
+     */
+    private int blockSize = -1;
+
+    /**
+     * the time the block size is learned, in millisecond.
+     */
+    private long blockSizeCheckTime;
+
+    /**
+     * the smoothed throughput of every window size tried, byte per second.
+     */
+    private final Map<Integer, Long> windowThroughputs = new LinkedHashMap<>();
+
+    /**
+     * the time of the last update, in millisecond.
+     */
+    private long updateTime;
+
+    public ServerProfile(String serverIp) {
+        this.serverIp = serverIp;
+        this.updateTime = System.currentTimeMillis();
+    }
+
+    public String getServerIp() {
+        return serverIp;
+    }
+
+    /**
+     * record the round trip time, smoothed as RFC 6298.
+     * @param rtt in millisecond.
+     */
+    public synchronized void recordRtt(long rtt) {
+        if(smoothedRtt < 0){
+            smoothedRtt = rtt;
+            rttVariation = rtt / 2.0;
+        }else{
+            rttVariation = 0.75 * rttVariation + 0.25 * Math.abs(smoothedRtt - rtt);
+            smoothedRtt = 0.875 * smoothedRtt + 0.125 * rtt;
+        }
+        updateTime = System.currentTimeMillis();
+    }
+
+    /**
+     * record the result of a transfer.
+     * @param stats
+     */
+    public synchronized void recordTransfer(TransferStats stats) {
+        double loss = stats.getLossRate();
+        if(stats.getBlocks() >= MIN_LOSS_SPIKE_BLOCKS){
+            recordBlockSize(stats.getBlockSize(), loss > Math.max(MIN_LOSS_SPIKE, LOSS_SPIKE_FACTOR * lossRate));
+        }
+        lossRate = lossRate < 0 ? loss : 0.75 * lossRate + 0.25 * loss;
+
+        long elapsed = Math.max(1, stats.getElapsed());
+        if(stats.getBytes() >= MIN_THROUGHPUT_BYTES){
+            long throughput = stats.getBytes() * 1000 / elapsed;
+            Long old = windowThroughputs.remove(stats.getWindowSize());
+            windowThroughputs.put(stats.getWindowSize(), old == null ? throughput : (old + throughput) / 2);
+            if(windowThroughputs.size() > MAX_WINDOW_SAMPLES){
+                //forget the window tried the longest ago.
+                windowThroughputs.remove(windowThroughputs.keySet().iterator().next());
+            }
+        }
+        updateTime = System.currentTimeMillis();
+    }
+
+    /**
+     * record the transfer failed, the time outs with a large block size may be the fragments lost on the path.
+     * @param stats
+     */
+    public synchronized void recordFailure(TransferStats stats) {
+        if(stats.getTimeouts() > 0){
+            recordBlockSize(stats.getBlockSize(), true);
+            updateTime = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * learn the block size, step down to the next MTU plateau when the loss spikes.
+     * @param usedBlockSize the block size of the transfer.
+     * @param lossSpike the transfer lost too much.
+     */
+    private void recordBlockSize(int usedBlockSize, boolean lossSpike) {
+        if(usedBlockSize <= DATAPacket.DATA_SIZE){
+            return;
+        }
+
+        if(lossSpike){
+            blockSize = PathMtu.nextSmallerBlockSize(usedBlockSize, serverIp);
+            blockSizeCheckTime = System.currentTimeMillis();
+        }else if(blockSize < 0 || usedBlockSize > blockSize){
+            //a larger block size passes, maybe tried again after the recheck interval.
+            blockSize = usedBlockSize;
+            blockSizeCheckTime = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * record the server accepts the options or not.
+     */
+    public synchronized void setOptionsSupported(boolean optionsSupported) {
+        this.optionsSupported = optionsSupported;
+        optionsCheckTime = System.currentTimeMillis();
+        updateTime = optionsCheckTime;
+    }
+
+    /**
+     * the server is known to ignore or refuse the options.
+     */
+    public synchronized boolean isOptionsUnsupported() {
+        return Boolean.FALSE.equals(optionsSupported) && System.currentTimeMillis() - optionsCheckTime < OPTIONS_RECHECK_INTERVAL;
+    }
+
+    public synchronized Boolean getOptionsSupported() {
+        return optionsSupported;
+    }
+
+    /**
+     * get the time out of receive, the smoothed RTT plus 4 times of the variation as RFC 6298.
+     * @param defaultTimeout the time out when the RTT is unknown, also the max.
+     * @param minTimeout the min time out.
+     */
+    public synchronized int getReceiveTimeout(int defaultTimeout, int minTimeout) {
+        if(smoothedRtt < 0){
+            return defaultTimeout;
+        }
+        return (int) Math.max(minTimeout, Math.min(defaultTimeout, smoothedRtt + 4 * rttVariation));
+    }
+
+    /**
+     * choose the window size of the next transfer.
+     * the max window not tried yet is tried first, after that the window with the best throughput is used.
+     * @param maxWindowSize the max window size allowed.
+     */
+    public synchronized int chooseWindowSize(int maxWindowSize) {
+        if(!windowThroughputs.containsKey(maxWindowSize)){
+            return maxWindowSize;
+        }
+
+        int best = maxWindowSize;
+        long bestThroughput = -1;
+        for (Map.Entry<Integer, Long> entry : windowThroughputs.entrySet()) {
+            if(entry.getKey() <= maxWindowSize && entry.getValue() > bestThroughput){
+                best = entry.getKey();
+                bestThroughput = entry.getValue();
+            }
+        }
+        return best;
+    }
+
+    /**
+     * choose the block size of the next transfer.
+     * the largest block size passing the path is used, the max is tried again after the recheck interval.
+     * @param maxBlockSize the max block size allowed, from the MTU of the path.
+     */
+    public synchronized int chooseBlockSize(int maxBlockSize) {
+        if(blockSize < 0 || System.currentTimeMillis() - blockSizeCheckTime >= BLOCK_SIZE_RECHECK_INTERVAL){
+            return maxBlockSize;
+        }
+        return Math.min(blockSize, maxBlockSize);
+    }
+
+    /**
+     * get the largest block size known to pass the path, -1 if unknown.
+     */
+    public synchronized int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * get the smoothed round trip time, in millisecond. -1 if unknown.
+     */
+    public synchronized double getSmoothedRtt() {
+        return smoothedRtt;
+    }
+
+    /**
+     * get the smoothed retransmits per block, -1 if unknown.
+     */
+    public synchronized double getLossRate() {
+        return lossRate;
+    }
+
+    public synchronized long getUpdateTime() {
+        return updateTime;
+    }
+
+    /**
+     * format as a line of the profile file.
+     */
+    synchronized String format() {
+        StringBuilder windows = new StringBuilder();
+        for (Map.Entry<Integer, Long> entry : windowThroughputs.entrySet()) {
+            if(windows.length() > 0){
+                windows.append(',');
+            }
+            windows.append(entry.getKey()).append(':').append(entry.getValue());
+        }
+        return String.format(Locale.ROOT, "%s %s %.3f %.3f %.4f %s %s %s", serverIp, updateTime, smoothedRtt, rttVariation, lossRate,
+                optionsSupported == null ? "-" : optionsSupported + "@" + optionsCheckTime, windows.length() == 0 ? "-" : windows,
+                blockSize < 0 ? "-" : blockSize + "@" + blockSizeCheckTime);
+    }
+
+    /**
+     * parse a line of the profile file, the line without the block size is from an older client.
+     * @throws IllegalArgumentException if the line is bad.
+     */
+    static ServerProfile parse(String line) {
+        String[] fields = line.trim().split(" ");
+        if(fields.length != 7 && fields.length != 8){
+            throw new IllegalArgumentException("Bad profile:" + line);
+        }
+
+        ServerProfile profile = new ServerProfile(fields[0]);
+        profile.updateTime = Long.parseLong(fields[1]);
+        profile.smoothedRtt = Double.parseDouble(fields[2]);
+        profile.rttVariation = Double.parseDouble(fields[3]);
+        profile.lossRate = Double.parseDouble(fields[4]);
+        if(!fields[5].equals("-")){
+            String[] options = fields[5].split("@");
+            profile.optionsSupported = Boolean.valueOf(options[0]);
+            profile.optionsCheckTime = Long.parseLong(options[1]);
+        }
+        if(!fields[6].equals("-")){
+            for (String window : fields[6].split(",")) {
+                String[] pair = window.split(":");
+                profile.windowThroughputs.put(Integer.parseInt(pair[0]), Long.parseLong(pair[1]));
+            }
+        }
+        if(fields.length == 8 && !fields[7].equals("-")){
+            String[] blockSize = fields[7].split("@");
+            profile.blockSize = Integer.parseInt(blockSize[0]);
+            profile.blockSizeCheckTime = Long.parseLong(blockSize[1]);
+        }
+        return profile;
+    }
+}
@@ -0,0 +1,145 @@
+package network;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * the profiles of the servers, bounded by the least recently used.
+ * the profiles can be saved to a file, so a new client starts from what is learned before.
+ */
+public class ServerProfileCache {
+
+    private static final String HEADER = "# tftp server profiles 1";
+
+    /**
+     * the max count of profiles.
+     */
+    private final int maxEntries;
+
+    /**
+     * the profile not updated in this time is dropped, in millisecond.
+     */
+    private final long maxAge;
+
+    /**
+     * the profiles in the order of access.
+     */
+    private final LinkedHashMap<String, ServerProfile> profiles;
+
+    /**
+     * only one save at a time, they share the temp file.
+     */
+    private final Object saveLock = new Object();
+
+    /**
+     * @param maxEntries the max count of profiles.
+     * @param maxAge the profile not updated in this time is dropped, in millisecond.
+     */
+    public ServerProfileCache(int maxEntries, long maxAge) {
+        if(maxEntries <= 0){
+            throw new IllegalArgumentException("maxEntries must be positive:" + maxEntries);
+        }
+
+        this.maxEntries = maxEntries;
+        this.maxAge = maxAge;
+        this.profiles = new LinkedHashMap<String, ServerProfile>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ServerProfile> eldest) {
+                return size() > ServerProfileCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * get the profile of the server, create if not exists or too old.
+     * @param serverIp server ip.
+     */
+    public synchronized ServerProfile get(String serverIp) {
+        ServerProfile profile = profiles.get(serverIp);
+        if(profile == null || isStale(profile)){
+            profile = new ServerProfile(serverIp);
+            profiles.put(serverIp, profile);
+        }
+        return profile;
+    }
+
+    /**
+     * get the count of profiles.
+     */
+    public synchronized int size() {
+        return profiles.size();
+    }
+
+    /**
+     * load the profiles from the file, the bad lines are skipped.
+     * @param file
+     */
+    public void load(File file) throws IOException {
+        if(!file.exists()){
+            return;
+        }
+
+        List<ServerProfile> loaded = new ArrayList<>();
+        try(BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))){
+            String line;
+            while((line = reader.readLine()) != null){
+                if(line.trim().isEmpty() || line.startsWith("#")){
+                    continue;
+                }
+                try{
+                    loaded.add(ServerProfile.parse(line));
+                }catch (RuntimeException e){
+                    //a bad line costs only the profile of one server.
+                }
+            }
+        }
+
+        synchronized (this){
+            //the file is in the order of access, the profiles in memory are newer.
+            for (ServerProfile profile : loaded) {
+                if(!isStale(profile) && !profiles.containsKey(profile.getServerIp())){
+                    profiles.put(profile.getServerIp(), profile);
+                }
+            }
+        }
+    }
+
+    /**
+     * save the profiles to the file, written to a temp file then renamed, so the file is never half written.
+     * @param file
+     */
+    public void save(File file) throws IOException {
+        List<ServerProfile> snapshot;
+        synchronized (this){
+            snapshot = new ArrayList<>(profiles.values());
+        }
+
+        synchronized (saveLock){
+            File tempFile = new File(file.getPath() + ".tmp");
+            try(Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8))){
+                writer.write(HEADER);
+                writer.write('\n');
+                for (ServerProfile profile : snapshot) {
+                    writer.write(profile.format());
+                    writer.write('\n');
+                }
+            }
+
+            if(!tempFile.renameTo(file)){
+                //the rename does not replace the file on some platforms.
+                file.delete();
+                if(!tempFile.renameTo(file)){
+                    throw new IOException("Save profiles failed:" + file);
+                }
+            }
+        }
+    }
+
+    private boolean isStale(ServerProfile profile) {
+        return maxAge > 0 && System.currentTimeMillis() - profile.getUpdateTime() > maxAge;
+    }
+}
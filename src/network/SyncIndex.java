@@ -0,0 +1,271 @@
+package network;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * the files of a folder as last synchronized with a folder of the server: the path, the size, the modified time and
+ * the digest of every file. the file whose size and modified time are not changed since is not transferred again.
+ * it is kept by the client for every server folder, and also uploaded as the manifest of the server folder, so the
+ * download knows the files of the folder without a listing, which tftp does not have.
+ * the index is a text file:
+ * <pre>
+ * tftp-sync 1
+ * file 1024 1700000000000 9f86d081... conf/a b.cfg
+ * ...
+ * </pre>
+ * every file line is the size, the modified time in millisecond, the digest in hex and the path (maybe with space),
+ * the path is relative to the folder and separated by "/".
+ */
+public class SyncIndex {
+
+    private static final String HEADER = "tftp-sync 1";
+
+    /**
+     * the name of the manifest in the server folder.
+     */
+    public static final String MANIFEST_NAME = ".tftpsync";
+
+    /**
+     * the suffix of the file being downloaded, replaces the file when complete.
+     */
+    public static final String TEMP_SUFFIX = ".tftpsync-part";
+
+    public static final DigestAlgorithm DIGEST_ALGORITHM = DigestAlgorithm.SHA_256;
+
+    /**
+     * the key is the path.
+     */
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * get the file name of the manifest of the server folder.
+     * @param remoteDir the folder of server, "" is the root.
+     */
+    public static String getManifestName(String remoteDir) {
+        return toRemotePath(remoteDir, MANIFEST_NAME);
+    }
+
+    /**
+     * get the file name of server of the path in the folder.
+     * @param remoteDir the folder of server, "" is the root.
+     * @param path the path relative to the folder.
+     */
+    public static String toRemotePath(String remoteDir, String path) {
+        return remoteDir.isEmpty() ? path : remoteDir + "/" + path;
+    }
+
+    /**
+     * get the local file of the path in the folder.
+     * the path of the manifest is from the server, it must not climb out of the folder.
+     * @param localDir the local folder.
+     * @param path the path relative to the folder, separated by "/".
+     */
+    public static File toLocalFile(File localDir, String path) throws IOException {
+        if(path.startsWith("/") || path.indexOf('\\') >= 0){
+            throw new IOException("Bad sync path:" + path);
+        }
+        for (String name : path.split("/", -1)) {
+            if(name.isEmpty() || name.equals(".") || name.equals("..")){
+                throw new IOException("Bad sync path:" + path);
+            }
+        }
+        return new File(localDir, path.replace('/', File.separatorChar));
+    }
+
+    /**
+     * list the files of the folder and its sub folders, the digest of the entries is null.
+     * the manifest and the files being downloaded are not listed.
+     * @param localDir the local folder.
+     * @param skipListener called with the path of the file can not be synced, as the name with a line break or a back slash.
+     */
+    public static List<Entry> scan(File localDir, Consumer<String> skipListener) throws IOException {
+        Path root = localDir.toPath();
+        List<Entry> files = new ArrayList<>();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if(!attrs.isRegularFile()){
+                    return FileVisitResult.CONTINUE;
+                }
+                String path = root.relativize(file).toString().replace(File.separatorChar, '/');
+                if(path.equals(MANIFEST_NAME) || path.endsWith(TEMP_SUFFIX)){
+                    return FileVisitResult.CONTINUE;
+                }
+                if(path.indexOf('\n') >= 0 || path.indexOf('\r') >= 0 || path.indexOf('\\') >= 0){
+                    skipListener.accept(path);
+                    return FileVisitResult.CONTINUE;
+                }
+                files.add(new Entry(path, attrs.size(), attrs.lastModifiedTime().toMillis(), null));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                skipListener.accept(root.relativize(file).toString());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return files;
+    }
+
+    /**
+     * parse the index.
+     * @param data the content of the index.
+     */
+    public static SyncIndex parse(byte[] data) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(data), StandardCharsets.UTF_8));
+        if(!HEADER.equals(reader.readLine())){
+            throw new IOException("Bad sync index header");
+        }
+
+        SyncIndex index = new SyncIndex();
+        String line;
+        while((line = reader.readLine()) != null){
+            String[] fields = line.split(" ", 5);
+            try{
+                if(fields[0].equals("file") && fields.length == 5 && !fields[4].isEmpty()){
+                    index.put(new Entry(fields[4], Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[3]));
+                }else if(!line.trim().isEmpty()){
+                    throw new IOException("Bad sync index line:" + line);
+                }
+            }catch (NumberFormatException e){
+                throw new IOException("Bad sync index line:" + line);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * load the index from the file, empty if the file does not exist.
+     */
+    public static SyncIndex load(File file) throws IOException {
+        if(!file.exists()){
+            return new SyncIndex();
+        }
+        return parse(Files.readAllBytes(file.toPath()));
+    }
+
+    /**
+     * save the index to the file, written to a temp file then renamed, so the file is never half written.
+     */
+    public void save(File file) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        Files.write(tempFile.toPath(), toBytes());
+        if(!tempFile.renameTo(file)){
+            //the rename does not replace the file on some platforms.
+            file.delete();
+            if(!tempFile.renameTo(file)){
+                throw new IOException("Save sync index failed:" + file);
+            }
+        }
+    }
+
+    /**
+     * get the content of the index, the files in the order of the path.
+     */
+    public byte[] toBytes() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(HEADER).append('\n');
+        for (Entry entry : getEntries()) {
+            builder.append("file ").append(entry.size).append(' ').append(entry.modifiedTime).append(' ')
+                    .append(entry.digest).append(' ').append(entry.path).append('\n');
+        }
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * get the entry of the path, null if not in the index.
+     */
+    public Entry get(String path) {
+        return entries.get(path);
+    }
+
+    /**
+     * add or replace the entry of the path, safe to call from the parallel transfers.
+     */
+    public void put(Entry entry) {
+        entries.put(entry.path, entry);
+    }
+
+    public void remove(String path) {
+        entries.remove(path);
+    }
+
+    /**
+     * get the entries in the order of the path.
+     */
+    public List<Entry> getEntries() {
+        List<Entry> list = new ArrayList<>(entries.values());
+        list.sort(Comparator.comparing(Entry::getPath));
+        return list;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * a file of the folder.
+     */
+    public static class Entry {
+
+        private final String path;
+
+        private final long size;
+
+        /**
+         * the modified time of the local file, in millisecond.
+         */
+        private final long modifiedTime;
+
+        /**
+         * the digest in lower case hex.
+         */
+        private final String digest;
+
+        public Entry(String path, long size, long modifiedTime, String digest) {
+            if(path.indexOf('\n') >= 0 || path.indexOf('\r') >= 0){
+                throw new IllegalArgumentException("Path with line break:" + path);
+            }
+            this.path = path;
+            this.size = size;
+            this.modifiedTime = modifiedTime;
+            this.digest = digest;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getModifiedTime() {
+            return modifiedTime;
+        }
+
+        public String getDigest() {
+            return digest;
+        }
+
+        /**
+         * the local file is not changed since the entry, by the size and the modified time.
+         */
+        public boolean matches(long size, long modifiedTime) {
+            return this.size == size && this.modifiedTime == modifiedTime;
+        }
+    }
+}
@@ -1,15 +1,54 @@
 package network;
 
+import network.capture.PacketCapture;
+import network.io.PositionalFileSink;
+import network.io.PositionalOutputStream;
+import network.io.RangeInputStream;
+import network.io.ReadAheadInputStream;
+import network.io.NetasciiInputStream;
+import network.io.NetasciiOutputStream;
+import network.io.CompressingInputStream;
+import network.io.CompressionCodec;
+import network.io.DecompressingOutputStream;
+import network.io.WriteBehindOutputStream;
 import network.packet.*;
+import network.protocol.ReceiverMachine;
+import network.protocol.SenderMachine;
+import network.timer.HashedTimerWheel;
+
+import utils.DataUtils;
 
 import java.io.*;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
 
 /**
  * the tftp client deal with the core of tftp.
@@ -17,21 +56,76 @@ import java.util.function.Consumer;
 public class TftpClient {
 
     /**
-     * the port for receive request.
+     * the name of the threads of the pool, followed by the count.
      */
-    private static final int SERVER_PORT = 69;
-
+    public static final String THREAD_NAME_PREFIX = "tftpClient-";
 
     /**
      * the time out of receive.
      */
     private static final int RECEIVE_TIMEOUT = 5000;
 
+    /**
+     * the min time out of receive, when the time out is learned from the RTT of the server.
+     */
+    private static final int MIN_RECEIVE_TIMEOUT = 500;
+
+    /**
+     * the max count of size probes running at the same time, to all the servers.
+     * the probes take no slot of the server concurrency limit, this is their own budget.
+     */
+    private static final int MAX_PROBES = 4;
+
     /**
      * buffer max size.
      */
     private static final int BUFFER_MAX_LENGTH = 1024;
 
+    /**
+     * the count of chunks read ahead of the upload, when the digest is computed.
+     */
+    private static final int READ_AHEAD_QUEUE_SIZE = 16;
+
+    /**
+     * the byte count of a chunk read ahead of the upload.
+     */
+    private static final int READ_AHEAD_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * the count of chunks between the network loop and the compressor or decompressor.
+     */
+    private static final int CODEC_QUEUE_SIZE = 16;
+
+    /**
+     * the byte count of a chunk passed to the compressor or decompressor.
+     */
+    private static final int CODEC_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * the suffix of the sync index files in the syncIndexDir.
+     */
+    private static final String SYNC_INDEX_SUFFIX = ".index";
+
+    /**
+     * the mark beside the sync index, the manifest of the server folder is not uploaded since the index changed.
+     */
+    private static final String SYNC_STALE_SUFFIX = ".stale";
+
+    /**
+     * the suffix of the file being downloaded, replaces the file when complete.
+     */
+    private static final String DOWNLOAD_TEMP_SUFFIX = ".tftp-part";
+
+    /**
+     * the times to load the cache entry, the entry found broken is removed and downloaded again.
+     */
+    private static final int CACHE_LOAD_ATTEMPTS = 2;
+
+    /**
+     * the transfer running on the thread, tag the log and count the sessions of it.
+     */
+    private static final ThreadLocal<TransferProgress> CURRENT_TRANSFER = new ThreadLocal<>();
+
     /**
      * use to log info.
      */
@@ -42,13 +136,149 @@ public class TftpClient {
      */
     private Consumer<TftpClientStatus> statusListener;
 
+    /**
+     * the listener of the transfers queued, started and ended, null if none.
+     */
+    private volatile Consumer<TransferProgress> transferListener;
+
     private ExecutorService threadpool;
 
+    /**
+     * run the size probes of the queued downloads, at most MAX_PROBES at the same time.
+     * the downloads waiting for a probe are queued tasks, not threads.
+     */
+    private final ExecutorService probePool;
+
+    /**
+     * the max count of the sessions dallying after the final ACK at the same time, every one keeps a socket open.
+     */
+    private static final int MAX_DALLYING_SESSIONS = 1024;
+
+    /**
+     * the sessions dallying now, closed on dispose as the timer polling them stops.
+     */
+    private final Set<TftpSession> dallyingSessions = ConcurrentHashMap.newKeySet();
+
+    /**
+     * the queue of the transfers.
+     */
+    private final TransferScheduler scheduler;
+
+    /**
+     * the timers of all the transfers.
+     */
+    private final HashedTimerWheel timerWheel;
+
+    /**
+     * the config of client.
+     */
+    private final TftpClientConfig config = new TftpClientConfig();
+
+    /**
+     * the counters of the client.
+     */
+    private final TftpMetrics metrics = new TftpMetrics();
+
+    /**
+     * the bytes can be sent at once by the shared limiters after idle.
+     */
+    private static final int RATE_BURST_BYTES = 16 * 1024;
+
+    /**
+     * the bandwidth limiter shared by all the transfers.
+     */
+    private final RateLimiter globalRateLimiter = new RateLimiter(0, RATE_BURST_BYTES);
+
+    /**
+     * the bandwidth limiter of every server.
+     */
+    private final Map<String, RateLimiter> serverRateLimiters = new ConcurrentHashMap<>();
+
+    /**
+     * the adaptive limit of the sessions running against every server.
+     */
+    private final Map<String, ConcurrencyLimiter> serverConcurrencyLimiters = new ConcurrentHashMap<>();
+
+    /**
+     * the sessions open, aborted when the client is disposed.
+     */
+    private final Set<TftpSession> openSessions = ConcurrentHashMap.newKeySet();
+
     /**
      * the retry time of when meet the error data
      */
     private static final int RETRY_TIME = 4;
 
+    /**
+     * the count of recent reply latencies kept for every server.
+     */
+    private static final int LATENCY_SAMPLES = 64;
+
+    /**
+     * the min count of latencies to use the percentile as the hedge delay.
+     */
+    private static final int HEDGE_MIN_SAMPLES = 8;
+
+    /**
+     * the min hedge delay, in millisecond, so a fast mirror does not hedge on every jitter.
+     */
+    private static final int HEDGE_MIN_DELAY = 10;
+
+    /**
+     * the reply latencies of the requests, of every server.
+     */
+    private final Map<String, LatencyTracker> serverLatencies = new ConcurrentHashMap<>();
+
+    /**
+     * the MTU of the local interface routing to every server, for auto block size.
+     */
+    private final Map<String, Integer> serverInterfaceMtus = new ConcurrentHashMap<>();
+
+    /**
+     * the local addresses the sessions bind to, null if bound to the wildcard address.
+     */
+    private LocalAddressPool localAddressPool;
+
+    /**
+     * the ring of the packet headers, null if not captured.
+     */
+    private PacketCapture packetCapture;
+
+    /**
+     * the cache of the downloaded files, null if no cache.
+     */
+    private ContentCache contentCache;
+
+    /**
+     * the max count of server profiles.
+     */
+    private static final int PROFILE_MAX_ENTRIES = 256;
+
+    /**
+     * the server profile not updated in a day is learned again.
+     */
+    private static final long PROFILE_MAX_AGE = 24 * 60 * 60 * 1000L;
+
+    /**
+     * the profiles changed are saved after this delay, so the many short transfers share one write of the file.
+     */
+    private static final long PROFILE_SAVE_DELAY = 10000;
+
+    /**
+     * what is learned of the servers, seed the new transfers.
+     */
+    private final ServerProfileCache profileCache = new ServerProfileCache(PROFILE_MAX_ENTRIES, PROFILE_MAX_AGE);
+
+    /**
+     * the profile file loaded into the cache.
+     */
+    private File loadedProfileFile;
+
+    /**
+     * the profiles changed since the last save, the save is scheduled.
+     */
+    private final AtomicBoolean profilesChanged = new AtomicBoolean();
+
     /**
      * the run status of client.
      */
@@ -61,7 +291,14 @@ public class TftpClient {
      * @param statusListener use to listen to the status change.
      */
     public TftpClient(Consumer<String> logger, Consumer<TftpClientStatus> statusListener){
-        threadpool = Executors.newCachedThreadPool();
+        AtomicInteger threadCount = new AtomicInteger();
+        threadpool = Executors.newCachedThreadPool(r -> new Thread(r, THREAD_NAME_PREFIX + threadCount.incrementAndGet()));
+        ThreadPoolExecutor probeExecutor = new ThreadPoolExecutor(MAX_PROBES, MAX_PROBES, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                r -> new Thread(r, THREAD_NAME_PREFIX + "probe-" + threadCount.incrementAndGet()));
+        probeExecutor.allowCoreThreadTimeOut(true);
+        probePool = probeExecutor;
+        timerWheel = new HashedTimerWheel("tftpTimer");
+        scheduler = new TransferScheduler(threadpool, config::getSchedulePolicy, config::getMaxActiveTransfers);
         this.logger = logger;
         this.statusListener = statusListener;
         run = true;
@@ -73,10 +310,24 @@ public class TftpClient {
      */
     public void dispose(){
         run = false;
+        //tell the servers at once, the transfers blocked in receive end by the closed sockets.
+        for (TftpSession session : openSessions) {
+            if(session.abort(TftpPacketConsts.ERRCODE_UNDEF, "Client disposed")){
+                metrics.addAbortError();
+            }
+        }
+        for (TftpSession session : dallyingSessions) {
+            session.close();
+        }
+        //the profiles learned since the last save.
+        saveProfiles();
         try{
+            scheduler.shutdown();
             if(threadpool != null){
                 threadpool.shutdownNow();
             }
+            probePool.shutdownNow();
+            timerWheel.stop();
         }catch (Exception e){
             e.printStackTrace();
             logger.accept("Dispose error:" + e.getMessage());
@@ -84,240 +335,1863 @@ public class TftpClient {
     }
 
     /**
-     * upload file.
-     * @param ip server ip.
-     * @param file the file to upload.
-     * @param remoteFileName the file name of server.
+     * get the config, the change take effect on the next transfer.
      */
-    public void upLoadFileAsyn(String ip, File file, String remoteFileName) {
-        statusListener.accept(TftpClientStatus.DEALING);
-        logger.accept(String.format("Upload: %s -> %s", file.getName(), remoteFileName));
-        //start the upload task.
-        threadpool.execute(() ->{
-            try(DatagramSocket socket = new DatagramSocket()) {
-                socket.setSoTimeout(RECEIVE_TIMEOUT);
+    public TftpClientConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * get the counters of the client.
+     */
+    public TftpMetrics getMetrics() {
+        return metrics;
+    }
 
-                WRRQPacket wrrqPacket = TftpPacketFactory.buildWRQPacket(ip, SERVER_PORT, remoteFileName, TftpPacketConsts.MODE_OCTET);
-                logger.accept(String.format("Upload:Send request WRQ<%s> Mode<%s>", wrrqPacket.getOpCode(), wrrqPacket.getMode()));
-                //build the wrqPacket.
-                socket.send(wrrqPacket.build());
+    /**
+     * get the profiles learned of the servers.
+     */
+    public ServerProfileCache getProfileCache() {
+        return profileCache;
+    }
 
-                //get response from server.
-                byte[] buffer = new byte[BUFFER_MAX_LENGTH];
-                DatagramPacket responsePacket = new DatagramPacket(buffer, buffer.length);
+    /**
+     * get the queue of the transfers.
+     */
+    public TransferScheduler getScheduler() {
+        return scheduler;
+    }
 
+    /**
+     * get the bandwidth limiter shared by all the transfers, unlimited by default.
+     * the rate can be changed at any time.
+     */
+    public RateLimiter getGlobalRateLimiter() {
+        return globalRateLimiter;
+    }
 
-                int retryCount = 0;
-                TftpPacket tftpPacket = null;
-                while(true){
-                    try{
-                        socket.receive(responsePacket);
-                        tftpPacket = TftpPacketFactory.buildTftpPacket(responsePacket);
-                        short opCode = tftpPacket.getOpCode();
-                        if(opCode == TftpPacketConsts.OP_ERROR){
-                            //error.
-                            ERRORPacket errP = (ERRORPacket)tftpPacket;
-                            throw new RuntimeException(String.format("errcode:%s, errMsg:%s", errP.getErrCode(), errP.getErrMsg()));
-                        }
+    /**
+     * get the bandwidth limiter of the server, unlimited by default.
+     * the rate can be changed at any time.
+     * @param serverIp server ip.
+     */
+    public RateLimiter getServerRateLimiter(String serverIp) {
+        return serverRateLimiters.computeIfAbsent(serverIp, k -> new RateLimiter(0, RATE_BURST_BYTES));
+    }
 
+    /**
+     * get the name of the transfer running on the current thread, as "Upload:a.bin". null if none.
+     * the logger can tell the lines of the concurrent transfers apart by it.
+     */
+    public static String getTransferName() {
+        TransferProgress progress = CURRENT_TRANSFER.get();
+        return progress == null ? null : progress.getName();
+    }
 
-                        if(opCode != TftpPacketConsts.OP_ACK){
-                            logger.accept("Upload:opcode err:" + opCode);
-                            logger.accept("Ignore err packet...");
-                            continue;
-                        }
+    /**
+     * listen to the transfers, called when a transfer is queued, started and ended, on the thread of the transfer.
+     * the progress between is read from the TransferProgress at any time.
+     * the downloads also ask the size of the file by the tsize option then.
+     * @param transferListener null to stop.
+     */
+    public void setTransferListener(Consumer<TransferProgress> transferListener) {
+        this.transferListener = transferListener;
+    }
 
-                        break;
-                    } catch (SocketTimeoutException e) {
-                        e.printStackTrace();
-                        retryCount = checkRetry(retryCount, "Upload:Receive time out");
-                    }
-                }
+    /**
+     * cancel the transfer, the running sessions are aborted with an ERROR so the server stops at once.
+     * the queued transfer fails when it starts, the running one fails soon.
+     */
+    public void cancelTransfer(TransferProgress progress) {
+        progress.cancel();
+        for (TftpSession session : progress.getSessions()) {
+            if(session.abort(TftpPacketConsts.ERRCODE_UNDEF, "Transfer cancelled")){
+                metrics.addAbortError();
+            }
+        }
+        logger.accept(String.format("Transfer:Cancel %s", progress.getName()));
+    }
 
-                logger.accept(String.format("Upload:Receive response opcode:%s(%s), blockNo:%s", TftpPacketConsts.OP_ACK, "ACK", ((ACKPacket) tftpPacket).getBlockNo()));
-                //upload the file data.
-                logger.accept(String.format("Upload:Open file:%s", file.getAbsolutePath()));
-                try(BufferedInputStream bi = new BufferedInputStream(new FileInputStream(file))){
-                    DATAPacket dataPacket = TftpPacketFactory.buildDatapacket(tftpPacket);
-
-                    //start read the data from file.
-                    BooleanSupplier dataReader = dataPacket.readBlockData(bi);
-                    while(dataReader.getAsBoolean() && run){
-                        retryCount = 0;
-                        while(true){
-                            //send to server.
-                            logger.accept(String.format("Upload:Send data packet:%s(%s), blockNo:%s", TftpPacketConsts.OP_DATA, "DATA", dataPacket.getBlockNum()));
-
-                            socket.send(dataPacket.build());
-                            //getResponse.
-                            try{
-                                while (true){
-                                    socket.receive(responsePacket);
-
-                                    TftpPacket response = TftpPacketFactory.buildTftpPacket(responsePacket);
-                                    if(response.getOpCode() == TftpPacketConsts.OP_ERROR){
-                                        //error.
-                                        ERRORPacket errP = (ERRORPacket)response;
-                                        throw new RuntimeException(String.format("errcode:%s, errMsg:%s", errP.getErrCode(), errP.getErrMsg()));
-                                    }
-
-                                    if(response.getOpCode() != TftpPacketConsts.OP_ACK){
-                                        logger.accept("Upload:opcode err:" + response.getOpCode());
-                                        logger.accept("Ignore err packet...");
-                                        continue;
-                                    }
-
-                                    short responseBlockNo = ((ACKPacket) response).getBlockNo();
-                                    logger.accept(String.format("Upload:Receive response opcode:%s(%s), blockNo:%s", TftpPacketConsts.OP_ACK, "ACK", responseBlockNo));
-                                    if(responseBlockNo != dataPacket.getBlockNum()){
-                                        logger.accept(String.format("Upload:block number err:cur:%s, expect:%s", responseBlockNo, dataPacket.getBlockNum()));
-                                        logger.accept("Ignore err packet...");
-                                        continue;
-                                    }
-
-                                    break;
-                                }
-
-                            } catch (SocketTimeoutException e) {
-                                e.printStackTrace();
-                                retryCount = checkRetry(retryCount, "Upload:Receive time out");
-                                continue;
-                            }
-
-                            //if no error happen, then do next
-                            break;
-                        }
+    /**
+     * create the progress of a transfer being queued.
+     * @param name the name of the transfer, as "Upload:a.bin".
+     * @param serverIp
+     * @param size the byte count of the data, -1 if unknown.
+     */
+    private TransferProgress newTransfer(String name, String serverIp, long size) {
+        TransferProgress progress = new TransferProgress(name, serverIp, size);
+        notifyTransfer(progress);
+        return progress;
+    }
 
-                    }
-                }
+    private void notifyTransfer(TransferProgress progress) {
+        Consumer<TransferProgress> listener = transferListener;
+        if(listener != null){
+            listener.accept(progress);
+        }
+    }
 
+    /**
+     * run the task as the transfer, the transfer ends when the task returns.
+     * the task marks the transfer failed by failTransfer.
+     */
+    private Runnable asTransfer(TransferProgress progress, Runnable task) {
+        return () -> {
+            CURRENT_TRANSFER.set(progress);
+            progress.start();
+            notifyTransfer(progress);
+            try{
+                if(progress.isCancelled()){
+                    progress.fail("Transfer cancelled");
+                    return;
+                }
+                task.run();
+            }finally {
+                CURRENT_TRANSFER.remove();
+                progress.finish();
+                notifyTransfer(progress);
+            }
+        };
+    }
 
-                logger.accept(String.format("Upload:Finish file<%s> -> server file<%s>", file.getAbsolutePath() + File.separator + file.getName(), remoteFileName));
-            } catch (Exception e) {
-                e.printStackTrace();
-                logger.accept("Upload:err:" + e.getMessage());
+    /**
+     * run the task as a part of the transfer, on another thread.
+     */
+    private static Runnable inTransfer(TransferProgress progress, Runnable task) {
+        return () -> {
+            CURRENT_TRANSFER.set(progress);
+            try{
+                task.run();
             }finally {
-                statusListener.accept(TftpClientStatus.READY);
+                CURRENT_TRANSFER.remove();
             }
-        });
+        };
     }
 
-    private int checkRetry(int retryCount, String errMsg) {
-        ++retryCount;
-        if(retryCount > RETRY_TIME){
-            throw new RuntimeException(errMsg);
+    /**
+     * mark the transfer of the current thread failed.
+     */
+    private static void failTransfer(Exception e) {
+        TransferProgress progress = CURRENT_TRANSFER.get();
+        if(progress != null){
+            progress.fail(e.getMessage());
         }
-
-        logger.accept(errMsg);
-        logger.accept(String.format("Retrying:retry count:%s...", retryCount));
-        return retryCount;
     }
 
     /**
-     * download file from server
-     * @param serverIp
-     * @param file
-     * @param serverFileName
+     * count the data of the session into the transfer of the current thread.
+     * the session of a cancelled transfer is closed at once, the transfer fails on its first packet.
      */
-    public void downloadFileAsyn(String serverIp, File file, String serverFileName) {
-        statusListener.accept(TftpClientStatus.DEALING);
-        logger.accept(String.format("Download: %s -> %s", serverFileName, file.getName()));
-        //start the download task.
-        threadpool.execute(() ->{
-            try(DatagramSocket socket = new DatagramSocket()) {
-                socket.setSoTimeout(RECEIVE_TIMEOUT);
-
-                WRRQPacket wrrqPacket = TftpPacketFactory.buildRRQPacket(serverIp, SERVER_PORT, serverFileName, TftpPacketConsts.MODE_OCTET);
-                logger.accept(String.format("Download:Send request RRQ<%s> Mode<%s>", wrrqPacket.getOpCode(), wrrqPacket.getMode()));
-                //build the wrqPacket.
-                socket.send(wrrqPacket.build());
-
-                //get response from server.
-                byte[] buffer = new byte[BUFFER_MAX_LENGTH];
-                DatagramPacket responsePacket = new DatagramPacket(buffer, buffer.length);
-
-
-                try(BufferedOutputStream bo = new BufferedOutputStream(new FileOutputStream(file))){
-
-                    short blockNum = 1;
-                    boolean isFinish = false;
-
-                    ACKPacket ackPacket = null;
-
-                    while (true){
-
-                        int retryCount = 0;
-                        while(true){
-                            try{
-                                socket.receive(responsePacket);
-                                TftpPacket tftpPacket = TftpPacketFactory.buildTftpPacket(responsePacket);
-                                short opCode = tftpPacket.getOpCode();
-                                if(opCode == TftpPacketConsts.OP_ERROR){
-                                    //error.
-                                    ERRORPacket errP = (ERRORPacket)tftpPacket;
-
-                                    throw new RuntimeException(String.format("errcode:%s, errMsg:%s", errP.getErrCode(), errP.getErrMsg()));
-                                }
-
-
-                                if(opCode != TftpPacketConsts.OP_DATA){
-                                    logger.accept("Download:opcode err:" + opCode);
-                                    logger.accept("Ignore err packet...");
-                                    continue;
-                                }
-
-                                DATAPacket dataPacket = (DATAPacket)tftpPacket;
-                                logger.accept(String.format("Download:Receive blockNo:%s", dataPacket.getBlockNum()));
-                                if(blockNum != dataPacket.getBlockNum()){
-                                    logger.accept(String.format("Download:block number err:cur:%s, expect:%s", dataPacket.getBlockNum(), blockNum));
-                                    logger.accept("Ignore err packet...");
-                                    continue;
-                                }
-
-                                //save data to file.
-                                dataPacket.writeBlockData(bo);
-                                if(dataPacket.isLast()){
-                                    isFinish = true;
-                                }
-
-                                if(ackPacket == null){
-                                    ackPacket = TftpPacketFactory.buildACKPacket(dataPacket, blockNum);
-                                }
-
-                                break;
-                            } catch (SocketTimeoutException e) {
-                                e.printStackTrace();
-                                retryCount = checkRetry(retryCount, "Download:Receive time out");
-                            }
-                        }
+    private static void trackSession(TftpSession session) {
+        TransferProgress progress = CURRENT_TRANSFER.get();
+        if(progress != null){
+            progress.addSession(session);
+            if(progress.isCancelled()){
+                session.close();
+            }
+        }
+    }
 
+    /**
+     * end the failed session, tell the server by an ERROR so it does not retry until it gives up.
+     */
+    private void abortSession(TftpSession session, Exception e) {
+        TransferProgress progress = CURRENT_TRANSFER.get();
+        String errMsg = !run ? "Client disposed" : progress != null && progress.isCancelled() ? "Transfer cancelled" : e.getMessage();
+        if(session.abort(TftpPacketConsts.ERRCODE_UNDEF, errMsg)){
+            metrics.addAbortError();
+            logger.accept(String.format("Session:Send ERROR to end the session, errMsg:%s", errMsg));
+        }
+    }
 
-                        logger.accept(String.format("Download:Send ACK, blockNo:%s", ackPacket.getBlockNo()));
-                        socket.send(ackPacket.build());
+    /**
+     * close the download session after the final ACK, dally in the background if configured.
+     */
+    private void endDownload(TftpSession session, ACKPacket lastAck) {
+        int dallyTime = config.getDallyTime();
+        if(dallyTime <= 0 || !run){
+            session.close();
+            return;
+        }
+        //the dally holds no thread but a socket, the sockets are bounded.
+        if(dallyingSessions.size() >= MAX_DALLYING_SESSIONS){
+            metrics.addDallySkip();
+            session.close();
+            return;
+        }
+        dallyingSessions.add(session);
+        session.dally(lastAck, dallyTime, timerWheel, threadpool, metrics::addDallyReack, () -> dallyingSessions.remove(session));
+    }
 
-                        if(isFinish){
-                            break;
-                        }
+    /**
+     * upload file.
+     * @param ip server ip.
+     * @param file the file to upload.
+     * @param remoteFileName the file name of server.
+     */
+    public void upLoadFileAsyn(String ip, File file, String remoteFileName) {
+        upLoadFileAsyn(ip, file, remoteFileName, 0);
+    }
 
-                        ++blockNum;
-                        if(blockNum >= Short.MAX_VALUE){
-                            blockNum = 1;
-                        }
-                        //reset the block number.
-                        ackPacket.resetBlockNo(blockNum);
-                    }
+    /**
+     * upload file.
+     * @param ip server ip.
+     * @param file the file to upload.
+     * @param remoteFileName the file name of server.
+     * @param priority the higher starts first under the PRIORITY policy.
+     */
+    public void upLoadFileAsyn(String ip, File file, String remoteFileName, int priority) {
+        statusListener.accept(TftpClientStatus.DEALING);
+        logger.accept(String.format("Upload: %s -> %s", file.getName(), remoteFileName));
+        //queue the upload task.
+        CompressionCodec codec = getCompression(remoteFileName);
+        String mode = getTransferMode(remoteFileName);
+        //the size on the wire is not known until compressed, nor until the line ends are translated.
+        boolean sizeKnown = codec == null && !TftpPacketConsts.MODE_NETASCII.equals(mode);
+        TransferProgress progress = newTransfer("Upload:" + remoteFileName, ip, sizeKnown ? file.length() : -1);
+        scheduler.submit(ip, file.length(), priority, asTransfer(progress, () ->{
+            DigestAlgorithm algorithm = config.getDigestAlgorithm();
+            TransferDigest digest = algorithm == null ? null : new TransferDigest(algorithm);
+            //the digest is computed by the reader ahead, not by the network loop.
+            try(InputStream bi = digest == null ? new BufferedInputStream(new FileInputStream(file))
+                    : new ReadAheadInputStream(new FileInputStream(file), READ_AHEAD_QUEUE_SIZE, READ_AHEAD_CHUNK_SIZE, digest, threadpool);
+                InputStream ci = codec == null ? bi : new CompressingInputStream(bi, codec, CODEC_QUEUE_SIZE, CODEC_CHUNK_SIZE, threadpool)) {
+                logger.accept(String.format("Upload:Open file:%s%s", file.getAbsolutePath(), codec == null ? "" : ", compress:" + codec));
+                //the digest is of the local data, the line ends are translated or the data compressed after it.
+                uploadStream(ip, TftpPacketConsts.MODE_NETASCII.equals(mode) ? new NetasciiInputStream(ci) : ci, remoteFileName, mode);
+                if(digest == null){
+                    logger.accept(String.format("Upload:Finish file<%s> -> server file<%s>", file.getAbsolutePath(), remoteFileName));
+                    return;
+                }
 
-                    bo.flush();
+                logger.accept(String.format("Upload:Finish file<%s> -> server file<%s>, digest:%s", file.getAbsolutePath(), remoteFileName, digest));
+                String suffix = config.getChecksumSuffix();
+                //the digest of the compressed file is of the plain data, not of the file on the server. its checksum
+                //file would fail sha256sum there, so none is written, and the download does not check one.
+                if(suffix != null && codec == null){
+                    //the checksum file in the format of sha256sum, so the download can check against it.
+                    byte[] checksumFile = String.format("%s  %s\n", digest.getHex(), remoteFileName).getBytes(StandardCharsets.US_ASCII);
+                    uploadStream(ip, new ByteArrayInputStream(checksumFile), remoteFileName + suffix);
                 }
+            } catch (Exception e) {
+                e.printStackTrace();
+                failTransfer(e);
+                logger.accept("Upload:err:" + e.getMessage());
+            }finally {
+                statusListener.accept(TftpClientStatus.READY);
+            }
+        }));
+    }
+
+    /**
+     * upload the file in parts, the parts are uploaded in parallel, then the manifest.
+     * the file "name" is stored as "name.part0000"... and "name.manifest" on the server.
+     * @param ip server ip.
+     * @param file the file to upload.
+     * @param remoteFileName the file name of server.
+     */
+    public void upLoadFileChunkedAsyn(String ip, File file, String remoteFileName) {
+        statusListener.accept(TftpClientStatus.DEALING);
+        logger.accept(String.format("Upload chunked: %s -> %s", file.getName(), remoteFileName));
+        TransferProgress progress = newTransfer("Upload:" + remoteFileName, ip, file.length());
+        scheduler.submit(ip, file.length(), 0, asTransfer(progress, () ->{
+            try(FileInputStream fi = new FileInputStream(file)) {
+                FileChannel channel = fi.getChannel();
+                ChunkManifest manifest = ChunkManifest.split(remoteFileName, channel.size(), config.getChunkSize());
+                List<ChunkManifest.Part> parts = manifest.getParts();
+                logger.accept(String.format("Upload:Split file:%s, size:%s, parts:%s", file.getAbsolutePath(), manifest.getSize(), parts.size()));
+                runParts(parts.size(), index -> {
+                    ChunkManifest.Part part = parts.get(index);
+                    //every part reads its own range of the file, and sums it on the way.
+                    CheckedInputStream ci = new CheckedInputStream(
+                            new BufferedInputStream(new RangeInputStream(channel, part.getOffset(), part.getLength())), new CRC32());
+                    uploadStream(ip, ci, part.getName());
+                    part.setChecksum(ci.getChecksum().getValue());
+                });
 
-                logger.accept(String.format("Download:Finish file<%s> -> server file<%s>", file.getName(), serverFileName));
+                //the manifest is the last, so a file with the manifest is complete.
+                uploadStream(ip, new ByteArrayInputStream(manifest.toBytes()), ChunkManifest.getManifestName(remoteFileName));
+                logger.accept(String.format("Upload:Finish file<%s> -> server file<%s>, parts:%s", file.getAbsolutePath(), remoteFileName, parts.size()));
             } catch (Exception e) {
                 e.printStackTrace();
-                file.delete();
-                logger.accept("Download:err:" + e.getMessage());
+                failTransfer(e);
+                logger.accept("Upload:err:" + e.getMessage());
             }finally {
                 statusListener.accept(TftpClientStatus.READY);
             }
-        });
+        }));
+    }
+
+    /**
+     * upload the files of the local folder and its sub folders into the server folder, with the same paths.
+     * only the files changed since the last sync with the server folder are uploaded, in parallel. what is synced is
+     * kept in the sync index of the syncIndexDir, and uploaded as the manifest of the server folder for syncDownAsyn.
+     * the files deleted locally are dropped from the index, not from the server, tftp can not delete.
+     * @param ip server ip.
+     * @param localDir the local folder.
+     * @param remoteDir the folder of server, "" is the root.
+     */
+    public void syncUpAsyn(String ip, File localDir, String remoteDir) {
+        statusListener.accept(TftpClientStatus.DEALING);
+        String dir = normalizeRemoteDir(remoteDir);
+        logger.accept(String.format("Sync up: %s -> %s", localDir.getAbsolutePath(), dir));
+        TransferProgress progress = newTransfer("Sync up:" + dir, ip, -1);
+        scheduler.submit(ip, TransferScheduler.UNKNOWN_SIZE, 0, asTransfer(progress, () ->{
+            try{
+                syncUp(ip, localDir, dir);
+            }catch (Exception e){
+                e.printStackTrace();
+                failTransfer(e);
+                logger.accept("Sync:err:" + e.getMessage());
+            }finally {
+                statusListener.accept(TftpClientStatus.READY);
+            }
+        }));
+    }
+
+    /**
+     * download the files of the server folder into the local folder and its sub folders, with the same paths.
+     * the files are known by the manifest syncUpAsyn uploads, only the files changed on the server, or changed
+     * locally, since the last sync are downloaded, in parallel. the local files not on the server are kept.
+     * @param ip server ip.
+     * @param localDir the local folder, created if not exists.
+     * @param remoteDir the folder of server, "" is the root.
+     */
+    public void syncDownAsyn(String ip, File localDir, String remoteDir) {
+        statusListener.accept(TftpClientStatus.DEALING);
+        String dir = normalizeRemoteDir(remoteDir);
+        logger.accept(String.format("Sync down: %s -> %s", dir, localDir.getAbsolutePath()));
+        TransferProgress progress = newTransfer("Sync down:" + dir, ip, -1);
+        scheduler.submit(ip, TransferScheduler.UNKNOWN_SIZE, 0, asTransfer(progress, () ->{
+            try{
+                syncDown(ip, localDir, dir);
+            }catch (Exception e){
+                e.printStackTrace();
+                failTransfer(e);
+                logger.accept("Sync:err:" + e.getMessage());
+            }finally {
+                statusListener.accept(TftpClientStatus.READY);
+            }
+        }));
+    }
+
+    private void syncUp(String ip, File localDir, String remoteDir) throws Exception {
+        if(!localDir.isDirectory()){
+            throw new IOException("Not a folder:" + localDir);
+        }
+
+        File indexFile = getSyncIndexFile(ip, localDir, remoteDir);
+        SyncIndex index = SyncIndex.load(indexFile);
+        List<SyncIndex.Entry> localFiles = SyncIndex.scan(localDir, path -> logger.accept("Sync:Skip " + path));
+        //the size and the modified time tell the changed files, the unchanged ones are not read.
+        Set<String> paths = new HashSet<>();
+        List<SyncIndex.Entry> changed = new ArrayList<>();
+        long changedBytes = 0;
+        for (SyncIndex.Entry local : localFiles) {
+            paths.add(local.getPath());
+            SyncIndex.Entry synced = index.get(local.getPath());
+            if(synced == null || !synced.matches(local.getSize(), local.getModifiedTime())){
+                changed.add(local);
+                changedBytes += local.getSize();
+            }
+        }
+        int removed = 0;
+        for (SyncIndex.Entry synced : index.getEntries()) {
+            if(!paths.contains(synced.getPath())){
+                index.remove(synced.getPath());
+                ++removed;
+            }
+        }
+        CURRENT_TRANSFER.get().setSize(changedBytes);
+        logger.accept(String.format("Sync:Files:%s, changed:%s, removed:%s, bytes:%s", localFiles.size(), changed.size(), removed, changedBytes));
+
+        //the manifest of the server is stale until it is uploaded, even if this sync fails half way.
+        File staleMark = new File(indexFile.getPath() + SYNC_STALE_SUFFIX);
+        if(!changed.isEmpty() || removed > 0){
+            Files.write(staleMark.toPath(), new byte[0]);
+        }
+        AtomicInteger uploaded = new AtomicInteger();
+        try{
+            runParts(config.getSyncParallelism(), changed.size(), i -> {
+                SyncIndex.Entry local = changed.get(i);
+                File file = SyncIndex.toLocalFile(localDir, local.getPath());
+                SyncIndex.Entry synced = index.get(local.getPath());
+                if(synced != null && synced.getSize() == local.getSize()){
+                    //only touched, the content is the same.
+                    String digest = TransferDigest.ofFile(SyncIndex.DIGEST_ALGORITHM, file).getHex();
+                    if(digest.equals(synced.getDigest())){
+                        index.put(new SyncIndex.Entry(local.getPath(), local.getSize(), local.getModifiedTime(), digest));
+                        return;
+                    }
+                }
+
+                TransferDigest digest = new TransferDigest(SyncIndex.DIGEST_ALGORITHM);
+                try(InputStream in = new ReadAheadInputStream(new FileInputStream(file), READ_AHEAD_QUEUE_SIZE, READ_AHEAD_CHUNK_SIZE, digest, threadpool)){
+                    uploadStream(ip, in, SyncIndex.toRemotePath(remoteDir, local.getPath()));
+                }
+                index.put(new SyncIndex.Entry(local.getPath(), local.getSize(), local.getModifiedTime(), digest.getHex()));
+                uploaded.incrementAndGet();
+            });
+        }finally {
+            //keep what is done, the next sync goes on from it.
+            index.save(indexFile);
+        }
+
+        if(staleMark.exists()){
+            uploadStream(ip, new ByteArrayInputStream(index.toBytes()), SyncIndex.getManifestName(remoteDir));
+            staleMark.delete();
+        }
+        logger.accept(String.format("Sync:Finish %s -> %s, uploaded:%s, unchanged:%s", localDir.getAbsolutePath(), remoteDir,
+                uploaded.get(), localFiles.size() - uploaded.get()));
+    }
+
+    private void syncDown(String ip, File localDir, String remoteDir) throws Exception {
+        ByteArrayOutputStream manifestData = new ByteArrayOutputStream();
+        downloadStream(ip, manifestData, SyncIndex.getManifestName(remoteDir));
+        SyncIndex remote = SyncIndex.parse(manifestData.toByteArray());
+        if(!localDir.isDirectory() && !localDir.mkdirs()){
+            throw new IOException("Can not create folder:" + localDir);
+        }
+
+        File indexFile = getSyncIndexFile(ip, localDir, remoteDir);
+        SyncIndex index = SyncIndex.load(indexFile);
+        List<SyncIndex.Entry> changed = new ArrayList<>();
+        long changedBytes = 0;
+        for (SyncIndex.Entry entry : remote.getEntries()) {
+            File file = SyncIndex.toLocalFile(localDir, entry.getPath());
+            SyncIndex.Entry synced = index.get(entry.getPath());
+            //not changed on the server, and not changed locally since the last sync.
+            if(synced != null && synced.getDigest().equals(entry.getDigest()) && synced.matches(file.length(), file.lastModified())){
+                continue;
+            }
+            changed.add(entry);
+            changedBytes += entry.getSize();
+        }
+        for (SyncIndex.Entry synced : index.getEntries()) {
+            if(remote.get(synced.getPath()) == null){
+                index.remove(synced.getPath());
+            }
+        }
+        CURRENT_TRANSFER.get().setSize(changedBytes);
+        logger.accept(String.format("Sync:Files:%s, changed:%s, bytes:%s", remote.size(), changed.size(), changedBytes));
+
+        AtomicInteger downloaded = new AtomicInteger();
+        try{
+            runParts(config.getSyncParallelism(), changed.size(), i -> {
+                SyncIndex.Entry entry = changed.get(i);
+                File file = SyncIndex.toLocalFile(localDir, entry.getPath());
+                //the file is already there, as before the first sync.
+                if(file.isFile() && file.length() == entry.getSize()
+                        && TransferDigest.ofFile(SyncIndex.DIGEST_ALGORITHM, file).matches(entry.getDigest())){
+                    index.put(new SyncIndex.Entry(entry.getPath(), file.length(), file.lastModified(), entry.getDigest()));
+                    return;
+                }
+
+                //the parallel parts may create the same folder.
+                Files.createDirectories(file.getParentFile().toPath());
+                //the file is replaced only when complete and verified.
+                File tempFile = new File(file.getPath() + SyncIndex.TEMP_SUFFIX);
+                try{
+                    TransferDigest digest = new TransferDigest(SyncIndex.DIGEST_ALGORITHM);
+                    try(WriteBehindOutputStream bo = new WriteBehindOutputStream(tempFile, config.getWriteBehindQueueSize(), config.isSyncOnFinish(), threadpool, digest)){
+                        downloadStream(ip, bo, SyncIndex.toRemotePath(remoteDir, entry.getPath()));
+                    }
+                    if(!digest.matches(entry.getDigest())){
+                        throw new IOException(String.format("Digest mismatch of %s, expect:%s, actual:%s", entry.getPath(), entry.getDigest(), digest));
+                    }
+                    Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }finally {
+                    tempFile.delete();
+                }
+                index.put(new SyncIndex.Entry(entry.getPath(), file.length(), file.lastModified(), entry.getDigest()));
+                downloaded.incrementAndGet();
+            });
+        }finally {
+            index.save(indexFile);
+        }
+        logger.accept(String.format("Sync:Finish %s -> %s, downloaded:%s, unchanged:%s", remoteDir, localDir.getAbsolutePath(),
+                downloaded.get(), remote.size() - downloaded.get()));
+    }
+
+    /**
+     * get the file of the sync index of the local folder and the server folder, named by the hash of them.
+     */
+    private File getSyncIndexFile(String ip, File localDir, String remoteDir) throws IOException {
+        File dir = config.getSyncIndexDir();
+        if(!dir.isDirectory() && !dir.mkdirs()){
+            throw new IOException("Can not create sync index folder:" + dir);
+        }
+
+        byte[] key = String.format("%s:%s|%s|%s", ip, config.getServerPort(), remoteDir, localDir.getCanonicalPath()).getBytes(StandardCharsets.UTF_8);
+        TransferDigest digest = new TransferDigest(DigestAlgorithm.SHA_256);
+        digest.update(key, 0, key.length);
+        return new File(dir, digest.getHex() + SYNC_INDEX_SUFFIX);
+    }
+
+    /**
+     * the folder of server without the "/" at the ends, "" is the root.
+     */
+    private static String normalizeRemoteDir(String remoteDir) {
+        String dir = remoteDir.trim().replace('\\', '/');
+        while(dir.startsWith("/")){
+            dir = dir.substring(1);
+        }
+        while(dir.endsWith("/")){
+            dir = dir.substring(0, dir.length() - 1);
+        }
+        return dir;
+    }
+
+    /**
+     * upload the data as a file of the server.
+     * @param ip server ip.
+     * @param inputStream the data to upload.
+     * @param remoteFileName the file name of server.
+     */
+    private void uploadStream(String ip, InputStream inputStream, String remoteFileName) throws IOException {
+        uploadStream(ip, inputStream, remoteFileName, TftpPacketConsts.MODE_OCTET);
+    }
+
+    /**
+     * upload the data as a file of the server.
+     * @param ip server ip.
+     * @param inputStream the data to upload, already in the form of the mode.
+     * @param remoteFileName the file name of server.
+     * @param mode the mode of the request.
+     */
+    private void uploadStream(String ip, InputStream inputStream, String remoteFileName, String mode) throws IOException {
+        TftpSession session = openSession(ip);
+        trackSession(session);
+        try{
+            //the server accept the request with ACK 0, or OACK if it support the options.
+            Map<String, String> options = buildRequestOptions(ip);
+            TftpPacket response = sendRequest(session, TftpPacketConsts.OP_WRQ, remoteFileName, mode, "Upload", options, () -> false);
+            int windowSize = 1;
+            int blockSize = DATAPacket.DATA_SIZE;
+            if(response.getOpCode() == TftpPacketConsts.OP_OACK){
+                windowSize = negotiateWindowSize((OACKPacket) response);
+                blockSize = negotiateBlockSize((OACKPacket) response, getRequestedBlockSize(options));
+            }
+
+            logger.accept(String.format("Upload:Send file:%s, windowSize:%s, blockSize:%s", remoteFileName, windowSize, blockSize));
+            session.getStats().setWindowSize(windowSize);
+            session.getStats().setBlockSize(blockSize);
+            session.setInFlightBytes((long) windowSize * blockSize);
+            UploadWindow window = new UploadWindow(session.getPeerAddress(), inputStream, windowSize, blockSize);
+            uploadData(session, window, createPacer(ip));
+            recordTransfer(ip, session);
+        }catch (IOException | RuntimeException e){
+            dumpCapture(session);
+            abortSession(session, e);
+            throw e;
+        }finally {
+            session.close();
+        }
+    }
+
+    /**
+     * download the file of the server as a stream.
+     * @param ip server ip.
+     * @param outputStream the output of the data, closed before the last ack.
+     * @param serverFileName the file name of server.
+     */
+    private void downloadStream(String ip, OutputStream outputStream, String serverFileName) throws IOException {
+        TftpSession session = openSession(ip);
+        trackSession(session);
+        try{
+            Map<String, String> options = buildRequestOptions(ip);
+            TftpPacket response = sendRequest(session, TftpPacketConsts.OP_RRQ, serverFileName, TftpPacketConsts.MODE_OCTET, "Download", options, () -> false);
+            ACKPacket lastAck = downloadData(session, response, getRequestedBlockSize(options), outputStream, createPacer(ip));
+            recordTransfer(ip, session);
+            endDownload(session, lastAck);
+        }catch (IOException | RuntimeException e){
+            dumpCapture(session);
+            abortSession(session, e);
+            throw e;
+        }
+    }
+
+    /**
+     * the task of one part.
+     */
+    private interface PartTask {
+        void run(int index) throws Exception;
+    }
+
+    /**
+     * run the tasks of the parts, at most chunkParallelism at the same time.
+     * the first error stops the parts not started, and is thrown when the running parts end.
+     * @param partCount
+     * @param task
+     */
+    private void runParts(int partCount, PartTask task) throws Exception {
+        runParts(config.getChunkParallelism(), partCount, task);
+    }
+
+    /**
+     * run the tasks of the parts, at most parallelism at the same time.
+     */
+    private void runParts(int maxParallelism, int partCount, PartTask task) throws Exception {
+        int parallelism = Math.min(maxParallelism, partCount);
+        AtomicInteger nextPart = new AtomicInteger();
+        AtomicReference<Exception> error = new AtomicReference<>();
+        CountDownLatch finish = new CountDownLatch(parallelism);
+        TransferProgress progress = CURRENT_TRANSFER.get();
+        for (int i = 0; i < parallelism; i++) {
+            threadpool.execute(inTransfer(progress, () -> {
+                try{
+                    int index;
+                    while(error.get() == null && (index = nextPart.getAndIncrement()) < partCount){
+                        task.run(index);
+                    }
+                }catch (Exception e){
+                    error.compareAndSet(null, e);
+                }finally {
+                    finish.countDown();
+                }
+            }));
+        }
+
+        finish.await();
+        if(error.get() != null){
+            throw error.get();
+        }
+    }
+
+    /**
+     * send the window of blocks and wait for the ack, until all the blocks are acknowledged.
+     * the protocol is run by the sender machine, here only the I/O.
+     * @param session
+     * @param window
+     * @param pacer pace the data packets, so the window is not sent as a burst.
+     */
+    private void uploadData(TftpSession session, UploadWindow window, TransferPacer pacer) throws IOException {
+        UploadActions actions = new UploadActions(session, window, pacer);
+        SenderMachine machine = new SenderMachine(window, actions, config.isFastRetransmit(), getMaxRetries(session));
+        machine.start();
+        while(!machine.isDone()){
+            checkRun();
+            TftpPacket response;
+            try{
+                response = session.receive((int) (actions.deadline - System.currentTimeMillis()));
+            } catch (SocketTimeoutException e) {
+                session.getStats().addTimeout();
+                machine.onTimeout();
+                checkFailed(session, machine.isFailed(), "Upload:Receive time out");
+                continue;
+            }
+            checkError(response);
+
+            if(response.getOpCode() != TftpPacketConsts.OP_ACK){
+                logger.accept("Upload:opcode err:" + response.getOpCode());
+                logger.accept("Ignore err packet...");
+                continue;
+            }
+
+            short responseBlockNo = ((ACKPacket) response).getBlockNo();
+            if(config.isLogBlocks()){
+                logger.accept(String.format("Upload:Receive response opcode:%s(%s), blockNo:%s", TftpPacketConsts.OP_ACK, "ACK", window.toAbsolute(responseBlockNo)));
+            }
+            machine.onAck(responseBlockNo);
+        }
+    }
+
+    /**
+     * do the actions of the upload on the session.
+     */
+    private class UploadActions implements SenderMachine.Actions {
+
+        private final TftpSession session;
+
+        private final UploadWindow window;
+
+        private final TransferPacer pacer;
+
+        /**
+         * the time the window is sent, in nanosecond.
+         */
+        private long windowSentTime;
+
+        /**
+         * the time out of the window, in millisecond.
+         */
+        private long deadline;
+
+        private UploadActions(TftpSession session, UploadWindow window, TransferPacer pacer) {
+            this.session = session;
+            this.window = window;
+            this.pacer = pacer;
+        }
+
+        @Override
+        public void sendData(long blockNo, boolean retransmit) throws IOException {
+            DATAPacket dataPacket = window.get(blockNo);
+            pacer.acquire(dataPacket.getDataLength() + 4);
+            if(retransmit){
+                session.getStats().addRetransmit();
+            }else{
+                session.getStats().addBlock(dataPacket.getDataLength());
+            }
+            //send to server.
+            if(config.isLogBlocks()){
+                logger.accept(String.format("Upload:Send data packet:%s(%s), blockNo:%s", TftpPacketConsts.OP_DATA, "DATA", blockNo));
+            }
+            session.send(dataPacket);
+        }
+
+        @Override
+        public void startTimer() {
+            windowSentTime = System.nanoTime();
+            deadline = System.currentTimeMillis() + session.getReceiveTimeout();
+        }
+
+        @Override
+        public void acked(long blockNo, boolean rttSample) {
+            session.touch();
+            if(rttSample){
+                session.getStats().addRtt(System.nanoTime() - windowSentTime);
+            }
+        }
+
+        @Override
+        public void duplicateAck(long blockNo) {
+            metrics.addDuplicateAck();
+            logger.accept(String.format("Upload:duplicate ACK:cur:%s, expect:%s", blockNo, window.getLastRead()));
+        }
+
+        @Override
+        public void fastRetransmit(long fromBlock) {
+            metrics.addFastRetransmit();
+            logger.accept("Upload:fast retransmit from blockNo:" + fromBlock);
+        }
+
+        @Override
+        public void timeout(int retryCount) {
+            metrics.addTimeoutRetransmit();
+            logger.accept("Upload:Receive time out");
+            logger.accept(String.format("Retrying:retry count:%s...", retryCount));
+        }
+    }
+
+    /**
+     * send the RRQ or WRQ, and wait for the server to accept it.
+     * the request is sent again when time out, and without option if the server refuse the options.
+     *
+     * @param session
+     * @param opCode OP_RRQ or OP_WRQ.
+     * @param fileName the file name of server.
+     * @param mode MODE_OCTET or MODE_NETASCII.
+     * @param tag the tag of log.
+     * @param options the options of the request.
+     * @param cancelled stop to send the request again when true, the answer of the last one is still waited.
+     * @return the OACK, or ACK 0 for WRQ, or DATA 1 for RRQ.
+     */
+    private TftpPacket sendRequest(TftpSession session, short opCode, String fileName, String mode, String tag, Map<String, String> options,
+                                   BooleanSupplier cancelled) throws IOException {
+        String serverIp = session.getRequestAddress().getHostString();
+        ServerProfile profile = getProfile(serverIp);
+        if(!options.isEmpty() && profile.isOptionsUnsupported()){
+            //the server is known to ignore the options, do not wait for the negotiation.
+            options = Collections.emptyMap();
+        }
+
+        WRRQPacket request = TftpPacketFactory.buildRequestPacket(session.getRequestAddress(), opCode, fileName, mode, options);
+        String requestName = opCode == TftpPacketConsts.OP_RRQ ? "RRQ" : "WRQ";
+        logger.accept(String.format("%s:Send request %s<%s> Mode<%s> Options<%s>", tag, requestName, opCode, request.getMode(), options));
+        session.send(request);
+        long sendTime = System.nanoTime();
+
+        int retryCount = 0;
+        while(true){
+            try{
+                TftpPacket response = session.receive();
+                short responseOpCode = response.getOpCode();
+                if(retryCount == 0){
+                    //the latency after a retransmit is ambiguous, not recorded.
+                    session.getStats().addRtt(System.nanoTime() - sendTime);
+                    long latency = (System.nanoTime() - sendTime) / 1000000;
+                    getServerLatency(serverIp).record(latency);
+                    profile.recordRtt(latency);
+                }
+                if(responseOpCode == TftpPacketConsts.OP_ERROR
+                        && ((ERRORPacket) response).getErrCode() == TftpPacketConsts.ERRCODE_OPTION && !options.isEmpty()){
+                    //the server refuse the options, request again without option.
+                    logger.accept(String.format("%s:Options refused, send request %s without option", tag, requestName));
+                    profile.setOptionsSupported(false);
+                    options = Collections.emptyMap();
+                    request = TftpPacketFactory.buildRequestPacket(session.getRequestAddress(), opCode, fileName, mode, options);
+                    session.resetPeer();
+                    session.send(request);
+                    sendTime = System.nanoTime();
+                    continue;
+                }
+
+                checkError(response);
+                if(responseOpCode == TftpPacketConsts.OP_OACK){
+                    logger.accept(String.format("%s:Receive response opcode:%s(%s), options:%s", tag, responseOpCode, "OACK", ((OACKPacket) response).getOptions()));
+                    profile.setOptionsSupported(true);
+                    return response;
+                }
+
+                if(opCode == TftpPacketConsts.OP_WRQ && responseOpCode == TftpPacketConsts.OP_ACK && ((ACKPacket) response).getBlockNo() == 0){
+                    logger.accept(String.format("%s:Receive response opcode:%s(%s), blockNo:%s", tag, responseOpCode, "ACK", 0));
+                    if(!options.isEmpty()){
+                        //the server ignores the options.
+                        profile.setOptionsSupported(false);
+                    }
+                    return response;
+                }
+
+                if(opCode == TftpPacketConsts.OP_RRQ && responseOpCode == TftpPacketConsts.OP_DATA && ((DATAPacket) response).getBlockNum() == 1){
+                    if(!options.isEmpty()){
+                        profile.setOptionsSupported(false);
+                    }
+                    return response;
+                }
+
+                logger.accept(String.format("%s:opcode err:%s", tag, responseOpCode));
+                logger.accept("Ignore err packet...");
+            } catch (SocketTimeoutException e) {
+                if(cancelled.getAsBoolean()){
+                    throw new SocketTimeoutException(tag + ":Request cancelled");
+                }
+
+                session.getStats().addTimeout();
+                retryCount = checkRetry(session, retryCount, tag + ":Receive time out");
+                metrics.addTimeoutRetransmit();
+                session.send(request);
+            }
+        }
+    }
+
+    /**
+     * build the options of the request, the window size is the best learned of the server.
+     * @param serverIp server ip.
+     */
+    private Map<String, String> buildRequestOptions(String serverIp) {
+        Map<String, String> options = new LinkedHashMap<>();
+        int windowSize = getProfile(serverIp).chooseWindowSize(config.getWindowSize());
+        if(windowSize > 1){
+            options.put(TftpPacketConsts.OPTION_WINDOWSIZE, String.valueOf(windowSize));
+        }
+        int blockSize = chooseBlockSize(serverIp);
+        if(blockSize != DATAPacket.DATA_SIZE){
+            options.put(TftpPacketConsts.OPTION_BLKSIZE, String.valueOf(blockSize));
+        }
+        return options;
+    }
+
+    /**
+     * choose the block size to request.
+     * in auto mode, the largest block not fragmented on the path, stepped down by the profile when the loss spikes.
+     * @param serverIp server ip.
+     */
+    private int chooseBlockSize(String serverIp) {
+        if(!config.isAutoBlockSize()){
+            return config.getBlockSize();
+        }
+
+        int mtu = config.getPathMtu();
+        if(mtu <= 0){
+            mtu = serverInterfaceMtus.computeIfAbsent(serverIp, PathMtu::getInterfaceMtu);
+        }
+        return getProfile(serverIp).chooseBlockSize(PathMtu.toBlockSize(mtu, serverIp));
+    }
+
+    /**
+     * get the window size accepted by the server, never larger than requested.
+     * @param oackPacket
+     */
+    private int negotiateWindowSize(OACKPacket oackPacket) {
+        int windowSize = oackPacket.getIntOption(TftpPacketConsts.OPTION_WINDOWSIZE, 1);
+        return Math.max(1, Math.min(windowSize, config.getWindowSize()));
+    }
+
+    /**
+     * get the block size requested by the options.
+     * @param options
+     */
+    private int getRequestedBlockSize(Map<String, String> options) {
+        String blockSize = options.get(TftpPacketConsts.OPTION_BLKSIZE);
+        return blockSize == null ? DATAPacket.DATA_SIZE : Integer.parseInt(blockSize);
+    }
+
+    /**
+     * get the block size accepted by the server, 512 if the server does not accept the option.
+     * @param oackPacket
+     * @param requestedBlockSize
+     * @throws RuntimeException if the server answers a block size not allowed, the transfer can not go on.
+     */
+    private int negotiateBlockSize(OACKPacket oackPacket, int requestedBlockSize) {
+        int blockSize = oackPacket.getIntOption(TftpPacketConsts.OPTION_BLKSIZE, DATAPacket.DATA_SIZE);
+        if(blockSize != DATAPacket.DATA_SIZE && (blockSize < DATAPacket.MIN_BLOCK_SIZE || blockSize > requestedBlockSize)){
+            throw new RuntimeException(String.format("Bad blksize of server:%s, requested:%s", blockSize, requestedBlockSize));
+        }
+        return blockSize;
+    }
+
+    /**
+     * throw if the packet is an error.
+     * @param tftpPacket
+     */
+    private void checkError(TftpPacket tftpPacket) {
+        if(tftpPacket.getOpCode() == TftpPacketConsts.OP_ERROR){
+            ERRORPacket errP = (ERRORPacket) tftpPacket;
+            throw new RuntimeException(String.format("errcode:%s, errMsg:%s", errP.getErrCode(), errP.getErrMsg()));
+        }
+    }
+
+    /**
+     * throw if the client is disposed.
+     */
+    private void checkRun() {
+        if(!run){
+            throw new RuntimeException("Client disposed");
+        }
+    }
+
+    /**
+     * create the pacer of a transfer, limited by the global, the server and the transfer cap.
+     * @param serverIp server ip.
+     */
+    private TransferPacer createPacer(String serverIp) {
+        return new TransferPacer(config::getTransferRateLimit, globalRateLimiter, getServerRateLimiter(serverIp));
+    }
+
+    /**
+     * open the session to the server.
+     * @param serverIp server ip.
+     */
+    private TftpSession openSession(String serverIp) throws IOException {
+        return openSession(serverIp, true);
+    }
+
+    /**
+     * open the session to the server.
+     * @param serverIp server ip.
+     * @param limited take a slot of the server concurrency limit, the size probes do not.
+     */
+    private TftpSession openSession(String serverIp, boolean limited) throws IOException {
+        //wait until the server can take one more session.
+        ConcurrencyLimiter limiter = limited ? getServerConcurrencyLimiter(serverIp) : null;
+        if(limiter != null){
+            limiter.acquire();
+        }
+
+        //the time out is learned from the RTT of the server, so the lost packet is found soon.
+        int receiveTimeout = getProfile(serverIp).getReceiveTimeout(RECEIVE_TIMEOUT, MIN_RECEIVE_TIMEOUT);
+        InetSocketAddress requestAddress = new InetSocketAddress(serverIp, config.getServerPort());
+        LocalAddressPool.Lease localLease = null;
+        TftpSession session;
+        try{
+            //spread the sessions across the local addresses.
+            LocalAddressPool pool = getLocalAddressPool();
+            if(pool != null && !requestAddress.isUnresolved()){
+                localLease = pool.acquire(requestAddress.getAddress(), config.getBindPolicy());
+            }
+            session = new TftpSession(requestAddress, localLease, receiveTimeout, BUFFER_MAX_LENGTH, config.isConnectToPeer(), logger);
+        }catch (IOException | RuntimeException e){
+            if(localLease != null){
+                localLease.release(0);
+            }
+            if(limiter != null){
+                limiter.release(-1, 0);
+            }
+            throw e;
+        }
+
+        PacketCapture capture = getPacketCapture();
+        if(capture != null){
+            session.setCapture(capture);
+        }
+
+        TransferStats stats = session.getStats();
+        openSessions.add(session);
+        session.setCloseAction(() -> {
+            openSessions.remove(session);
+            if(limiter != null){
+                limiter.release(stats.getMeanRtt(), stats.getTimeoutRate());
+            }
+        });
+        if(config.getSessionIdleTimeout() > 0){
+            session.startIdleTimer(timerWheel, config.getSessionIdleTimeout());
+        }
+        return session;
+    }
+
+    /**
+     * get the cache of the downloaded files, opened again when the config changes.
+     * @return the cache, null if no cache folder is set or the folder can not be used.
+     */
+    public synchronized ContentCache getContentCache() {
+        File cacheDir = config.getCacheDir();
+        long maxBytes = config.getCacheMaxBytes();
+        if(cacheDir == null){
+            contentCache = null;
+        }else if(contentCache == null || !contentCache.getDir().equals(cacheDir) || contentCache.getMaxBytes() != maxBytes){
+            try{
+                contentCache = new ContentCache(cacheDir, maxBytes);
+            }catch (IOException e){
+                logger.accept("Open cache error:" + e.getMessage());
+                contentCache = null;
+            }
+        }
+        return contentCache;
+    }
+
+    /**
+     * get the ring of the packet headers, built again when the config changes.
+     * @return the capture, null if the capture is off.
+     */
+    public synchronized PacketCapture getPacketCapture() {
+        int records = config.getCaptureRecords();
+        if(records == 0){
+            packetCapture = null;
+        }else if(packetCapture == null || packetCapture.getCapacity() != records){
+            packetCapture = new PacketCapture(records);
+        }
+        return packetCapture;
+    }
+
+    /**
+     * dump the packet headers captured of all the transfers to the file in pcap format.
+     * @param file the pcap file.
+     * @return the count of packets dumped.
+     * @throws IllegalStateException if the capture is off.
+     */
+    public int dumpCapture(File file) throws IOException {
+        PacketCapture capture = getPacketCapture();
+        if(capture == null){
+            throw new IllegalStateException("Capture is off");
+        }
+        return capture.dump(file);
+    }
+
+    /**
+     * dump the packet headers of the failed transfer into the capture folder, if it is set.
+     * @param session the session of the transfer.
+     */
+    private void dumpCapture(TftpSession session) {
+        PacketCapture capture = getPacketCapture();
+        File captureDir = config.getCaptureDir();
+        if(capture == null || captureDir == null || session.getCaptureId() == 0){
+            return;
+        }
+
+        File file = new File(captureDir, String.format("tftp-%s-%s-%s.pcap", session.getRequestAddress().getHostString().replace(':', '_'),
+                session.getCaptureId(), System.currentTimeMillis()));
+        try{
+            int count = capture.dump(file, session.getCaptureId());
+            logger.accept(String.format("Capture:Dump %s packets of the failed transfer to %s", count, file.getAbsolutePath()));
+        }catch (IOException e){
+            logger.accept("Capture:Dump error:" + e.getMessage());
+        }
+    }
+
+    /**
+     * get the pool of the local addresses, built again when the config changes.
+     * @return the pool, null if no local address is configured.
+     */
+    private synchronized LocalAddressPool getLocalAddressPool() {
+        List<InetAddress> addresses = config.getLocalAddresses();
+        if(addresses.isEmpty()){
+            localAddressPool = null;
+        }else if(localAddressPool == null || !localAddressPool.getAddresses().equals(addresses)){
+            localAddressPool = new LocalAddressPool(addresses);
+        }
+        metrics.setLocalAddressPool(localAddressPool);
+        return localAddressPool;
+    }
+
+    /**
+     * get the reply latencies of the server.
+     * @param serverIp server ip.
+     */
+    private LatencyTracker getServerLatency(String serverIp) {
+        return serverLatencies.computeIfAbsent(serverIp, k -> new LatencyTracker(LATENCY_SAMPLES));
+    }
+
+    /**
+     * get the delay before the request goes to the next mirror, the percentile of the reply latency
+     * of the preferred mirror, or the config before enough latencies are known.
+     * @param serverIp the preferred mirror.
+     */
+    private long getHedgeDelay(String serverIp) {
+        LatencyTracker latency = getServerLatency(serverIp);
+        if(latency.getSampleCount() < HEDGE_MIN_SAMPLES){
+            return config.getHedgeDelay();
+        }
+        return Math.max(HEDGE_MIN_DELAY, Math.min(RECEIVE_TIMEOUT, latency.getPercentile(config.getHedgePercentile())));
+    }
+
+    /**
+     * send the request to the mirrors, hedged after the latency percentile of the preferred one.
+     * @param serverIps the mirrors, the preferred first.
+     * @param opCode OP_RRQ or OP_WRQ.
+     * @param fileName the file name of server.
+     * @param mode MODE_OCTET or MODE_NETASCII.
+     * @param tag the tag of log.
+     * @param options the options of the request.
+     * @return the attempt answered first, the caller owns its session.
+     */
+    private HedgedRequest.Attempt sendHedgedRequest(List<String> serverIps, short opCode, String fileName, String mode, String tag,
+                                                    Map<String, String> options) throws IOException {
+        return new HedgedRequest(serverIps, getHedgeDelay(serverIps.get(0)), threadpool, this::openSession,
+                (session, cancelled) -> sendRequest(session, opCode, fileName, mode, tag, new LinkedHashMap<>(options), cancelled),
+                logger, metrics).await();
+    }
+
+    /**
+     * get the concurrency limiter of the server.
+     * @param serverIp server ip.
+     */
+    private ConcurrencyLimiter getServerConcurrencyLimiter(String serverIp) {
+        return serverConcurrencyLimiters.computeIfAbsent(serverIp, k -> {
+            int maxLimit = config.getMaxServerConcurrency();
+            ConcurrencyLimiter limiter = new ConcurrencyLimiter(Math.min(config.getInitialServerConcurrency(), maxLimit), 1, maxLimit);
+            metrics.addConcurrencyLimiter(k, limiter);
+            return limiter;
+        });
+    }
+
+    /**
+     * get the profile of the server, load the profile file first if it is set.
+     * @param serverIp server ip.
+     */
+    private ServerProfile getProfile(String serverIp) {
+        File profileFile = config.getProfileFile();
+        if(profileFile != null){
+            synchronized (profileCache){
+                if(!profileFile.equals(loadedProfileFile)){
+                    loadedProfileFile = profileFile;
+                    try{
+                        profileCache.load(profileFile);
+                    }catch (IOException e){
+                        logger.accept("Load server profiles error:" + e.getMessage());
+                    }
+                }
+            }
+        }
+        return profileCache.get(serverIp);
+    }
+
+    /**
+     * learn from the transfer finished, and save the profiles later if the profile file is set.
+     * @param serverIp server ip.
+     * @param session the session of the transfer.
+     */
+    private void recordTransfer(String serverIp, TftpSession session) {
+        TransferStats stats = session.getStats();
+        getProfile(serverIp).recordTransfer(stats);
+        scheduleSaveProfiles();
+    }
+
+    /**
+     * learn from the transfer failed by time out after the server answered,
+     * and save the profiles later if the profile file is set.
+     * @param session the session of the transfer.
+     */
+    private void recordFailure(TftpSession session) {
+        if(session.getPeerAddress() == null){
+            //the server never answered, nothing about the path.
+            return;
+        }
+
+        getProfile(session.getRequestAddress().getHostString()).recordFailure(session.getStats());
+        scheduleSaveProfiles();
+    }
+
+    /**
+     * save the profiles after PROFILE_SAVE_DELAY, not on the transfer thread.
+     * the changes before the save runs are saved together.
+     */
+    private void scheduleSaveProfiles() {
+        if(config.getProfileFile() == null || !profilesChanged.compareAndSet(false, true)){
+            return;
+        }
+
+        //the timer task must not block, the file is written by the pool.
+        timerWheel.schedule(() -> {
+            try{
+                threadpool.execute(this::saveProfiles);
+            }catch (RejectedExecutionException e){
+                //disposed, the profiles are saved by dispose.
+            }
+        }, PROFILE_SAVE_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * save the profiles if they are changed since the last save, and the profile file is set.
+     */
+    private void saveProfiles() {
+        if(!profilesChanged.getAndSet(false)){
+            return;
+        }
+
+        File profileFile = config.getProfileFile();
+        if(profileFile != null){
+            try{
+                profileCache.save(profileFile);
+            }catch (IOException e){
+                logger.accept("Save server profiles error:" + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * count the retry, the shorter time out learned of the server gets more retries, so the transfer waits as long in all.
+     * @param session
+     * @param retryCount the retry count before.
+     * @param errMsg the error when no more retry.
+     * @return the retry count now.
+     */
+    private int checkRetry(TftpSession session, int retryCount, String errMsg) {
+        ++retryCount;
+        checkFailed(session, retryCount > getMaxRetries(session), errMsg);
+
+        logger.accept(errMsg);
+        logger.accept(String.format("Retrying:retry count:%s...", retryCount));
+        return retryCount;
+    }
+
+    /**
+     * get the time outs in a row before the transfer fails.
+     * the shorter time out learned of the server gets more retries, so the transfer waits as long in all.
+     */
+    private static int getMaxRetries(TftpSession session) {
+        return RETRY_TIME * RECEIVE_TIMEOUT / session.getReceiveTimeout();
+    }
+
+    /**
+     * fail the transfer when the retries run out.
+     * @param session
+     * @param failed the retries run out.
+     * @param errMsg the error.
+     */
+    private void checkFailed(TftpSession session, boolean failed, String errMsg) {
+        if(failed){
+            recordFailure(session);
+            throw new RuntimeException(errMsg);
+        }
+    }
+
+    /**
+     * download file from server
+     * @param serverIp
+     * @param file
+     * @param serverFileName
+     */
+    public void downloadFileAsyn(String serverIp, File file, String serverFileName) {
+        downloadFileAsyn(serverIp, file, serverFileName, 0);
+    }
+
+    /**
+     * download file from server
+     * @param serverIp
+     * @param file
+     * @param serverFileName
+     * @param priority the higher starts first under the PRIORITY policy.
+     */
+    public void downloadFileAsyn(String serverIp, File file, String serverFileName, int priority) {
+        download(Collections.singletonList(serverIp), file, serverFileName, false, priority, null);
+    }
+
+    /**
+     * download file from server, and check the digest of the data.
+     * the file is not replaced if the digest does not match.
+     * @param serverIp
+     * @param file
+     * @param serverFileName
+     * @param expectedDigest the digest in hex, 8 hex digits is CRC-32C, else SHA-256.
+     */
+    public void downloadFileAsyn(String serverIp, File file, String serverFileName, String expectedDigest) {
+        download(Collections.singletonList(serverIp), file, serverFileName, false, 0, expectedDigest);
+    }
+
+    /**
+     * download file from the mirror servers.
+     * the request goes to the preferred mirror, and also to the next one if no answer in the latency percentile
+     * of the preferred one. the first answer wins, and the others are cancelled.
+     * @param mirrorIps the ip of the mirrors, the preferred first.
+     * @param file
+     * @param serverFileName
+     */
+    public void downloadFileHedgedAsyn(List<String> mirrorIps, File file, String serverFileName) {
+        if(mirrorIps.isEmpty()){
+            throw new IllegalArgumentException("No mirror");
+        }
+        download(mirrorIps, file, serverFileName, false, 0, null);
+    }
+
+    /**
+     * download the file uploaded in chunks, the parts are downloaded in parallel into their range of the file.
+     * the checksum of every part is verified.
+     * @param serverIp
+     * @param file
+     * @param serverFileName
+     */
+    public void downloadFileChunkedAsyn(String serverIp, File file, String serverFileName) {
+        statusListener.accept(TftpClientStatus.DEALING);
+        logger.accept(String.format("Download chunked: %s -> %s", serverFileName, file.getName()));
+        TransferProgress progress = newTransfer("Download:" + serverFileName, serverIp, -1);
+        scheduler.submit(serverIp, TransferScheduler.UNKNOWN_SIZE, 0, asTransfer(progress, () ->{
+            File tempFile = getDownloadTempFile(file);
+            try{
+                ByteArrayOutputStream manifestData = new ByteArrayOutputStream();
+                downloadStream(serverIp, manifestData, ChunkManifest.getManifestName(serverFileName));
+                ChunkManifest manifest = ChunkManifest.parse(manifestData.toByteArray());
+                List<ChunkManifest.Part> parts = manifest.getParts();
+                logger.accept(String.format("Download:Manifest of %s, size:%s, parts:%s", serverFileName, manifest.getSize(), parts.size()));
+                progress.setSize(manifest.getSize());
+
+                try(PositionalFileSink sink = new PositionalFileSink(tempFile, config.isSyncOnFinish())){
+                    sink.preallocate(manifest.getSize());
+                    runParts(parts.size(), index -> {
+                        ChunkManifest.Part part = parts.get(index);
+                        CRC32 crc = new CRC32();
+                        PositionalOutputStream po = new PositionalOutputStream(sink, part.getOffset());
+                        downloadStream(serverIp, new CheckedOutputStream(po, crc), part.getName());
+                        long length = po.getPosition() - part.getOffset();
+                        if(length != part.getLength() || crc.getValue() != part.getChecksum()){
+                            throw new IOException(String.format("Part %s broken, length:%s, expect:%s, crc32:%08x, expect:%08x",
+                                    part.getName(), length, part.getLength(), crc.getValue(), part.getChecksum()));
+                        }
+                    });
+                }
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+                logger.accept(String.format("Download:Finish file<%s> -> server file<%s>, parts:%s", file.getName(), serverFileName, parts.size()));
+            } catch (Exception e) {
+                e.printStackTrace();
+                failTransfer(e);
+                logger.accept("Download:err:" + e.getMessage());
+            }finally {
+                tempFile.delete();
+                statusListener.accept(TftpClientStatus.READY);
+            }
+        }));
+    }
+
+    /**
+     * queue the download, under SHORTEST_FIRST the size is probed first.
+     * @param serverIp server ip.
+     * @param serverFileName the file name of server.
+     * @param priority the higher starts first under the PRIORITY policy.
+     * @param download the download.
+     */
+    private void scheduleDownload(String serverIp, String serverFileName, int priority, Runnable download) {
+        TransferProgress progress = newTransfer("Download:" + serverFileName, serverIp, -1);
+        Runnable task = asTransfer(progress, download);
+        if(config.getSchedulePolicy() != SchedulePolicy.SHORTEST_FIRST){
+            scheduler.submit(serverIp, TransferScheduler.UNKNOWN_SIZE, priority, task);
+            return;
+        }
+
+        //the probe takes a round trip, not on the caller thread. thousands of downloads queued at once wait in the
+        //probe queue, not each on a thread of its own.
+        probePool.execute(() -> {
+            try{
+                //the size on the wire, the netascii file is larger by the translated line ends.
+                long size = probeSize(serverIp, serverFileName, getTransferMode(serverFileName));
+                progress.setSize(size == TransferScheduler.UNKNOWN_SIZE ? -1 : size);
+                scheduler.submit(serverIp, size, priority, task);
+            }catch (Exception e){
+                progress.fail(e.getMessage());
+                notifyTransfer(progress);
+                logger.accept("Download:err:" + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * get the size of the file of server by the tsize option (RFC 2349), the transfer is stopped after the answer.
+     * @param serverIp server ip.
+     * @param serverFileName the file name of server.
+     * @param mode the mode of the request, the server tells the size in the mode.
+     * @return the size, UNKNOWN_SIZE if the server does not tell.
+     */
+    private long probeSize(String serverIp, String serverFileName, String mode) {
+        Map<String, String> options = new LinkedHashMap<>();
+        options.put(TftpPacketConsts.OPTION_TSIZE, "0");
+        //the probe is short, it does not wait behind the transfers for a slot of the server.
+        try(TftpSession session = openSession(serverIp, false)){
+            //wait for one time out only, a dead server is found by the transfer.
+            TftpPacket response = sendRequest(session, TftpPacketConsts.OP_RRQ, serverFileName, mode, "Probe", options, () -> true);
+            long size = TransferScheduler.UNKNOWN_SIZE;
+            short errCode = TftpPacketConsts.ERRCODE_UNDEF;
+            if(response.getOpCode() == TftpPacketConsts.OP_OACK){
+                size = ((OACKPacket) response).getLongOption(TftpPacketConsts.OPTION_TSIZE, TransferScheduler.UNKNOWN_SIZE);
+                //decline the options, as RFC 2347 allows.
+                errCode = TftpPacketConsts.ERRCODE_OPTION;
+            }else if(((DATAPacket) response).isLast()){
+                size = ((DATAPacket) response).getDataLength();
+            }
+
+            session.send(TftpPacketFactory.buildERRORpacket(session.getPeerAddress(), errCode, "Size probe only"));
+            logger.accept(String.format("Probe:Size of %s:%s", serverFileName, size == TransferScheduler.UNKNOWN_SIZE ? "unknown" : size));
+            return size;
+        }catch (Exception e){
+            logger.accept(String.format("Probe:Size of %s unknown:%s", serverFileName, e.getMessage()));
+            return TransferScheduler.UNKNOWN_SIZE;
+        }
+    }
+
+    /**
+     * download file from server in multicast mode (RFC 2090), the server sends one copy to all the clients.
+     * if the server does not support multicast, download as usual.
+     * @param serverIp
+     * @param file
+     * @param serverFileName
+     */
+    public void downloadFileMulticastAsyn(String serverIp, File file, String serverFileName) {
+        download(Collections.singletonList(serverIp), file, serverFileName, true, 0, null);
+    }
+
+    /**
+     * download file from server
+     * @param serverIps the server, or the mirrors with the preferred first.
+     * @param file
+     * @param serverFileName
+     * @param multicast request the multicast mode.
+     * @param priority the higher starts first under the PRIORITY policy.
+     * @param expectedDigest the digest in hex the data must match, null is checked against the checksum file if configured.
+     */
+    private void download(List<String> serverIps, File file, String serverFileName, boolean multicast, int priority, String expectedDigest) {
+        statusListener.accept(TftpClientStatus.DEALING);
+        logger.accept(String.format("Download: %s -> %s", serverFileName, file.getName()));
+        //queue the download task.
+        scheduleDownload(serverIps.get(0), serverFileName, priority, () ->{
+            File tempFile = getDownloadTempFile(file);
+            try{
+                ContentCache cache = getContentCache();
+                String mode = getTransferMode(serverFileName);
+                TransferDigest digest;
+                //the cache keeps the files of octet mode only, as on the server.
+                if(cache != null && serverIps.size() == 1 && !multicast && TftpPacketConsts.MODE_OCTET.equals(mode)
+                        && getCompression(serverFileName) == null){
+                    digest = downloadCached(cache, serverIps.get(0), tempFile, serverFileName, expectedDigest);
+                }else{
+                    digest = downloadFile(serverIps, tempFile, serverFileName, multicast, mode, expectedDigest);
+                }
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                if(digest == null){
+                    logger.accept(String.format("Download:Finish file<%s> -> server file<%s>", file.getName(), serverFileName));
+                }else{
+                    logger.accept(String.format("Download:Finish file<%s> -> server file<%s>, digest:%s", file.getName(), serverFileName, digest));
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+                failTransfer(e);
+                logger.accept("Download:err:" + e.getMessage());
+            }finally {
+                tempFile.delete();
+                statusListener.accept(TftpClientStatus.READY);
+            }
+        });
+    }
+
+    /**
+     * get the temp file the download is written into, beside the file.
+     * the file is replaced by it only when complete and verified, and is never written in place,
+     * as it may be a hard link of a cache entry.
+     */
+    private static File getDownloadTempFile(File file) {
+        return new File(file.getPath() + DOWNLOAD_TEMP_SUFFIX);
+    }
+
+    /**
+     * download the file through the cache, the cached file is used if the server file is not changed.
+     * the concurrent downloads of the same file share one transfer.
+     * @param cache
+     * @param serverIp
+     * @param file
+     * @param serverFileName
+     * @param expectedDigest
+     * @return the digest of the file, null if no digest.
+     */
+    private TransferDigest downloadCached(ContentCache cache, String serverIp, File file, String serverFileName, String expectedDigest) throws IOException {
+        String key = String.format("%s:%s/%s", serverIp, config.getServerPort(), serverFileName);
+        ContentCache.Entry entry = cache.get(key);
+        if(entry != null && !entry.isFresh(config.getCacheMaxAge())){
+            //check the cached file against the size of the server file.
+            if(probeSize(serverIp, serverFileName, TftpPacketConsts.MODE_OCTET) == entry.getSize()){
+                cache.refresh(entry);
+            }else{
+                logger.accept(String.format("Download:Cache of %s is changed on the server", serverFileName));
+                cache.remove(entry);
+                entry = null;
+            }
+        }
+
+        //the download checks the digest before the file is cached. the entry found broken on a hit is removed and
+        //downloaded again, as the cached file may be changed outside.
+        for (int attempt = 1; ; attempt++) {
+            boolean lastAttempt = attempt == CACHE_LOAD_ATTEMPTS;
+            TransferDigest[] downloaded = {null};
+            boolean[] loaded = {false};
+            entry = cache.load(key, cacheFile -> {
+                downloaded[0] = downloadFile(Collections.singletonList(serverIp), cacheFile, serverFileName, false, TftpPacketConsts.MODE_OCTET, expectedDigest);
+                loaded[0] = true;
+            });
+            if(!cache.copyTo(entry, file, config.isCacheHardLink())){
+                if(lastAttempt){
+                    throw new IOException("Cache entry evicted:" + serverFileName);
+                }
+                continue;
+            }
+            if(loaded[0]){
+                return downloaded[0];
+            }
+
+            logger.accept(String.format("Download:Cache hit %s, size:%s", serverFileName, entry.getSize()));
+            //no data passes the network, read the digest from the copy.
+            DigestAlgorithm algorithm = getDigestAlgorithm(expectedDigest);
+            if(algorithm == null){
+                return null;
+            }
+            TransferDigest digest = TransferDigest.ofFile(algorithm, file);
+            String expected = getExpectedDigest(serverIp, serverFileName, expectedDigest);
+            if(lastAttempt || expected == null || digest.matches(expected)){
+                verifyDigest(serverFileName, digest, expected);
+                return digest;
+            }
+
+            logger.accept(String.format("Download:Cache of %s does not match the digest, download again", serverFileName));
+            cache.remove(entry);
+        }
+    }
+
+    /**
+     * download the file from the server.
+     * @param serverIps the server, or the mirrors with the preferred first.
+     * @param file
+     * @param serverFileName
+     * @param multicast request the multicast mode.
+     * @param mode the mode of the request, the netascii data is translated to the local line end.
+     * @param expectedDigest the digest in hex the data must match, null is checked against the checksum file if configured.
+     * @return the digest of the data, null if no digest.
+     */
+    private TransferDigest downloadFile(List<String> serverIps, File file, String serverFileName, boolean multicast, String mode, String expectedDigest) throws IOException {
+        boolean netascii = TftpPacketConsts.MODE_NETASCII.equals(mode);
+        if(multicast && netascii){
+            //the blocks of multicast arrive out of order, the line ends can not be translated as they stream.
+            logger.accept("Download:Multicast is not used in netascii mode, download by unicast");
+            multicast = false;
+        }
+        CompressionCodec codec = getCompression(serverFileName);
+        if(multicast && codec != null){
+            logger.accept("Download:Multicast is not used for the compressed file, download by unicast");
+            multicast = false;
+        }
+
+        Map<String, String> options = buildRequestOptions(serverIps.get(0));
+        if(multicast){
+            //the blocks of multicast are placed by the block size of RFC 1350.
+            options.remove(TftpPacketConsts.OPTION_BLKSIZE);
+            options.put(TftpPacketConsts.OPTION_MULTICAST, "");
+            options.put(TftpPacketConsts.OPTION_TSIZE, "0");
+        }else if(transferListener != null){
+            //the size shows the progress of the download.
+            options.put(TftpPacketConsts.OPTION_TSIZE, "0");
+        }
+
+        DigestAlgorithm algorithm = getDigestAlgorithm(expectedDigest);
+        TransferDigest digest = algorithm == null ? null : new TransferDigest(algorithm);
+        String serverIp = serverIps.get(0);
+        TftpSession session = null;
+        try{
+            //the server accept the request with DATA 1, or OACK if it support the options.
+            TftpPacket response;
+            if(serverIps.size() == 1){
+                session = openSession(serverIp);
+                response = sendRequest(session, TftpPacketConsts.OP_RRQ, serverFileName, mode, "Download", options, () -> false);
+            }else{
+                HedgedRequest.Attempt attempt = sendHedgedRequest(serverIps, TftpPacketConsts.OP_RRQ, serverFileName, mode, "Download", options);
+                session = attempt.getSession();
+                response = attempt.getResponse();
+                serverIp = attempt.getServerIp();
+            }
+            trackSession(session);
+            TransferProgress progress = CURRENT_TRANSFER.get();
+            if(progress != null && response.getOpCode() == TftpPacketConsts.OP_OACK){
+                long tsize = ((OACKPacket) response).getLongOption(TftpPacketConsts.OPTION_TSIZE, -1);
+                if(tsize > 0){
+                    progress.setSize(tsize);
+                }
+            }
+
+            if(response.getOpCode() == TftpPacketConsts.OP_OACK
+                    && ((OACKPacket) response).getOptions().containsKey(TftpPacketConsts.OPTION_MULTICAST)){
+                //the blocks arrive in any order, write them at their position.
+                try(PositionalFileSink sink = new PositionalFileSink(file, config.isSyncOnFinish())){
+                    new MulticastDownload(session, threadpool, logger, metrics, RECEIVE_TIMEOUT, RETRY_TIME,
+                            config.getMulticastInterface(), () -> run).run((OACKPacket) response, sink);
+                }
+                if(digest != null){
+                    //the blocks arrive out of order, read the digest back from the file.
+                    digest = TransferDigest.ofFile(algorithm, file);
+                }
+            }else{
+                if(multicast){
+                    logger.accept("Download:Server does not support multicast, download by unicast");
+                }
+
+                //the blocks are written by a background writer, so the ack is not gated on the disk nor the digest.
+                //the compressed blocks are also decompressed by a background decompressor, before the writer.
+                ACKPacket lastAck;
+                try(WriteBehindOutputStream bo = new WriteBehindOutputStream(file, config.getWriteBehindQueueSize(), config.isSyncOnFinish(), threadpool, digest);
+                    OutputStream co = codec == null ? bo : new DecompressingOutputStream(bo, codec, CODEC_QUEUE_SIZE, CODEC_CHUNK_SIZE, threadpool)){
+                    //the progress counts the data on the wire, the expanded size the tsize of netascii tells.
+                    lastAck = downloadData(session, response, getRequestedBlockSize(options), netascii ? new NetasciiOutputStream(co) : co, createPacer(serverIp));
+                    if(bo.getStallCount() > 0){
+                        logger.accept(String.format("Download:Disk write stalled %s times", bo.getStallCount()));
+                    }
+                }
+                recordTransfer(serverIp, session);
+                //the session is owned by the dally from now on.
+                TftpSession dallySession = session;
+                session = null;
+                endDownload(dallySession, lastAck);
+            }
+        }catch (IOException | RuntimeException e){
+            if(session != null){
+                dumpCapture(session);
+                abortSession(session, e);
+            }
+            throw e;
+        }finally {
+            if(session != null){
+                session.close();
+            }
+        }
+
+        if(digest != null){
+            verifyDigest(serverFileName, digest, getExpectedDigest(serverIp, serverFileName, expectedDigest));
+        }
+        return digest;
+    }
+
+    /**
+     * get the mode of the request to transfer a whole file.
+     */
+    private String getTransferMode(String serverFileName) {
+        //the compressed data is binary.
+        if(config.isNetascii() && getCompression(serverFileName) == null){
+            return TftpPacketConsts.MODE_NETASCII;
+        }
+        return TftpPacketConsts.MODE_OCTET;
+    }
+
+    /**
+     * get the compression of the server file the transfer decompresses or compresses, null if none.
+     */
+    private CompressionCodec getCompression(String serverFileName) {
+        return config.isTransparentCompression() ? CompressionCodec.forFileName(serverFileName) : null;
+    }
+
+    /**
+     * get the algorithm of the digest to compute, null if no digest.
+     * the expected digest needs one even if no digest is configured, chosen by its length.
+     */
+    private DigestAlgorithm getDigestAlgorithm(String expectedDigest) {
+        DigestAlgorithm algorithm = config.getDigestAlgorithm();
+        if(algorithm != null || expectedDigest == null){
+            return algorithm;
+        }
+        return expectedDigest.trim().length() == 8 ? DigestAlgorithm.CRC32C : DigestAlgorithm.SHA_256;
+    }
+
+    /**
+     * get the digest the download must match, the expected digest, or the one of the checksum file beside the server file.
+     * the compressed file is not checked against a checksum file, it is of the compressed data, the digest is of the plain.
+     * @param serverIp the server the file is downloaded from.
+     * @param serverFileName
+     * @param expectedDigest null to fetch the checksum file if configured.
+     * @return null if nothing to check.
+     */
+    private String getExpectedDigest(String serverIp, String serverFileName, String expectedDigest) throws IOException {
+        String suffix = config.getChecksumSuffix();
+        if(expectedDigest != null || suffix == null || getCompression(serverFileName) != null){
+            return expectedDigest;
+        }
+
+        ByteArrayOutputStream checksumFile = new ByteArrayOutputStream();
+        downloadStream(serverIp, checksumFile, serverFileName + suffix);
+        String expected = TransferDigest.parseChecksumFile(checksumFile.toByteArray());
+        if(expected == null){
+            throw new IOException("Empty checksum file:" + serverFileName + suffix);
+        }
+        return expected;
+    }
+
+    /**
+     * check the digest of the download.
+     * @param serverFileName
+     * @param digest the digest of the data.
+     * @param expected the digest in hex, null if nothing to check.
+     */
+    private void verifyDigest(String serverFileName, TransferDigest digest, String expected) throws IOException {
+        if(expected == null){
+            return;
+        }
+
+        if(!digest.matches(expected)){
+            throw new IOException(String.format("Digest mismatch of %s, expect:%s, actual:%s", serverFileName, expected, digest));
+        }
+        logger.accept(String.format("Download:Digest of %s verified", serverFileName));
+    }
+
+    /**
+     * receive the blocks and send the ack, until the last block.
+     * the ack is sent for every window, and for the block before a missing one (RFC 7440).
+     * the duplicate or out of order block is acknowledged once, then wait for the server.
+     * the protocol is run by the receiver machine, here only the I/O.
+     *
+     * @param session
+     * @param firstResponse the response of the request, OACK or DATA 1.
+     * @param requestedBlockSize the block size of the request.
+     * @param bo the output of the data, closed before the last ack.
+     * @param pacer pace the received data by delay the ack.
+     * @return the final ACK sent.
+     */
+    private ACKPacket downloadData(TftpSession session, TftpPacket firstResponse, int requestedBlockSize, OutputStream bo, TransferPacer pacer) throws IOException {
+        DownloadActions actions = new DownloadActions(session, bo, pacer);
+        ReceiverMachine machine = new ReceiverMachine(actions, DATAPacket.DATA_SIZE, getMaxRetries(session));
+        TftpPacket tftpPacket = firstResponse;
+        if(firstResponse.getOpCode() == TftpPacketConsts.OP_OACK){
+            int windowSize = negotiateWindowSize((OACKPacket) firstResponse);
+            int blockSize = negotiateBlockSize((OACKPacket) firstResponse, requestedBlockSize);
+            session.getStats().setWindowSize(windowSize);
+            session.getStats().setBlockSize(blockSize);
+            session.ensureReceiveLength(blockSize + 4);
+            //acknowledge the options with block 0.
+            logger.accept(String.format("Download:Accept options, windowSize:%s, blockSize:%s", windowSize, blockSize));
+            machine.acceptOptions(windowSize, blockSize);
+            tftpPacket = null;
+        }
+        session.setInFlightBytes((long) machine.getWindowSize() * machine.getBlockSize());
+
+        while (true){
+            checkRun();
+            if(tftpPacket == null){
+                try{
+                    //the data is written out before the next receive, no copy of it.
+                    tftpPacket = session.receiveShared();
+                } catch (SocketTimeoutException e) {
+                    session.getStats().addTimeout();
+                    machine.onTimeout();
+                    checkFailed(session, machine.isFailed(), "Download:Receive time out");
+                    continue;
+                }
+            }
+
+            TftpPacket response = tftpPacket;
+            tftpPacket = null;
+            checkError(response);
+
+            short opCode = response.getOpCode();
+            if(opCode == TftpPacketConsts.OP_OACK && machine.getBlockNum() == 0){
+                //the ack of the options is lost.
+                machine.onOack();
+                continue;
+            }
+
+            if(opCode != TftpPacketConsts.OP_DATA){
+                logger.accept("Download:opcode err:" + opCode);
+                logger.accept("Ignore err packet...");
+                continue;
+            }
+
+            actions.dataPacket = (DATAPacket) response;
+            machine.onData(actions.dataPacket.getBlockNum(), actions.dataPacket.getDataLength());
+            if(machine.isFinished()){
+                return actions.ackPacket;
+            }
+        }
+    }
+
+    /**
+     * do the actions of the download on the session.
+     */
+    private class DownloadActions implements ReceiverMachine.Actions {
+
+        private final TftpSession session;
+
+        private final OutputStream bo;
+
+        private final TransferPacer pacer;
+
+        private final ACKPacket ackPacket;
+
+        /**
+         * the DATA fed to the machine.
+         */
+        private DATAPacket dataPacket;
+
+        /**
+         * the time the last ACK sent, in nanosecond.
+         */
+        private long ackSentTime;
+
+        private DownloadActions(TftpSession session, OutputStream bo, TransferPacer pacer) {
+            this.session = session;
+            this.bo = bo;
+            this.pacer = pacer;
+            ackPacket = TftpPacketFactory.buildACKPacket(session.getPeerAddress(), (short) 0);
+        }
+
+        @Override
+        public void sendAck(long blockNo, boolean retransmit) throws IOException {
+            ackPacket.resetBlockNo((short) blockNo);
+            if(retransmit){
+                session.getStats().addRetransmit();
+            }
+            if(config.isLogBlocks()){
+                logger.accept(String.format("Download:Send ACK, blockNo:%s", blockNo));
+            }
+            session.send(ackPacket);
+            ackSentTime = System.nanoTime();
+        }
+
+        @Override
+        public void deliver(long blockNo, boolean rttSample) throws IOException {
+            if(config.isLogBlocks()){
+                logger.accept(String.format("Download:Receive blockNo:%s", blockNo));
+            }
+            //save data to file, block here when the write queue is full.
+            dataPacket.writeBlockData(bo);
+            session.touch();
+            session.getStats().addBlock(dataPacket.getDataLength());
+            if(rttSample){
+                session.getStats().addRtt(System.nanoTime() - ackSentTime);
+            }
+            pacer.acquire(dataPacket.getDataLength() + 4);
+        }
+
+        @Override
+        public void finish(long lastBlock) throws IOException {
+            //hold the last ack until all the data is written.
+            bo.close();
+        }
+
+        @Override
+        public void duplicateData(long blockNo) {
+            //the server does not get the ack.
+            metrics.addDuplicateData();
+            logger.accept(String.format("Download:block number err:cur:%s, duplicate", blockNo));
+        }
+
+        @Override
+        public void outOfOrderData(long blockNo) {
+            metrics.addOutOfOrderData();
+            logger.accept(String.format("Download:block number err:cur:%s, out of order", blockNo));
+        }
+
+        @Override
+        public void timeout(int retryCount) {
+            metrics.addTimeoutRetransmit();
+            logger.accept("Download:Receive time out");
+            logger.accept(String.format("Retrying:retry count:%s...", retryCount));
+        }
     }
 }
@@ -0,0 +1,597 @@
+package network;
+
+import network.packet.DATAPacket;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * the config of the tftp client, read when a transfer starts.
+ */
+public class TftpClientConfig {
+
+    /**
+     * the port of the server receive the request.
+     */
+    private volatile int serverPort = 69;
+
+    /**
+     * the name of the network interface to join the multicast group, null is the default interface.
+     */
+    private volatile String multicastInterface;
+
+    /**
+     * the max count of received data blocks waiting to be written to disk.
+     * when the queue is full, the ack is held until the disk writer catches up.
+     */
+    private volatile int writeBehindQueueSize = 64;
+
+    /**
+     * sync the downloaded file to the disk before send the last ack.
+     */
+    private volatile boolean syncOnFinish = false;
+
+    /**
+     * connect the socket to the server transfer ID after the first reply,
+     * so the kernel drops the packets from other address.
+     */
+    private volatile boolean connectToPeer = true;
+
+    /**
+     * the count of blocks sent before wait for the ack (RFC 7440), 1 is the lock-step of RFC 1350.
+     */
+    private volatile int windowSize = 1;
+
+    /**
+     * the byte count of data in a block to request (RFC 2348), 512 is the block of RFC 1350 and asks no option.
+     * not used in auto block size mode.
+     */
+    private volatile int blockSize = DATAPacket.DATA_SIZE;
+
+    /**
+     * choose the largest block size not fragmented on the path to every server,
+     * and step down to a smaller one when the loss spikes.
+     */
+    private volatile boolean autoBlockSize = false;
+
+    /**
+     * the MTU of the path for auto block size, 0 is the MTU of the local interface routing to the server.
+     */
+    private volatile int pathMtu = 0;
+
+    /**
+     * in windowed mode, retransmit at once when the ACKs show a block is lost, not wait for the time out.
+     */
+    private volatile boolean fastRetransmit = true;
+
+    /**
+     * close the session when the transfer make no progress for this time, in millisecond. 0 is never.
+     */
+    private volatile long sessionIdleTimeout = 60000;
+
+    /**
+     * keep the download session after the final ACK for this time, in millisecond. 0 is not to dally.
+     * the final DATA sent again in the time is answered with the final ACK, so the server need not retry until it
+     * gives up. it runs in the background, the download ends at the final ACK.
+     */
+    private volatile int dallyTime = 3000;
+
+    /**
+     * the cap of every transfer, byte per second. 0 is unlimited.
+     * the running transfers follow the change at once.
+     */
+    private volatile long transferRateLimit = 0;
+
+    /**
+     * the delay before the hedged request goes to the next mirror, in millisecond.
+     * used until enough reply latencies of the preferred mirror are known.
+     */
+    private volatile long hedgeDelay = 500;
+
+    /**
+     * the percentile of the reply latency of the preferred mirror to wait before hedge, 0 ~ 100.
+     */
+    private volatile double hedgePercentile = 95;
+
+    /**
+     * the max size of a part in chunked mode, in byte.
+     */
+    private volatile long chunkSize = 64L * 1024 * 1024;
+
+    /**
+     * the count of parts transferred in parallel in chunked mode.
+     */
+    private volatile int chunkParallelism = 4;
+
+    /**
+     * the file to keep the learned server profiles between runs, null is in memory only.
+     */
+    private volatile File profileFile;
+
+    /**
+     * the count of sessions can run against a server before the limit is learned.
+     */
+    private volatile int initialServerConcurrency = 4;
+
+    /**
+     * the max count of sessions can run against a server, the limit learned never exceeds it.
+     */
+    private volatile int maxServerConcurrency = 32;
+
+    /**
+     * the order to start the queued transfers.
+     */
+    private volatile SchedulePolicy schedulePolicy = SchedulePolicy.FIFO;
+
+    /**
+     * the max count of transfers running at a time, the others are queued.
+     */
+    private volatile int maxActiveTransfers = 16;
+
+    /**
+     * the local addresses the sessions bind to, empty is the wildcard address.
+     * the sessions are spread across them by the bind policy, so the traffic uses all the network interfaces.
+     */
+    private volatile List<InetAddress> localAddresses = Collections.emptyList();
+
+    /**
+     * the way to choose the local address of a new session.
+     */
+    private volatile BindPolicy bindPolicy = BindPolicy.ROUND_ROBIN;
+
+    /**
+     * the count of packet headers kept in the capture ring, 0 is no capture.
+     */
+    private volatile int captureRecords = 0;
+
+    /**
+     * the folder to dump the packets of a failed transfer in pcap format, null is not dumped.
+     */
+    private volatile File captureDir;
+
+    /**
+     * the folder of the cache of the downloaded files, null is no cache.
+     */
+    private volatile File cacheDir;
+
+    /**
+     * the max total size of the cached files, in byte.
+     */
+    private volatile long cacheMaxBytes = 1024L * 1024 * 1024;
+
+    /**
+     * the cached file is used without asking the server in this time, in millisecond.
+     * after that the size of the server file is asked, the file is downloaded again if changed. 0 is always ask.
+     */
+    private volatile long cacheMaxAge = 10 * 60 * 1000L;
+
+    /**
+     * hard link the downloaded file to the cached one, not copy. the downloaded file must not be modified in place then,
+     * the later downloads to it replace the file, not write into it.
+     */
+    private volatile boolean cacheHardLink = false;
+
+    /**
+     * the digest computed over the data of every transfer, null is no digest.
+     * computed by the disk reader or writer as the blocks pass, not by the network loop.
+     */
+    private volatile DigestAlgorithm digestAlgorithm;
+
+    /**
+     * the suffix of the checksum file beside the server file, as ".sha256".
+     * the digest of a download is checked against the checksum file when no expected digest is given.
+     * the file of transparentCompression has no checksum file, its digest is of the plain data.
+     * null is not checked.
+     */
+    private volatile String checksumSuffix;
+
+    /**
+     * transfer the whole files in netascii mode, for the devices taking only text.
+     * the line ends are translated as the data streams, the chunked and multicast transfers stay in octet mode.
+     */
+    private volatile boolean netascii = false;
+
+    /**
+     * log every block sent and received. off by default, a line formatted for every block allocates more than the
+     * block itself, and the transfer churns the GC.
+     */
+    private volatile boolean logBlocks = false;
+
+    /**
+     * the folder of the sync indexes, one file for every local folder synchronized with a server folder.
+     */
+    private volatile File syncIndexDir = new File(System.getProperty("user.home"), ".tftpsync");
+
+    /**
+     * the count of files transferred in parallel by a folder sync.
+     */
+    private volatile int syncParallelism = 8;
+
+    /**
+     * keep the server files named by the suffix of a compression (as .gz) compressed on the server and plain on the
+     * local disk: decompressed as downloaded, compressed as uploaded, without an extra pass over the file.
+     * these files are transferred in octet mode, the digest is of the plain data, so no checksum file is written
+     * or checked for them.
+     */
+    private volatile boolean transparentCompression = false;
+
+    public int getServerPort() {
+        return serverPort;
+    }
+
+    public void setServerPort(int serverPort) {
+        if(serverPort <= 0 || serverPort > 65535){
+            throw new IllegalArgumentException("serverPort must be 1 ~ 65535:" + serverPort);
+        }
+        this.serverPort = serverPort;
+    }
+
+    public String getMulticastInterface() {
+        return multicastInterface;
+    }
+
+    public void setMulticastInterface(String multicastInterface) {
+        this.multicastInterface = multicastInterface;
+    }
+
+    public int getWriteBehindQueueSize() {
+        return writeBehindQueueSize;
+    }
+
+    public void setWriteBehindQueueSize(int writeBehindQueueSize) {
+        if(writeBehindQueueSize <= 0){
+            throw new IllegalArgumentException("writeBehindQueueSize must be positive:" + writeBehindQueueSize);
+        }
+        this.writeBehindQueueSize = writeBehindQueueSize;
+    }
+
+    public boolean isSyncOnFinish() {
+        return syncOnFinish;
+    }
+
+    public void setSyncOnFinish(boolean syncOnFinish) {
+        this.syncOnFinish = syncOnFinish;
+    }
+
+    public boolean isConnectToPeer() {
+        return connectToPeer;
+    }
+
+    public void setConnectToPeer(boolean connectToPeer) {
+        this.connectToPeer = connectToPeer;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public void setWindowSize(int windowSize) {
+        if(windowSize < 1 || windowSize > 65535){
+            throw new IllegalArgumentException("windowSize must be 1 ~ 65535:" + windowSize);
+        }
+        this.windowSize = windowSize;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public void setBlockSize(int blockSize) {
+        if(blockSize < DATAPacket.MIN_BLOCK_SIZE || blockSize > DATAPacket.MAX_BLOCK_SIZE){
+            throw new IllegalArgumentException(String.format("blockSize must be %s ~ %s:%s", DATAPacket.MIN_BLOCK_SIZE, DATAPacket.MAX_BLOCK_SIZE, blockSize));
+        }
+        this.blockSize = blockSize;
+    }
+
+    public boolean isAutoBlockSize() {
+        return autoBlockSize;
+    }
+
+    public void setAutoBlockSize(boolean autoBlockSize) {
+        this.autoBlockSize = autoBlockSize;
+    }
+
+    public int getPathMtu() {
+        return pathMtu;
+    }
+
+    public void setPathMtu(int pathMtu) {
+        if(pathMtu < 0){
+            throw new IllegalArgumentException("pathMtu must not be negative:" + pathMtu);
+        }
+        this.pathMtu = pathMtu;
+    }
+
+    public boolean isFastRetransmit() {
+        return fastRetransmit;
+    }
+
+    public void setFastRetransmit(boolean fastRetransmit) {
+        this.fastRetransmit = fastRetransmit;
+    }
+
+    public long getSessionIdleTimeout() {
+        return sessionIdleTimeout;
+    }
+
+    public long getTransferRateLimit() {
+        return transferRateLimit;
+    }
+
+    public void setTransferRateLimit(long transferRateLimit) {
+        if(transferRateLimit < 0){
+            throw new IllegalArgumentException("transferRateLimit must not be negative:" + transferRateLimit);
+        }
+        this.transferRateLimit = transferRateLimit;
+    }
+
+    public void setSessionIdleTimeout(long sessionIdleTimeout) {
+        if(sessionIdleTimeout < 0){
+            throw new IllegalArgumentException("sessionIdleTimeout must not be negative:" + sessionIdleTimeout);
+        }
+        this.sessionIdleTimeout = sessionIdleTimeout;
+    }
+
+    public int getDallyTime() {
+        return dallyTime;
+    }
+
+    public void setDallyTime(int dallyTime) {
+        if(dallyTime < 0){
+            throw new IllegalArgumentException("dallyTime must not be negative:" + dallyTime);
+        }
+        this.dallyTime = dallyTime;
+    }
+
+    public long getHedgeDelay() {
+        return hedgeDelay;
+    }
+
+    public void setHedgeDelay(long hedgeDelay) {
+        if(hedgeDelay <= 0){
+            throw new IllegalArgumentException("hedgeDelay must be positive:" + hedgeDelay);
+        }
+        this.hedgeDelay = hedgeDelay;
+    }
+
+    public double getHedgePercentile() {
+        return hedgePercentile;
+    }
+
+    public void setHedgePercentile(double hedgePercentile) {
+        if(hedgePercentile <= 0 || hedgePercentile > 100){
+            throw new IllegalArgumentException("hedgePercentile must be in (0, 100]:" + hedgePercentile);
+        }
+        this.hedgePercentile = hedgePercentile;
+    }
+
+    public long getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(long chunkSize) {
+        if(chunkSize <= 0){
+            throw new IllegalArgumentException("chunkSize must be positive:" + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    public int getChunkParallelism() {
+        return chunkParallelism;
+    }
+
+    public void setChunkParallelism(int chunkParallelism) {
+        if(chunkParallelism <= 0){
+            throw new IllegalArgumentException("chunkParallelism must be positive:" + chunkParallelism);
+        }
+        this.chunkParallelism = chunkParallelism;
+    }
+
+    public File getProfileFile() {
+        return profileFile;
+    }
+
+    public void setProfileFile(File profileFile) {
+        this.profileFile = profileFile;
+    }
+
+    public int getInitialServerConcurrency() {
+        return initialServerConcurrency;
+    }
+
+    public void setInitialServerConcurrency(int initialServerConcurrency) {
+        if(initialServerConcurrency <= 0){
+            throw new IllegalArgumentException("initialServerConcurrency must be positive:" + initialServerConcurrency);
+        }
+        this.initialServerConcurrency = initialServerConcurrency;
+    }
+
+    public int getMaxServerConcurrency() {
+        return maxServerConcurrency;
+    }
+
+    public void setMaxServerConcurrency(int maxServerConcurrency) {
+        if(maxServerConcurrency <= 0){
+            throw new IllegalArgumentException("maxServerConcurrency must be positive:" + maxServerConcurrency);
+        }
+        this.maxServerConcurrency = maxServerConcurrency;
+    }
+
+    public SchedulePolicy getSchedulePolicy() {
+        return schedulePolicy;
+    }
+
+    public void setSchedulePolicy(SchedulePolicy schedulePolicy) {
+        if(schedulePolicy == null){
+            throw new IllegalArgumentException("schedulePolicy must not be null");
+        }
+        this.schedulePolicy = schedulePolicy;
+    }
+
+    public int getMaxActiveTransfers() {
+        return maxActiveTransfers;
+    }
+
+    public void setMaxActiveTransfers(int maxActiveTransfers) {
+        if(maxActiveTransfers <= 0){
+            throw new IllegalArgumentException("maxActiveTransfers must be positive:" + maxActiveTransfers);
+        }
+        this.maxActiveTransfers = maxActiveTransfers;
+    }
+
+    public List<InetAddress> getLocalAddresses() {
+        return localAddresses;
+    }
+
+    /**
+     * @param localAddresses the ip of the local addresses, empty is the wildcard address.
+     */
+    public void setLocalAddresses(List<String> localAddresses) {
+        List<InetAddress> addresses = new ArrayList<>();
+        for (String localAddress : localAddresses) {
+            try{
+                addresses.add(InetAddress.getByName(localAddress));
+            }catch (UnknownHostException e){
+                throw new IllegalArgumentException("Bad local address:" + localAddress);
+            }
+        }
+        this.localAddresses = Collections.unmodifiableList(addresses);
+    }
+
+    public BindPolicy getBindPolicy() {
+        return bindPolicy;
+    }
+
+    public void setBindPolicy(BindPolicy bindPolicy) {
+        if(bindPolicy == null){
+            throw new IllegalArgumentException("bindPolicy must not be null");
+        }
+        this.bindPolicy = bindPolicy;
+    }
+
+    public int getCaptureRecords() {
+        return captureRecords;
+    }
+
+    public void setCaptureRecords(int captureRecords) {
+        if(captureRecords < 0){
+            throw new IllegalArgumentException("captureRecords must not be negative:" + captureRecords);
+        }
+        this.captureRecords = captureRecords;
+    }
+
+    public File getCaptureDir() {
+        return captureDir;
+    }
+
+    public void setCaptureDir(File captureDir) {
+        this.captureDir = captureDir;
+    }
+
+    public File getCacheDir() {
+        return cacheDir;
+    }
+
+    public void setCacheDir(File cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    public long getCacheMaxBytes() {
+        return cacheMaxBytes;
+    }
+
+    public void setCacheMaxBytes(long cacheMaxBytes) {
+        if(cacheMaxBytes <= 0){
+            throw new IllegalArgumentException("cacheMaxBytes must be positive:" + cacheMaxBytes);
+        }
+        this.cacheMaxBytes = cacheMaxBytes;
+    }
+
+    public long getCacheMaxAge() {
+        return cacheMaxAge;
+    }
+
+    public void setCacheMaxAge(long cacheMaxAge) {
+        if(cacheMaxAge < 0){
+            throw new IllegalArgumentException("cacheMaxAge must not be negative:" + cacheMaxAge);
+        }
+        this.cacheMaxAge = cacheMaxAge;
+    }
+
+    public boolean isCacheHardLink() {
+        return cacheHardLink;
+    }
+
+    public void setCacheHardLink(boolean cacheHardLink) {
+        this.cacheHardLink = cacheHardLink;
+    }
+
+    public DigestAlgorithm getDigestAlgorithm() {
+        return digestAlgorithm;
+    }
+
+    public void setDigestAlgorithm(DigestAlgorithm digestAlgorithm) {
+        this.digestAlgorithm = digestAlgorithm;
+    }
+
+    public String getChecksumSuffix() {
+        return checksumSuffix;
+    }
+
+    public void setChecksumSuffix(String checksumSuffix) {
+        if(checksumSuffix != null && checksumSuffix.isEmpty()){
+            throw new IllegalArgumentException("checksumSuffix must not be empty");
+        }
+        this.checksumSuffix = checksumSuffix;
+    }
+
+    public boolean isNetascii() {
+        return netascii;
+    }
+
+    public void setNetascii(boolean netascii) {
+        this.netascii = netascii;
+    }
+
+    public boolean isLogBlocks() {
+        return logBlocks;
+    }
+
+    public void setLogBlocks(boolean logBlocks) {
+        this.logBlocks = logBlocks;
+    }
+
+    public File getSyncIndexDir() {
+        return syncIndexDir;
+    }
+
+    public void setSyncIndexDir(File syncIndexDir) {
+        if(syncIndexDir == null){
+            throw new IllegalArgumentException("syncIndexDir must not be null");
+        }
+        this.syncIndexDir = syncIndexDir;
+    }
+
+    public int getSyncParallelism() {
+        return syncParallelism;
+    }
+
+    public void setSyncParallelism(int syncParallelism) {
+        if(syncParallelism <= 0){
+            throw new IllegalArgumentException("syncParallelism must be positive:" + syncParallelism);
+        }
+        this.syncParallelism = syncParallelism;
+    }
+
+    public boolean isTransparentCompression() {
+        return transparentCompression;
+    }
+
+    public void setTransparentCompression(boolean transparentCompression) {
+        this.transparentCompression = transparentCompression;
+    }
+}
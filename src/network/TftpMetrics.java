@@ -0,0 +1,214 @@
+package network;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * the counters of the client, shared by all the transfers.
+ */
+public class TftpMetrics {
+
+    /**
+     * the ACK of an already acknowledged block, ignored without retransmit.
+     */
+    private final LongAdder duplicateAcks = new LongAdder();
+
+    /**
+     * the retransmit triggered by the ACK before the time out.
+     */
+    private final LongAdder fastRetransmits = new LongAdder();
+
+    /**
+     * the retransmit triggered by the time out.
+     */
+    private final LongAdder timeoutRetransmits = new LongAdder();
+
+    /**
+     * the DATA of an already received block.
+     */
+    private final LongAdder duplicateDatas = new LongAdder();
+
+    /**
+     * the DATA received after a missing block.
+     */
+    private final LongAdder outOfOrderDatas = new LongAdder();
+
+    /**
+     * the request sent to the next mirror, because the previous did not answer in time.
+     */
+    private final LongAdder hedgedRequests = new LongAdder();
+
+    /**
+     * the hedged request answered before the preferred mirror.
+     */
+    private final LongAdder hedgeWins = new LongAdder();
+
+    /**
+     * the ERROR sent to end a session on cancel or local failure, the server stops at once, not retry until it
+     * gives up.
+     */
+    private final LongAdder abortErrors = new LongAdder();
+
+    /**
+     * the final ACK sent again in the dally, answer a final DATA the server sent again because the final ACK lost.
+     */
+    private final LongAdder dallyReacks = new LongAdder();
+
+    /**
+     * the download closed at once after the final ACK, because too many sessions are dallying.
+     */
+    private final LongAdder dallySkips = new LongAdder();
+
+    /**
+     * the concurrency limiter of every server.
+     */
+    private final Map<String, ConcurrencyLimiter> concurrencyLimiters = new ConcurrentHashMap<>();
+
+    /**
+     * the local addresses of the sessions, null if bound to the wildcard address.
+     */
+    private volatile LocalAddressPool localAddressPool;
+
+    public void addDuplicateAck() {
+        duplicateAcks.increment();
+    }
+
+    public void addFastRetransmit() {
+        fastRetransmits.increment();
+    }
+
+    public void addTimeoutRetransmit() {
+        timeoutRetransmits.increment();
+    }
+
+    public void addDuplicateData() {
+        duplicateDatas.increment();
+    }
+
+    public void addOutOfOrderData() {
+        outOfOrderDatas.increment();
+    }
+
+    public void addHedgedRequest() {
+        hedgedRequests.increment();
+    }
+
+    public void addHedgeWin() {
+        hedgeWins.increment();
+    }
+
+    public void addAbortError() {
+        abortErrors.increment();
+    }
+
+    public void addDallyReack() {
+        dallyReacks.increment();
+    }
+
+    public void addDallySkip() {
+        dallySkips.increment();
+    }
+
+    public long getDuplicateAcks() {
+        return duplicateAcks.sum();
+    }
+
+    public long getFastRetransmits() {
+        return fastRetransmits.sum();
+    }
+
+    public long getTimeoutRetransmits() {
+        return timeoutRetransmits.sum();
+    }
+
+    public long getDuplicateDatas() {
+        return duplicateDatas.sum();
+    }
+
+    public long getOutOfOrderDatas() {
+        return outOfOrderDatas.sum();
+    }
+
+    public long getHedgedRequests() {
+        return hedgedRequests.sum();
+    }
+
+    public long getHedgeWins() {
+        return hedgeWins.sum();
+    }
+
+    public long getAbortErrors() {
+        return abortErrors.sum();
+    }
+
+    public long getDallyReacks() {
+        return dallyReacks.sum();
+    }
+
+    public long getDallySkips() {
+        return dallySkips.sum();
+    }
+
+    /**
+     * get the count of the server retries avoided by the ERROR on abort and the final ACK in the dally.
+     * each of them saves the server one retry at the least, the ERROR saves all the retries left.
+     */
+    public long getServerRetriesAvoided() {
+        return getAbortErrors() + getDallyReacks();
+    }
+
+    /**
+     * add the concurrency limiter of the server to the metrics.
+     */
+    void addConcurrencyLimiter(String serverIp, ConcurrencyLimiter limiter) {
+        concurrencyLimiters.put(serverIp, limiter);
+    }
+
+    /**
+     * get the current concurrency limit of every server.
+     */
+    public Map<String, Integer> getConcurrencyLimits() {
+        Map<String, Integer> limits = new TreeMap<>();
+        for (Map.Entry<String, ConcurrencyLimiter> entry : concurrencyLimiters.entrySet()) {
+            limits.put(entry.getKey(), entry.getValue().getLimit());
+        }
+        return limits;
+    }
+
+    /**
+     * get the count of sessions running against every server.
+     */
+    public Map<String, Integer> getInFlightSessions() {
+        Map<String, Integer> inFlights = new TreeMap<>();
+        for (Map.Entry<String, ConcurrencyLimiter> entry : concurrencyLimiters.entrySet()) {
+            inFlights.put(entry.getKey(), entry.getValue().getInFlight());
+        }
+        return inFlights;
+    }
+
+    /**
+     * set the local addresses of the sessions to the metrics.
+     */
+    void setLocalAddressPool(LocalAddressPool localAddressPool) {
+        this.localAddressPool = localAddressPool;
+    }
+
+    /**
+     * get the counters of every local address, empty if bound to the wildcard address.
+     */
+    public List<LocalAddressPool.LocalAddress> getLocalAddresses() {
+        LocalAddressPool pool = localAddressPool;
+        return pool == null ? Collections.emptyList() : pool.getLocalAddresses();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("duplicateAcks:%s, fastRetransmits:%s, timeoutRetransmits:%s, duplicateDatas:%s, outOfOrderDatas:%s, hedgedRequests:%s, hedgeWins:%s, abortErrors:%s, dallyReacks:%s, dallySkips:%s, concurrencyLimits:%s, localAddresses:%s",
+                getDuplicateAcks(), getFastRetransmits(), getTimeoutRetransmits(), getDuplicateDatas(), getOutOfOrderDatas(),
+                getHedgedRequests(), getHedgeWins(), getAbortErrors(), getDallyReacks(), getDallySkips(), getConcurrencyLimits(), getLocalAddresses());
+    }
+}
@@ -0,0 +1,561 @@
+package network;
+
+import network.capture.PacketCapture;
+import network.packet.ACKPacket;
+import network.packet.DATAPacket;
+import network.packet.TftpPacket;
+import network.packet.TftpPacketConsts;
+import network.packet.TftpPacketFactory;
+import network.timer.HashedTimerWheel;
+import utils.DataUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * one transfer session with the server.
+ * the request goes to the server port, the first reply fixes the server transfer ID (TID),
+ * after that the socket is connected to the TID so the kernel drops the foreign packets.
+ */
+public class TftpSession implements Closeable {
+
+    /**
+     * the interval to poll the socket in the dally, in millisecond.
+     */
+    private static final long DALLY_POLL_INTERVAL = 200;
+
+    /**
+     * the time out of a receive in the dally poll, in millisecond. the poll only takes the packets already arrived.
+     */
+    private static final int DALLY_POLL_TIMEOUT = 1;
+
+    private final DatagramSocket socket;
+
+    /**
+     * the default time out of receive.
+     */
+    private final int receiveTimeout;
+
+    /**
+     * the address receive the request, resolved once for the session.
+     */
+    private final InetSocketAddress requestAddress;
+
+    /**
+     * connect the socket to the server TID after the first reply.
+     */
+    private final boolean connectToPeer;
+
+    /**
+     * the server TID, null before the first reply.
+     */
+    private volatile InetSocketAddress peerAddress;
+
+    /**
+     * the server ended the session with an ERROR, it must not be answered.
+     */
+    private volatile boolean peerError;
+
+    /**
+     * the packet used to receive.
+     */
+    private DatagramPacket receivePacket;
+
+    /**
+     * use to log info.
+     */
+    private final Consumer<String> logger;
+
+    /**
+     * the count of the packets from unknown TID.
+     */
+    private int strayCount;
+
+    /**
+     * the time of the last progress, in millisecond.
+     */
+    private volatile long lastProgressTime;
+
+    /**
+     * the session is closed by the idle timer.
+     */
+    private volatile boolean expired;
+
+    /**
+     * the idle timer.
+     */
+    private volatile HashedTimerWheel.Timeout idleTimeout;
+
+    /**
+     * the counters of the transfer.
+     */
+    private final TransferStats stats = new TransferStats();
+
+    /**
+     * the local address the socket binds to, null is the wildcard address.
+     */
+    private final LocalAddressPool.Lease localLease;
+
+    /**
+     * the capture of the packet headers, null if not captured.
+     */
+    private PacketCapture capture;
+
+    /**
+     * the id of the session in the capture.
+     */
+    private int captureId;
+
+    /**
+     * the ip of the two ends, kept for the capture so the record allocates nothing.
+     */
+    private byte[] localAddressBytes;
+
+    private byte[] remoteAddressBytes;
+
+    private int localPort;
+
+    /**
+     * run once when the session is closed.
+     */
+    private volatile Runnable closeAction;
+
+    private boolean closed;
+
+    /**
+     * @param serverIp server ip.
+     * @param serverPort the port for receive request.
+     * @param receiveTimeout the time out of receive.
+     * @param bufferLength the max length of packet to receive.
+     * @param connectToPeer connect the socket to the server TID after the first reply.
+     * @param logger use to log info.
+     */
+    public TftpSession(String serverIp, int serverPort, int receiveTimeout, int bufferLength,
+                       boolean connectToPeer, Consumer<String> logger) throws IOException {
+        this(new InetSocketAddress(serverIp, serverPort), null, receiveTimeout, bufferLength, connectToPeer, logger);
+    }
+
+    /**
+     * @param requestAddress the address receive the request, must be resolved.
+     * @param localLease the local address to bind, null is the wildcard address. released when the session is closed.
+     * @param receiveTimeout the time out of receive.
+     * @param bufferLength the max length of packet to receive.
+     * @param connectToPeer connect the socket to the server TID after the first reply.
+     * @param logger use to log info.
+     */
+    public TftpSession(InetSocketAddress requestAddress, LocalAddressPool.Lease localLease, int receiveTimeout, int bufferLength,
+                       boolean connectToPeer, Consumer<String> logger) throws IOException {
+        this.requestAddress = requestAddress;
+        if(requestAddress.isUnresolved()){
+            throw new IOException("Unknown host:" + requestAddress.getHostString());
+        }
+
+        this.receiveTimeout = receiveTimeout;
+        this.connectToPeer = connectToPeer;
+        this.logger = logger;
+        this.receivePacket = new DatagramPacket(new byte[bufferLength], bufferLength);
+        this.localLease = localLease;
+        this.socket = new DatagramSocket(new InetSocketAddress(localLease == null ? null : localLease.getAddress(), 0));
+        socket.setSoTimeout(receiveTimeout);
+    }
+
+    /**
+     * get the default time out of receive.
+     */
+    public int getReceiveTimeout() {
+        return receiveTimeout;
+    }
+
+    /**
+     * make the receive buffer hold the packet of the length, use when a larger block size is negotiated.
+     * @param length the max length of packet to receive.
+     */
+    public void ensureReceiveLength(int length) {
+        if(receivePacket.getData().length < length){
+            receivePacket = new DatagramPacket(new byte[length], length);
+        }
+    }
+
+    /**
+     * record the headers of the packets of the session into the capture, call before the request is sent.
+     * @param capture
+     */
+    public void setCapture(PacketCapture capture) {
+        this.captureId = capture.newSessionId();
+        this.remoteAddressBytes = requestAddress.getAddress().getAddress();
+        this.localAddressBytes = getLocalAddressBytes();
+        this.localPort = socket.getLocalPort();
+        this.capture = capture;
+    }
+
+    /**
+     * get the local ip of the socket, the wildcard is zeros of the family of the server.
+     */
+    private byte[] getLocalAddressBytes() {
+        InetAddress localAddress = socket.getLocalAddress();
+        return localAddress.isAnyLocalAddress() ? new byte[remoteAddressBytes.length] : localAddress.getAddress();
+    }
+
+    /**
+     * get the id of the session in the capture, 0 if not captured.
+     */
+    public int getCaptureId() {
+        return captureId;
+    }
+
+    /**
+     * set the bytes the transfer can have on the way, counted into the local address of the session.
+     * @param inFlightBytes the window size times the block size.
+     */
+    public void setInFlightBytes(long inFlightBytes) {
+        if(localLease != null){
+            localLease.setInFlightBytes(inFlightBytes);
+        }
+    }
+
+    /**
+     * get the local address of the socket.
+     */
+    public InetSocketAddress getLocalAddress() {
+        return (InetSocketAddress) socket.getLocalSocketAddress();
+    }
+
+    /**
+     * get the counters of the transfer.
+     */
+    public TransferStats getStats() {
+        return stats;
+    }
+
+    /**
+     * get the address receive the request.
+     */
+    public InetSocketAddress getRequestAddress() {
+        return requestAddress;
+    }
+
+    /**
+     * get the server TID, null before the first reply.
+     */
+    public InetSocketAddress getPeerAddress() {
+        return peerAddress;
+    }
+
+    /**
+     * get the count of the packets from unknown TID.
+     */
+    public int getStrayCount() {
+        return strayCount;
+    }
+
+    /**
+     * expire the session when no progress for the idle time, the blocked receive fails at once.
+     * the timer is armed again only when it expires, so the progress costs no timer operation.
+     *
+     * @param timerWheel the wheel of the timer.
+     * @param idleTime the max time without progress, in millisecond.
+     */
+    public void startIdleTimer(HashedTimerWheel timerWheel, long idleTime) {
+        lastProgressTime = System.currentTimeMillis();
+        idleTimeout = timerWheel.schedule(() -> checkIdle(timerWheel, idleTime), idleTime, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * set the action to run once when the session is closed.
+     */
+    public void setCloseAction(Runnable closeAction) {
+        this.closeAction = closeAction;
+    }
+
+    /**
+     * record the progress of the transfer, keep the session from expired.
+     */
+    public void touch() {
+        lastProgressTime = System.currentTimeMillis();
+    }
+
+    /**
+     * run by the idle timer.
+     */
+    private void checkIdle(HashedTimerWheel timerWheel, long idleTime) {
+        if(socket.isClosed()){
+            return;
+        }
+
+        long remain = lastProgressTime + idleTime - System.currentTimeMillis();
+        if(remain > 0){
+            idleTimeout = timerWheel.schedule(() -> checkIdle(timerWheel, idleTime), remain, TimeUnit.MILLISECONDS);
+            return;
+        }
+
+        expired = true;
+        logger.accept(String.format("Session:expired, no progress in %sms", idleTime));
+        socket.close();
+    }
+
+    /**
+     * forget the server TID, use when send the request again.
+     */
+    public void resetPeer() {
+        peerAddress = null;
+        if(socket.isConnected()){
+            socket.disconnect();
+        }
+    }
+
+    /**
+     * send the packet.
+     */
+    public void send(TftpPacket packet) throws IOException {
+        DatagramPacket datagramPacket = packet.build();
+        socket.send(datagramPacket);
+        if(capture != null){
+            capture.record(captureId, PacketCapture.DIRECTION_OUT, localAddressBytes, localPort, remoteAddressBytes,
+                    datagramPacket.getPort(), datagramPacket.getData(), datagramPacket.getOffset(), datagramPacket.getLength());
+        }
+    }
+
+    /**
+     * receive the next packet from the server TID.
+     * the packet from other TID is answered with the error "unknown transfer ID" and dropped.
+     *
+     * @throws java.net.SocketTimeoutException if time out.
+     */
+    public TftpPacket receive() throws IOException {
+        return receive(receiveTimeout);
+    }
+
+    /**
+     * receive the next packet from the server TID with the timeout.
+     *
+     * @param timeout the time out of this receive, in millisecond.
+     * @throws java.net.SocketTimeoutException if time out.
+     */
+    public TftpPacket receive(int timeout) throws IOException {
+        return receive(timeout, false);
+    }
+
+    /**
+     * receive the next packet from the server TID, the DATA shares the receive buffer of the session, not copied.
+     * the DATA is valid only until the next receive, use when the data is consumed at once.
+     *
+     * @throws java.net.SocketTimeoutException if time out.
+     */
+    public TftpPacket receiveShared() throws IOException {
+        return receive(receiveTimeout, true);
+    }
+
+    private TftpPacket receive(int timeout, boolean shareData) throws IOException {
+        if(timeout <= 0){
+            throw new SocketTimeoutException("Receive timed out");
+        }
+
+        if(timeout != socket.getSoTimeout()){
+            socket.setSoTimeout(timeout);
+        }
+
+        while(true){
+            receivePacket.setLength(receivePacket.getData().length);
+            try{
+                socket.receive(receivePacket);
+            }catch (SocketException e){
+                if(expired){
+                    throw new SocketException("Session expired");
+                }
+                throw e;
+            }
+
+            if(peerAddress == null){
+                //the first reply must come from the server host, the port is the server TID.
+                if(!requestAddress.getAddress().equals(receivePacket.getAddress())){
+                    rejectStray();
+                    continue;
+                }
+
+                lockPeer();
+            }else if(receivePacket.getPort() != peerAddress.getPort() || !peerAddress.getAddress().equals(receivePacket.getAddress())){
+                rejectStray();
+                continue;
+            }
+
+            if(capture != null){
+                capture.record(captureId, PacketCapture.DIRECTION_IN, localAddressBytes, localPort, remoteAddressBytes,
+                        receivePacket.getPort(), receivePacket.getData(), 0, receivePacket.getLength());
+            }
+
+            TftpPacket packet = shareData && DataUtils.bytesToShort(receivePacket.getData(), 0) == TftpPacketConsts.OP_DATA
+                    ? DATAPacket.wrap(receivePacket) : TftpPacketFactory.buildTftpPacket(receivePacket);
+            if(packet.getOpCode() == TftpPacketConsts.OP_ERROR){
+                peerError = true;
+            }
+            return packet;
+        }
+    }
+
+    /**
+     * lock the server TID.
+     */
+    private void lockPeer() {
+        peerAddress = new InetSocketAddress(receivePacket.getAddress(), receivePacket.getPort());
+        if(!connectToPeer){
+            return;
+        }
+
+        try{
+            socket.connect(peerAddress);
+            if(capture != null){
+                //the connected socket knows the local ip of the route, not the wildcard.
+                localAddressBytes = getLocalAddressBytes();
+            }
+        }catch (Exception e){
+            //still safe, the TID is checked for every packet.
+            logger.accept("Session:connect to server TID failed:" + e.getMessage());
+        }
+    }
+
+    /**
+     * answer the stray packet with the error "unknown transfer ID", as RFC 1350 requires.
+     */
+    private void rejectStray() throws IOException {
+        ++strayCount;
+        InetSocketAddress strayAddress = new InetSocketAddress(receivePacket.getAddress(), receivePacket.getPort());
+        logger.accept(String.format("Session:packet from unknown TID %s", strayAddress));
+        if(socket.isConnected()){
+            return;
+        }
+
+        socket.send(TftpPacketFactory.buildERRORpacket(strayAddress, TftpPacketConsts.ERRCODE_UNKTID, "Unknown transfer ID").build());
+    }
+
+    /**
+     * end the session on cancel or local failure, tell the server by an ERROR so it stops retrying at once.
+     * nothing is sent if the server TID is not known yet, or the server ended the session by an ERROR.
+     *
+     * @param errCode the error code.
+     * @param errMsg the error message.
+     * @return true if the ERROR is sent.
+     */
+    public boolean abort(short errCode, String errMsg) {
+        InetSocketAddress peer = peerAddress;
+        boolean sent = false;
+        synchronized (this){
+            if(!closed && peer != null && !peerError){
+                try{
+                    send(TftpPacketFactory.buildERRORpacket(peer, errCode, errMsg == null ? "Transfer aborted" : errMsg));
+                    sent = true;
+                }catch (IOException e){
+                    //the session is closed anyway.
+                }
+            }
+        }
+        close();
+        return sent;
+    }
+
+    /**
+     * close the session after the dally.
+     * the final ACK may be lost, then the server sends the final DATA again. the session keeps answering it with the
+     * final ACK until the dally time ends, as RFC 1350 suggests.
+     * no thread waits on the socket in the dally, the timer polls it on the executor every DALLY_POLL_INTERVAL for the
+     * packets already arrived, the server retries far slower than that. so a mass of short downloads all dally.
+     * the close action runs at once, the transfer is done and takes no slot of the server.
+     *
+     * @param lastAck the final ACK.
+     * @param dallyTime the time to wait for the final DATA again, in millisecond.
+     * @param timerWheel schedule the polls.
+     * @param executor run the polls, not on the timer thread as the poll blocks for DALLY_POLL_TIMEOUT.
+     * @param reackListener run every time the final ACK is sent again.
+     * @param endListener run when the dally ends and the session is closed.
+     */
+    public void dally(ACKPacket lastAck, int dallyTime, HashedTimerWheel timerWheel, Executor executor,
+                      Runnable reackListener, Runnable endListener) {
+        Runnable action = closeAction;
+        closeAction = null;
+        if(action != null){
+            action.run();
+        }
+
+        long deadline = System.currentTimeMillis() + dallyTime;
+        scheduleDallyPoll(lastAck, deadline, timerWheel, executor, reackListener, endListener);
+    }
+
+    private void scheduleDallyPoll(ACKPacket lastAck, long deadline, HashedTimerWheel timerWheel, Executor executor,
+                                   Runnable reackListener, Runnable endListener) {
+        long delay = Math.min(DALLY_POLL_INTERVAL, deadline - System.currentTimeMillis());
+        timerWheel.schedule(() -> {
+            try{
+                executor.execute(() -> pollDally(lastAck, deadline, timerWheel, executor, reackListener, endListener));
+            }catch (RejectedExecutionException e){
+                close();
+                endListener.run();
+            }
+        }, Math.max(delay, 0), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * answer the final DATA arrived since the last poll, then poll again later, or end the dally.
+     */
+    private void pollDally(ACKPacket lastAck, long deadline, HashedTimerWheel timerWheel, Executor executor,
+                           Runnable reackListener, Runnable endListener) {
+        boolean end = false;
+        try{
+            while(!end){
+                TftpPacket packet = receive(DALLY_POLL_TIMEOUT);
+                if(packet.getOpCode() == TftpPacketConsts.OP_ERROR){
+                    end = true;
+                }else if(packet.getOpCode() == TftpPacketConsts.OP_DATA && ((DATAPacket) packet).getBlockNum() == lastAck.getBlockNo()){
+                    //a window is sent again as a whole, answer only its last block.
+                    logger.accept(String.format("Session:Send final ACK again, blockNo:%s", lastAck.getBlockNo() & 0xffff));
+                    send(lastAck);
+                    reackListener.run();
+                }
+            }
+        }catch (SocketTimeoutException e){
+            //no more packet arrived.
+        }catch (IOException | RuntimeException e){
+            //the session is closed.
+            end = true;
+        }
+
+        if(end || System.currentTimeMillis() >= deadline){
+            close();
+            endListener.run();
+            return;
+        }
+        scheduleDallyPoll(lastAck, deadline, timerWheel, executor, reackListener, endListener);
+    }
+
+    @Override
+    public void close() {
+        synchronized (this){
+            if(closed){
+                return;
+            }
+            closed = true;
+        }
+
+        HashedTimerWheel.Timeout timeout = idleTimeout;
+        if(timeout != null){
+            timeout.cancel();
+        }
+        socket.close();
+        if(localLease != null){
+            localLease.release(stats.getBytes());
+        }
+
+        Runnable action = closeAction;
+        if(action != null){
+            action.run();
+        }
+    }
+}
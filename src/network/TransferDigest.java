@@ -0,0 +1,125 @@
+package network;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/**
+ * the digest of the data of a transfer, updated block by block as the data passes.
+ * updated by one thread only, and read after the data ends.
+ */
+public class TransferDigest {
+
+    /**
+     * the buffer size to read a file.
+     */
+    private static final int FILE_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * the max length of a checksum file, the first word of it is the digest.
+     */
+    private static final int MAX_CHECKSUM_FILE_LENGTH = 4096;
+
+    private final DigestAlgorithm algorithm;
+
+    private final MessageDigest messageDigest;
+
+    private final Checksum checksum;
+
+    /**
+     * the digest in hex, null until the data ends.
+     */
+    private String hex;
+
+    public TransferDigest(DigestAlgorithm algorithm) {
+        this.algorithm = algorithm;
+        if(algorithm == DigestAlgorithm.SHA_256){
+            try{
+                messageDigest = MessageDigest.getInstance("SHA-256");
+            }catch (NoSuchAlgorithmException e){
+                throw new IllegalStateException(e);
+            }
+            checksum = null;
+        }else{
+            messageDigest = null;
+            checksum = new CRC32C();
+        }
+    }
+
+    /**
+     * get the digest of the file, read from the disk.
+     * used when the data does not pass in order, as the blocks of multicast.
+     */
+    public static TransferDigest ofFile(DigestAlgorithm algorithm, File file) throws IOException {
+        TransferDigest digest = new TransferDigest(algorithm);
+        try(InputStream in = new FileInputStream(file)){
+            byte[] buffer = new byte[FILE_BUFFER_SIZE];
+            int count;
+            while((count = in.read(buffer)) >= 0){
+                digest.update(buffer, 0, count);
+            }
+        }
+        return digest;
+    }
+
+    /**
+     * get the digest written in a checksum file, as the output of sha256sum: "digest  name".
+     * @param data the content of the checksum file.
+     * @return the digest, null if the file is empty.
+     */
+    public static String parseChecksumFile(byte[] data) {
+        String text = new String(data, 0, Math.min(data.length, MAX_CHECKSUM_FILE_LENGTH), StandardCharsets.US_ASCII).trim();
+        if(text.isEmpty()){
+            return null;
+        }
+        return text.split("\\s+", 2)[0];
+    }
+
+    public DigestAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    public void update(byte[] b, int off, int len) {
+        if(hex != null){
+            throw new IllegalStateException("Digest finished");
+        }
+        if(messageDigest != null){
+            messageDigest.update(b, off, len);
+        }else{
+            checksum.update(b, off, len);
+        }
+    }
+
+    /**
+     * finish the digest and get it in lower case hex, the data must be ended.
+     */
+    public String getHex() {
+        if(hex == null){
+            if(messageDigest != null){
+                StringBuilder builder = new StringBuilder();
+                for (byte b : messageDigest.digest()) {
+                    builder.append(String.format("%02x", b));
+                }
+                hex = builder.toString();
+            }else{
+                hex = String.format("%08x", checksum.getValue());
+            }
+        }
+        return hex;
+    }
+
+    /**
+     * check the digest equals the expected one, the case of the hex is ignored.
+     */
+    public boolean matches(String expected) {
+        return getHex().equalsIgnoreCase(expected.trim());
+    }
+
+    @Override
+    public String toString() {
+        return algorithm + ":" + getHex();
+    }
+}
@@ -0,0 +1,118 @@
+package network;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+/**
+ * pace the packets of one transfer, only used by the thread of the transfer.
+ * the bytes are leased from the shared limiters in batches, so most packets touch no shared state,
+ * and the cap of the transfer is a local bucket without atomic operation.
+ */
+public class TransferPacer {
+
+    /**
+     * the min bytes leased from a shared limiter at once.
+     */
+    private static final int LEASE_BYTES = 4096;
+
+    /**
+     * the packets per lease when the packet is large.
+     */
+    private static final int LEASE_PACKETS = 4;
+
+    /**
+     * the wait shorter than this is not parked, the debt is paid by the later wait.
+     */
+    private static final long MIN_PARK_NANOS = 200000;
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    /**
+     * the shared limiters, global and server.
+     */
+    private final RateLimiter[] limiters;
+
+    /**
+     * the bytes leased and not used of every limiter.
+     */
+    private final long[] credits;
+
+    /**
+     * the cap of this transfer, byte per second, 0 is unlimited.
+     */
+    private final LongSupplier transferRate;
+
+    /**
+     * the theoretical arrival time of the transfer cap.
+     */
+    private long arrivalTime = System.nanoTime();
+
+    /**
+     * the total nanoseconds waited.
+     */
+    private long waitNanos;
+
+    /**
+     * @param transferRate the cap of this transfer, read for every packet so it can be changed at any time.
+     * @param limiters the shared limiters.
+     */
+    public TransferPacer(LongSupplier transferRate, RateLimiter... limiters) {
+        this.transferRate = transferRate;
+        this.limiters = limiters;
+        this.credits = new long[limiters.length];
+    }
+
+    /**
+     * wait until the bytes can be sent.
+     * @param bytes
+     */
+    public void acquire(int bytes) throws InterruptedIOException {
+        long wait = 0;
+        for (int i = 0; i < limiters.length; i++) {
+            if(limiters[i].isUnlimited()){
+                credits[i] = 0;
+                continue;
+            }
+
+            if(credits[i] < bytes){
+                long lease = Math.max(LEASE_BYTES, (long) bytes * LEASE_PACKETS);
+                wait = Math.max(wait, limiters[i].reserve(lease));
+                credits[i] += lease;
+            }
+            credits[i] -= bytes;
+        }
+
+        long rate = transferRate.getAsLong();
+        if(rate > 0){
+            long now = System.nanoTime();
+            arrivalTime = Math.max(arrivalTime, now) + bytes * NANOS_PER_SECOND / rate;
+            wait = Math.max(wait, arrivalTime - now);
+        }
+
+        if(wait >= MIN_PARK_NANOS){
+            park(wait);
+        }
+    }
+
+    /**
+     * get the total milliseconds waited.
+     */
+    public long getWaitMillis() {
+        return waitNanos / 1000000;
+    }
+
+    private void park(long nanos) throws InterruptedIOException {
+        long deadline = System.nanoTime() + nanos;
+        long remain = nanos;
+        while(remain > 0){
+            LockSupport.parkNanos(remain);
+            if(Thread.interrupted()){
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Pacing interrupted");
+            }
+            remain = deadline - System.nanoTime();
+        }
+        waitNanos += nanos;
+    }
+}
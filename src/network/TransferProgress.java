@@ -0,0 +1,214 @@
+package network;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * the progress of a transfer queued by the client, a file upload or download.
+ * written by the transfer threads, and can be read by other threads at any time.
+ * the counters are summed over all the sessions of the transfer, as the parts of a chunked transfer.
+ */
+public class TransferProgress {
+
+    /**
+     * the state of a transfer.
+     */
+    public enum State {
+        /**
+         * waiting in the queue of the scheduler.
+         */
+        QUEUED,
+        RUNNING,
+        FINISHED,
+        FAILED
+    }
+
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+
+    private final long id = NEXT_ID.incrementAndGet();
+
+    /**
+     * the name of the transfer, as "Upload:a.bin".
+     */
+    private final String name;
+
+    private final String serverIp;
+
+    /**
+     * the sessions moving the data.
+     */
+    private final List<TftpSession> sessions = new CopyOnWriteArrayList<>();
+
+    private volatile State state = State.QUEUED;
+
+    /**
+     * cancelled by the user, the sessions are aborted and the transfer fails.
+     */
+    private volatile boolean cancelled;
+
+    /**
+     * the byte count of the data to transfer, -1 if unknown.
+     */
+    private volatile long size;
+
+    /**
+     * the time the transfer starts running, in millisecond. 0 if not started.
+     */
+    private volatile long startTime;
+
+    /**
+     * the time the transfer ends, in millisecond. 0 if not ended.
+     */
+    private volatile long endTime;
+
+    /**
+     * the message of the error failing the transfer.
+     */
+    private volatile String error;
+
+    /**
+     * @param name the name of the transfer, as "Upload:a.bin".
+     * @param serverIp server ip.
+     * @param size the byte count of the data, -1 if unknown.
+     */
+    public TransferProgress(String name, String serverIp, long size) {
+        this.name = name;
+        this.serverIp = serverIp;
+        this.size = size;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getServerIp() {
+        return serverIp;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * set the size when it is known, as the tsize answered by the server.
+     */
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * get the data bytes transferred by all the sessions.
+     */
+    public long getBytes() {
+        long bytes = 0;
+        for (TftpSession session : sessions) {
+            bytes += session.getStats().getBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * get the retransmits of all the sessions.
+     */
+    public long getRetransmits() {
+        long retransmits = 0;
+        for (TftpSession session : sessions) {
+            retransmits += session.getStats().getRetransmits();
+        }
+        return retransmits;
+    }
+
+    /**
+     * get the time since the transfer starts running until it ends, in millisecond. 0 if not started.
+     */
+    public long getElapsed() {
+        long start = startTime;
+        if(start == 0){
+            return 0;
+        }
+        long end = endTime;
+        return (end == 0 ? System.currentTimeMillis() : end) - start;
+    }
+
+    /**
+     * get the mean rate since the transfer starts, byte per second. 0 if not measured.
+     */
+    public double getRate() {
+        long elapsed = getElapsed();
+        return elapsed <= 0 ? 0 : getBytes() * 1000.0 / elapsed;
+    }
+
+    /**
+     * get the fraction of the data transferred, 0 ~ 1. -1 if the size is unknown.
+     */
+    public double getFraction() {
+        long total = size;
+        if(state == State.FINISHED){
+            return 1;
+        }
+        return total <= 0 ? -1 : Math.min(1, (double) getBytes() / total);
+    }
+
+    /**
+     * get the time to finish at the mean rate, in millisecond. -1 if unknown.
+     */
+    public long getRemainingTime() {
+        long total = size;
+        double rate = getRate();
+        if(state != State.RUNNING || total <= 0 || rate <= 0){
+            return -1;
+        }
+        return (long) (Math.max(0, total - getBytes()) * 1000 / rate);
+    }
+
+    /**
+     * count the session into the transfer.
+     */
+    void addSession(TftpSession session) {
+        sessions.add(session);
+    }
+
+    List<TftpSession> getSessions() {
+        return sessions;
+    }
+
+    void cancel() {
+        cancelled = true;
+    }
+
+    void start() {
+        startTime = System.currentTimeMillis();
+        state = State.RUNNING;
+    }
+
+    void fail(String error) {
+        //the aborted session fails by the closed socket, tell the cause.
+        this.error = cancelled ? "Transfer cancelled" : error;
+        endTime = System.currentTimeMillis();
+        state = State.FAILED;
+    }
+
+    void finish() {
+        if(state == State.RUNNING){
+            endTime = System.currentTimeMillis();
+            state = State.FINISHED;
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package network;
+
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * the queue of the transfers, start at most maxActive of them at a time in the order of the policy.
+ * add and poll are O(log n), for fair share O(log n) of the count of servers.
+ */
+public class TransferScheduler {
+
+    /**
+     * the size of the transfer not known.
+     */
+    public static final long UNKNOWN_SIZE = Long.MAX_VALUE;
+
+    private final Executor executor;
+
+    /**
+     * get the policy, read when a transfer is submitted.
+     */
+    private final Supplier<SchedulePolicy> policySupplier;
+
+    /**
+     * get the max count of running transfers.
+     */
+    private final IntSupplier maxActiveSupplier;
+
+    private SchedulePolicy policy;
+
+    /**
+     * the queue of FIFO, SHORTEST_FIRST and PRIORITY.
+     */
+    private PriorityQueue<Job> readyQueue;
+
+    /**
+     * the queue of every server, for FAIR_SHARE.
+     */
+    private final Map<String, ServerQueue> serverQueues = new HashMap<>();
+
+    /**
+     * the servers with queued transfers, the server with the fewest running first.
+     */
+    private final TreeSet<ServerQueue> readyServers = new TreeSet<>(Comparator
+            .comparingInt((ServerQueue q) -> q.active)
+            .thenComparingLong(q -> q.lastStartSeq)
+            .thenComparing(q -> q.serverIp));
+
+    private int pendingCount;
+
+    private int activeCount;
+
+    /**
+     * the order of submit.
+     */
+    private long nextSeq;
+
+    private boolean shutdown;
+
+    /**
+     * @param executor run the transfers.
+     * @param policySupplier get the policy, read when a transfer is submitted.
+     * @param maxActiveSupplier get the max count of running transfers.
+     */
+    public TransferScheduler(Executor executor, Supplier<SchedulePolicy> policySupplier, IntSupplier maxActiveSupplier) {
+        this.executor = executor;
+        this.policySupplier = policySupplier;
+        this.maxActiveSupplier = maxActiveSupplier;
+        this.policy = policySupplier.get();
+        this.readyQueue = new PriorityQueue<>(comparator(policy));
+    }
+
+    /**
+     * queue the transfer.
+     * @param serverIp the server of the transfer.
+     * @param size the size of the file, UNKNOWN_SIZE if not known.
+     * @param priority the higher first under PRIORITY.
+     * @param task the transfer.
+     */
+    public synchronized void submit(String serverIp, long size, int priority, Runnable task) {
+        if(shutdown){
+            throw new IllegalStateException("Scheduler shut down");
+        }
+
+        SchedulePolicy newPolicy = policySupplier.get();
+        if(newPolicy != policy){
+            changePolicy(newPolicy);
+        }
+
+        Job job = new Job(serverIp, size, priority, nextSeq++, task);
+        if(policy == SchedulePolicy.FAIR_SHARE){
+            ServerQueue serverQueue = serverQueues.computeIfAbsent(serverIp, ServerQueue::new);
+            //the key of the set changes only out of the set.
+            readyServers.remove(serverQueue);
+            serverQueue.jobs.add(job);
+            readyServers.add(serverQueue);
+        }else{
+            readyQueue.add(job);
+        }
+        ++pendingCount;
+        dispatch();
+    }
+
+    /**
+     * get the count of queued transfers.
+     */
+    public synchronized int getPendingCount() {
+        return pendingCount;
+    }
+
+    /**
+     * get the count of running transfers.
+     */
+    public synchronized int getActiveCount() {
+        return activeCount;
+    }
+
+    /**
+     * drop the queued transfers, the running ones are not stopped.
+     */
+    public synchronized void shutdown() {
+        shutdown = true;
+        readyQueue.clear();
+        readyServers.clear();
+        serverQueues.clear();
+        pendingCount = 0;
+    }
+
+    /**
+     * start the transfers until the max active count, must hold the lock.
+     */
+    private void dispatch() {
+        while(!shutdown && pendingCount > 0 && activeCount < maxActiveSupplier.getAsInt()){
+            Job job = poll();
+            --pendingCount;
+            ++activeCount;
+            executor.execute(() -> run(job));
+        }
+    }
+
+    /**
+     * take the next transfer, must hold the lock.
+     */
+    private Job poll() {
+        if(policy != SchedulePolicy.FAIR_SHARE){
+            return readyQueue.poll();
+        }
+
+        ServerQueue serverQueue = readyServers.pollFirst();
+        Job job = serverQueue.jobs.poll();
+        ++serverQueue.active;
+        serverQueue.lastStartSeq = job.seq;
+        if(!serverQueue.jobs.isEmpty()){
+            readyServers.add(serverQueue);
+        }
+        return job;
+    }
+
+    private void run(Job job) {
+        try{
+            job.task.run();
+        }finally {
+            finish(job);
+        }
+    }
+
+    private synchronized void finish(Job job) {
+        --activeCount;
+        ServerQueue serverQueue = serverQueues.get(job.serverIp);
+        if(serverQueue != null && serverQueue.active > 0){
+            boolean ready = readyServers.remove(serverQueue);
+            --serverQueue.active;
+            if(ready){
+                readyServers.add(serverQueue);
+            }else if(serverQueue.active == 0){
+                serverQueues.remove(job.serverIp);
+            }
+        }
+        dispatch();
+    }
+
+    /**
+     * move the queued transfers into the queue of the new policy, must hold the lock.
+     */
+    private void changePolicy(SchedulePolicy newPolicy) {
+        List<Job> jobs = new ArrayList<>(readyQueue);
+        for (ServerQueue serverQueue : readyServers) {
+            jobs.addAll(serverQueue.jobs);
+            serverQueue.jobs.clear();
+        }
+        readyServers.clear();
+        //keep the running counts of the servers for fair share.
+        serverQueues.values().removeIf(q -> q.active == 0);
+
+        policy = newPolicy;
+        readyQueue = new PriorityQueue<>(comparator(newPolicy));
+        jobs.sort(Comparator.comparingLong(job -> job.seq));
+        for (Job job : jobs) {
+            if(newPolicy == SchedulePolicy.FAIR_SHARE){
+                ServerQueue serverQueue = serverQueues.computeIfAbsent(job.serverIp, ServerQueue::new);
+                readyServers.remove(serverQueue);
+                serverQueue.jobs.add(job);
+                readyServers.add(serverQueue);
+            }else{
+                readyQueue.add(job);
+            }
+        }
+    }
+
+    private static Comparator<Job> comparator(SchedulePolicy policy) {
+        Comparator<Job> bySeq = Comparator.comparingLong(job -> job.seq);
+        switch (policy){
+            case SHORTEST_FIRST:
+                return Comparator.<Job>comparingLong(job -> job.size).thenComparing(bySeq);
+            case PRIORITY:
+                return Comparator.<Job>comparingInt(job -> -job.priority).thenComparing(bySeq);
+            default:
+                return bySeq;
+        }
+    }
+
+    /**
+     * a queued transfer.
+     */
+    private static class Job {
+
+        private final String serverIp;
+
+        private final long size;
+
+        private final int priority;
+
+        private final long seq;
+
+        private final Runnable task;
+
+        private Job(String serverIp, long size, int priority, long seq, Runnable task) {
+            this.serverIp = serverIp;
+            this.size = size;
+            this.priority = priority;
+            this.seq = seq;
+            this.task = task;
+        }
+    }
+
+    /**
+     * the queued transfers of a server, for fair share.
+     */
+    private static class ServerQueue {
+
+        private final String serverIp;
+
+        private final ArrayDeque<Job> jobs = new ArrayDeque<>();
+
+        /**
+         * the count of running transfers.
+         */
+        private int active;
+
+        /**
+         * the order of the transfer started last, the server served longer ago goes first on a tie.
+         */
+        private long lastStartSeq = -1;
+
+        private ServerQueue(String serverIp) {
+            this.serverIp = serverIp;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package network;
+
+import network.packet.DATAPacket;
+
+/**
+ * the counters of one transfer.
+ * written by the transfer thread only, and can be read by other threads at any time.
+ */
+public class TransferStats {
+
+    /**
+     * the time the transfer starts, in millisecond.
+     */
+    private final long startTime = System.currentTimeMillis();
+
+    /**
+     * the data bytes transferred.
+     */
+    private volatile long bytes;
+
+    /**
+     * the data blocks transferred.
+     */
+    private volatile long blocks;
+
+    /**
+     * the retransmits by time out or fast retransmit.
+     */
+    private volatile long retransmits;
+
+    /**
+     * the window size of the transfer.
+     */
+    private volatile int windowSize = 1;
+
+    /**
+     * the byte count of data in a full block.
+     */
+    private volatile int blockSize = DATAPacket.DATA_SIZE;
+
+    /**
+     * the time outs waiting for the server.
+     */
+    private volatile long timeouts;
+
+    /**
+     * the sum of the RTT samples, in nanosecond.
+     */
+    private volatile long rttSum;
+
+    private volatile long rttCount;
+
+    public void addBlock(int length) {
+        bytes += length;
+        ++blocks;
+    }
+
+    public void addRetransmit() {
+        ++retransmits;
+    }
+
+    public void addTimeout() {
+        ++timeouts;
+    }
+
+    /**
+     * record the time from a packet sent to its answer.
+     * @param rtt in nanosecond.
+     */
+    public void addRtt(long rtt) {
+        rttSum += rtt;
+        ++rttCount;
+    }
+
+    public void setWindowSize(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    public void setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getBlocks() {
+        return blocks;
+    }
+
+    public long getRetransmits() {
+        return retransmits;
+    }
+
+    public long getTimeouts() {
+        return timeouts;
+    }
+
+    /**
+     * get the mean RTT, in millisecond. -1 if not measured.
+     */
+    public double getMeanRtt() {
+        long count = rttCount;
+        return count == 0 ? -1 : rttSum / 1000000.0 / count;
+    }
+
+    /**
+     * get the time outs per round trip.
+     */
+    public double getTimeoutRate() {
+        long count = timeouts;
+        return count == 0 ? 0 : (double) count / (count + rttCount);
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * get the retransmits per block.
+     */
+    public double getLossRate() {
+        long count = blocks;
+        return count == 0 ? 0 : Math.min(1, (double) retransmits / count);
+    }
+
+    /**
+     * get the time since the transfer starts, in millisecond.
+     */
+    public long getElapsed() {
+        return System.currentTimeMillis() - startTime;
+    }
+}
@@ -0,0 +1,131 @@
+package network;
+
+import network.packet.DATAPacket;
+import network.packet.TftpPacketFactory;
+import network.protocol.SendWindow;
+import utils.DataUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+
+/**
+ * the window of the data blocks being uploaded.
+ * the block number here is the absolute number (start from 1, never wrap),
+ * the block number on the wire is the low 16 bits of it.
+ */
+public class UploadWindow implements SendWindow {
+
+    /**
+     * the packets of the window, index by block number mod window size.
+     */
+    private final DATAPacket[] packets;
+
+    private final InputStream inputStream;
+
+    /**
+     * the byte count of data in a full block.
+     */
+    private final int blockSize;
+
+    /**
+     * the oldest block not acknowledged.
+     */
+    private long firstUnacked = 1;
+
+    /**
+     * the next block to read from the input stream.
+     */
+    private long nextRead = 1;
+
+    /**
+     * the number of the last block, -1 if not read yet.
+     */
+    private long lastBlock = -1;
+
+    /**
+     * @param address the server TID.
+     * @param inputStream the data to upload.
+     * @param windowSize the count of blocks sent before wait for the ack.
+     * @param blockSize the byte count of data in a full block.
+     */
+    public UploadWindow(InetSocketAddress address, InputStream inputStream, int windowSize, int blockSize) {
+        this.inputStream = inputStream;
+        this.blockSize = blockSize;
+        packets = new DATAPacket[windowSize];
+        for (int i = 0; i < windowSize; i++) {
+            packets[i] = TftpPacketFactory.buildDatapacket(address, blockSize);
+        }
+    }
+
+    /**
+     * read the blocks until the window is full or the data end.
+     */
+    @Override
+    public void fill() throws IOException {
+        while(lastBlock < 0 && nextRead < firstUnacked + packets.length){
+            int count = get(nextRead).readBlockData(inputStream, (short) nextRead);
+            //less than a full block (maybe 0 byte) is the last block.
+            if(count < blockSize){
+                lastBlock = nextRead;
+            }
+            ++nextRead;
+        }
+    }
+
+    /**
+     * get the packet of the block, the block must be in the window.
+     */
+    public DATAPacket get(long blockNo) {
+        return packets[(int) (blockNo % packets.length)];
+    }
+
+    /**
+     * get the oldest block not acknowledged.
+     */
+    @Override
+    public long getFirstUnacked() {
+        return firstUnacked;
+    }
+
+    /**
+     * get the last block read into the window.
+     */
+    @Override
+    public long getLastRead() {
+        return nextRead - 1;
+    }
+
+    /**
+     * get the window size.
+     */
+    @Override
+    public int getWindowSize() {
+        return packets.length;
+    }
+
+    /**
+     * change the block number on the wire to the absolute number, base on the last acknowledged block.
+     */
+    @Override
+    public long toAbsolute(short wireBlockNo) {
+        long lastAcked = firstUnacked - 1;
+        return lastAcked + DataUtils.blockDelta((short) lastAcked, wireBlockNo);
+    }
+
+    /**
+     * acknowledge all the blocks until the block.
+     */
+    @Override
+    public void ack(long blockNo) {
+        firstUnacked = blockNo + 1;
+    }
+
+    /**
+     * check all the blocks are acknowledged.
+     */
+    @Override
+    public boolean isFinished() {
+        return lastBlock >= 0 && firstUnacked > lastBlock;
+    }
+}
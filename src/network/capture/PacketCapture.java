@@ -0,0 +1,318 @@
+package network.capture;
+
+import network.packet.TftpPacketConsts;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * the ring of the headers of the packets sent and received by the sessions, kept off the heap.
+ * a record is fixed size, the oldest is overwritten when the ring is full, and record allocates nothing,
+ * so the capture can stay on in production. the ring is dumped in pcap format on demand.
+ *
+ * the writers take the slots by a sequence and never lock. a record is marked by its sequence at both ends,
+ * the dump skips the record being written or overwritten at the time.
+ */
+public class PacketCapture {
+
+    /**
+     * the packet sent to the server.
+     */
+    public static final byte DIRECTION_OUT = 0;
+
+    /**
+     * the packet received from the server.
+     */
+    public static final byte DIRECTION_IN = 1;
+
+    /**
+     * the byte count of a record:
+     * seq(8) time(8) sessionId(4) direction(1) localAddressLength(1) opcode(2) block(2) localPort(2) remotePort(2)
+     * remoteAddressLength(1) pad(1) length(4) localAddress(16) remoteAddress(16) pad(4) seq(8).
+     */
+    private static final int RECORD_LENGTH = 80;
+
+    private static final int OFFSET_TIME = 8;
+    private static final int OFFSET_SESSION = 16;
+    private static final int OFFSET_DIRECTION = 20;
+    private static final int OFFSET_LOCAL_ADDRESS_LENGTH = 21;
+    private static final int OFFSET_OPCODE = 22;
+    private static final int OFFSET_BLOCK = 24;
+    private static final int OFFSET_LOCAL_PORT = 26;
+    private static final int OFFSET_REMOTE_PORT = 28;
+    private static final int OFFSET_REMOTE_ADDRESS_LENGTH = 30;
+    private static final int OFFSET_LENGTH = 32;
+    private static final int OFFSET_LOCAL_ADDRESS = 36;
+    private static final int OFFSET_REMOTE_ADDRESS = 52;
+    private static final int OFFSET_END_SEQ = 72;
+
+    /**
+     * the pcap file header magic, microsecond time stamps.
+     */
+    private static final int PCAP_MAGIC = 0xa1b2c3d4;
+
+    /**
+     * the packet begins with the IPv4 or IPv6 header.
+     */
+    private static final int PCAP_LINKTYPE_RAW = 101;
+
+    private static final int PCAP_SNAPLEN = 65535;
+
+    private static final int IPV4_HEADER_LENGTH = 20;
+
+    private static final int IPV6_HEADER_LENGTH = 40;
+
+    private static final int UDP_HEADER_LENGTH = 8;
+
+    /**
+     * the tftp header kept of the packet, the opcode and the block number.
+     */
+    private static final int TFTP_HEADER_LENGTH = 4;
+
+    private static final int PROTOCOL_UDP = 17;
+
+    private static final int TTL = 64;
+
+    private final ByteBuffer ring;
+
+    /**
+     * the count of records of the ring.
+     */
+    private final int capacity;
+
+    /**
+     * the sequence of the next record.
+     */
+    private final AtomicLong nextSeq = new AtomicLong();
+
+    private final AtomicInteger nextSessionId = new AtomicInteger();
+
+    /**
+     * the wall clock and the nano time at the start, the time stamp is taken by the nano time.
+     */
+    private final long startMicros = System.currentTimeMillis() * 1000;
+
+    private final long startNanos = System.nanoTime();
+
+    /**
+     * @param capacity the count of records kept.
+     */
+    public PacketCapture(int capacity) {
+        if(capacity <= 0){
+            throw new IllegalArgumentException("capacity must be positive:" + capacity);
+        }
+        this.capacity = capacity;
+        this.ring = ByteBuffer.allocateDirect(capacity * RECORD_LENGTH);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * get the count of packets recorded, including the overwritten ones.
+     */
+    public long getRecordCount() {
+        return nextSeq.get();
+    }
+
+    /**
+     * get the id of a new session, the records of a session can be dumped alone.
+     */
+    public int newSessionId() {
+        return nextSessionId.incrementAndGet();
+    }
+
+    /**
+     * record the header of the packet, allocates nothing.
+     *
+     * @param sessionId the id of the session.
+     * @param direction DIRECTION_OUT or DIRECTION_IN.
+     * @param localAddress the local ip, 4 or 16 bytes.
+     * @param localPort the local port, the client TID.
+     * @param remoteAddress the server ip, 4 or 16 bytes.
+     * @param remotePort the server port, the server TID after the first reply.
+     * @param data the packet.
+     * @param offset the start of the packet.
+     * @param length the length of the packet.
+     */
+    public void record(int sessionId, byte direction, byte[] localAddress, int localPort, byte[] remoteAddress, int remotePort,
+                       byte[] data, int offset, int length) {
+        long seq = nextSeq.getAndIncrement();
+        int base = (int) (seq % capacity) * RECORD_LENGTH;
+        short opCode = length >= 2 ? (short) ((data[offset] & 0xff) << 8 | data[offset + 1] & 0xff) : 0;
+        short block = 0;
+        if(length >= 4 && (opCode == TftpPacketConsts.OP_DATA || opCode == TftpPacketConsts.OP_ACK || opCode == TftpPacketConsts.OP_ERROR)){
+            block = (short) ((data[offset + 2] & 0xff) << 8 | data[offset + 3] & 0xff);
+        }
+
+        //invalid until the end mark is written.
+        ring.putLong(base + OFFSET_END_SEQ, -1);
+        ring.putLong(base, seq);
+        ring.putLong(base + OFFSET_TIME, startMicros + (System.nanoTime() - startNanos) / 1000);
+        ring.putInt(base + OFFSET_SESSION, sessionId);
+        ring.put(base + OFFSET_DIRECTION, direction);
+        ring.putShort(base + OFFSET_OPCODE, opCode);
+        ring.putShort(base + OFFSET_BLOCK, block);
+        ring.putShort(base + OFFSET_LOCAL_PORT, (short) localPort);
+        ring.putShort(base + OFFSET_REMOTE_PORT, (short) remotePort);
+        ring.putInt(base + OFFSET_LENGTH, length);
+        putAddress(base + OFFSET_LOCAL_ADDRESS_LENGTH, base + OFFSET_LOCAL_ADDRESS, localAddress);
+        putAddress(base + OFFSET_REMOTE_ADDRESS_LENGTH, base + OFFSET_REMOTE_ADDRESS, remoteAddress);
+        ring.putLong(base + OFFSET_END_SEQ, seq);
+    }
+
+    private void putAddress(int lengthIndex, int index, byte[] address) {
+        ring.put(lengthIndex, (byte) address.length);
+        for (int i = 0; i < address.length; i++) {
+            ring.put(index + i, address[i]);
+        }
+    }
+
+    /**
+     * dump all the records kept to the file in pcap format.
+     * @return the count of packets dumped.
+     */
+    public int dump(File file) throws IOException {
+        return dump(file, 0);
+    }
+
+    /**
+     * dump the records of the session to the file in pcap format.
+     * @param sessionId the id of the session, 0 is all the sessions.
+     * @return the count of packets dumped.
+     */
+    public int dump(File file, int sessionId) throws IOException {
+        int count = 0;
+        byte[] record = new byte[RECORD_LENGTH];
+        ByteBuffer recordBuffer = ByteBuffer.wrap(record);
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))){
+            writeFileHeader(out);
+            long end = nextSeq.get();
+            for(long seq = Math.max(0, end - capacity); seq < end; ++seq){
+                int base = (int) (seq % capacity) * RECORD_LENGTH;
+                for (int i = 0; i < RECORD_LENGTH; i++) {
+                    record[i] = ring.get(base + i);
+                }
+                //being written, or overwritten by a later one.
+                if(recordBuffer.getLong(0) != seq || recordBuffer.getLong(OFFSET_END_SEQ) != seq){
+                    continue;
+                }
+                if(sessionId != 0 && recordBuffer.getInt(OFFSET_SESSION) != sessionId){
+                    continue;
+                }
+
+                writePacket(out, recordBuffer);
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    private static void writeFileHeader(DataOutputStream out) throws IOException {
+        out.writeInt(PCAP_MAGIC);
+        out.writeShort(2);
+        out.writeShort(4);
+        //the time zone and the accuracy of the time stamps.
+        out.writeInt(0);
+        out.writeInt(0);
+        out.writeInt(PCAP_SNAPLEN);
+        out.writeInt(PCAP_LINKTYPE_RAW);
+    }
+
+    /**
+     * write the record as an IP packet holding the UDP header and the tftp header.
+     */
+    private static void writePacket(DataOutputStream output, ByteBuffer record) throws IOException {
+        boolean sent = record.get(OFFSET_DIRECTION) == DIRECTION_OUT;
+        byte[] localAddress = getAddress(record, OFFSET_LOCAL_ADDRESS_LENGTH, OFFSET_LOCAL_ADDRESS);
+        byte[] remoteAddress = getAddress(record, OFFSET_REMOTE_ADDRESS_LENGTH, OFFSET_REMOTE_ADDRESS);
+        boolean ipv6 = localAddress.length == 16 || remoteAddress.length == 16;
+        byte[] source = toFamily(sent ? localAddress : remoteAddress, ipv6);
+        byte[] destination = toFamily(sent ? remoteAddress : localAddress, ipv6);
+        int sourcePort = record.getShort(sent ? OFFSET_LOCAL_PORT : OFFSET_REMOTE_PORT) & 0xffff;
+        int destinationPort = record.getShort(sent ? OFFSET_REMOTE_PORT : OFFSET_LOCAL_PORT) & 0xffff;
+
+        int length = record.getInt(OFFSET_LENGTH);
+        int tftpLength = Math.min(length, TFTP_HEADER_LENGTH);
+        int ipHeaderLength = ipv6 ? IPV6_HEADER_LENGTH : IPV4_HEADER_LENGTH;
+        int udpLength = UDP_HEADER_LENGTH + length;
+
+        long time = record.getLong(OFFSET_TIME);
+        output.writeInt((int) (time / 1000000));
+        output.writeInt((int) (time % 1000000));
+        output.writeInt(ipHeaderLength + UDP_HEADER_LENGTH + tftpLength);
+        output.writeInt(ipHeaderLength + udpLength);
+
+        if(ipv6){
+            output.writeInt(0x60000000);
+            output.writeShort(udpLength);
+            output.writeByte(PROTOCOL_UDP);
+            output.writeByte(TTL);
+        }else{
+            byte[] header = new byte[IPV4_HEADER_LENGTH];
+            ByteBuffer ipHeader = ByteBuffer.wrap(header);
+            ipHeader.put((byte) 0x45).put((byte) 0).putShort((short) Math.min(0xffff, IPV4_HEADER_LENGTH + udpLength))
+                    .putShort((short) 0).putShort((short) 0).put((byte) TTL).put((byte) PROTOCOL_UDP).putShort((short) 0)
+                    .put(source).put(destination);
+            ipHeader.putShort(10, ipChecksum(header));
+            output.write(header);
+        }
+        if(ipv6){
+            output.write(source);
+            output.write(destination);
+        }
+
+        output.writeShort(sourcePort);
+        output.writeShort(destinationPort);
+        output.writeShort(Math.min(0xffff, udpLength));
+        //no checksum, the payload is not kept.
+        output.writeShort(0);
+
+        if(tftpLength >= 2){
+            output.writeShort(record.getShort(OFFSET_OPCODE));
+        }
+        if(tftpLength >= 4){
+            output.writeShort(record.getShort(OFFSET_BLOCK));
+        }
+    }
+
+    private static byte[] getAddress(ByteBuffer record, int lengthIndex, int index) {
+        byte[] address = new byte[record.get(lengthIndex)];
+        for (int i = 0; i < address.length; i++) {
+            address[i] = record.get(index + i);
+        }
+        return address;
+    }
+
+    /**
+     * change the IPv4 address to the IPv4-mapped IPv6 address if the packet is IPv6.
+     */
+    private static byte[] toFamily(byte[] address, boolean ipv6) {
+        if(!ipv6 || address.length == 16){
+            return address;
+        }
+        byte[] mapped = new byte[16];
+        mapped[10] = (byte) 0xff;
+        mapped[11] = (byte) 0xff;
+        System.arraycopy(address, 0, mapped, 12, address.length);
+        return mapped;
+    }
+
+    private static short ipChecksum(byte[] header) {
+        int sum = 0;
+        for (int i = 0; i < header.length; i += 2) {
+            sum += (header[i] & 0xff) << 8 | header[i + 1] & 0xff;
+        }
+        while((sum >> 16) != 0){
+            sum = (sum & 0xffff) + (sum >> 16);
+        }
+        return (short) ~sum;
+    }
+}
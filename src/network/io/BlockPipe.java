@@ -0,0 +1,300 @@
+package network.io;
+
+import java.io.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * a bounded pipe of data blocks from a writer thread to a reader thread.
+ * the small writes are gathered into the blocks, and the blocks read are reused by the writer,
+ * so the steady state allocates nothing. when the pipe is full, the write call blocks until the reader catches up.
+ * either side may close the pipe with an error, the other side gets the error on its next call.
+ */
+class BlockPipe {
+
+    /**
+     * mark the end of the data.
+     */
+    private static final Block END_MARK = new Block(0);
+
+    /**
+     * the interval to check the reader is closed when the pipe is full.
+     */
+    private static final long OFFER_CHECK_INTERVAL = 100;
+
+    /**
+     * the blocks written and not read yet.
+     */
+    private final BlockingQueue<Block> queue;
+
+    /**
+     * the blocks read, reused by the writer.
+     */
+    private final BlockingQueue<Block> freeBlocks;
+
+    private final int blockSize;
+
+    /**
+     * the error the writer ends with, thrown to the reader at the end of the data.
+     */
+    private volatile IOException writeError;
+
+    private volatile boolean readClosed;
+
+    /**
+     * the error the reader ends with, thrown to the writer.
+     */
+    private volatile IOException readError;
+
+    /**
+     * the block being filled by the writer.
+     */
+    private Block writing;
+
+    private boolean writeClosed;
+
+    /**
+     * the block being read by the reader.
+     */
+    private Block reading;
+
+    private int position;
+
+    private boolean end;
+
+    /**
+     * the byte of the single byte write and read of the two sides, each side is used by one thread.
+     */
+    private final byte[] singleWrite = new byte[1];
+
+    private final byte[] singleRead = new byte[1];
+
+    private final OutputStream output = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            singleWrite[0] = (byte) b;
+            write(singleWrite, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            BlockPipe.this.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            BlockPipe.this.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            closeWrite(null);
+        }
+    };
+
+    private final InputStream input = new InputStream() {
+        @Override
+        public int read() throws IOException {
+            return read(singleRead, 0, 1) < 0 ? -1 : singleRead[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return BlockPipe.this.read(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            closeRead(null);
+        }
+    };
+
+    /**
+     * @param queueSize the max count of blocks in the pipe.
+     * @param blockSize the byte count of a block.
+     */
+    BlockPipe(int queueSize, int blockSize) {
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        //the blocks in the queue, the one being written and the one being read.
+        this.freeBlocks = new ArrayBlockingQueue<>(queueSize + 2);
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * the side of the writer, close ends the data.
+     */
+    OutputStream getOutput() {
+        return output;
+    }
+
+    /**
+     * the side of the reader, close stops the writer.
+     */
+    InputStream getInput() {
+        return input;
+    }
+
+    private void write(byte[] b, int off, int len) throws IOException {
+        checkWrite();
+        while(len > 0){
+            if(writing == null){
+                writing = freeBlocks.poll();
+                if(writing == null){
+                    writing = new Block(blockSize);
+                }
+            }
+
+            int count = Math.min(len, blockSize - writing.length);
+            System.arraycopy(b, off, writing.data, writing.length, count);
+            writing.length += count;
+            off += count;
+            len -= count;
+            if(writing.length == blockSize){
+                enqueue(writing);
+                writing = null;
+            }
+        }
+    }
+
+    /**
+     * pass the block being filled to the reader.
+     */
+    private void flush() throws IOException {
+        checkWrite();
+        if(writing != null && writing.length > 0){
+            enqueue(writing);
+            writing = null;
+        }
+    }
+
+    /**
+     * end the data, the reader reads the data written then gets the error, or the end if no error.
+     * @param error null is the normal end.
+     */
+    void closeWrite(IOException error) throws IOException {
+        if(writeClosed){
+            return;
+        }
+
+        writeClosed = true;
+        writeError = error;
+        try{
+            if(error == null && writing != null && writing.length > 0){
+                enqueue(writing);
+            }
+        }finally {
+            writing = null;
+            try{
+                enqueue(END_MARK);
+            }catch (IOException e){
+                //the reader is closed, no one waits for the end.
+            }
+        }
+    }
+
+    /**
+     * stop reading, the writer gets the error on the next write, or "Pipe closed" if no error.
+     * @param error null if the reader is closed normally.
+     */
+    void closeRead(IOException error) {
+        if(readClosed){
+            return;
+        }
+
+        readError = error;
+        readClosed = true;
+        //release the writer blocked by the full queue.
+        queue.clear();
+    }
+
+    private int read(byte[] b, int off, int len) throws IOException {
+        if(readClosed){
+            throw new IOException("Stream closed");
+        }
+        if(len <= 0){
+            return 0;
+        }
+
+        while(reading == null || position == reading.length){
+            if(end){
+                return -1;
+            }
+            if(reading != null){
+                reading.length = 0;
+                freeBlocks.offer(reading);
+                reading = null;
+            }
+
+            Block block = take();
+            if(block == END_MARK){
+                end = true;
+                if(writeError != null){
+                    throw writeError;
+                }
+                return -1;
+            }
+            reading = block;
+            position = 0;
+        }
+
+        int count = Math.min(len, reading.length - position);
+        System.arraycopy(reading.data, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    private void checkWrite() throws IOException {
+        if(writeClosed){
+            throw new IOException("Stream closed");
+        }
+        if(readClosed){
+            throw readError != null ? readError : new IOException("Pipe closed");
+        }
+    }
+
+    /**
+     * put the block into the queue, block when the queue is full.
+     */
+    private void enqueue(Block block) throws IOException {
+        try {
+            while(!queue.offer(block, OFFER_CHECK_INTERVAL, TimeUnit.MILLISECONDS)){
+                if(readClosed){
+                    throw readError != null ? readError : new IOException("Pipe closed");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Write interrupted");
+        }
+    }
+
+    /**
+     * take the next block, the writer always ends the data with the end mark.
+     */
+    private Block take() throws IOException {
+        try {
+            return queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Read interrupted");
+        }
+    }
+
+    /**
+     * a block of data in the pipe.
+     */
+    private static class Block {
+
+        private final byte[] data;
+
+        /**
+         * the byte count of the data.
+         */
+        private int length;
+
+        Block(int capacity) {
+            this.data = new byte[capacity];
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package network.io;
+
+import java.io.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+/**
+ * compress the data of the source by a background compressor, ahead of the caller.
+ * the network loop only copies the compressed data out of a bounded pipe, so it is not gated on the codec.
+ * when the pipe is empty, the read call blocks until the compressor catches up.
+ */
+public class CompressingInputStream extends InputStream {
+
+    private final BlockPipe pipe;
+
+    private final InputStream source;
+
+    private final CompressionCodec codec;
+
+    /**
+     * the byte count of a read from the source.
+     */
+    private final int chunkSize;
+
+    /**
+     * count down when the compressor finish.
+     */
+    private final CountDownLatch compressorFinish = new CountDownLatch(1);
+
+    private boolean closed;
+
+    /**
+     * the byte of read(), copied out of the pipe so it is reused.
+     */
+    private final byte[] singleByte = new byte[1];
+
+    /**
+     * @param source the plain data, read by the compressor and closed with this stream.
+     * @param codec the compression of the data read.
+     * @param queueSize the max count of chunks compressed ahead.
+     * @param chunkSize the byte count of a chunk.
+     * @param executor use to run the compressor.
+     */
+    public CompressingInputStream(InputStream source, CompressionCodec codec, int queueSize, int chunkSize, Executor executor) {
+        this.pipe = new BlockPipe(queueSize, chunkSize);
+        this.source = source;
+        this.codec = codec;
+        this.chunkSize = chunkSize;
+        executor.execute(this::compress);
+    }
+
+    @Override
+    public int read() throws IOException {
+        return read(singleByte, 0, 1) < 0 ? -1 : singleByte[0] & 0xff;
+    }
+
+    /**
+     * the error of the compressor or the source is thrown at the end of the data compressed before it.
+     */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if(closed){
+            throw new IOException("Stream closed");
+        }
+        return pipe.getInput().read(b, off, len);
+    }
+
+    /**
+     * stop the compressor, then close the source.
+     */
+    @Override
+    public void close() throws IOException {
+        if(closed){
+            return;
+        }
+
+        closed = true;
+        pipe.closeRead(null);
+        try {
+            compressorFinish.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Wait compressor finish interrupted");
+        } finally {
+            source.close();
+        }
+    }
+
+    /**
+     * the compressor, read the source and write the compressed data into the pipe.
+     */
+    private void compress() {
+        OutputStream out = null;
+        IOException error = null;
+        try{
+            out = codec.compress(pipe.getOutput());
+            byte[] buffer = new byte[chunkSize];
+            int read;
+            while((read = source.read(buffer)) >= 0){
+                out.write(buffer, 0, read);
+            }
+            //write the trailer and end the data.
+            OutputStream finished = out;
+            out = null;
+            finished.close();
+        }catch (IOException e){
+            error = e;
+        }finally {
+            try{
+                pipe.closeWrite(error);
+            }catch (IOException ignore){
+            }
+            if(out != null){
+                //free the codec, the pipe is closed and takes no more data.
+                try{
+                    out.close();
+                }catch (IOException ignore){
+                }
+            }
+            compressorFinish.countDown();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package network.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * the compression of a file, known by the suffix of the file name.
+ */
+public enum CompressionCodec {
+    /**
+     * gzip (RFC 1952) only, the format of the gzip tool. a raw zlib stream (RFC 1950) fails to decompress.
+     */
+    GZIP(".gz") {
+        @Override
+        public InputStream decompress(InputStream in) throws IOException {
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        }
+
+        @Override
+        public OutputStream compress(OutputStream out) throws IOException {
+            return new GZIPOutputStream(out, BUFFER_SIZE);
+        }
+    };
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String suffix;
+
+    CompressionCodec(String suffix) {
+        this.suffix = suffix;
+    }
+
+    public String getSuffix() {
+        return suffix;
+    }
+
+    /**
+     * get the codec of the file by the suffix of the name, case insensitive.
+     * @return null if the file is not compressed.
+     */
+    public static CompressionCodec forFileName(String fileName) {
+        String name = fileName.toLowerCase();
+        for (CompressionCodec codec : values()) {
+            if(name.endsWith(codec.suffix)){
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * the plain data of the compressed data.
+     * @param in the compressed data, closed with the returned stream.
+     */
+    public abstract InputStream decompress(InputStream in) throws IOException;
+
+    /**
+     * compress the data written.
+     * @param out the output of the compressed data, closed with the returned stream, which also writes the trailer.
+     */
+    public abstract OutputStream compress(OutputStream out) throws IOException;
+}
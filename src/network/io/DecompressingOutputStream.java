@@ -0,0 +1,167 @@
+package network.io;
+
+import java.io.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+/**
+ * decompress the data written into the sink, by a background decompressor.
+ * the caller only copies the data into a bounded pipe, so the network loop is not gated on the codec.
+ * when the pipe is full, the write call blocks until the decompressor catches up (backpressure).
+ * the data after the end of the compressed stream is ignored.
+ */
+public class DecompressingOutputStream extends OutputStream {
+
+    private final BlockPipe pipe;
+
+    private final OutputStream sink;
+
+    private final CompressionCodec codec;
+
+    /**
+     * the byte count of a write to the sink.
+     */
+    private final int chunkSize;
+
+    /**
+     * count down when the decompressor finish.
+     */
+    private final CountDownLatch decompressorFinish = new CountDownLatch(1);
+
+    /**
+     * the error happen in the decompressor, or in the sink.
+     */
+    private volatile IOException decompressError;
+
+    /**
+     * the decompressor error is thrown by a write, not thrown again by close.
+     */
+    private boolean errorThrown;
+
+    private boolean closed;
+
+    /**
+     * the byte of write(int), copied into the pipe so it is reused.
+     */
+    private final byte[] singleByte = new byte[1];
+
+    /**
+     * @param sink the output of the plain data, written by the decompressor and closed with this stream.
+     * @param codec the compression of the data written.
+     * @param queueSize the max count of chunks waiting to be decompressed.
+     * @param chunkSize the byte count of a chunk.
+     * @param executor use to run the decompressor.
+     */
+    public DecompressingOutputStream(OutputStream sink, CompressionCodec codec, int queueSize, int chunkSize, Executor executor) {
+        this.pipe = new BlockPipe(queueSize, chunkSize);
+        this.sink = sink;
+        this.codec = codec;
+        this.chunkSize = chunkSize;
+        executor.execute(this::decompress);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        singleByte[0] = (byte) b;
+        write(singleByte, 0, 1);
+    }
+
+    /**
+     * the decompressor error is thrown by the write after it.
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if(closed){
+            throw new IOException("Stream closed");
+        }
+        try{
+            pipe.getOutput().write(b, off, len);
+        }catch (IOException e){
+            errorThrown |= e == decompressError;
+            throw e;
+        }
+    }
+
+    /**
+     * the data is decompressed by the decompressor, only check the decompressor error here.
+     * use close to wait until all data is decompressed.
+     */
+    @Override
+    public void flush() throws IOException {
+        if(closed){
+            throw new IOException("Stream closed");
+        }
+        if(decompressError != null){
+            errorThrown = true;
+            throw decompressError;
+        }
+    }
+
+    /**
+     * wait until all the data is decompressed into the sink, then close the sink.
+     * the truncated compressed data fails here.
+     */
+    @Override
+    public void close() throws IOException {
+        if(closed){
+            return;
+        }
+
+        closed = true;
+        IOException error = null;
+        try{
+            pipe.closeWrite(null);
+            decompressorFinish.await();
+        }catch (IOException e){
+            error = e;
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            error = new InterruptedIOException("Wait decompressor finish interrupted");
+        }
+
+        try{
+            sink.close();
+        }catch (IOException e){
+            if(error == null){
+                error = e;
+            }
+        }
+        if(decompressError != null && !errorThrown){
+            throw decompressError;
+        }
+        if(error != null && error != decompressError){
+            throw error;
+        }
+    }
+
+    /**
+     * the decompressor, read the compressed data from the pipe and write the plain data to the sink.
+     */
+    private void decompress() {
+        InputStream pipeInput = pipe.getInput();
+        InputStream in = null;
+        try{
+            in = codec.decompress(pipeInput);
+            byte[] buffer = new byte[chunkSize];
+            int read;
+            while((read = in.read(buffer)) >= 0){
+                sink.write(buffer, 0, read);
+            }
+            //take the rest, the writer waits for the end to be read.
+            while(pipeInput.read(buffer) >= 0){
+            }
+        }catch (IOException e){
+            decompressError = e;
+        }finally {
+            //release the writer blocked by the full pipe, it gets the error.
+            pipe.closeRead(decompressError);
+            if(in != null){
+                try{
+                    in.close();
+                }catch (IOException ignore){
+                }
+            }
+            decompressorFinish.countDown();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package network.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * translate the local data to netascii (RFC 764) as it is read: the line end is CR LF, and a bare CR is CR NUL.
+ * the translation runs over a fixed buffer, a CR at the end of one read is joined with the next one.
+ */
+public class NetasciiInputStream extends InputStream {
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private static final byte CR = '\r';
+
+    private static final byte LF = '\n';
+
+    private static final byte NUL = 0;
+
+    private final InputStream source;
+
+    /**
+     * the local line end is CR LF, as on windows. else it is LF.
+     */
+    private final boolean crlfLineEnd;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    /**
+     * the byte of read(), reused so the line end translation allocates nothing per call.
+     */
+    private final byte[] single = new byte[1];
+
+    private int position;
+
+    private int limit;
+
+    /**
+     * the second byte of a translated pair not read yet, -1 if none.
+     */
+    private int pending = -1;
+
+    /**
+     * a CR is read and the next byte decides it is a line end or a bare CR, only when the local line end is CR LF.
+     */
+    private boolean crPending;
+
+    private boolean end;
+
+    /**
+     * the data with the line end of this platform.
+     * @param source the local data.
+     */
+    public NetasciiInputStream(InputStream source) {
+        this(source, "\r\n".equals(System.lineSeparator()));
+    }
+
+    /**
+     * @param source the local data.
+     * @param crlfLineEnd the local line end is CR LF, else LF.
+     */
+    public NetasciiInputStream(InputStream source, boolean crlfLineEnd) {
+        this.source = source;
+        this.crlfLineEnd = crlfLineEnd;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if(len <= 0){
+            return 0;
+        }
+
+        int count = 0;
+        while(count < len){
+            if(pending >= 0){
+                b[off + count++] = (byte) pending;
+                pending = -1;
+                continue;
+            }
+
+            if(position == limit){
+                //return what is translated, not block on the source for more.
+                if(end || count > 0){
+                    break;
+                }
+                limit = source.read(buffer, 0, buffer.length);
+                position = 0;
+                if(limit < 0){
+                    limit = 0;
+                    end = true;
+                    if(crPending){
+                        crPending = false;
+                        b[off + count++] = CR;
+                        pending = NUL;
+                    }
+                }
+                continue;
+            }
+
+            byte c = buffer[position++];
+            if(crPending){
+                crPending = false;
+                b[off + count++] = CR;
+                if(c == LF){
+                    pending = LF;
+                }else{
+                    //a bare CR, the byte after it is translated next.
+                    pending = NUL;
+                    --position;
+                }
+            }else if(c == CR){
+                if(crlfLineEnd){
+                    crPending = true;
+                }else{
+                    b[off + count++] = CR;
+                    pending = NUL;
+                }
+            }else if(c == LF){
+                b[off + count++] = CR;
+                pending = LF;
+            }else{
+                b[off + count++] = c;
+            }
+        }
+        return count == 0 && end ? -1 : count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+}
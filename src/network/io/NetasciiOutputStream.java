@@ -0,0 +1,132 @@
+package network.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * translate the netascii (RFC 764) data to the local data as it is written: CR LF is the line end, and CR NUL is a CR.
+ * the translation runs over a fixed buffer, a CR at the end of one block is joined with the next block.
+ */
+public class NetasciiOutputStream extends OutputStream {
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private static final byte CR = '\r';
+
+    private static final byte LF = '\n';
+
+    private static final byte NUL = 0;
+
+    private final OutputStream out;
+
+    /**
+     * the local line end is CR LF, as on windows. else it is LF.
+     */
+    private final boolean crlfLineEnd;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    private int count;
+
+    /**
+     * the last byte written is a CR, the next byte decides what it is.
+     */
+    private boolean crPending;
+
+    private boolean closed;
+
+    /**
+     * write the data with the line end of this platform.
+     * @param out the output of the local data, closed with this stream.
+     */
+    public NetasciiOutputStream(OutputStream out) {
+        this(out, "\r\n".equals(System.lineSeparator()));
+    }
+
+    /**
+     * @param out the output of the local data, closed with this stream.
+     * @param crlfLineEnd the local line end is CR LF, else LF.
+     */
+    public NetasciiOutputStream(OutputStream out, boolean crlfLineEnd) {
+        this.out = out;
+        this.crlfLineEnd = crlfLineEnd;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        translate((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        for (int i = off; i < off + len; i++) {
+            translate(b[i]);
+        }
+    }
+
+    /**
+     * write the translated data to the output, a pending CR is kept until the next byte.
+     */
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    /**
+     * write the last CR if pending, then close the output.
+     */
+    @Override
+    public void close() throws IOException {
+        if(closed){
+            return;
+        }
+
+        closed = true;
+        if(crPending){
+            crPending = false;
+            put(CR);
+        }
+        flushBuffer();
+        out.close();
+    }
+
+    private void translate(byte c) throws IOException {
+        if(crPending){
+            crPending = false;
+            if(c == LF){
+                if(crlfLineEnd){
+                    put(CR);
+                }
+                put(LF);
+                return;
+            }
+
+            put(CR);
+            if(c == NUL){
+                return;
+            }
+            //a bare CR not as RFC 764, kept as it is.
+        }
+
+        if(c == CR){
+            crPending = true;
+        }else{
+            put(c);
+        }
+    }
+
+    private void put(byte c) throws IOException {
+        if(count == buffer.length){
+            flushBuffer();
+        }
+        buffer[count++] = c;
+    }
+
+    private void flushBuffer() throws IOException {
+        if(count > 0){
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package network.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * write the blocks at their position of the file, so the blocks can arrive in any order.
+ * the writes of different positions can run in parallel.
+ */
+public class PositionalFileSink implements Closeable {
+
+    private final RandomAccessFile randomAccessFile;
+
+    private final FileChannel channel;
+
+    /**
+     * sync to disk when close.
+     */
+    private final boolean syncOnClose;
+
+    /**
+     * @param file the file to write, truncated if exists.
+     * @param syncOnClose sync the file to disk when close.
+     */
+    public PositionalFileSink(File file, boolean syncOnClose) throws IOException {
+        this.randomAccessFile = new RandomAccessFile(file, "rw");
+        this.channel = randomAccessFile.getChannel();
+        this.syncOnClose = syncOnClose;
+        channel.truncate(0);
+    }
+
+    /**
+     * set the size of the file in advance, so the file is not extended block by block.
+     * @param size
+     */
+    public void preallocate(long size) throws IOException {
+        randomAccessFile.setLength(size);
+    }
+
+    /**
+     * write the data at the position.
+     * @param position the position of the file.
+     * @param data
+     * @param offset the start of the data.
+     * @param length the length of the data.
+     */
+    public void write(long position, byte[] data, int offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data, offset, length);
+        long writePosition = position;
+        while(buffer.hasRemaining()){
+            writePosition += channel.write(buffer, writePosition);
+        }
+    }
+
+    /**
+     * cut the file to the size, use when the real size is less than preallocated.
+     * @param size
+     */
+    public void truncate(long size) throws IOException {
+        channel.truncate(size);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try{
+            if(syncOnClose){
+                channel.force(true);
+            }
+        }finally {
+            randomAccessFile.close();
+        }
+    }
+}
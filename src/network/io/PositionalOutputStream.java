@@ -0,0 +1,51 @@
+package network.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * write the data in order from a position of the sink, use to fill a range of the file.
+ * the sink is not closed by this stream.
+ */
+public class PositionalOutputStream extends OutputStream {
+
+    private final PositionalFileSink sink;
+
+    /**
+     * the next position to write.
+     */
+    private long position;
+
+    /**
+     * the byte of write(int), written to the sink at once so it is reused.
+     */
+    private final byte[] singleByte = new byte[1];
+
+    /**
+     * @param sink the output of the data.
+     * @param position the position of the first byte.
+     */
+    public PositionalOutputStream(PositionalFileSink sink, long position) {
+        this.sink = sink;
+        this.position = position;
+    }
+
+    /**
+     * get the next position to write.
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        singleByte[0] = (byte) b;
+        write(singleByte, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        sink.write(position, b, off, len);
+        position += len;
+    }
+}
@@ -0,0 +1,69 @@
+package network.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * read a range of the file by the positional read, so the ranges of one channel can be read in parallel.
+ */
+public class RangeInputStream extends InputStream {
+
+    private final FileChannel channel;
+
+    /**
+     * the next position to read.
+     */
+    private long position;
+
+    /**
+     * the end of the range, exclusive.
+     */
+    private final long end;
+
+    /**
+     * the byte of read(), reused as the part is read a packet at a time.
+     */
+    private final byte[] one = new byte[1];
+
+    /**
+     * @param channel the channel of the file, not closed by this stream.
+     * @param offset the start of the range.
+     * @param length the length of the range.
+     */
+    public RangeInputStream(FileChannel channel, long offset, long length) {
+        this.channel = channel;
+        this.position = offset;
+        this.end = offset + length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if(len == 0){
+            return 0;
+        }
+
+        if(position >= end){
+            return -1;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(b, off, (int) Math.min(len, end - position));
+        int count = channel.read(buffer, position);
+        if(count < 0){
+            return -1;
+        }
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, end - position);
+    }
+}
@@ -0,0 +1,215 @@
+package network.io;
+
+import network.TransferDigest;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * read the data by a background reader, ahead of the caller.
+ * the reader also updates the digest of the data, so the network loop only copies the data out of a bounded queue.
+ * when the queue is empty, the read call blocks until the reader catches up.
+ */
+public class ReadAheadInputStream extends InputStream {
+
+    /**
+     * mark the end of the data.
+     */
+    private static final byte[] END_MARK = new byte[0];
+
+    /**
+     * the interval to check the stream is closed when the queue is full, or the reader is dead when it is empty.
+     */
+    private static final long OFFER_CHECK_INTERVAL = 100;
+
+    /**
+     * the chunks read ahead.
+     */
+    private final BlockingQueue<byte[]> queue;
+
+    private final InputStream source;
+
+    /**
+     * the byte count of a chunk read from the source.
+     */
+    private final int chunkSize;
+
+    /**
+     * the digest of the data read, null is no digest.
+     */
+    private final TransferDigest digest;
+
+    /**
+     * count down when the reader finish.
+     */
+    private final CountDownLatch readerFinish = new CountDownLatch(1);
+
+    /**
+     * the error happen in the reader.
+     */
+    private volatile IOException readError;
+
+    private volatile boolean closed;
+
+    /**
+     * the chunk being read by the caller.
+     */
+    private byte[] chunk;
+
+    private int position;
+
+    private boolean end;
+
+    /**
+     * the byte of read(), copied out of the chunk so it is reused.
+     */
+    private final byte[] singleByte = new byte[1];
+
+    /**
+     * @param source the data to read, closed with this stream.
+     * @param queueSize the max count of chunks read ahead.
+     * @param chunkSize the byte count of a chunk.
+     * @param digest updated with the data by the reader, null is no digest. complete when the end is read.
+     * @param executor use to run the reader.
+     */
+    public ReadAheadInputStream(InputStream source, int queueSize, int chunkSize, TransferDigest digest, Executor executor) {
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.source = source;
+        this.chunkSize = chunkSize;
+        this.digest = digest;
+        executor.execute(this::fill);
+    }
+
+    @Override
+    public int read() throws IOException {
+        return read(singleByte, 0, 1) < 0 ? -1 : singleByte[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if(closed){
+            throw new IOException("Stream closed");
+        }
+        if(len <= 0){
+            return 0;
+        }
+
+        while(chunk == null || position == chunk.length){
+            if(end){
+                return -1;
+            }
+            chunk = take();
+            position = 0;
+            if(chunk == END_MARK){
+                end = true;
+                chunk = null;
+                if(readError != null){
+                    throw readError;
+                }
+                return -1;
+            }
+        }
+
+        int count = Math.min(len, chunk.length - position);
+        System.arraycopy(chunk, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    /**
+     * stop the reader, then close the source.
+     */
+    @Override
+    public void close() throws IOException {
+        if(closed){
+            return;
+        }
+
+        closed = true;
+        //release the reader blocked by the full queue.
+        queue.clear();
+        try {
+            readerFinish.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Wait reader finish interrupted");
+        } finally {
+            source.close();
+        }
+    }
+
+    private byte[] take() throws IOException {
+        try {
+            byte[] block;
+            while((block = queue.poll(OFFER_CHECK_INTERVAL, TimeUnit.MILLISECONDS)) == null){
+                //the reader is dead without the end mark, the queue will never be filled.
+                if(readerFinish.getCount() == 0 && queue.isEmpty()){
+                    throw readError != null ? readError : new IOException("Reader finished");
+                }
+            }
+            return block;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Read interrupted");
+        }
+    }
+
+    /**
+     * put the chunk into the queue, block when the queue is full.
+     * @return false if the stream is closed.
+     */
+    private boolean enqueue(byte[] block) throws InterruptedException {
+        while(!queue.offer(block, OFFER_CHECK_INTERVAL, TimeUnit.MILLISECONDS)){
+            if(closed){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * the reader, read the chunks from the source and put them into the queue.
+     */
+    private void fill() {
+        try{
+            while(!closed){
+                byte[] buffer = new byte[chunkSize];
+                int count = 0;
+                int read;
+                while(count < chunkSize && (read = source.read(buffer, count, chunkSize - count)) >= 0){
+                    count += read;
+                }
+
+                if(count > 0){
+                    byte[] block = count == chunkSize ? buffer : Arrays.copyOf(buffer, count);
+                    if(digest != null){
+                        digest.update(block, 0, count);
+                    }
+                    if(!enqueue(block)){
+                        return;
+                    }
+                }
+                if(count < chunkSize){
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            readError = e;
+        } catch (InterruptedException e) {
+            readError = new InterruptedIOException("Reader interrupted");
+        } finally {
+            try{
+                if(!closed){
+                    enqueue(END_MARK);
+                }
+            }catch (InterruptedException ignore){
+            }
+            readerFinish.countDown();
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package network.io;
+
+import network.TransferDigest;
+
+import java.io.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * write the data to file by a background writer.
+ * the caller only copy the data into a bounded queue, so the network loop is not gated on the disk.
+ * when the queue is full, the write call blocks until the writer catches up (backpressure).
+ * the digest of the data is also updated by the writer, not by the caller.
+ */
+public class WriteBehindOutputStream extends OutputStream {
+
+    /**
+     * mark the end of the data.
+     */
+    private static final Block END_MARK = new Block(0);
+
+    /**
+     * the buffer size of the file writer.
+     */
+    private static final int FILE_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * the interval to check the writer error when the queue is full.
+     */
+    private static final long OFFER_CHECK_INTERVAL = 100;
+
+    /**
+     * the blocks waiting to be written.
+     */
+    private final BlockingQueue<Block> queue;
+
+    /**
+     * the blocks written, reused by the next writes so the steady state allocates nothing.
+     */
+    private final BlockingQueue<Block> freeBlocks;
+
+    private final FileOutputStream fileOutputStream;
+
+    /**
+     * sync to disk when close.
+     */
+    private final boolean syncOnClose;
+
+    /**
+     * the digest of the data written, null is no digest.
+     */
+    private final TransferDigest digest;
+
+    /**
+     * count down when the writer finish.
+     */
+    private final CountDownLatch writerFinish = new CountDownLatch(1);
+
+    /**
+     * the error happen in the writer.
+     */
+    private volatile IOException writeError;
+
+    /**
+     * the count of the write call blocked by the full queue.
+     */
+    private volatile long stallCount;
+
+    private boolean closed;
+
+    /**
+     * the byte of write(int), copied into the block at once so it is reused.
+     */
+    private final byte[] singleByte = new byte[1];
+
+    /**
+     * @param file the file to write.
+     * @param queueSize the max count of blocks waiting to be written.
+     * @param syncOnClose sync the file to disk when close.
+     * @param executor use to run the writer.
+     */
+    public WriteBehindOutputStream(File file, int queueSize, boolean syncOnClose, Executor executor) throws FileNotFoundException {
+        this(file, queueSize, syncOnClose, executor, null);
+    }
+
+    /**
+     * @param file the file to write.
+     * @param queueSize the max count of blocks waiting to be written.
+     * @param syncOnClose sync the file to disk when close.
+     * @param executor use to run the writer.
+     * @param digest updated with the data by the writer, null is no digest. complete after close.
+     */
+    public WriteBehindOutputStream(File file, int queueSize, boolean syncOnClose, Executor executor, TransferDigest digest) throws FileNotFoundException {
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        //the blocks in the queue and the one being written.
+        this.freeBlocks = new ArrayBlockingQueue<>(queueSize + 1);
+        this.syncOnClose = syncOnClose;
+        this.digest = digest;
+        this.fileOutputStream = new FileOutputStream(file);
+        try{
+            executor.execute(this::drain);
+        }catch (RuntimeException e){
+            try{
+                fileOutputStream.close();
+            }catch (IOException ignore){
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        singleByte[0] = (byte) b;
+        write(singleByte, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        checkState();
+        if(len <= 0){
+            return;
+        }
+
+        Block block = freeBlocks.poll();
+        if(block == null || block.data.length < len){
+            block = new Block(len);
+        }
+        System.arraycopy(b, off, block.data, 0, len);
+        block.length = len;
+        enqueue(block);
+    }
+
+    /**
+     * the data is flushed by the writer, only check the writer error here.
+     * use close to wait until all data is written.
+     */
+    @Override
+    public void flush() throws IOException {
+        checkState();
+    }
+
+    /**
+     * wait until all the data is written (and synced if need), then close the file.
+     */
+    @Override
+    public void close() throws IOException {
+        if(closed){
+            return;
+        }
+
+        closed = true;
+        enqueue(END_MARK);
+        try {
+            writerFinish.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Wait writer finish interrupted");
+        }
+
+        if(writeError != null){
+            throw writeError;
+        }
+    }
+
+    /**
+     * get the count of the write call blocked by the full queue.
+     */
+    public long getStallCount() {
+        return stallCount;
+    }
+
+    private void checkState() throws IOException {
+        if(closed){
+            throw new IOException("Stream closed");
+        }
+
+        if(writeError != null){
+            throw writeError;
+        }
+    }
+
+    /**
+     * put the block into the queue, block when the queue is full.
+     */
+    private void enqueue(Block block) throws IOException {
+        try {
+            if(queue.offer(block)){
+                return;
+            }
+
+            ++stallCount;
+            while(!queue.offer(block, OFFER_CHECK_INTERVAL, TimeUnit.MILLISECONDS)){
+                //the writer is dead, the queue will never be drained.
+                if(writerFinish.getCount() == 0){
+                    throw writeError != null ? writeError : new IOException("Writer finished");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Write interrupted");
+        }
+    }
+
+    /**
+     * the writer, take the blocks from queue and write to file.
+     */
+    private void drain() {
+        try(OutputStream out = new BufferedOutputStream(fileOutputStream, FILE_BUFFER_SIZE)){
+            while(true){
+                Block block = queue.take();
+                if(block == END_MARK){
+                    break;
+                }
+
+                //after error, keep taking to release the blocked caller.
+                if(writeError == null){
+                    try{
+                        out.write(block.data, 0, block.length);
+                        if(digest != null){
+                            digest.update(block.data, 0, block.length);
+                        }
+                    }catch (IOException e){
+                        writeError = e;
+                    }
+                }
+                freeBlocks.offer(block);
+            }
+
+            if(writeError == null){
+                out.flush();
+                if(syncOnClose){
+                    fileOutputStream.getFD().sync();
+                }
+            }
+        } catch (IOException e) {
+            if(writeError == null){
+                writeError = e;
+            }
+        } catch (InterruptedException e) {
+            writeError = new InterruptedIOException("Writer interrupted");
+        } finally {
+            writerFinish.countDown();
+        }
+    }
+
+    /**
+     * a block of data in the queue.
+     */
+    private static class Block {
+
+        private final byte[] data;
+
+        /**
+         * the byte count of the data.
+         */
+        private int length;
+
+        Block(int capacity) {
+            this.data = new byte[capacity];
+        }
+    }
+}
@@ -0,0 +1,665 @@
+package network.local;
+
+import network.packet.*;
+import utils.DataUtils;
+
+import java.io.*;
+import java.net.*;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * a small tftp responder running in the process, serve the files of a folder.
+ * use to try the client on the loopback without a real server: RRQ and WRQ with the windowsize,
+ * blksize and tsize options, and RRQ in multicast mode (RFC 2090) when the group is set.
+ */
+public class LocalTftpResponder implements Closeable {
+
+    /**
+     * the time out of receive.
+     */
+    private static final int RECEIVE_TIMEOUT = 1000;
+
+    /**
+     * the retry time of time out.
+     */
+    private static final int RETRY_TIME = 5;
+
+    /**
+     * buffer max size.
+     */
+    private static final int BUFFER_MAX_LENGTH = 1024;
+
+    /**
+     * the max window size accepted.
+     */
+    private static final int MAX_WINDOW_SIZE = 64;
+
+    /**
+     * the folder of the files.
+     */
+    private final File rootDir;
+
+    private final DatagramSocket requestSocket;
+
+    private final ExecutorService threadpool = Executors.newCachedThreadPool();
+
+    /**
+     * the running multicast sessions, key is the file name.
+     */
+    private final Map<String, MulticastSession> multicastSessions = new HashMap<>();
+
+    /**
+     * the multicast group, null if not support multicast.
+     */
+    private volatile InetSocketAddress multicastGroup;
+
+    private volatile NetworkInterface multicastInterface;
+
+    /**
+     * the count of temp files, so the uploads of the same file do not share one.
+     */
+    private final AtomicLong tempCount = new AtomicLong();
+
+    /**
+     * the chance a packet of the sessions is dropped, 0 ~ 1.
+     */
+    private volatile double lossRate;
+
+    private volatile boolean run = true;
+
+    /**
+     * @param rootDir the folder of the files.
+     * @param bindAddress the local address.
+     * @param port the port receive the request, 0 is any free port.
+     */
+    public LocalTftpResponder(File rootDir, InetAddress bindAddress, int port) throws IOException {
+        this.rootDir = rootDir.getCanonicalFile();
+        this.requestSocket = new DatagramSocket(new InetSocketAddress(bindAddress, port));
+    }
+
+    /**
+     * support the multicast mode with the group.
+     * @param group the group address and port.
+     * @param networkInterface the interface to send, null is the default.
+     */
+    public void setMulticastGroup(InetSocketAddress group, NetworkInterface networkInterface) {
+        this.multicastGroup = group;
+        this.multicastInterface = networkInterface;
+    }
+
+    /**
+     * drop the DATA, ACK and OACK sent at the rate, to try the retransmission of the client.
+     * the ERROR is never dropped.
+     * @param lossRate 0 ~ 1, 0 is no loss.
+     */
+    public void setLossRate(double lossRate) {
+        if(lossRate < 0 || lossRate > 1){
+            throw new IllegalArgumentException("lossRate must be 0 ~ 1:" + lossRate);
+        }
+        this.lossRate = lossRate;
+    }
+
+    /**
+     * get the port receive the request.
+     */
+    public int getPort() {
+        return requestSocket.getLocalPort();
+    }
+
+    /**
+     * start to receive the request.
+     */
+    public void start() {
+        threadpool.execute(this::receiveRequests);
+    }
+
+    @Override
+    public void close() {
+        run = false;
+        requestSocket.close();
+        threadpool.shutdownNow();
+    }
+
+    private void receiveRequests() {
+        byte[] buffer = new byte[BUFFER_MAX_LENGTH];
+        DatagramPacket datagramPacket = new DatagramPacket(buffer, buffer.length);
+        while(run){
+            try{
+                datagramPacket.setLength(buffer.length);
+                requestSocket.receive(datagramPacket);
+                short opCode = DataUtils.bytesToShort(buffer, 0);
+                if(opCode != TftpPacketConsts.OP_RRQ && opCode != TftpPacketConsts.OP_WRQ){
+                    continue;
+                }
+
+                WRRQPacket request = new WRRQPacket(datagramPacket);
+                threadpool.execute(() -> serve(request));
+            }catch (IOException e){
+                if(run){
+                    e.printStackTrace();
+                }
+            }catch (RuntimeException e){
+                //bad request, ignore.
+            }
+        }
+    }
+
+    /**
+     * serve one request with a new TID.
+     */
+    private void serve(WRRQPacket request) {
+        InetSocketAddress client = request.getAddress();
+        try(DatagramSocket socket = new DatagramSocket(new InetSocketAddress(requestSocket.getLocalAddress(), 0))){
+            socket.setSoTimeout(RECEIVE_TIMEOUT);
+            File file = resolveFile(request.getFileName());
+            if(file == null){
+                sendError(socket, client, TftpPacketConsts.ERRCODE_ACCESS, "Access violation");
+                return;
+            }
+
+            if(request.getOpCode() == TftpPacketConsts.OP_RRQ){
+                if(!file.isFile()){
+                    sendError(socket, client, TftpPacketConsts.ERRCODE_NOTFD, "File not found");
+                    return;
+                }
+
+                if(multicastGroup != null && request.getOptions().containsKey(TftpPacketConsts.OPTION_MULTICAST)){
+                    //the ACK of multicast mode has no room for the wrapped block number.
+                    if(file.length() / DATAPacket.DATA_SIZE + 1 > 0xffff){
+                        sendError(socket, client, TftpPacketConsts.ERRCODE_UNDEF, "File too large for multicast");
+                        return;
+                    }
+                    joinMulticast(request, file);
+                    return;
+                }
+                serveRead(socket, client, request, file);
+            }else{
+                serveWrite(socket, client, request, file);
+            }
+        }catch (IOException e){
+            //the client is gone.
+        }
+    }
+
+    /**
+     * get the file in the root folder, null if out of the root folder.
+     */
+    private File resolveFile(String fileName) throws IOException {
+        File file = new File(rootDir, fileName).getCanonicalFile();
+        if(!file.getPath().startsWith(rootDir.getPath() + File.separator)){
+            return null;
+        }
+        return file;
+    }
+
+    /**
+     * get the options accepted.
+     */
+    private Map<String, String> acceptOptions(WRRQPacket request, long tsize) {
+        Map<String, String> accepted = new LinkedHashMap<>();
+        String windowSize = request.getOptions().get(TftpPacketConsts.OPTION_WINDOWSIZE);
+        if(windowSize != null){
+            try{
+                int value = Math.min(MAX_WINDOW_SIZE, Integer.parseInt(windowSize));
+                if(value > 0){
+                    accepted.put(TftpPacketConsts.OPTION_WINDOWSIZE, String.valueOf(value));
+                }
+            }catch (NumberFormatException e){
+                //ignore the bad option.
+            }
+        }
+
+        String blockSize = request.getOptions().get(TftpPacketConsts.OPTION_BLKSIZE);
+        if(blockSize != null){
+            try{
+                int value = Math.min(DATAPacket.MAX_BLOCK_SIZE, Integer.parseInt(blockSize));
+                if(value >= DATAPacket.MIN_BLOCK_SIZE){
+                    accepted.put(TftpPacketConsts.OPTION_BLKSIZE, String.valueOf(value));
+                }
+            }catch (NumberFormatException e){
+                //ignore the bad option.
+            }
+        }
+
+        if(request.getOptions().containsKey(TftpPacketConsts.OPTION_TSIZE)){
+            accepted.put(TftpPacketConsts.OPTION_TSIZE, String.valueOf(tsize >= 0 ? tsize : request.getOptions().get(TftpPacketConsts.OPTION_TSIZE)));
+        }
+        return accepted;
+    }
+
+    /**
+     * get the block size of the options accepted.
+     */
+    private int getBlockSize(Map<String, String> options) {
+        return Integer.parseInt(options.getOrDefault(TftpPacketConsts.OPTION_BLKSIZE, String.valueOf(DATAPacket.DATA_SIZE)));
+    }
+
+    private void serveRead(DatagramSocket socket, InetSocketAddress client, WRRQPacket request, File file) throws IOException {
+        Map<String, String> options = acceptOptions(request, file.length());
+        int windowSize = Integer.parseInt(options.getOrDefault(TftpPacketConsts.OPTION_WINDOWSIZE, "1"));
+        int blockSize = getBlockSize(options);
+        long lastBlock = file.length() / blockSize + 1;
+        byte[] block = new byte[blockSize];
+        byte[] buffer = new byte[BUFFER_MAX_LENGTH];
+        DatagramPacket response = new DatagramPacket(buffer, buffer.length);
+
+        try(RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")){
+            if(!options.isEmpty()){
+                //wait for the ACK 0 of the options.
+                OACKPacket oackPacket = new OACKPacket(client, options);
+                int retryCount = 0;
+                while(true){
+                    send(socket, oackPacket.build());
+                    if(receiveAck(socket, client, response) == 0){
+                        break;
+                    }
+                    if(++retryCount > RETRY_TIME){
+                        return;
+                    }
+                }
+            }
+
+            long firstUnacked = 1;
+            int retryCount = 0;
+            while(firstUnacked <= lastBlock){
+                long windowEnd = Math.min(lastBlock, firstUnacked + windowSize - 1);
+                for(long blockNo = firstUnacked; blockNo <= windowEnd; ++blockNo){
+                    randomAccessFile.seek((blockNo - 1) * blockSize);
+                    int length = Math.max(0, randomAccessFile.read(block));
+                    send(socket, new DATAPacket(client, (short) blockNo, block, 0, length).build());
+                }
+
+                //the duplicate ACK is ignored, only the time out sends the window again.
+                while(true){
+                    int ack = receiveAck(socket, client, response);
+                    if(ack < 0){
+                        if(++retryCount > RETRY_TIME){
+                            return;
+                        }
+                        break;
+                    }
+
+                    long lastAcked = firstUnacked - 1;
+                    long ackedBlock = lastAcked + DataUtils.blockDelta((short) lastAcked, (short) ack);
+                    if(ackedBlock > lastAcked && ackedBlock <= windowEnd){
+                        retryCount = 0;
+                        firstUnacked = ackedBlock + 1;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * receive the ACK from the client.
+     * @return the block number (0 ~ 65535), or -1 if time out.
+     */
+    private int receiveAck(DatagramSocket socket, InetSocketAddress client, DatagramPacket response) throws IOException {
+        while(true){
+            try{
+                response.setLength(response.getData().length);
+                socket.receive(response);
+            }catch (SocketTimeoutException e){
+                return -1;
+            }
+
+            if(!isFrom(response, client)){
+                sendError(socket, new InetSocketAddress(response.getAddress(), response.getPort()), TftpPacketConsts.ERRCODE_UNKTID, "Unknown transfer ID");
+                continue;
+            }
+
+            short opCode = DataUtils.bytesToShort(response.getData(), 0);
+            if(opCode == TftpPacketConsts.OP_ERROR){
+                throw new IOException("Client error");
+            }
+
+            if(opCode == TftpPacketConsts.OP_ACK){
+                return DataUtils.bytesToShort(response.getData(), 2) & 0xffff;
+            }
+        }
+    }
+
+    private void serveWrite(DatagramSocket socket, InetSocketAddress client, WRRQPacket request, File file) throws IOException {
+        Map<String, String> options = acceptOptions(request, -1);
+        int windowSize = Integer.parseInt(options.getOrDefault(TftpPacketConsts.OPTION_WINDOWSIZE, "1"));
+        int blockSize = getBlockSize(options);
+        TftpPacket reply = options.isEmpty() ? new ACKPacket(client, (short) 0) : new OACKPacket(client, options);
+        byte[] buffer = new byte[Math.max(BUFFER_MAX_LENGTH, blockSize + 4)];
+        DatagramPacket datagramPacket = new DatagramPacket(buffer, buffer.length);
+
+        //the sub folders of the path are created, as the folders uploaded by the sync.
+        Files.createDirectories(file.getParentFile().toPath());
+        //the temp file of every session, the earlier session of the same file may still be dallying.
+        File tempFile = new File(file.getPath() + "." + tempCount.incrementAndGet() + ".part");
+        try{
+            ACKPacket lastAck;
+            try(OutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile))){
+                lastAck = receiveData(socket, client, reply, windowSize, blockSize, datagramPacket, out);
+            }
+            if(lastAck == null){
+                return;
+            }
+
+            //the file is complete and closed, the final ack tells the client so.
+            moveFile(tempFile, file);
+            send(socket, lastAck.build());
+            dally(socket, client, lastAck, datagramPacket);
+        }finally {
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * receive the DATA of the upload into the output, until the last block.
+     * @return the final ack to send, null if the client is gone or ends the session.
+     */
+    private ACKPacket receiveData(DatagramSocket socket, InetSocketAddress client, TftpPacket reply, int windowSize, int blockSize,
+                                  DatagramPacket datagramPacket, OutputStream out) throws IOException {
+        byte[] buffer = datagramPacket.getData();
+        send(socket, reply.build());
+        ACKPacket ackPacket = new ACKPacket(client, (short) 0);
+        long blockNum = 0;
+        int receivedInWindow = 0;
+        int retryCount = 0;
+        while(true){
+            try{
+                datagramPacket.setLength(buffer.length);
+                socket.receive(datagramPacket);
+            }catch (SocketTimeoutException e){
+                if(++retryCount > RETRY_TIME){
+                    return null;
+                }
+                send(socket, (blockNum == 0 ? reply : ackPacket).build());
+                receivedInWindow = 0;
+                continue;
+            }
+
+            if(!isFrom(datagramPacket, client)){
+                continue;
+            }
+
+            short opCode = DataUtils.bytesToShort(buffer, 0);
+            if(opCode == TftpPacketConsts.OP_ERROR){
+                return null;
+            }
+            if(opCode != TftpPacketConsts.OP_DATA){
+                continue;
+            }
+
+            int delta = DataUtils.blockDelta((short) blockNum, DataUtils.bytesToShort(buffer, 2));
+            if(delta != 1){
+                //duplicate or out of order, acknowledge the last block in order.
+                send(socket, ackPacket.build());
+                receivedInWindow = 0;
+                continue;
+            }
+
+            retryCount = 0;
+            int length = datagramPacket.getLength() - 4;
+            out.write(buffer, 4, length);
+            ++blockNum;
+            ++receivedInWindow;
+            ackPacket.resetBlockNo((short) blockNum);
+            if(length < blockSize){
+                return ackPacket;
+            }
+
+            if(receivedInWindow >= windowSize){
+                send(socket, ackPacket.build());
+                receivedInWindow = 0;
+            }
+        }
+    }
+
+    /**
+     * answer the last DATA sent again after the final ack, in case the final ack is lost.
+     */
+    private void dally(DatagramSocket socket, InetSocketAddress client, ACKPacket ackPacket, DatagramPacket datagramPacket) throws IOException {
+        while(true){
+            try{
+                datagramPacket.setLength(datagramPacket.getData().length);
+                socket.receive(datagramPacket);
+            }catch (SocketTimeoutException e){
+                return;
+            }
+
+            if(isFrom(datagramPacket, client) && DataUtils.bytesToShort(datagramPacket.getData(), 0) == TftpPacketConsts.OP_DATA){
+                send(socket, ackPacket.build());
+            }
+        }
+    }
+
+    /**
+     * send the packet of a session, dropped at the loss rate.
+     */
+    private void send(DatagramSocket socket, DatagramPacket datagramPacket) throws IOException {
+        double rate = lossRate;
+        if(rate > 0 && ThreadLocalRandom.current().nextDouble() < rate){
+            return;
+        }
+        socket.send(datagramPacket);
+    }
+
+    private boolean isFrom(DatagramPacket datagramPacket, InetSocketAddress address) {
+        return datagramPacket.getPort() == address.getPort() && address.getAddress().equals(datagramPacket.getAddress());
+    }
+
+    private void sendError(DatagramSocket socket, InetSocketAddress address, short errCode, String errMsg) throws IOException {
+        socket.send(new ERRORPacket(address, errCode, errMsg).build());
+    }
+
+    /**
+     * add the client to the multicast session of the file, start the session if not running.
+     */
+    private void joinMulticast(WRRQPacket request, File file) {
+        try{
+            synchronized (multicastSessions){
+                MulticastSession session = multicastSessions.get(request.getFileName());
+                if(session != null && session.join(request)){
+                    return;
+                }
+
+                session = new MulticastSession(request.getFileName(), file);
+                multicastSessions.put(request.getFileName(), session);
+                session.join(request);
+                threadpool.execute(session);
+            }
+        }catch (IOException e){
+            //the client is gone.
+        }
+    }
+
+    /**
+     * replace the file.
+     */
+    private static void moveFile(File from, File to) throws IOException {
+        if(to.exists() && !to.delete()){
+            throw new IOException("Can not replace " + to);
+        }
+        if(!from.renameTo(to)){
+            throw new IOException("Can not rename " + from);
+        }
+    }
+
+    /**
+     * one file sent to the multicast group.
+     * the master client ACKs, the ACK n asks for the block n + 1. when the master has all the blocks,
+     * the next waiting client becomes the master, and asks for its missing blocks.
+     */
+    private class MulticastSession implements Runnable {
+
+        private final String fileName;
+
+        private final File file;
+
+        private final MulticastSocket socket;
+
+        /**
+         * the clients waiting to be master.
+         */
+        private final Deque<InetSocketAddress> waitingClients = new ArrayDeque<>();
+
+        private final Set<InetSocketAddress> clients = new HashSet<>();
+
+        private InetSocketAddress master;
+
+        /**
+         * the client asked for tsize.
+         */
+        private final Set<InetSocketAddress> tsizeClients = new HashSet<>();
+
+        private boolean finished;
+
+        MulticastSession(String fileName, File file) throws IOException {
+            this.fileName = fileName;
+            this.file = file;
+            this.socket = new MulticastSocket(new InetSocketAddress(requestSocket.getLocalAddress(), 0));
+            socket.setSoTimeout(RECEIVE_TIMEOUT);
+            if(multicastInterface != null){
+                socket.setNetworkInterface(multicastInterface);
+            }
+        }
+
+        /**
+         * add the client.
+         * @return false if the session is finished.
+         */
+        synchronized boolean join(WRRQPacket request) throws IOException {
+            if(finished){
+                return false;
+            }
+
+            InetSocketAddress client = request.getAddress();
+            if(request.getOptions().containsKey(TftpPacketConsts.OPTION_TSIZE)){
+                tsizeClients.add(client);
+            }
+
+            if(!clients.add(client)){
+                //the request is sent again.
+                sendOack(client, client.equals(master));
+                return true;
+            }
+
+            if(master == null){
+                master = client;
+                sendOack(client, true);
+            }else{
+                waitingClients.add(client);
+                sendOack(client, false);
+            }
+            return true;
+        }
+
+        private void sendOack(InetSocketAddress client, boolean isMaster) throws IOException {
+            Map<String, String> options = new LinkedHashMap<>();
+            options.put(TftpPacketConsts.OPTION_MULTICAST, String.format("%s,%s,%s",
+                    multicastGroup.getAddress().getHostAddress(), multicastGroup.getPort(), isMaster ? 1 : 0));
+            if(tsizeClients.contains(client) && file != null){
+                options.put(TftpPacketConsts.OPTION_TSIZE, String.valueOf(file.length()));
+            }
+            socket.send(new OACKPacket(client, options).build());
+        }
+
+        /**
+         * the master is done or gone, elect the next one.
+         * @return false if no client left.
+         */
+        private synchronized boolean nextMaster() throws IOException {
+            master = waitingClients.poll();
+            if(master == null){
+                finished = true;
+                return false;
+            }
+
+            sendOack(master, true);
+            return true;
+        }
+
+        private synchronized InetSocketAddress getMaster() {
+            return master;
+        }
+
+        @Override
+        public void run() {
+            try(RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")){
+                long lastBlock = file.length() / DATAPacket.DATA_SIZE + 1;
+                byte[] block = new byte[DATAPacket.DATA_SIZE];
+                byte[] buffer = new byte[BUFFER_MAX_LENGTH];
+                DatagramPacket datagramPacket = new DatagramPacket(buffer, buffer.length);
+                int retryCount = 0;
+                long lastSent = 0;
+                while(run){
+                    InetSocketAddress currentMaster = getMaster();
+                    if(currentMaster == null){
+                        return;
+                    }
+
+                    try{
+                        datagramPacket.setLength(buffer.length);
+                        socket.receive(datagramPacket);
+                    }catch (SocketTimeoutException e){
+                        if(++retryCount > RETRY_TIME){
+                            retryCount = 0;
+                            if(!nextMaster()){
+                                return;
+                            }
+                            continue;
+                        }
+
+                        //the block or the ack is lost.
+                        if(lastSent > 0){
+                            sendBlock(randomAccessFile, block, lastSent);
+                        }else{
+                            synchronized (this){
+                                sendOack(currentMaster, true);
+                            }
+                        }
+                        continue;
+                    }
+
+                    if(!isFrom(datagramPacket, currentMaster) || DataUtils.bytesToShort(buffer, 0) != TftpPacketConsts.OP_ACK){
+                        continue;
+                    }
+
+                    retryCount = 0;
+                    long ackedBlock = DataUtils.bytesToShort(buffer, 2) & 0xffff;
+                    if(ackedBlock >= lastBlock){
+                        lastSent = 0;
+                        if(!nextMaster()){
+                            return;
+                        }
+                        continue;
+                    }
+
+                    lastSent = ackedBlock + 1;
+                    sendBlock(randomAccessFile, block, lastSent);
+                }
+            }catch (IOException e){
+                //stop the session.
+            }finally {
+                synchronized (this){
+                    finished = true;
+                }
+                synchronized (multicastSessions){
+                    multicastSessions.remove(fileName, this);
+                }
+                socket.close();
+            }
+        }
+
+        /**
+         * send the block to the group.
+         */
+        private void sendBlock(RandomAccessFile randomAccessFile, byte[] block, long blockNo) throws IOException {
+            randomAccessFile.seek((blockNo - 1) * DATAPacket.DATA_SIZE);
+            int length = Math.max(0, randomAccessFile.read(block));
+            socket.send(new DATAPacket(multicastGroup, (short) blockNo, block, 0, length).build());
+        }
+    }
+}
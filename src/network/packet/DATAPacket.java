@@ -6,6 +6,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
 import java.util.function.BooleanSupplier;
 
 public class DATAPacket extends TftpPacket {
@@ -13,7 +14,17 @@ public class DATAPacket extends TftpPacket {
     /**
      * byte count of data
      */
-    private final static int DATA_SIZE = 512;
+    public final static int DATA_SIZE = 512;
+
+    /**
+     * the min block size can be negotiated (RFC 2348).
+     */
+    public final static int MIN_BLOCK_SIZE = 8;
+
+    /**
+     * the max block size can be negotiated (RFC 2348), the block fills a UDP datagram.
+     */
+    public final static int MAX_BLOCK_SIZE = 65464;
 
 
     private byte[] buffer;
@@ -28,10 +39,47 @@ public class DATAPacket extends TftpPacket {
         buffer = new byte[DATA_SIZE + 4];
     }
 
+    public DATAPacket(InetSocketAddress address) {
+        this(address, DATA_SIZE);
+    }
+
+    /**
+     * @param address
+     * @param blockSize the byte count of data in a full block.
+     */
+    public DATAPacket(InetSocketAddress address, int blockSize) {
+        super(address, TftpPacketConsts.OP_DATA);
+        buffer = new byte[blockSize + 4];
+    }
+
+    public DATAPacket(InetSocketAddress address, short blockNo, byte[] data, int offset, int length) {
+        super(address, TftpPacketConsts.OP_DATA);
+        buffer = new byte[length + 4];
+        DataUtils.shortToBytes(buffer, getOpCode(), 0);
+        DataUtils.shortToBytes(buffer, blockNo, 2);
+        System.arraycopy(data, offset, buffer, 4, length);
+        readSize = length;
+    }
+
     public DATAPacket(DatagramPacket datagramPacket) {
         super(datagramPacket);
         buffer = new byte[datagramPacket.getLength()];
         System.arraycopy(datagramPacket.getData(), 0, buffer, 0, buffer.length);
+        readSize = buffer.length - 4;
+    }
+
+    private DATAPacket(DatagramPacket datagramPacket, byte[] buffer) {
+        super(datagramPacket);
+        this.buffer = buffer;
+        readSize = datagramPacket.getLength() - 4;
+    }
+
+    /**
+     * get the DATA received into the datagramPacket, sharing its buffer without copy.
+     * it is valid only until the next receive into the datagramPacket.
+     */
+    public static DATAPacket wrap(DatagramPacket datagramPacket) {
+        return new DATAPacket(datagramPacket, datagramPacket.getData());
     }
 
 
@@ -44,6 +92,7 @@ public class DATAPacket extends TftpPacket {
      */
     public BooleanSupplier readBlockData(InputStream inputStream){
         DataUtils.shortToBytes(buffer, getOpCode(), 0);
+        int blockSize = buffer.length - 4;
         short[] block = {1};
         boolean[] isFinish = {false};
         return () -> {
@@ -55,9 +104,9 @@ public class DATAPacket extends TftpPacket {
                 //write block number.
                 DataUtils.shortToBytes(buffer, block[0], 2);
                 //read data from inputstream.
-                int count = inputStream.read(buffer, 4, DATA_SIZE);
+                int count = inputStream.read(buffer, 4, blockSize);
                 if(count < 0){
-                    if(readSize != DATA_SIZE){
+                    if(readSize != blockSize){
                         return false;
                     }
 
@@ -80,6 +129,30 @@ public class DATAPacket extends TftpPacket {
         };
     }
 
+    /**
+     * read one block from input stream.
+     * @param inputStream
+     * @param blockNo the block number of this packet.
+     * @return the count of data read, less than the block size means the last block.
+     * @throws IOException
+     */
+    public int readBlockData(InputStream inputStream, short blockNo) throws IOException {
+        DataUtils.shortToBytes(buffer, getOpCode(), 0);
+        DataUtils.shortToBytes(buffer, blockNo, 2);
+        int blockSize = buffer.length - 4;
+        int count = 0;
+        while(count < blockSize){
+            int read = inputStream.read(buffer, 4 + count, blockSize - count);
+            if(read < 0){
+                break;
+            }
+            count += read;
+        }
+
+        readSize = count;
+        return count;
+    }
+
     @Override
     protected byte[] getPacketDatas() {
         return buffer;
@@ -90,6 +163,13 @@ public class DATAPacket extends TftpPacket {
         return readSize + 4;
     }
 
+    /**
+     * get the byte count of the data.
+     */
+    public int getDataLength(){
+        return readSize;
+    }
+
     /**
      * get blockNum
      */
@@ -102,20 +182,34 @@ public class DATAPacket extends TftpPacket {
      * @param outputStream
      */
     public void writeBlockData(OutputStream outputStream) throws IOException {
-        if(buffer.length <= 4){
+        if(readSize <= 0){
             return;
         }
-        //read data from inputstream.
-        outputStream.write(buffer, 4, buffer.length - 4);
+        outputStream.write(buffer, 4, readSize);
     }
 
 
+    /**
+     * get the packet buffer, the data start from index 4.
+     */
+    public byte[] getBuffer(){
+        return buffer;
+    }
+
     /**
      * check if packet is last or not
      * @return
      */
     public boolean isLast(){
-        return buffer.length < DATA_SIZE + 4;
+        return isLast(DATA_SIZE);
+    }
+
+    /**
+     * check if packet is last or not, with the negotiated block size.
+     * @param blockSize the byte count of data in a full block.
+     */
+    public boolean isLast(int blockSize){
+        return readSize < blockSize;
     }
 
 }
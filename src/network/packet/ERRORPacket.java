@@ -3,6 +3,7 @@ package network.packet;
 import utils.DataUtils;
 
 import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
 
 /**
  * err msg
@@ -23,6 +24,13 @@ public class ERRORPacket extends TftpPacket {
         init();
     }
 
+    public ERRORPacket(InetSocketAddress address, short errCode, String errMsg) {
+        super(address, TftpPacketConsts.OP_ERROR);
+        this.errCode = errCode;
+        this.errMsg = errMsg;
+        init();
+    }
+
     private void init() {
         byte[] errMsgBytes = errMsg.getBytes();
         buffer = new byte[errMsgBytes.length + 5];
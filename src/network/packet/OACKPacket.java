@@ -0,0 +1,90 @@
+package network.packet;
+
+import utils.DataUtils;
+
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.util.Map;
+
+/**
+ * option acknowledgment packet (RFC 2347), the options accepted by the server.
+ */
+public class OACKPacket extends TftpPacket {
+
+    /**
+     * the accepted options.
+     */
+    private Map<String, String> options;
+
+    private byte[] buffer;
+
+    public OACKPacket(InetSocketAddress address, Map<String, String> options) {
+        super(address, TftpPacketConsts.OP_OACK);
+        this.options = options;
+        buffer = new byte[2 + getOptionsLength(options)];
+        DataUtils.shortToBytes(buffer, getOpCode(), 0);
+        writeOptions(options, buffer, 2);
+    }
+
+    public OACKPacket(DatagramPacket datagramPacket) {
+        super(datagramPacket);
+        buffer = new byte[datagramPacket.getLength()];
+        System.arraycopy(datagramPacket.getData(), 0, buffer, 0, buffer.length);
+        options = parseOptions(buffer, 2, buffer.length);
+    }
+
+    /**
+     * get the accepted options, the name is lower case.
+     */
+    public Map<String, String> getOptions() {
+        return options;
+    }
+
+    /**
+     * get the int value of the option.
+     *
+     * @param name the option name.
+     * @param defaultValue return if the option is not accepted or not a number.
+     */
+    public int getIntOption(String name, int defaultValue) {
+        String value = options.get(name);
+        if(value == null){
+            return defaultValue;
+        }
+
+        try{
+            return Integer.parseInt(value.trim());
+        }catch (NumberFormatException e){
+            return defaultValue;
+        }
+    }
+
+    /**
+     * get the long value of the option, use for the tsize of the large file.
+     *
+     * @param name the option name.
+     * @param defaultValue return if the option is not accepted or not a number.
+     */
+    public long getLongOption(String name, long defaultValue) {
+        String value = options.get(name);
+        if(value == null){
+            return defaultValue;
+        }
+
+        try{
+            return Long.parseLong(value.trim());
+        }catch (NumberFormatException e){
+            return defaultValue;
+        }
+    }
+
+    @Override
+    protected byte[] getPacketDatas() {
+        return buffer;
+    }
+
+    @Override
+    protected int getPacketLength() {
+        return buffer.length;
+    }
+}
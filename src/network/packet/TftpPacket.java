@@ -3,50 +3,134 @@ package network.packet;
 import utils.DataUtils;
 
 import java.net.DatagramPacket;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * the tftp packet
  */
 public abstract class TftpPacket {
     /**
-     * ip info
+     * the address of the packet, resolved once.
+     * of the received packet it is created when asked, most packets never need it.
      */
-    private String ip;
+    private InetSocketAddress address;
 
     /**
-     * port info
+     * the ip and port the packet is received from.
      */
-    private int port;
+    private InetAddress sourceIp;
+
+    private int sourcePort;
 
     /**
      * opcode
      */
     private short opCode;
 
+    /**
+     * the datagramPacket reused by every build.
+     */
+    private DatagramPacket datagramPacket;
+
     public TftpPacket(String ip, int port, short opCode) {
+        this(new InetSocketAddress(ip, port), opCode);
+    }
+
+    public TftpPacket(InetSocketAddress address, short opCode) {
         this.opCode = opCode;
-        this.ip = ip;
-        this.port = port;
+        this.address = address;
     }
 
     public TftpPacket(DatagramPacket datagramPacket) {
         short opCode = DataUtils.bytesToShort(datagramPacket.getData(), 0);
         this.opCode = opCode;
-        this.ip = datagramPacket.getAddress().getHostAddress();
-        this.port = datagramPacket.getPort();
+        this.sourceIp = datagramPacket.getAddress();
+        this.sourcePort = datagramPacket.getPort();
     }
 
     /**
      * build get datagarmPacket.
+     * the datagramPacket is reused, so it is only valid until the next build.
      *
      * @return
      */
     public DatagramPacket build() {
-        return new DatagramPacket(getPacketDatas(), getPacketLength(), new InetSocketAddress(ip, port));
+        if(datagramPacket == null){
+            datagramPacket = new DatagramPacket(getPacketDatas(), getPacketLength(), getAddress());
+        }else{
+            datagramPacket.setData(getPacketDatas(), 0, getPacketLength());
+        }
+        return datagramPacket;
     }
 
 
+    /**
+     * parse the options, every option is "name\0value\0".
+     *
+     * @param data the packet data.
+     * @param start the start index of the options.
+     * @param end the end index (exclusive) of the options.
+     * @return the options, the name is lower case.
+     */
+    protected static Map<String, String> parseOptions(byte[] data, int start, int end) {
+        Map<String, String> options = new LinkedHashMap<>();
+        int index = start;
+        String name = null;
+        for (int i = start; i < end; i++) {
+            if(data[i] != 0){
+                continue;
+            }
+
+            String value = new String(data, index, i - index);
+            if(name == null){
+                name = value.toLowerCase();
+            }else{
+                options.put(name, value);
+                name = null;
+            }
+            index = i + 1;
+        }
+        return options;
+    }
+
+    /**
+     * get the byte count of the options.
+     */
+    protected static int getOptionsLength(Map<String, String> options) {
+        int length = 0;
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            length += option.getKey().getBytes().length + option.getValue().getBytes().length + 2;
+        }
+        return length;
+    }
+
+    /**
+     * write the options into the data.
+     *
+     * @return the end index of the options.
+     */
+    protected static int writeOptions(Map<String, String> options, byte[] data, int start) {
+        int index = start;
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            index = writeString(option.getKey(), data, index);
+            index = writeString(option.getValue(), data, index);
+        }
+        return index;
+    }
+
+    /**
+     * write the string terminated by a 0 byte.
+     */
+    private static int writeString(String str, byte[] data, int start) {
+        byte[] bytes = str.getBytes();
+        System.arraycopy(bytes, 0, data, start, bytes.length);
+        data[start + bytes.length] = 0;
+        return start + bytes.length + 1;
+    }
+
     /**
      * get the packet byte datas.
      *
@@ -70,11 +154,18 @@ public abstract class TftpPacket {
     }
 
     public String getIp() {
-        return ip;
+        return getAddress().getAddress().getHostAddress();
     }
 
     public int getPort() {
-        return port;
+        return address == null ? sourcePort : address.getPort();
+    }
+
+    public InetSocketAddress getAddress() {
+        if(address == null){
+            address = new InetSocketAddress(sourceIp, sourcePort);
+        }
+        return address;
     }
 
 }
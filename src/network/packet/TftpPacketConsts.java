@@ -28,6 +28,11 @@ public interface TftpPacketConsts {
      */
     public static final short OP_ERROR = 5;
 
+    /**
+     * option acknowledgment opcode (RFC 2347).
+     */
+    public static final short OP_OACK = 6;
+
 
     /**
      * Undefined error
@@ -49,8 +54,43 @@ public interface TftpPacketConsts {
      */
     public static final short ERRCODE_ILLOP = 4;
 
+    /**
+     * Unknown transfer ID
+     */
+    public static final short ERRCODE_UNKTID = 5;
+
+    /**
+     * Option negotiation refused (RFC 2347)
+     */
+    public static final short ERRCODE_OPTION = 8;
+
     /**
      * request mode.
      */
     public static final String MODE_OCTET = "octet";
+
+    /**
+     * request mode of text (RFC 764), the line end is CR LF and a bare CR is CR NUL.
+     */
+    public static final String MODE_NETASCII = "netascii";
+
+    /**
+     * the count of blocks sent before wait for the ack (RFC 7440).
+     */
+    public static final String OPTION_WINDOWSIZE = "windowsize";
+
+    /**
+     * the byte count of data in a block (RFC 2348), 512 if not negotiated.
+     */
+    public static final String OPTION_BLKSIZE = "blksize";
+
+    /**
+     * the size of the file (RFC 2349), 0 in RRQ to ask the server.
+     */
+    public static final String OPTION_TSIZE = "tsize";
+
+    /**
+     * the multicast mode (RFC 2090), the value of OACK is "addr,port,mc".
+     */
+    public static final String OPTION_MULTICAST = "multicast";
 }
@@ -4,6 +4,8 @@ import utils.DataUtils;
 
 import java.io.UnsupportedEncodingException;
 import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.util.Map;
 import java.net.UnknownHostException;
 
 /**
@@ -38,6 +40,44 @@ public class TftpPacketFactory {
         return new WRRQPacket(ip, port, TftpPacketConsts.OP_RRQ, fileName, mode);
     }
 
+    /**
+     * build the WRQ packet with the resolved address.
+     *
+     * @param address
+     * @param fileName
+     * @param mode
+     * @return
+     */
+    public static WRRQPacket buildWRQPacket(InetSocketAddress address, String fileName, String mode) {
+        return new WRRQPacket(address, TftpPacketConsts.OP_WRQ, fileName, mode);
+    }
+
+    /**
+     * build the RRQ packet with the resolved address.
+     *
+     * @param address
+     * @param fileName
+     * @param mode
+     * @return
+     */
+    public static WRRQPacket buildRRQPacket(InetSocketAddress address, String fileName, String mode) {
+        return new WRRQPacket(address, TftpPacketConsts.OP_RRQ, fileName, mode);
+    }
+
+    /**
+     * build the WRQ or RRQ packet with the options.
+     *
+     * @param address
+     * @param opCode
+     * @param fileName
+     * @param mode
+     * @param options
+     * @return
+     */
+    public static WRRQPacket buildRequestPacket(InetSocketAddress address, short opCode, String fileName, String mode, Map<String, String> options) {
+        return new WRRQPacket(address, opCode, fileName, mode, options);
+    }
+
     /**
      * build the ACK packet
      * @param ip
@@ -49,13 +89,23 @@ public class TftpPacketFactory {
         return new ACKPacket(ip, port, blockNo);
     }
 
+    /**
+     * build the ACK packet to the address.
+     * @param address
+     * @param blockNo
+     * @return
+     */
+    public static ACKPacket buildACKPacket(InetSocketAddress address, short blockNo){
+        return new ACKPacket(address, blockNo);
+    }
+
     /**
      * build the ack packet from tarPacket
      * @param tarPacket
      * @param blockNo
      */
     public static ACKPacket buildACKPacket(TftpPacket tarPacket, short blockNo) {
-        return new ACKPacket(tarPacket.getIp(), tarPacket.getPort(), blockNo);
+        return new ACKPacket(tarPacket.getAddress(), blockNo);
     }
 
     /**
@@ -68,12 +118,31 @@ public class TftpPacketFactory {
         return new DATAPacket(ip, port);
     }
 
+    /**
+     * build data packet to the address.
+     * @param address
+     * @return
+     */
+    public static DATAPacket buildDatapacket(InetSocketAddress address){
+        return new DATAPacket(address);
+    }
+
+    /**
+     * build data packet to the address, with the negotiated block size.
+     * @param address
+     * @param blockSize the byte count of data in a full block.
+     * @return
+     */
+    public static DATAPacket buildDatapacket(InetSocketAddress address, int blockSize){
+        return new DATAPacket(address, blockSize);
+    }
+
     /**
      * build the data packet from tarPacket
      * @param tarPacket
      */
     public static DATAPacket buildDatapacket(TftpPacket tarPacket) {
-        return new DATAPacket(tarPacket.getIp(), tarPacket.getPort());
+        return new DATAPacket(tarPacket.getAddress());
     }
 
     /**
@@ -81,7 +150,15 @@ public class TftpPacketFactory {
      * @param tarPacket
      */
     public static ERRORPacket buildERRORpacket(TftpPacket tarPacket, short errCode, String errMsg) {
-        return new ERRORPacket(tarPacket.getIp(), tarPacket.getPort(), errCode, errMsg);
+        return new ERRORPacket(tarPacket.getAddress(), errCode, errMsg);
+    }
+
+    /**
+     * build the err packet to the address.
+     * @param address
+     */
+    public static ERRORPacket buildERRORpacket(InetSocketAddress address, short errCode, String errMsg) {
+        return new ERRORPacket(address, errCode, errMsg);
     }
 
 
@@ -110,7 +187,11 @@ public class TftpPacketFactory {
             return new ERRORPacket(datagramPacket);
         }
 
-        return new ERRORPacket(datagramPacket.getAddress().getHostAddress(), datagramPacket.getPort(), TftpPacketConsts.ERRCODE_ILLOP, "Illegal Opcode");
+        if(TftpPacketConsts.OP_OACK == opCode){
+            return new OACKPacket(datagramPacket);
+        }
+
+        return new ERRORPacket(new InetSocketAddress(datagramPacket.getAddress(), datagramPacket.getPort()), TftpPacketConsts.ERRCODE_ILLOP, "Illegal Opcode");
     }
 
 
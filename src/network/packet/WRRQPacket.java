@@ -3,6 +3,9 @@ package network.packet;
 import utils.DataUtils;
 
 import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.Map;
 
 /**
  * write and read data request packet
@@ -18,6 +21,11 @@ public class WRRQPacket extends TftpPacket {
      */
     private String mode;
 
+    /**
+     * the request options (RFC 2347), empty if no option.
+     */
+    private Map<String, String> options;
+
     private byte[] packetDatas;
 
     public WRRQPacket(String ip, int port, short opCode, String fileName, String mode){
@@ -27,6 +35,17 @@ public class WRRQPacket extends TftpPacket {
         initPacketDatas();
     }
 
+    public WRRQPacket(InetSocketAddress address, short opCode, String fileName, String mode){
+        this(address, opCode, fileName, mode, Collections.emptyMap());
+    }
+
+    public WRRQPacket(InetSocketAddress address, short opCode, String fileName, String mode, Map<String, String> options){
+        super(address, opCode);
+        this.fileName = fileName;
+        this.mode = mode;
+        this.options = options;
+        initPacketDatas();
+    }
 
     public WRRQPacket(DatagramPacket datagramPacket){
         super(datagramPacket);
@@ -41,7 +60,12 @@ public class WRRQPacket extends TftpPacket {
 
         this.fileName = new String(data, 2, fileNameEndIndex - 2);
         int modeStartIndex = fileNameEndIndex + 1;
-        this.mode = new String(data, modeStartIndex, datagramPacket.getLength() - modeStartIndex - 1);
+        int modeEndIndex = modeStartIndex;
+        while(modeEndIndex < datagramPacket.getLength() - 1 && data[modeEndIndex] != 0){
+            ++modeEndIndex;
+        }
+        this.mode = new String(data, modeStartIndex, modeEndIndex - modeStartIndex);
+        this.options = parseOptions(data, modeEndIndex + 1, datagramPacket.getLength());
         initPacketDatas();
     }
 
@@ -58,7 +82,7 @@ public class WRRQPacket extends TftpPacket {
         byte[] fileNameBytes = fileName.getBytes();
         byte[] modeBytes = mode.getBytes();
 
-        int dataByteCount = 4 + fileNameBytes.length + modeBytes.length;
+        int dataByteCount = 4 + fileNameBytes.length + modeBytes.length + getOptionsLength(options);
         packetDatas = new byte[dataByteCount];
 
         DataUtils.shortToBytes(packetDatas, getOpCode(), 0);
@@ -67,7 +91,8 @@ public class WRRQPacket extends TftpPacket {
         packetDatas[2 + fileNameBytes.length] = 0;
         System.arraycopy(modeBytes, 0, packetDatas, 3 + fileNameBytes.length, modeBytes.length);
         // terminated by a ‘0’ byte
-        packetDatas[packetDatas.length - 1] = 0;
+        packetDatas[3 + fileNameBytes.length + modeBytes.length] = 0;
+        writeOptions(options, packetDatas, 4 + fileNameBytes.length + modeBytes.length);
     }
 
     @Override
@@ -82,4 +107,8 @@ public class WRRQPacket extends TftpPacket {
     public String getMode() {
         return mode;
     }
+
+    public Map<String, String> getOptions() {
+        return options;
+    }
 }
@@ -0,0 +1,232 @@
+package network.protocol;
+
+import utils.DataUtils;
+
+import java.io.IOException;
+
+/**
+ * the state machine of the receiver of a transfer, the download of the client.
+ * it does no I/O: the driver feeds it the DATAs and the time outs, and does the actions it asks for.
+ * so the same logic runs on the socket and in the simulated network.
+ *
+ * the window of blocks is acknowledged by one ACK. a block out of order acknowledges the last block in order once a
+ * window, the sender sends again from the next one. the block shorter than the block size is the last.
+ * the timer restarts on every packet, the driver waits one time out for each.
+ */
+public class ReceiverMachine {
+
+    /**
+     * the actions of the receiver, done by the driver.
+     */
+    public interface Actions {
+        /**
+         * send the ACK of the block.
+         * @param blockNo the absolute block number.
+         * @param retransmit the ACK is sent before.
+         */
+        void sendAck(long blockNo, boolean retransmit) throws IOException;
+
+        /**
+         * the DATA just fed is the next block in order, write its data.
+         * @param blockNo the absolute block number.
+         * @param rttSample the time since the last ACK sent is a RTT.
+         */
+        void deliver(long blockNo, boolean rttSample) throws IOException;
+
+        /**
+         * the last block is delivered, done before its ACK so the data is all written when the sender knows the end.
+         */
+        void finish(long lastBlock) throws IOException;
+
+        /**
+         * the DATA of a block already received.
+         */
+        void duplicateData(long blockNo);
+
+        /**
+         * the DATA after a missing block.
+         */
+        void outOfOrderData(long blockNo);
+
+        /**
+         * the time out acknowledges the last block in order again.
+         * @param retryCount the time outs in a row.
+         */
+        void timeout(int retryCount);
+    }
+
+    private final Actions actions;
+
+    private final int maxRetries;
+
+    private int windowSize = 1;
+
+    private int blockSize;
+
+    /**
+     * the last block received in order.
+     */
+    private long blockNum;
+
+    private int receivedInWindow;
+
+    /**
+     * the last block in order is acknowledged again for this window.
+     */
+    private boolean reacked;
+
+    /**
+     * the blocks out of order ignored since the last block in order is acknowledged again.
+     */
+    private int ignoredInWindow;
+
+    /**
+     * the last ACK sent measures the RTT until the next block in order, the ACK sent again is ambiguous.
+     */
+    private boolean timing;
+
+    private int retryCount;
+
+    private boolean finished;
+
+    private boolean failed;
+
+    /**
+     * @param actions do the actions.
+     * @param blockSize the byte count of data in a full block, until the options are acknowledged.
+     * @param maxRetries the time outs in a row before the transfer fails.
+     */
+    public ReceiverMachine(Actions actions, int blockSize, int maxRetries) {
+        this.actions = actions;
+        this.blockSize = blockSize;
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * the sender accepts the options, acknowledge them with block 0.
+     */
+    public void acceptOptions(int windowSize, int blockSize) throws IOException {
+        this.windowSize = windowSize;
+        this.blockSize = blockSize;
+        actions.sendAck(0, false);
+        timing = true;
+    }
+
+    /**
+     * the OACK arrives again, the ACK of the options is lost.
+     */
+    public void onOack() throws IOException {
+        if(isDone() || blockNum != 0){
+            return;
+        }
+        actions.duplicateData(0);
+        actions.sendAck(0, true);
+        timing = false;
+    }
+
+    /**
+     * the DATA arrives.
+     * @param wireBlockNo the block number on the wire.
+     * @param dataLength the byte count of the data.
+     */
+    public void onData(short wireBlockNo, int dataLength) throws IOException {
+        if(isDone()){
+            return;
+        }
+
+        int delta = DataUtils.blockDelta((short) blockNum, wireBlockNo);
+        if(delta != 1){
+            if(delta == 0 || delta > Short.MAX_VALUE){
+                //the sender does not get the ack. the delta past the half of the range is a block behind.
+                actions.duplicateData(delta > Short.MAX_VALUE ? blockNum + delta - 0x10000 : blockNum);
+            }else{
+                actions.outOfOrderData(blockNum + delta);
+            }
+
+            //acknowledge the last block in order once a window, the sender send again from the next one.
+            //once more after a window of them, as the ACK may be lost and the blocks keep the time out from expiring.
+            if(windowSize == 1 || !reacked || ++ignoredInWindow >= windowSize){
+                actions.sendAck(blockNum, true);
+                reacked = true;
+                ignoredInWindow = 0;
+                timing = false;
+                receivedInWindow = 0;
+            }
+            return;
+        }
+
+        ++blockNum;
+        ++receivedInWindow;
+        retryCount = 0;
+        reacked = false;
+        actions.deliver(blockNum, timing);
+        timing = false;
+
+        if(dataLength < blockSize){
+            finished = true;
+            actions.finish(blockNum);
+            actions.sendAck(blockNum, false);
+            return;
+        }
+
+        if(receivedInWindow >= windowSize){
+            actions.sendAck(blockNum, false);
+            timing = true;
+            receivedInWindow = 0;
+        }
+    }
+
+    /**
+     * no packet in the time out.
+     */
+    public void onTimeout() throws IOException {
+        if(isDone()){
+            return;
+        }
+
+        timing = false;
+        ++retryCount;
+        if(retryCount > maxRetries){
+            failed = true;
+            return;
+        }
+
+        //the ack may be lost, send it again.
+        actions.timeout(retryCount);
+        actions.sendAck(blockNum, true);
+        receivedInWindow = 0;
+    }
+
+    /**
+     * get the last block received in order.
+     */
+    public long getBlockNum() {
+        return blockNum;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * the last block is received and acknowledged.
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * the time outs in a row are more than the max retries.
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    public boolean isDone() {
+        return finished || failed;
+    }
+}
@@ -0,0 +1,46 @@
+package network.protocol;
+
+import java.io.IOException;
+
+/**
+ * the blocks being sent, seen by the sender machine.
+ * the block number here is the absolute number (start from 1, never wrap),
+ * the block number on the wire is the low 16 bits of it.
+ */
+public interface SendWindow {
+
+    /**
+     * read the blocks until the window is full or the data end.
+     */
+    void fill() throws IOException;
+
+    /**
+     * get the oldest block not acknowledged.
+     */
+    long getFirstUnacked();
+
+    /**
+     * get the last block read into the window.
+     */
+    long getLastRead();
+
+    /**
+     * get the window size.
+     */
+    int getWindowSize();
+
+    /**
+     * change the block number on the wire to the absolute number, base on the last acknowledged block.
+     */
+    long toAbsolute(short wireBlockNo);
+
+    /**
+     * acknowledge all the blocks until the block.
+     */
+    void ack(long blockNo);
+
+    /**
+     * check all the blocks are acknowledged.
+     */
+    boolean isFinished();
+}
@@ -0,0 +1,211 @@
+package network.protocol;
+
+import java.io.IOException;
+
+/**
+ * the state machine of the sender of a transfer, the upload of the client.
+ * it does no I/O: the driver feeds it the ACKs and the time outs, and does the actions it asks for.
+ * so the same logic runs on the socket and in the simulated network.
+ *
+ * the window is sent, then the ACKs are waited until the time out. the ACK of the whole window sends the next window.
+ * with fast retransmit, the ACK of part of the window or the duplicate ACKs send again from the first block lost.
+ */
+public class SenderMachine {
+
+    /**
+     * the duplicate ACKs of the window that trigger the fast retransmit.
+     */
+    public static final int FAST_RETRANSMIT_DUP_ACKS = 2;
+
+    /**
+     * the actions of the sender, done by the driver.
+     */
+    public interface Actions {
+        /**
+         * send the DATA of the block.
+         * @param blockNo the absolute block number.
+         * @param retransmit the block is sent before.
+         */
+        void sendData(long blockNo, boolean retransmit) throws IOException;
+
+        /**
+         * start the timer of the window just sent, the machine waits for the ACKs until the time out.
+         */
+        void startTimer();
+
+        /**
+         * the ACK moves the window forward.
+         * @param blockNo the absolute block number acknowledged.
+         * @param rttSample the whole window is acknowledged and none is sent again, the time since startTimer is a RTT.
+         */
+        void acked(long blockNo, boolean rttSample);
+
+        /**
+         * the ACK of a block already acknowledged or not sent, ignored.
+         */
+        void duplicateAck(long blockNo);
+
+        /**
+         * send again before the time out.
+         * @param fromBlock the first block sent again.
+         */
+        void fastRetransmit(long fromBlock);
+
+        /**
+         * the time out sends the window again.
+         * @param retryCount the time outs in a row.
+         */
+        void timeout(int retryCount);
+    }
+
+    private final SendWindow window;
+
+    private final Actions actions;
+
+    private final boolean fastRetransmit;
+
+    /**
+     * the time outs in a row before the transfer fails.
+     */
+    private final int maxRetries;
+
+    /**
+     * the last block of the window sent.
+     */
+    private long windowEnd;
+
+    /**
+     * the highest block ever sent, the block not higher is a retransmit.
+     */
+    private long highestSent;
+
+    /**
+     * a block of the window is sent again, its ACK is not a RTT sample.
+     */
+    private boolean retransmitted;
+
+    private int duplicateCount;
+
+    private int retryCount;
+
+    private boolean failed;
+
+    /**
+     * @param window the blocks to send.
+     * @param actions do the actions.
+     * @param fastRetransmit send again at once when the ACKs show a block is lost, used only for a window larger than 1.
+     * @param maxRetries the time outs in a row before the transfer fails.
+     */
+    public SenderMachine(SendWindow window, Actions actions, boolean fastRetransmit, int maxRetries) {
+        this.window = window;
+        this.actions = actions;
+        this.fastRetransmit = fastRetransmit && window.getWindowSize() > 1;
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * send the first window.
+     */
+    public void start() throws IOException {
+        window.fill();
+        sendFrom(window.getFirstUnacked());
+    }
+
+    /**
+     * the ACK arrives.
+     * @param wireBlockNo the block number on the wire.
+     */
+    public void onAck(short wireBlockNo) throws IOException {
+        if(isDone()){
+            return;
+        }
+
+        long ackedBlock = window.toAbsolute(wireBlockNo);
+        if(ackedBlock < window.getFirstUnacked() || ackedBlock > windowEnd){
+            actions.duplicateAck(ackedBlock);
+            ++duplicateCount;
+            if(fastRetransmit && duplicateCount == FAST_RETRANSMIT_DUP_ACKS){
+                actions.fastRetransmit(window.getFirstUnacked());
+                next(window.getFirstUnacked());
+            }
+            return;
+        }
+
+        retryCount = 0;
+        window.ack(ackedBlock);
+        actions.acked(ackedBlock, !retransmitted && ackedBlock == windowEnd);
+        if(ackedBlock == windowEnd){
+            next(windowEnd + 1);
+            return;
+        }
+
+        //the receiver acknowledge part of the window.
+        duplicateCount = 0;
+        if(fastRetransmit){
+            actions.fastRetransmit(ackedBlock + 1);
+            next(ackedBlock + 1);
+        }
+    }
+
+    /**
+     * the timer of the window expires without the ACK of the whole window.
+     */
+    public void onTimeout() throws IOException {
+        if(isDone()){
+            return;
+        }
+
+        ++retryCount;
+        if(retryCount > maxRetries){
+            failed = true;
+            return;
+        }
+
+        actions.timeout(retryCount);
+        next(window.getFirstUnacked());
+    }
+
+    /**
+     * all the blocks are acknowledged.
+     */
+    public boolean isFinished() {
+        return window.isFinished();
+    }
+
+    /**
+     * the time outs in a row are more than the max retries.
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    public boolean isDone() {
+        return failed || window.isFinished();
+    }
+
+    /**
+     * read more blocks into the window, then send from the block.
+     */
+    private void next(long fromBlock) throws IOException {
+        window.fill();
+        if(!window.isFinished()){
+            sendFrom(fromBlock);
+        }
+    }
+
+    private void sendFrom(long fromBlock) throws IOException {
+        windowEnd = window.getLastRead();
+        retransmitted = false;
+        duplicateCount = 0;
+        for (long blockNo = fromBlock; blockNo <= windowEnd; ++blockNo) {
+            boolean retransmit = blockNo <= highestSent;
+            if(retransmit){
+                retransmitted = true;
+            }else{
+                highestSent = blockNo;
+            }
+            actions.sendData(blockNo, retransmit);
+        }
+        actions.startTimer();
+    }
+}
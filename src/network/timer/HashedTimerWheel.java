@@ -0,0 +1,320 @@
+package network.timer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * the hashed timer wheel, schedule and cancel are O(1).
+ * the timers are hashed into the buckets by the deadline tick, one thread moves the wheel a bucket
+ * per tick and runs the expired tasks, so the task must be short and must not block.
+ * the timer expires at or after its deadline, late by at most one tick.
+ */
+public class HashedTimerWheel {
+
+    /**
+     * the duration of one tick, in nanosecond.
+     */
+    private final long tickNanos;
+
+    /**
+     * the buckets, the size is power of 2.
+     */
+    private final Timeout[] buckets;
+
+    private final int mask;
+
+    /**
+     * guard the buckets.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * signal the worker when the first timer is scheduled or stop.
+     */
+    private final Condition wakeup = lock.newCondition();
+
+    /**
+     * the time of tick 0.
+     */
+    private final long startTime;
+
+    private final Thread worker;
+
+    /**
+     * all the timers with the deadline not after this tick are expired.
+     */
+    private long processedTick;
+
+    /**
+     * the count of pending timers.
+     */
+    private int pendingCount;
+
+    private volatile boolean running = true;
+
+    /**
+     * @param tickDuration the duration of one tick.
+     * @param unit the unit of tickDuration.
+     * @param wheelSize the count of buckets, round up to power of 2.
+     * @param threadFactory create the worker thread.
+     */
+    public HashedTimerWheel(long tickDuration, TimeUnit unit, int wheelSize, ThreadFactory threadFactory) {
+        if(tickDuration <= 0 || wheelSize <= 0){
+            throw new IllegalArgumentException("tickDuration and wheelSize must be positive");
+        }
+
+        this.tickNanos = unit.toNanos(tickDuration);
+        int size = Integer.highestOneBit(wheelSize);
+        if(size < wheelSize){
+            size <<= 1;
+        }
+        this.buckets = new Timeout[size];
+        this.mask = size - 1;
+        this.startTime = System.nanoTime();
+        this.worker = threadFactory.newThread(this::run);
+        worker.start();
+    }
+
+    /**
+     * create the wheel with 1 millisecond tick and a daemon worker.
+     * @param name the name of the worker thread.
+     */
+    public HashedTimerWheel(String name) {
+        this(1, TimeUnit.MILLISECONDS, 1024, r -> {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * schedule the task.
+     *
+     * @param task run by the worker when expired.
+     * @param delay the delay from now.
+     * @param unit the unit of delay.
+     * @return the handle to cancel.
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(Math.max(0, delay)) - startTime;
+        Timeout timeout = new Timeout(this, task);
+        lock.lock();
+        try{
+            if(!running){
+                throw new IllegalStateException("Timer wheel stopped");
+            }
+
+            if(pendingCount == 0){
+                //the worker is idle and the wheel is empty, skip the idle ticks.
+                processedTick = Math.max(processedTick, (System.nanoTime() - startTime) / tickNanos - 1);
+                wakeup.signal();
+            }
+
+            long tick = (deadline + tickNanos - 1) / tickNanos;
+            timeout.deadlineTick = Math.max(tick, processedTick + 1);
+            addToBucket(timeout);
+            ++pendingCount;
+        }finally {
+            lock.unlock();
+        }
+        return timeout;
+    }
+
+    /**
+     * get the count of pending timers.
+     */
+    public int getPendingCount() {
+        lock.lock();
+        try{
+            return pendingCount;
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * stop the worker, the pending timers never expire.
+     */
+    public void stop() {
+        lock.lock();
+        try{
+            running = false;
+            wakeup.signal();
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * cancel the timer.
+     * @return false if already expired or cancelled.
+     */
+    private boolean cancel(Timeout timeout) {
+        lock.lock();
+        try{
+            if(timeout.state != Timeout.PENDING){
+                return false;
+            }
+
+            timeout.state = Timeout.CANCELLED;
+            removeFromBucket(timeout);
+            --pendingCount;
+            return true;
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    private void addToBucket(Timeout timeout) {
+        int index = (int) (timeout.deadlineTick & mask);
+        Timeout head = buckets[index];
+        timeout.next = head;
+        if(head != null){
+            head.prev = timeout;
+        }
+        buckets[index] = timeout;
+    }
+
+    private void removeFromBucket(Timeout timeout) {
+        if(timeout.prev != null){
+            timeout.prev.next = timeout.next;
+        }else{
+            buckets[(int) (timeout.deadlineTick & mask)] = timeout.next;
+        }
+
+        if(timeout.next != null){
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+    }
+
+    /**
+     * the worker loop, move a bucket per tick.
+     */
+    private void run() {
+        List<Timeout> expired = new ArrayList<>();
+        while(running){
+            lock.lock();
+            try{
+                if(!waitForNextTick()){
+                    continue;
+                }
+
+                long tick = processedTick + 1;
+                Timeout timeout = buckets[(int) (tick & mask)];
+                while(timeout != null){
+                    Timeout next = timeout.next;
+                    //the timer of the later rounds stays in the bucket.
+                    if(timeout.deadlineTick <= tick){
+                        removeFromBucket(timeout);
+                        timeout.state = Timeout.EXPIRED;
+                        --pendingCount;
+                        expired.add(timeout);
+                    }
+                    timeout = next;
+                }
+                processedTick = tick;
+            }finally {
+                lock.unlock();
+            }
+
+            for (Timeout timeout : expired) {
+                try{
+                    timeout.task.run();
+                }catch (Throwable e){
+                    e.printStackTrace();
+                }
+            }
+            expired.clear();
+        }
+    }
+
+    /**
+     * wait until the next tick, must hold the lock.
+     * @return false if woken before the next tick.
+     */
+    private boolean waitForNextTick() {
+        try{
+            if(pendingCount == 0){
+                wakeup.await();
+                return false;
+            }
+
+            long waitNanos = startTime + (processedTick + 1) * tickNanos - System.nanoTime();
+            if(waitNanos > 0){
+                wakeup.awaitNanos(waitNanos);
+                return false;
+            }
+            return running;
+        }catch (InterruptedException e){
+            running = false;
+            return false;
+        }
+    }
+
+    /**
+     * the handle of a scheduled task.
+     */
+    public static class Timeout {
+
+        private static final int PENDING = 0;
+
+        private static final int CANCELLED = 1;
+
+        private static final int EXPIRED = 2;
+
+        private final HashedTimerWheel wheel;
+
+        private final Runnable task;
+
+        /**
+         * the tick of the deadline.
+         */
+        private long deadlineTick;
+
+        /**
+         * guarded by the lock of wheel.
+         */
+        private int state = PENDING;
+
+        private Timeout prev;
+
+        private Timeout next;
+
+        private Timeout(HashedTimerWheel wheel, Runnable task) {
+            this.wheel = wheel;
+            this.task = task;
+        }
+
+        /**
+         * cancel the task.
+         * @return false if already expired or cancelled.
+         */
+        public boolean cancel() {
+            return wheel.cancel(this);
+        }
+
+        public boolean isExpired() {
+            wheel.lock.lock();
+            try{
+                return state == EXPIRED;
+            }finally {
+                wheel.lock.unlock();
+            }
+        }
+
+        public boolean isCancelled() {
+            wheel.lock.lock();
+            try{
+                return state == CANCELLED;
+            }finally {
+                wheel.lock.unlock();
+            }
+        }
+    }
+}
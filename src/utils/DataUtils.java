@@ -2,6 +2,7 @@ package utils;
 
 /**
  * the utils for data change.
+ * the tftp fields are in network byte order (big endian).
  */
 public class DataUtils {
     /**
@@ -11,8 +12,8 @@ public class DataUtils {
      */
     public static byte[] shortToBytes(short num) {
         byte b[] = new byte[2];
-        b[0] = (byte) num;
-        b[1] = (byte) (num >>> 8) ;
+        b[0] = (byte) (num >>> 8);
+        b[1] = (byte) num;
         return b;
     }
 
@@ -24,8 +25,8 @@ public class DataUtils {
      * @param start
      */
     public static void shortToBytes(byte[] bytes, short num, int start) {
-        bytes[start] = (byte) num;
-        bytes[start + 1] = (byte) (num >>> 8) ;
+        bytes[start] = (byte) (num >>> 8);
+        bytes[start + 1] = (byte) num;
     }
 
     /**
@@ -34,7 +35,7 @@ public class DataUtils {
      * @return
      */
     public static short bytesToShort(byte[] bytes) {
-        return (short) (bytes[0]& 0xff | (bytes[1] << 8));
+        return (short) ((bytes[0] << 8) | bytes[1] & 0xff);
     }
 
     /**
@@ -44,6 +45,16 @@ public class DataUtils {
      * @return
      */
     public static short bytesToShort(byte[] bytes, int start) {
-        return (short) (bytes[start]& 0xff | (bytes[start + 1] << 8));
+        return (short) ((bytes[start] << 8) | bytes[start + 1] & 0xff);
+    }
+
+    /**
+     * the distance from the block number to another, the block number wraps at 65535.
+     * @param from
+     * @param to
+     * @return 0 ~ 65535
+     */
+    public static int blockDelta(short from, short to) {
+        return (to - from) & 0xffff;
     }
 }